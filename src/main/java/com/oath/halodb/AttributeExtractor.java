@@ -0,0 +1,20 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+/**
+ * Extracts the attribute a secondary index is keyed by from a value, see
+ * {@link HaloDBOptions#addSecondaryIndex(String, AttributeExtractor)}. Called on the write path
+ * and must not block.
+ */
+@FunctionalInterface
+public interface AttributeExtractor {
+
+    /**
+     * @return the attribute of the value, or null if the record shouldn't be in the index.
+     */
+    byte[] extract(byte[] value);
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.Ints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.regex.Matcher;
+
+/**
+ * Append-only file for values larger than {@link HaloDBOptions#getBlobThreshold()}.
+ *
+ * Values are stored in the same format as records in data files, the record in
+ * the data file holds a {@link BlobPointer} to the record in the blob file.
+ * The sequence number of a record in a blob file is the same as that of the record
+ * which points to it, which is used to find out if a blob is still live.
+ */
+class BlobFile {
+    private static final Logger logger = LoggerFactory.getLogger(BlobFile.class);
+
+    static final String BLOB_FILE_NAME = ".blob";
+
+    private final int fileId;
+    private final File backingFile;
+    private final HaloDBOptions options;
+    private final FileChannel channel;
+    private volatile int writeOffset;
+    private long unFlushedData = 0;
+
+    private BlobFile(int fileId, File backingFile, FileChannel channel, HaloDBOptions options) throws IOException {
+        this.fileId = fileId;
+        this.backingFile = backingFile;
+        this.channel = channel;
+        this.options = options;
+        this.writeOffset = Ints.checkedCast(channel.size());
+    }
+
+    static BlobFile create(DBDirectory dbDirectory, int fileId, HaloDBOptions options) throws IOException {
+        File file = getBlobFile(dbDirectory, fileId);
+        while (!file.createNewFile()) {
+            // file already exists try another one.
+            fileId++;
+            file = getBlobFile(dbDirectory, fileId);
+        }
+
+        return new BlobFile(fileId, file, new RandomAccessFile(file, "rw").getChannel(), options);
+    }
+
+    static BlobFile openForReading(File file, HaloDBOptions options) throws IOException {
+        return new BlobFile(getFileId(file), file, new RandomAccessFile(file, "r").getChannel(), options);
+    }
+
+    private static File getBlobFile(DBDirectory dbDirectory, int fileId) {
+        return dbDirectory.getPath().resolve(fileId + BLOB_FILE_NAME).toFile();
+    }
+
+    private static int getFileId(File file) {
+        Matcher matcher = Constants.BLOB_FILE_PATTERN.matcher(file.getName());
+        matcher.find();
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    BlobPointer write(Record record) throws IOException {
+        ByteBuffer[] buffers = record.serialize();
+        long toWrite = 0;
+        for (ByteBuffer buffer : buffers) {
+            toWrite += buffer.remaining();
+        }
+
+        long written = 0;
+        while (written < toWrite) {
+            written += channel.write(buffers);
+        }
+
+        int recordOffset = writeOffset;
+        writeOffset += record.getRecordSize();
+
+        unFlushedData += written;
+        if (options.isSyncWrite() || (options.getFlushDataSizeBytes() != -1 && unFlushedData > options.getFlushDataSizeBytes())) {
+            flushToDisk();
+            unFlushedData = 0;
+        }
+        return new BlobPointer(fileId, recordOffset, record.getRecordSize());
+    }
+
+    Record read(BlobPointer pointer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(pointer.getRecordSize());
+        readFromFile(pointer.getRecordOffset(), buffer);
+        Record record = deserialize(buffer);
+        if (record == null || record.getRecordSize() != pointer.getRecordSize() || !record.verifyChecksum()) {
+            throw new IOException("Corrupted blob at " + pointer.getRecordOffset() + " in file " + getName());
+        }
+        return record;
+    }
+
+    // returns null if the header is corrupted.
+    private static Record deserialize(ByteBuffer buffer) {
+        if (buffer.position() < Record.Header.HEADER_SIZE) {
+            return null;
+        }
+        Record.Header header = Record.Header.deserialize(buffer);
+        if (!Record.Header.verifyHeader(header) || header.getRecordSize() > buffer.position()) {
+            return null;
+        }
+
+        ByteBuffer keyAndValue = ByteBuffer.wrap(buffer.array(), Record.Header.HEADER_SIZE, header.getKeySize() + header.getValueSize()).slice();
+        keyAndValue.position(keyAndValue.limit());
+        Record record = Record.deserialize(keyAndValue, header.getKeySize(), header.getValueSize());
+        record.setHeader(header);
+        return record;
+    }
+
+    private void readFromFile(long position, ByteBuffer destination) throws IOException {
+        long currentPosition = position;
+        int bytesRead;
+        do {
+            bytesRead = channel.read(destination, currentPosition);
+            currentPosition += bytesRead;
+        } while (bytesRead != -1 && destination.hasRemaining());
+    }
+
+    /**
+     * Truncates the file after the last record whose computed checksum matches the stored one.
+     * This method is called if we detect an unclean shutdown.
+     */
+    static void repairFile(File file, HaloDBOptions options) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+            BlobFile blobFile = new BlobFile(getFileId(file), file, channel, options);
+            long size = channel.size();
+            int offset = 0, count = 0;
+            ByteBuffer headerBuffer = ByteBuffer.allocate(Record.Header.HEADER_SIZE);
+            while (offset + Record.Header.HEADER_SIZE <= size) {
+                headerBuffer.clear();
+                blobFile.readFromFile(offset, headerBuffer);
+                Record.Header header = Record.Header.deserialize(headerBuffer);
+                if (!Record.Header.verifyHeader(header) || offset + header.getRecordSize() > size
+                        || !isRecordValid(blobFile, offset, header.getRecordSize())) {
+                    break;
+                }
+                offset += header.getRecordSize();
+                count++;
+            }
+
+            if (offset < size) {
+                logger.info("Found a corrupted blob in file {} after {} blobs. Truncating from {} to {}.", file.getName(), count, size, offset);
+                channel.truncate(offset);
+                channel.force(true);
+            }
+        }
+    }
+
+    private static boolean isRecordValid(BlobFile blobFile, int offset, int recordSize) {
+        try {
+            blobFile.read(new BlobPointer(blobFile.fileId, offset, recordSize));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void flushToDisk() throws IOException {
+        if (channel.isOpen())
+            channel.force(true);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        backingFile.delete();
+    }
+
+    int getFileId() {
+        return fileId;
+    }
+
+    int getSize() {
+        return writeOffset;
+    }
+
+    String getName() {
+        return backingFile.getName();
+    }
+
+    /**
+     * Iterates over the key, sequence number and location of each blob without reading the values.
+     */
+    BlobFileIterator newIterator() {
+        return new BlobFileIterator();
+    }
+
+    class BlobFileIterator implements Iterator<IndexFileEntry> {
+        private final int endOffset = writeOffset;
+        private final ByteBuffer headerBuffer = ByteBuffer.allocate(Record.Header.HEADER_SIZE);
+        private int currentOffset = 0;
+
+        @Override
+        public boolean hasNext() {
+            return currentOffset + Record.Header.HEADER_SIZE <= endOffset;
+        }
+
+        @Override
+        public IndexFileEntry next() {
+            try {
+                headerBuffer.clear();
+                readFromFile(currentOffset, headerBuffer);
+                Record.Header header = Record.Header.deserialize(headerBuffer);
+                byte[] key = new byte[header.getKeySize()];
+                readFromFile(currentOffset + Record.Header.HEADER_SIZE, ByteBuffer.wrap(key));
+
+                IndexFileEntry entry = new IndexFileEntry(key, header.getRecordSize(), currentOffset,
+                        header.getSequenceNumber(), header.getVersion(), header.getCheckSum());
+                currentOffset += header.getRecordSize();
+                return entry;
+            } catch (IOException e) {
+                throw new RuntimeException("Error while reading blob file " + getName(), e);
+            }
+        }
+    }
+}
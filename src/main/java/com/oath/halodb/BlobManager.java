@@ -0,0 +1,275 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Manages blob files and the garbage collector which reclaims them.
+ *
+ * Data file compaction copies only the pointers to the blobs. Blob files are
+ * garbage collected separately: a blob is live if the record for its key in the
+ * in-memory index points to a blob with the same sequence number. Once the
+ * stale data in a blob file crosses compactionThresholdPerFile its live blobs
+ * are written again, along with new pointers, and the file is deleted.
+ *
+ * Stale data per blob file is counted when a pointer is superseded or deleted. Only
+ * the first pass after the db is opened reads all the blob files to count it.
+ */
+class BlobManager {
+    private static final Logger logger = LoggerFactory.getLogger(BlobManager.class);
+    private static final int STOP_SIGNAL = -10101;
+    private static final int COLLECT_SIGNAL = 0;
+
+    private final HaloDBInternal dbInternal;
+    private final Map<Integer, BlobFile> blobFiles = new ConcurrentHashMap<>();
+    private final BlockingQueue<Integer> signalQueue = new LinkedBlockingQueue<>();
+    private final RateLimiter rateLimiter;
+    private volatile BlobFile currentWriteFile;
+    // not the monitor of this object, which the garbage collector holds while it takes the write lock.
+    private final Object currentWriteFileLock = new Object();
+    private volatile GarbageCollectorThread garbageCollectorThread;
+    private volatile boolean isRunning = false;
+    private final Map<Integer, Long> staleDataPerFileMap = new ConcurrentHashMap<>();
+    private volatile boolean isStaleDataCounted = false;
+
+    private volatile long numberOfBlobsRelocated = 0;
+    private volatile long sizeOfBlobFilesDeleted = 0;
+
+    BlobManager(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+        this.rateLimiter = RateLimiter.create(dbInternal.options.getCompactionJobRate());
+    }
+
+    void open() throws IOException {
+        for (File file : dbInternal.getDbDirectory().listBlobFiles()) {
+            BlobFile blobFile = BlobFile.openForReading(file, dbInternal.options);
+            blobFiles.put(blobFile.getFileId(), blobFile);
+        }
+    }
+
+    /**
+     * Called by the write threads, which might be writing to different write lanes.
+     */
+    BlobPointer write(Record record) throws IOException {
+        synchronized (currentWriteFileLock) {
+            if (currentWriteFile == null || currentWriteFile.getSize() + record.getRecordSize() > dbInternal.options.getMaxFileSize()) {
+                if (currentWriteFile != null) {
+                    currentWriteFile.flushToDisk();
+                    // current write file is now eligible for garbage collection.
+                    signalQueue.offer(COLLECT_SIGNAL);
+                }
+                currentWriteFile = BlobFile.create(dbInternal.getDbDirectory(), dbInternal.getNextFileId(), dbInternal.options);
+                blobFiles.put(currentWriteFile.getFileId(), currentWriteFile);
+                dbInternal.getDbDirectory().syncMetaData();
+            }
+            return currentWriteFile.write(record);
+        }
+    }
+
+    /**
+     * Returns the value the pointer refers to, or null if the blob file was deleted
+     * by the garbage collector, in which case the pointer is stale.
+     */
+    byte[] read(byte[] serializedPointer) throws IOException {
+        BlobPointer pointer = BlobPointer.deserialize(serializedPointer);
+        BlobFile file = blobFiles.get(pointer.getFileId());
+        if (file == null) {
+            return null;
+        }
+
+        return readValue(file, pointer);
+    }
+
+    /**
+     * Called when the record with the pointer was replaced by a newer version or deleted.
+     */
+    void blobSuperseded(byte[] serializedPointer) {
+        BlobPointer pointer = BlobPointer.deserialize(serializedPointer);
+        BlobFile file = blobFiles.get(pointer.getFileId());
+        if (file == null) {
+            return;
+        }
+        long staleSize = staleDataPerFileMap.merge(file.getFileId(), (long) pointer.getRecordSize(), Long::sum);
+        if (file != currentWriteFile && isThresholdCrossed(file, staleSize)) {
+            signalQueue.offer(COLLECT_SIGNAL);
+        }
+    }
+
+    BlobFile getBlobFile(int fileId) {
+        return blobFiles.get(fileId);
+    }
+
+    static byte[] readValue(BlobFile file, BlobPointer pointer) throws IOException {
+        Record record = file.read(pointer);
+        return record.getHeader().isCompressed() ? ValueCompressor.decompress(record.getValue()) : record.getValue();
+    }
+
+    void flushCurrentWriteFile() throws IOException {
+        synchronized (currentWriteFileLock) {
+            if (currentWriteFile != null) {
+                currentWriteFile.flushToDisk();
+            }
+        }
+    }
+
+    void close() throws IOException {
+        flushCurrentWriteFile();
+        for (BlobFile file : blobFiles.values()) {
+            file.close();
+        }
+    }
+
+    void startGarbageCollector() {
+        if (garbageCollectorThread == null || !garbageCollectorThread.isAlive()) {
+            isRunning = true;
+            garbageCollectorThread = new GarbageCollectorThread();
+            garbageCollectorThread.start();
+            // files left behind by the previous run might already have crossed the threshold.
+            signalQueue.offer(COLLECT_SIGNAL);
+        }
+    }
+
+    void stopGarbageCollector() {
+        isRunning = false;
+        if (garbageCollectorThread != null && garbageCollectorThread.isAlive()) {
+            try {
+                signalQueue.put(STOP_SIGNAL);
+                garbageCollectorThread.join();
+            } catch (InterruptedException e) {
+                logger.error("Error while waiting for blob garbage collector to stop", e);
+            }
+        }
+    }
+
+    // collects the blob files, except the one currently written to, whose stale data crossed the threshold.
+    @VisibleForTesting
+    synchronized void collectGarbage() throws IOException, HaloDBException {
+        // stale data in files left behind by the previous run isn't known until they are read.
+        boolean readAll = !isStaleDataCounted;
+        List<BlobFile> files = new ArrayList<>(blobFiles.values());
+        for (BlobFile file : files) {
+            if (file != currentWriteFile
+                    && (readAll || isThresholdCrossed(file, staleDataPerFileMap.getOrDefault(file.getFileId(), 0L)))) {
+                collectGarbage(file);
+            }
+        }
+        isStaleDataCounted = true;
+    }
+
+    private boolean isThresholdCrossed(BlobFile file, long staleSize) {
+        return staleSize >= file.getSize() * dbInternal.options.getCompactionThresholdPerFile();
+    }
+
+    private void collectGarbage(BlobFile file) throws IOException, HaloDBException {
+        List<IndexFileEntry> liveBlobs = new ArrayList<>();
+        long liveSize = 0;
+        BlobFile.BlobFileIterator iterator = file.newIterator();
+        while (iterator.hasNext()) {
+            IndexFileEntry entry = iterator.next();
+            if (dbInternal.isBlobLive(entry.getKey(), entry.getSequenceNumber())) {
+                liveBlobs.add(entry);
+                liveSize += entry.getRecordSize();
+            }
+        }
+
+        long staleSize = file.getSize() - liveSize;
+        if (!liveBlobs.isEmpty() && !isThresholdCrossed(file, staleSize)) {
+            // the count might have been off, e.g. for pointers superseded while the file was read.
+            staleDataPerFileMap.put(file.getFileId(), staleSize);
+            return;
+        }
+
+        logger.debug("Blob file {} has {} live blobs of size {}, relocating them.", file.getName(), liveBlobs.size(), liveSize);
+        for (IndexFileEntry entry : liveBlobs) {
+            if (!isRunning) {
+                // db is closing, the file will be collected after it is opened again.
+                return;
+            }
+            rateLimiter.acquire(entry.getRecordSize());
+            Record record = file.read(new BlobPointer(file.getFileId(), entry.getRecordOffset(), entry.getRecordSize()));
+            if (dbInternal.relocateBlob(record)) {
+                numberOfBlobsRelocated++;
+            }
+        }
+        if (!liveBlobs.isEmpty()) {
+            // new pointers must be on disk before the blobs they replace are deleted.
+            dbInternal.flushRelocatedBlobs();
+        }
+
+        // a file pinned by a snapshot is deleted once the last snapshot is released.
+        boolean pinned = dbInternal.getSnapshotManager().pinBlobFile(file);
+        blobFiles.remove(file.getFileId());
+        staleDataPerFileMap.remove(file.getFileId());
+        sizeOfBlobFilesDeleted += file.getSize();
+        if (!pinned) {
+            file.delete();
+            dbInternal.getDbDirectory().syncMetaData();
+        }
+    }
+
+    long getNumberOfBlobsRelocated() {
+        return numberOfBlobsRelocated;
+    }
+
+    long getSizeOfBlobFilesDeleted() {
+        return sizeOfBlobFilesDeleted;
+    }
+
+    int getNumberOfBlobFiles() {
+        return blobFiles.size();
+    }
+
+    BlobFile getCurrentWriteFile() {
+        return currentWriteFile;
+    }
+
+    boolean isGarbageCollectorRunning() {
+        return garbageCollectorThread != null && garbageCollectorThread.isAlive();
+    }
+
+    void resetStats() {
+        numberOfBlobsRelocated = sizeOfBlobFilesDeleted = 0;
+    }
+
+    private class GarbageCollectorThread extends Thread {
+
+        GarbageCollectorThread() {
+            super("BlobGarbageCollectorThread");
+        }
+
+        @Override
+        public void run() {
+            logger.info("Starting blob garbage collector ...");
+            while (isRunning) {
+                try {
+                    int signal = signalQueue.take();
+                    if (signal == STOP_SIGNAL) {
+                        continue;
+                    }
+                    // a single pass collects all sealed files.
+                    signalQueue.clear();
+                    collectGarbage();
+                } catch (Exception e) {
+                    logger.error("Error in blob garbage collector", e);
+                }
+            }
+            logger.info("Blob garbage collector stopped.");
+        }
+    }
+}
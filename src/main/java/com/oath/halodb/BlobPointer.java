@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stored as the value of a record in a data file when the actual value is in a blob file.
+ */
+class BlobPointer {
+
+    /**
+     * blob file id     - 4 bytes.
+     * record offset    - 4 bytes.
+     * record size      - 4 bytes.
+     */
+    static final int SERIALIZED_SIZE = 4 + 4 + 4;
+
+    private final int fileId;
+    private final int recordOffset;
+    private final int recordSize;
+
+    BlobPointer(int fileId, int recordOffset, int recordSize) {
+        this.fileId = fileId;
+        this.recordOffset = recordOffset;
+        this.recordSize = recordSize;
+    }
+
+    byte[] serialize() {
+        ByteBuffer buffer = ByteBuffer.allocate(SERIALIZED_SIZE);
+        buffer.putInt(fileId);
+        buffer.putInt(recordOffset);
+        buffer.putInt(recordSize);
+        return buffer.array();
+    }
+
+    static BlobPointer deserialize(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new BlobPointer(buffer.getInt(), buffer.getInt(), buffer.getInt());
+    }
+
+    int getFileId() {
+        return fileId;
+    }
+
+    int getRecordOffset() {
+        return recordOffset;
+    }
+
+    int getRecordSize() {
+        return recordSize;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * Writes records to data and index files in a staging directory, off the write path of the
+ * db, and then ingests them all at once. Each thread writes to its own files, with sequence
+ * numbers from blocks of a range reserved for the bulk load.
+ *
+ * Once the commit marker is written the staged files are moved into the db directory, and
+ * if the db crashes before all of them were moved the rest are moved when it is opened again.
+ * A staging directory without the marker is deleted on open.
+ */
+class BulkLoad {
+    private static final Logger logger = LoggerFactory.getLogger(BulkLoad.class);
+
+    static final String STAGING_DIRECTORY_NAME = "bulkload";
+    static final String COMMIT_MARKER_FILE_NAME = "COMMITTED";
+
+    // the range of the bulk load starts this far ahead of the sequence numbers of the db,
+    // which keeps accepting writes while the files are staged.
+    static final long SEQUENCE_NUMBER_GAP = 1L << 40;
+    private static final int SEQUENCE_NUMBER_BLOCK_SIZE = 1024;
+
+    private final HaloDBInternal dbInternal;
+    private final DBDirectory stagingDirectory;
+    private final long firstSequenceNumber;
+    private final AtomicLong nextSequenceNumberBlock;
+    private final List<Writer> writers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Writer> writer = ThreadLocal.withInitial(this::newWriter);
+    private volatile boolean isDone = false;
+
+    private BulkLoad(HaloDBInternal dbInternal, DBDirectory stagingDirectory, long firstSequenceNumber) {
+        this.dbInternal = dbInternal;
+        this.stagingDirectory = stagingDirectory;
+        this.firstSequenceNumber = firstSequenceNumber;
+        this.nextSequenceNumberBlock = new AtomicLong(firstSequenceNumber);
+    }
+
+    static BulkLoad create(HaloDBInternal dbInternal) throws HaloDBException, IOException {
+        Path staging = getStagingDirectory(dbInternal.getDbDirectory());
+        try {
+            Files.createDirectory(staging);
+        } catch (FileAlreadyExistsException e) {
+            throw new HaloDBException("A bulk load is already in progress for " + dbInternal.getDbDirectory().getPath());
+        }
+        DBDirectory stagingDirectory = DBDirectory.open(staging.toFile());
+        return new BulkLoad(dbInternal, stagingDirectory, dbInternal.getLatestSequenceNumber() + SEQUENCE_NUMBER_GAP);
+    }
+
+    /**
+     * Called while the db is opened, before the data files are read.
+     */
+    static void recover(DBDirectory dbDirectory) throws IOException {
+        Path staging = getStagingDirectory(dbDirectory);
+        if (!Files.isDirectory(staging)) {
+            return;
+        }
+        if (Files.exists(staging.resolve(COMMIT_MARKER_FILE_NAME))) {
+            logger.info("Found a committed bulk load, moving the rest of its files to the db directory");
+            moveStagedFiles(staging, dbDirectory);
+        } else {
+            logger.info("Found a bulk load which wasn't committed, deleting it");
+        }
+        deleteStagingDirectory(staging);
+    }
+
+    void put(byte[] key, byte[] value) throws IOException, HaloDBException {
+        if (key.length > Byte.MAX_VALUE) {
+            throw new HaloDBException("key length cannot exceed " + Byte.MAX_VALUE);
+        }
+        if (isDone) {
+            throw new HaloDBException("Bulk load was already committed or aborted");
+        }
+        writer.get().write(key, value);
+    }
+
+    /**
+     * Must be called once all puts returned.
+     *
+     * @return the number of records loaded.
+     */
+    long commit() throws IOException, HaloDBException {
+        isDone = true;
+        List<Integer> fileIds = seal();
+        long count = writers.stream().mapToLong(w -> w.count).sum();
+        if (dbInternal.getLatestSequenceNumber() >= firstSequenceNumber) {
+            // would be older than writes to the db made while the files were staged.
+            abort();
+            throw new HaloDBException("Ran out of sequence numbers reserved for the bulk load");
+        }
+
+        Path staging = stagingDirectory.getPath();
+        Files.createFile(staging.resolve(COMMIT_MARKER_FILE_NAME));
+        stagingDirectory.syncMetaData();
+        stagingDirectory.close();
+        moveStagedFiles(staging, dbInternal.getDbDirectory());
+        deleteStagingDirectory(staging);
+
+        long start = System.currentTimeMillis();
+        dbInternal.ingestBulkLoad(fileIds, nextSequenceNumberBlock.get() - 1);
+        logger.info("Ingested {} records in {} files in {} ms", count, fileIds.size(), System.currentTimeMillis() - start);
+        return count;
+    }
+
+    void abort() throws IOException {
+        isDone = true;
+        for (Writer w : writers) {
+            if (w.currentFile != null) {
+                w.currentFile.close();
+            }
+        }
+        stagingDirectory.close();
+        deleteStagingDirectory(stagingDirectory.getPath());
+    }
+
+    // flushes and closes all staged files.
+    @VisibleForTesting
+    List<Integer> seal() throws IOException {
+        List<Integer> fileIds = new ArrayList<>();
+        for (Writer w : writers) {
+            w.seal();
+            fileIds.addAll(w.fileIds);
+        }
+        Collections.sort(fileIds);
+        return fileIds;
+    }
+
+    Path getStagingPath() {
+        return stagingDirectory.getPath();
+    }
+
+    private Writer newWriter() {
+        Writer w = new Writer();
+        writers.add(w);
+        return w;
+    }
+
+    private static Path getStagingDirectory(DBDirectory dbDirectory) {
+        return dbDirectory.getPath().resolve(STAGING_DIRECTORY_NAME);
+    }
+
+    private static void moveStagedFiles(Path staging, DBDirectory dbDirectory) throws IOException {
+        for (int fileId : FileUtils.listIndexFiles(staging.toFile())) {
+            for (String name : new String[] {fileId + HaloDBFile.DATA_FILE_NAME, fileId + IndexFile.INDEX_FILE_NAME}) {
+                Path source = staging.resolve(name);
+                if (Files.exists(source)) {
+                    Files.move(source, dbDirectory.getPath().resolve(name), ATOMIC_MOVE);
+                }
+            }
+        }
+        dbDirectory.syncMetaData();
+    }
+
+    private static void deleteStagingDirectory(Path staging) throws IOException {
+        File[] files = staging.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.deleteIfExists(staging);
+    }
+
+    /**
+     * Files written by a single thread.
+     */
+    private class Writer {
+        private final List<Integer> fileIds = new ArrayList<>();
+        private HaloDBFile currentFile;
+        private long nextSequenceNumber = 0;
+        private long lastSequenceNumber = -1;
+        private long count = 0;
+
+        void write(byte[] key, byte[] value) throws IOException {
+            if (nextSequenceNumber > lastSequenceNumber) {
+                nextSequenceNumber = nextSequenceNumberBlock.getAndAdd(SEQUENCE_NUMBER_BLOCK_SIZE);
+                lastSequenceNumber = nextSequenceNumber + SEQUENCE_NUMBER_BLOCK_SIZE - 1;
+            }
+            HaloDBOptions options = dbInternal.options;
+            byte[] storedValue = value;
+            int flags = 0;
+            if (options.isCompressionEnabled() && value.length >= options.getCompressionThreshold()) {
+                byte[] compressed = ValueCompressor.compress(value);
+                if (compressed != null) {
+                    storedValue = compressed;
+                    flags = Record.Header.COMPRESSED_FLAG;
+                }
+            }
+            Record record = new Record(key, storedValue);
+            record.setVersion(Versions.CURRENT_DATA_FILE_VERSION | flags);
+            record.setSequenceNumber(nextSequenceNumber++);
+
+            if (currentFile == null || currentFile.getWriteOffset() + record.getRecordSize() > options.getMaxFileSize()) {
+                seal();
+                currentFile = HaloDBFile.create(stagingDirectory, dbInternal.getNextFileId(), options, HaloDBFile.FileType.DATA_FILE);
+                fileIds.add(currentFile.getFileId());
+            }
+            currentFile.writeRecord(record);
+            count++;
+        }
+
+        void seal() throws IOException {
+            if (currentFile != null) {
+                currentFile.flushToDisk();
+                currentFile.getIndexFile().flushToDisk();
+                currentFile.close();
+                currentFile = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Files of a db checkpoint. Sealed files are never written to again, and are hard linked
+ * into the checkpoint directory, which takes no space and is done while writes wait. Files
+ * still being written to can't be linked, as the checkpoint would then see later writes and
+ * repairs, hence their size is captured instead and they are copied up to that size once
+ * writes resume. So are sealed files which can't be linked, e.g. because the checkpoint is
+ * on a different file system, as copying them while writes wait would stall the db.
+ */
+class Checkpoint {
+    private static final Logger logger = LoggerFactory.getLogger(Checkpoint.class);
+
+    private final DBDirectory directory;
+    private final List<CapturedFile> capturedFiles = new ArrayList<>();
+    private int numberOfFilesLinked = 0;
+    private int numberOfFilesCopied = 0;
+
+    private Checkpoint(DBDirectory directory) {
+        this.directory = directory;
+    }
+
+    static Checkpoint create(File directory) throws IOException, HaloDBException {
+        createDirectory(directory);
+        return new Checkpoint(DBDirectory.open(directory));
+    }
+
+    static void createDirectory(File directory) throws IOException, HaloDBException {
+        FileUtils.createDirectoryIfNotExists(directory);
+        String[] files = directory.list();
+        if (files == null || files.length > 0) {
+            throw new HaloDBException("Checkpoint directory " + directory + " is not empty");
+        }
+    }
+
+    void link(Path source) throws IOException {
+        Path target = directory.getPath().resolve(source.getFileName());
+        try {
+            Files.createLink(target, source);
+            numberOfFilesLinked++;
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            logger.debug("Couldn't link {}, copying it instead. {}", source, e.getMessage());
+            FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+            capturedFiles.add(new CapturedFile(source, channel, channel.size()));
+        }
+    }
+
+    void linkIfExists(Path source) throws IOException {
+        if (Files.exists(source)) {
+            link(source);
+        }
+    }
+
+    /**
+     * The file is opened right away so that it can still be copied if it is deleted before
+     * copyCapturedFiles() is called.
+     */
+    void capture(Path source, long size) throws IOException {
+        capturedFiles.add(new CapturedFile(source, FileChannel.open(source, StandardOpenOption.READ), size));
+    }
+
+    void copyCapturedFiles() throws IOException {
+        for (CapturedFile file : capturedFiles) {
+            Path target = directory.getPath().resolve(file.source.getFileName());
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long copied = 0;
+                while (copied < file.size) {
+                    long transferred = file.channel.transferTo(copied, file.size - copied, out);
+                    if (transferred <= 0) {
+                        throw new IOException("File " + file.source + " is shorter than " + file.size + " bytes");
+                    }
+                    copied += transferred;
+                }
+                out.force(true);
+            }
+            numberOfFilesCopied++;
+        }
+    }
+
+    /**
+     * Writes the meta data file, without which the checkpoint can't be opened as a db.
+     */
+    void complete(int maxFileSize, long sequenceNumber, long maxDroppedSequenceNumber) throws IOException {
+        DBMetaData metaData = new DBMetaData(directory);
+        metaData.setOpen(false);
+        metaData.setIOError(false);
+        metaData.setVersion(Versions.CURRENT_META_FILE_VERSION);
+        metaData.setMaxFileSize(maxFileSize);
+        metaData.setSequenceNumber(sequenceNumber);
+        metaData.setMaxDroppedSequenceNumber(maxDroppedSequenceNumber);
+        metaData.storeToFile();
+        directory.syncMetaData();
+        logger.info("Created checkpoint {}, linked {} files and copied {} files",
+                    directory.getPath(), numberOfFilesLinked, numberOfFilesCopied);
+    }
+
+    /**
+     * Releases the captured files and the checkpoint directory, whether it was completed or not.
+     */
+    void close() throws IOException {
+        IOException error = null;
+        for (CapturedFile file : capturedFiles) {
+            try {
+                file.channel.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        capturedFiles.clear();
+        try {
+            directory.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            } else {
+                error.addSuppressed(e);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static class CapturedFile {
+        private final Path source;
+        private final FileChannel channel;
+        private final long size;
+
+        CapturedFile(Path source, FileChannel channel, long size) {
+            this.source = source;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+}
@@ -12,7 +12,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -24,15 +31,23 @@ class CompactionManager {
     private final BlockingQueue<Integer> compactionQueue;
     private final ReentrantLock startStopLock = new ReentrantLock();
     private volatile boolean isRunning = false;
-    private volatile HaloDBFile currentWriteFile = null;
-    private int currentWriteFileOffset = 0;
+    private final CompactedFile hotFile = new CompactedFile();
+    // used only if hot/cold segregation is enabled, see CompactionThread.isCold().
+    private final CompactedFile coldFile = new CompactedFile();
     private volatile CompactionThread compactionThread;
+    private final List<ForcedCompaction> forcedCompactions = new CopyOnWriteArrayList<>();
     private volatile long numberOfRecordsCopied = 0;
     private volatile long numberOfRecordsReplaced = 0;
     private volatile long numberOfRecordsScanned = 0;
     private volatile long sizeOfRecordsCopied = 0;
     private volatile long sizeOfFilesDeleted = 0;
     private volatile long totalSizeOfRecordsCopied = 0;
+    private volatile long numberOfDictionariesTrained = 0;
+    private volatile long numberOfRecordsExpired = 0;
+    private volatile long numberOfDeletedRecordsCopied = 0;
+    private volatile long numberOfColdRecordsCopied = 0;
+    // fair, so that waitForRecordBeingCopied() isn't starved by the compaction thread.
+    private final ReentrantLock copyLock = new ReentrantLock(true);
     private volatile long compactionStartTime = System.currentTimeMillis();
     private volatile boolean stopInProgress = false;
 
@@ -54,10 +69,8 @@ class CompactionManager {
                 // instead we use -10101 as a stop signal.
                 compactionQueue.put(STOP_SIGNAL);
                 compactionThread.join();
-                if (closeCurrentWriteFile && currentWriteFile != null) {
-                    currentWriteFile.flushToDisk();
-                    currentWriteFile.getIndexFile().flushToDisk();
-                    currentWriteFile.close();
+                if (closeCurrentWriteFile) {
+                    closeCompactedFiles();
                 }
             }
         } catch (InterruptedException e) {
@@ -94,17 +107,85 @@ class CompactionManager {
     }
 
     int getCurrentWriteFileId() {
-        return currentWriteFile != null ? currentWriteFile.getFileId() : -1;
+        return hotFile.getFileId();
+    }
+
+    List<Integer> getCurrentWriteFileIds() {
+        List<Integer> fileIds = new ArrayList<>();
+        for (CompactedFile compactedFile : new CompactedFile[] {hotFile, coldFile}) {
+            if (compactedFile.getFileId() != -1) {
+                fileIds.add(compactedFile.getFileId());
+            }
+        }
+        return fileIds;
+    }
+
+    boolean isCurrentWriteFile(int fileId) {
+        return hotFile.getFileId() == fileId || coldFile.getFileId() == fileId;
     }
 
     boolean submitFileForCompaction(int fileId) {
         return compactionQueue.offer(fileId);
     }
 
+    /**
+     * Queues the files for compaction even if they are below the threshold. The future
+     * completes once all of them were compacted, or exceptionally if compaction of one of
+     * them failed or the db was closed in the meantime.
+     */
+    CompletableFuture<Void> forceCompaction(Collection<Integer> fileIds) {
+        ForcedCompaction compaction = new ForcedCompaction(fileIds);
+        if (fileIds.isEmpty()) {
+            compaction.future.complete(null);
+            return compaction.future;
+        }
+        forcedCompactions.add(compaction);
+        for (int fileId : fileIds) {
+            submitFileForCompaction(fileId);
+        }
+        return compaction.future;
+    }
+
+    void cancelForcedCompactions() {
+        for (ForcedCompaction compaction : forcedCompactions) {
+            compaction.future.completeExceptionally(new HaloDBException("db was closed before compaction completed"));
+        }
+        forcedCompactions.clear();
+    }
+
+    private void fileCompacted(int fileId, Exception error) {
+        for (ForcedCompaction compaction : forcedCompactions) {
+            if (!compaction.pendingFileIds.remove(fileId)) {
+                continue;
+            }
+            if (error != null) {
+                compaction.future.completeExceptionally(error);
+                forcedCompactions.remove(compaction);
+            } else if (compaction.pendingFileIds.isEmpty()) {
+                compaction.future.complete(null);
+                forcedCompactions.remove(compaction);
+            }
+        }
+    }
+
+    private void closeCompactedFiles() throws IOException {
+        hotFile.close();
+        coldFile.close();
+    }
+
     int noOfFilesPendingCompaction() {
         return compactionQueue.size();
     }
 
+    long getSizeOfFilesPendingCompaction() {
+        long size = 0;
+        for (int fileId : compactionQueue) {
+            HaloDBFile file = dbInternal.getHaloDBFile(fileId);
+            size += file != null ? file.getSize() : 0;
+        }
+        return size;
+    }
+
     long getNumberOfRecordsCopied() {
         return numberOfRecordsCopied;
     }
@@ -125,6 +206,42 @@ class CompactionManager {
         return sizeOfFilesDeleted;
     }
 
+    /**
+     * A record is copied if it is fresh when it is looked up in the index, but it might
+     * be deleted before the copy is written, in which case the copy is shadowed only by
+     * the tombstone. TombstoneCompactor uses this, along with the number of such copies,
+     * to find out about copies which were in flight while it was scanning the data files.
+     */
+    void waitForRecordBeingCopied() throws InterruptedException {
+        copyLock.lockInterruptibly();
+        copyLock.unlock();
+    }
+
+    long getNumberOfDeletedRecordsCopied() {
+        return numberOfDeletedRecordsCopied;
+    }
+
+    long getNumberOfDictionariesTrained() {
+        return numberOfDictionariesTrained;
+    }
+
+    long getNumberOfRecordsExpired() {
+        return numberOfRecordsExpired;
+    }
+
+    long getNumberOfColdRecordsCopied() {
+        return numberOfColdRecordsCopied;
+    }
+
+    double getCompactionJobRate() {
+        return compactionRateLimiter.getRate();
+    }
+
+    // used by the CompactionRateController.
+    void setCompactionJobRate(double rate) {
+        compactionRateLimiter.setRate(rate);
+    }
+
     long getCompactionJobRateSinceBeginning() {
         long timeInSeconds = (System.currentTimeMillis() - compactionStartTime) / 1000;
         long rate = 0;
@@ -136,7 +253,8 @@ class CompactionManager {
 
     void resetStats() {
         numberOfRecordsCopied = numberOfRecordsReplaced
-                = numberOfRecordsScanned = sizeOfRecordsCopied = sizeOfFilesDeleted = 0;
+                = numberOfRecordsScanned = sizeOfRecordsCopied = sizeOfFilesDeleted = numberOfDictionariesTrained = numberOfRecordsExpired
+                = numberOfColdRecordsCopied = 0;
     }
 
     boolean isCompactionRunning() {
@@ -168,21 +286,19 @@ class CompactionManager {
     private class CompactionThread extends Thread {
 
         private long unFlushedData = 0;
+        private final CompressionDictionary.Sampler dictionarySampler;
 
         CompactionThread() {
             super("CompactionThread");
 
+            HaloDBOptions options = dbInternal.options;
+            dictionarySampler = options.isDictionaryCompressionEnabled()
+                    ? new CompressionDictionary.Sampler(options.getCompressionDictionarySize()) : null;
+
             setUncaughtExceptionHandler((t, e) -> {
                 logger.error("Compaction thread crashed", e);
-                if (currentWriteFile != null) {
-                    try {
-                        currentWriteFile.flushToDisk();
-                    } catch (IOException ex) {
-                        logger.error("Error while flushing " + currentWriteFile.getFileId() + " to disk", ex);
-                    }
-                    currentWriteFile = null;
-                }
-                currentWriteFileOffset = 0;
+                hotFile.reset();
+                coldFile.reset();
 
                 if (!stopInProgress) {
                     startStopLock.lock();
@@ -213,18 +329,30 @@ class CompactionManager {
                         // while pausing/stopping compaction isRunning flag must be set to false.
                         continue;
                     }
+                    if (dbInternal.getSnapshotManager().deferCompaction(fileToCompact)) {
+                        logger.debug("File {} is in an open snapshot, deferring its compaction", fileToCompact);
+                        fileCompacted(fileToCompact, null);
+                        continue;
+                    }
                     logger.debug("Compacting {} ...", fileToCompact);
                     copyFreshRecordsToNewFile(fileToCompact);
                     logger.debug("Completed compacting {} to {}", fileToCompact, getCurrentWriteFileId());
                     dbInternal.markFileAsCompacted(fileToCompact);
                     dbInternal.deleteHaloDBFile(fileToCompact);
+                    fileCompacted(fileToCompact, null);
                 } catch (Exception e) {
                     logger.error(String.format("Error while compacting file %d to %d", fileToCompact, getCurrentWriteFileId()), e);
+                    fileCompacted(fileToCompact, e);
                 }
             }
             logger.info("Compaction thread stopped.");
         }
 
+        // Records are copied as they are stored on disk, compressed values are not recompressed.
+        // The exception are values compressed with, or eligible for, a dictionary which are
+        // re-encoded with the dictionary of the compacted file.
+        // Expired records are not copied, unless they shadow an older version of the key in
+        // which case a tombstone is needed and they are left for the ExpiredRecordSweeper.
         // TODO: group and move adjacent fresh records together for performance.
         private void copyFreshRecordsToNewFile(int idOfFileToCompact) throws IOException {
             HaloDBFile fileToCompact = dbInternal.getHaloDBFile(idOfFileToCompact);
@@ -236,6 +364,7 @@ class CompactionManager {
             FileChannel readFrom = fileToCompact.getChannel();
             IndexFile.IndexFileIterator iterator = fileToCompact.getIndexFile().newIterator();
             long recordsCopied = 0, recordsScanned = 0;
+            long coldAge = dbInternal.getInMemoryIndex().size();
 
             while (iterator.hasNext()) {
                 IndexFileEntry indexFileEntry = iterator.next();
@@ -244,59 +373,83 @@ class CompactionManager {
                 int recordSize = indexFileEntry.getRecordSize();
                 recordsScanned++;
 
-                InMemoryIndexMetaData currentRecordMetaData = dbInternal.getInMemoryIndex().get(key);
-
-                if (isRecordFresh(indexFileEntry, currentRecordMetaData, idOfFileToCompact)) {
-                    recordsCopied++;
-                    compactionRateLimiter.acquire(recordSize);
-                    rollOverCurrentWriteFile(recordSize);
-                    sizeOfRecordsCopied += recordSize;
-                    totalSizeOfRecordsCopied += recordSize;
-
-                    // fresh record, copy to merged file.
-                    long transferred = readFrom.transferTo(recordOffset, recordSize, currentWriteFile.getChannel());
-
-                    //TODO: for testing. remove.
-                    if (transferred != recordSize) {
-                        logger.error("Had to transfer {} but only did {}", recordSize, transferred);
-                    }
-
-                    unFlushedData += transferred;
-                    if (dbInternal.options.getFlushDataSizeBytes() != -1 &&
-                            unFlushedData > dbInternal.options.getFlushDataSizeBytes()) {
-                        currentWriteFile.getChannel().force(false);
-                        unFlushedData = 0;
-                    }
-
-                    IndexFileEntry newEntry = new IndexFileEntry(
-                            key, recordSize, currentWriteFileOffset,
-                            indexFileEntry.getSequenceNumber(), indexFileEntry.getVersion(), -1
-                    );
-                    currentWriteFile.getIndexFile().write(newEntry);
-
-                    int valueOffset = Utils.getValueOffset(currentWriteFileOffset, key);
-                    InMemoryIndexMetaData newMetaData = new InMemoryIndexMetaData(
-                            currentWriteFile.getFileId(), valueOffset,
-                            currentRecordMetaData.getValueSize(), indexFileEntry.getSequenceNumber()
-                    );
-
-                    boolean updated = dbInternal.getInMemoryIndex().replace(key, currentRecordMetaData, newMetaData);
-                    if (updated) {
-                        numberOfRecordsReplaced++;
-                    } else {
-                        // write thread wrote a new version while this version was being compacted.
-                        // therefore, this version is stale.
-                        dbInternal.addFileToCompactionQueueIfThresholdCrossed(currentWriteFile.getFileId(), recordSize);
+                // held while the record is looked up in the index and copied, see waitForRecordBeingCopied().
+                copyLock.lock();
+                try {
+                    InMemoryIndexMetaData currentRecordMetaData = dbInternal.getInMemoryIndex().get(key);
+
+                    if (isRecordFresh(indexFileEntry, currentRecordMetaData, idOfFileToCompact)
+                            && currentRecordMetaData.isExpired() && !currentRecordMetaData.hasOlderVersionOnDisk()) {
+                        // if the write thread wrote a new version in the meantime this version is stale anyway.
+                        if (dbInternal.removeFromIndex(key, currentRecordMetaData)) {
+                            numberOfRecordsExpired++;
+                        }
+                    } else if (isRecordFresh(indexFileEntry, currentRecordMetaData, idOfFileToCompact)
+                            && needsDictionaryEncoding(currentRecordMetaData)) {
+                        recordsCopied++;
+                        recordSize = reEncodeRecord(key, currentRecordMetaData, fileToCompact, selectCompactedFile(indexFileEntry, coldAge));
+                        sizeOfRecordsCopied += recordSize;
+                        totalSizeOfRecordsCopied += recordSize;
+                    } else if (isRecordFresh(indexFileEntry, currentRecordMetaData, idOfFileToCompact)) {
+                        recordsCopied++;
+                        CompactedFile compactedFile = selectCompactedFile(indexFileEntry, coldAge);
+                        compactionRateLimiter.acquire(recordSize);
+                        rollOverCurrentWriteFile(recordSize, fileToCompact, compactedFile);
+                        HaloDBFile currentWriteFile = compactedFile.file;
+                        int currentWriteFileOffset = compactedFile.writeOffset;
+                        sizeOfRecordsCopied += recordSize;
+                        totalSizeOfRecordsCopied += recordSize;
+
+                        // fresh record, copy to merged file.
+                        long transferred = readFrom.transferTo(recordOffset, recordSize, currentWriteFile.getChannel());
+
+                        //TODO: for testing. remove.
+                        if (transferred != recordSize) {
+                            logger.error("Had to transfer {} but only did {}", recordSize, transferred);
+                        }
+
+                        unFlushedData += transferred;
+                        if (dbInternal.options.getFlushDataSizeBytes() != -1 &&
+                                unFlushedData > dbInternal.options.getFlushDataSizeBytes()) {
+                            currentWriteFile.getChannel().force(false);
+                            unFlushedData = 0;
+                        }
+
+                        IndexFileEntry newEntry = new IndexFileEntry(
+                                key, recordSize, currentWriteFileOffset,
+                                indexFileEntry.getSequenceNumber(), indexFileEntry.getVersion(), -1,
+                                indexFileEntry.getExpiryTime()
+                        );
+                        currentWriteFile.getIndexFile().write(newEntry);
+                        if (indexFileEntry.getExpiryTime() != 0) {
+                            dbInternal.recordWithExpiryTimeWritten(currentWriteFile.getFileId(), indexFileEntry.getExpiryTime());
+                        }
+
+                        int valueOffset = Utils.getValueOffset(currentWriteFileOffset, key);
+                        InMemoryIndexMetaData newMetaData = currentRecordMetaData.moveTo(currentWriteFile.getFileId(), valueOffset);
+
+                        boolean updated = dbInternal.replaceInIndex(key, currentRecordMetaData, newMetaData);
+                        if (updated) {
+                            numberOfRecordsReplaced++;
+                        } else {
+                            // write thread wrote a new version while this version was being compacted.
+                            // therefore, this version is stale.
+                            dbInternal.addFileToCompactionQueueIfThresholdCrossed(currentWriteFile.getFileId(), recordSize);
+                            countIfDeleted(key);
+                        }
+                        compactedFile.writeOffset += recordSize;
+                        currentWriteFile.setWriteOffset(compactedFile.writeOffset);
                     }
-                    currentWriteFileOffset += recordSize;
-                    currentWriteFile.setWriteOffset(currentWriteFileOffset);
+                } finally {
+                    copyLock.unlock();
                 }
             }
 
             if (recordsCopied > 0) {
                 // After compaction we will delete the stale file.
                 // To prevent data loss in the event of a crash we need to ensure that copied data has hit the disk.
-                currentWriteFile.flushToDisk();
+                hotFile.flushToDisk();
+                coldFile.flushToDisk();
             }
 
             numberOfRecordsCopied += recordsCopied;
@@ -306,22 +459,166 @@ class CompactionManager {
             logger.debug("Scanned {} records in file {} and copied {} records to {}.datac", recordsScanned, idOfFileToCompact, recordsCopied, getCurrentWriteFileId());
         }
 
+        private boolean needsDictionaryEncoding(InMemoryIndexMetaData metaData) {
+            return metaData.isDictionaryCompressed()
+                    || ((metaData.getFlags() & ~Record.Header.TTL_FLAG) == 0 && dbInternal.options.isEligibleForDictionaryCompression(metaData.getValueSize()));
+        }
+
+        /**
+         * Decodes the value and writes it to the compacted file, compressed with the
+         * dictionary of that file if it has one. Returns the size of the new record.
+         */
+        private int reEncodeRecord(byte[] key, InMemoryIndexMetaData currentRecordMetaData, HaloDBFile fileToCompact,
+                                   CompactedFile compactedFile) throws IOException {
+            byte[] value = fileToCompact.readValue(currentRecordMetaData);
+            if (dictionarySampler != null) {
+                dictionarySampler.add(value);
+            }
+            int expiryTime = currentRecordMetaData.getExpiryTime();
+            int expiryTimeSize = expiryTime != 0 ? Record.EXPIRY_TIME_SIZE : 0;
+            rollOverCurrentWriteFile(Utils.getRecordSize(key.length, value.length + expiryTimeSize), fileToCompact, compactedFile);
+            HaloDBFile currentWriteFile = compactedFile.file;
+
+            CompressionDictionary dictionary = currentWriteFile.getCompressionDictionary();
+            byte[] compressed = dictionary != null ? dictionary.compress(value) : null;
+            byte[] storedValue = value;
+            int flags = 0;
+            if (compressed != null) {
+                storedValue = compressed;
+                flags = Record.Header.DICTIONARY_COMPRESSED_FLAG;
+            }
+            if (expiryTime != 0) {
+                storedValue = Record.addExpiryTime(storedValue, expiryTime);
+                flags |= Record.Header.TTL_FLAG;
+            }
+            Record record = new Record(key, storedValue);
+            record.setVersion(Versions.CURRENT_DATA_FILE_VERSION | flags);
+            record.setSequenceNumber(currentRecordMetaData.getSequenceNumber());
+            int recordSize = record.getRecordSize();
+            compactionRateLimiter.acquire(recordSize);
+
+            InMemoryIndexMetaData newMetaData = currentWriteFile.writeRecord(record);
+            if (expiryTime != 0) {
+                dbInternal.recordWithExpiryTimeWritten(currentWriteFile.getFileId(), expiryTime);
+            }
+            if (currentRecordMetaData.hasOlderVersionOnDisk()) {
+                newMetaData = newMetaData.withOlderVersionOnDisk();
+            }
+            if (currentRecordMetaData.hasSecondaryIndexEntries()) {
+                newMetaData = newMetaData.withSecondaryIndexEntries();
+            }
+            boolean updated = dbInternal.replaceInIndex(key, currentRecordMetaData, newMetaData);
+            if (updated) {
+                numberOfRecordsReplaced++;
+            } else {
+                dbInternal.addFileToCompactionQueueIfThresholdCrossed(currentWriteFile.getFileId(), recordSize);
+                countIfDeleted(key);
+            }
+            compactedFile.writeOffset += recordSize;
+            currentWriteFile.setWriteOffset(compactedFile.writeOffset);
+            return recordSize;
+        }
+
+        // the key was deleted while its record was being copied.
+        private void countIfDeleted(byte[] key) {
+            if (dbInternal.getInMemoryIndex().get(key) == null) {
+                numberOfDeletedRecordsCopied++;
+            }
+        }
+
         private boolean isRecordFresh(IndexFileEntry entry, InMemoryIndexMetaData metaData, int idOfFileToMerge) {
             return metaData != null
                     && metaData.getFileId() == idOfFileToMerge
                     && metaData.getValueOffset() == Utils.getValueOffset(entry.getRecordOffset(), entry.getKey());
         }
 
-        private void rollOverCurrentWriteFile(int recordSize) throws IOException {
-            if (currentWriteFile == null || currentWriteFileOffset + recordSize > dbInternal.options.getMaxFileSize()) {
-                if (currentWriteFile != null) {
-                    currentWriteFile.flushToDisk();
-                    currentWriteFile.getIndexFile().flushToDisk();
+        /**
+         * A record which survived as many writes as there are keys in the db was updated less
+         * often than the average key, and is likely to stay that way. Such records are copied
+         * to a separate file so that they are not mixed with frequently updated ones, which
+         * would make the file stale before long and get the cold records copied again.
+         */
+        private CompactedFile selectCompactedFile(IndexFileEntry entry, long coldAge) {
+            if (dbInternal.options.isHotColdSegregationEnabled()
+                    && dbInternal.getLatestSequenceNumber() - entry.getSequenceNumber() >= coldAge) {
+                numberOfColdRecordsCopied++;
+                return coldFile;
+            }
+            return hotFile;
+        }
+
+        private void rollOverCurrentWriteFile(int recordSize, HaloDBFile fileToCompact, CompactedFile compactedFile) throws IOException {
+            if (compactedFile.file == null || compactedFile.writeOffset + recordSize > dbInternal.options.getMaxFileSize()) {
+                if (compactedFile.file != null) {
+                    compactedFile.file.flushToDisk();
+                    compactedFile.file.getIndexFile().flushToDisk();
                 }
-                currentWriteFile = dbInternal.createHaloDBFile(HaloDBFile.FileType.COMPACTED_FILE);
+                compactedFile.file = dbInternal.createHaloDBFile(HaloDBFile.FileType.COMPACTED_FILE);
                 dbInternal.getDbDirectory().syncMetaData();
-                currentWriteFileOffset = 0;
+                dbInternal.storeActiveDataFileIds();
+                compactedFile.writeOffset = 0;
+                if (dictionarySampler != null) {
+                    setCompressionDictionary(fileToCompact, compactedFile.file);
+                }
+            }
+        }
+
+        // retrain from the values seen so far, until there are enough of them reuse the dictionary of the file being compacted.
+        private void setCompressionDictionary(HaloDBFile fileToCompact, HaloDBFile currentWriteFile) throws IOException {
+            if (dictionarySampler.canTrain()) {
+                currentWriteFile.setCompressionDictionary(
+                        CompressionDictionary.train(dictionarySampler, dbInternal.options.getCompressionDictionarySize()));
+                numberOfDictionariesTrained++;
+            } else if (fileToCompact.getCompressionDictionary() != null) {
+                currentWriteFile.setCompressionDictionary(fileToCompact.getCompressionDictionary());
+            }
+        }
+    }
+
+    private static class ForcedCompaction {
+        private final Set<Integer> pendingFileIds = ConcurrentHashMap.newKeySet();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        ForcedCompaction(Collection<Integer> fileIds) {
+            pendingFileIds.addAll(fileIds);
+        }
+    }
+
+    // compacted file currently written to by the compaction thread.
+    private static class CompactedFile {
+        private volatile HaloDBFile file = null;
+        private int writeOffset = 0;
+
+        int getFileId() {
+            HaloDBFile current = file;
+            return current != null ? current.getFileId() : -1;
+        }
+
+        void flushToDisk() throws IOException {
+            if (file != null) {
+                file.flushToDisk();
+            }
+        }
+
+        void close() throws IOException {
+            if (file != null) {
+                file.flushToDisk();
+                file.getIndexFile().flushToDisk();
+                file.close();
+            }
+        }
+
+        // used if the compaction thread crashed, the next record is written to a new file.
+        void reset() {
+            if (file != null) {
+                try {
+                    file.flushToDisk();
+                } catch (IOException ex) {
+                    logger.error("Error while flushing " + file.getFileId() + " to disk", ex);
+                }
+                file = null;
             }
+            writeOffset = 0;
         }
     }
 }
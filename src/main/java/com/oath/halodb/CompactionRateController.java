@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts the rate of the compaction job between minCompactionJobRate and
+ * compactionJobRate. Once a second the 99th percentile latency of get and put
+ * operations is compared with foregroundLatencyTargetInMicros:
+ *
+ * If it is above the target compaction is slowed down by half, unless the size of
+ * stale data grew while files were pending compaction, in which case the rate is
+ * held so that the backlog doesn't grow without bound.
+ * If it is below the target and files are pending compaction the rate is increased
+ * by a tenth of the range.
+ */
+class CompactionRateController {
+    private static final Logger logger = LoggerFactory.getLogger(CompactionRateController.class);
+    private static final int STOP_SIGNAL = -10101;
+    private static final long INTERVAL_IN_MILLIS = 1000;
+
+    enum State {
+        DISABLED, STEADY, THROTTLING, HOLDING, ACCELERATING
+    }
+
+    private final HaloDBInternal dbInternal;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final BlockingQueue<Integer> signalQueue = new LinkedBlockingQueue<>();
+    private final double minRate;
+    private final double maxRate;
+    private final long latencyTargetInNanos;
+    private volatile ControllerThread controllerThread;
+    private volatile boolean isRunning = false;
+
+    private volatile State state = State.STEADY;
+    private volatile long lastLatencyInNanos = -1;
+    private long lastSizeOfStaleData = 0;
+
+    CompactionRateController(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+        this.minRate = dbInternal.options.getMinCompactionJobRate();
+        this.maxRate = dbInternal.options.getCompactionJobRate();
+        this.latencyTargetInNanos = TimeUnit.MICROSECONDS.toNanos(dbInternal.options.getForegroundLatencyTargetInMicros());
+    }
+
+    void start() {
+        isRunning = true;
+        controllerThread = new ControllerThread();
+        controllerThread.start();
+    }
+
+    void stop() {
+        isRunning = false;
+        if (controllerThread != null && controllerThread.isAlive()) {
+            try {
+                signalQueue.put(STOP_SIGNAL);
+                controllerThread.join();
+            } catch (InterruptedException e) {
+                logger.error("Error while waiting for compaction rate controller to stop", e);
+            }
+        }
+    }
+
+    void recordLatency(long latencyInNanos) {
+        latencies.record(latencyInNanos);
+    }
+
+    @VisibleForTesting
+    synchronized void adjustRate() {
+        CompactionManager compactionManager = dbInternal.getCompactionManager();
+        long latency = latencies.getPercentileAndReset(0.99);
+        long sizeOfStaleData = dbInternal.getSizeOfStaleData();
+        boolean isBacklogGrowing = sizeOfStaleData > lastSizeOfStaleData;
+        boolean hasBacklog = compactionManager.noOfFilesPendingCompaction() > 0;
+        lastSizeOfStaleData = sizeOfStaleData;
+        lastLatencyInNanos = latency;
+
+        double rate = compactionManager.getCompactionJobRate();
+        if (latency > latencyTargetInNanos) {
+            if (hasBacklog && isBacklogGrowing) {
+                state = State.HOLDING;
+            } else {
+                state = State.THROTTLING;
+                rate = Math.max(minRate, rate / 2);
+            }
+        } else if (hasBacklog) {
+            state = State.ACCELERATING;
+            rate = Math.min(maxRate, rate + Math.max(1, (maxRate - minRate) / 10));
+        } else {
+            state = State.STEADY;
+        }
+
+        if (rate != compactionManager.getCompactionJobRate()) {
+            logger.debug("Compaction rate set to {}, p99 latency {}ns, state {}", (long) rate, latency, state);
+            compactionManager.setCompactionJobRate(rate);
+        }
+    }
+
+    State getState() {
+        return state;
+    }
+
+    long getLastLatencyInMicros() {
+        return lastLatencyInNanos == -1 ? -1 : TimeUnit.NANOSECONDS.toMicros(lastLatencyInNanos);
+    }
+
+    private class ControllerThread extends Thread {
+
+        ControllerThread() {
+            super("CompactionRateControllerThread");
+        }
+
+        @Override
+        public void run() {
+            logger.info("Starting compaction rate controller ...");
+            while (isRunning) {
+                try {
+                    Integer signal = signalQueue.poll(INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+                    if (signal != null && signal == STOP_SIGNAL) {
+                        continue;
+                    }
+                    adjustRate();
+                } catch (Exception e) {
+                    logger.error("Error in compaction rate controller", e);
+                }
+            }
+            logger.info("Compaction rate controller stopped.");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Derives the compaction threshold per file from targetSpaceAmplification, the ratio
+ * of the size of all data files to the size of live data in them.
+ *
+ * Compacting a file reclaims its stale data but copies its live records, hence the
+ * threshold is kept as high as possible. Once stale data exceeds what the target
+ * allows, files are picked in decreasing order of the fraction of stale data in them
+ * until enough would be reclaimed, and the threshold is lowered to the fraction of the
+ * last one picked. While the target is met only files with no live data are compacted.
+ *
+ * The threshold is derived again after each maxFileSize bytes of data become stale.
+ * Stale data in files which are already queued for compaction is not tracked, hence
+ * while there is a backlog the space amplification is underestimated.
+ */
+class CompactionThresholdTuner {
+    private static final Logger logger = LoggerFactory.getLogger(CompactionThresholdTuner.class);
+    private static final double MAX_THRESHOLD = 1.0;
+
+    private final HaloDBInternal dbInternal;
+    private final double targetSpaceAmplification;
+    private final long tuneInterval;
+    private final AtomicLong staleDataSinceLastTune = new AtomicLong();
+
+    private volatile double threshold = MAX_THRESHOLD;
+
+    CompactionThresholdTuner(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+        this.targetSpaceAmplification = dbInternal.options.getTargetSpaceAmplification();
+        this.tuneInterval = dbInternal.options.getMaxFileSize();
+    }
+
+    double getThreshold() {
+        return threshold;
+    }
+
+    void staleDataAdded(int size) {
+        if (staleDataSinceLastTune.addAndGet(size) >= tuneInterval) {
+            tune();
+        }
+    }
+
+    synchronized void tune() {
+        staleDataSinceLastTune.set(0);
+        long totalSize = dbInternal.getSizeOfDataFiles();
+
+        long staleSize = 0;
+        List<StaleFile> candidates = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : dbInternal.getStaleDataPerFileMap().entrySet()) {
+            HaloDBFile file = dbInternal.getHaloDBFile(e.getKey());
+            if (file == null || file.getSize() == 0) {
+                continue;
+            }
+            staleSize += e.getValue();
+            if (!dbInternal.isFileBeingWritten(e.getKey())) {
+                candidates.add(new StaleFile(e.getKey(), e.getValue(), (double) e.getValue() / file.getSize()));
+            }
+        }
+
+        double excess = staleSize - (totalSize - staleSize) * (targetSpaceAmplification - 1);
+        double newThreshold = MAX_THRESHOLD;
+        if (excess > 0) {
+            candidates.sort((a, b) -> Double.compare(b.ratio, a.ratio));
+            long reclaimed = 0;
+            for (StaleFile file : candidates) {
+                newThreshold = file.ratio;
+                reclaimed += file.staleSize;
+                if (reclaimed >= excess) {
+                    break;
+                }
+            }
+        }
+
+        if (newThreshold != threshold) {
+            logger.debug("Compaction threshold set to {}, stale data {} out of {}", newThreshold, staleSize, totalSize);
+            threshold = newThreshold;
+        }
+
+        // files above the new threshold might not have any more data marked as stale.
+        for (StaleFile file : candidates) {
+            if (file.ratio >= newThreshold) {
+                dbInternal.submitFileForCompaction(file.fileId);
+            }
+        }
+    }
+
+    private static class StaleFile {
+        final int fileId;
+        final int staleSize;
+        final double ratio;
+
+        StaleFile(int fileId, int staleSize, double ratio) {
+            this.fileId = fileId;
+            this.staleSize = staleSize;
+            this.ratio = ratio;
+        }
+    }
+}
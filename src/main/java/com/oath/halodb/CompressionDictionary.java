@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.SYNC;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A dictionary trained from a sample of values, used to deflate small values
+ * which are too small to be compressed on their own.
+ *
+ * Each data file with dictionary compressed records has its dictionary stored
+ * in a sidecar file named after the id of the data file.
+ *
+ * A compressed value is stored as the size of the uncompressed value (4 bytes)
+ * followed by the deflated bytes.
+ */
+class CompressionDictionary {
+
+    static final String DICTIONARY_FILE_NAME = ".dict";
+
+    /**
+     * checksum         - 4 bytes.
+     * version          - 1 byte.
+     * dictionary size  - 4 bytes.
+     */
+    private static final int HEADER_SIZE = 4 + 1 + 4;
+    private static final int CHECKSUM_SIZE = 4;
+
+    // deflate can't refer back more than 32KB.
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final ThreadLocal<Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final byte[] dictionary;
+
+    CompressionDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Concatenates distinct samples until the dictionary is full. Substrings common
+     * to many values are likely to be present in at least one of the samples.
+     */
+    static CompressionDictionary train(Sampler sampler, int dictionarySize) {
+        byte[] dictionary = new byte[dictionarySize];
+        int position = dictionarySize;
+        Set<ByteBuffer> seen = new HashSet<>();
+        byte[][] samples = sampler.snapshot();
+        for (int i = samples.length - 1; i >= 0 && position > 0; i--) {
+            byte[] sample = samples[i];
+            if (!seen.add(ByteBuffer.wrap(sample))) {
+                continue;
+            }
+            int length = Math.min(sample.length, position);
+            position -= length;
+            System.arraycopy(sample, sample.length - length, dictionary, position, length);
+        }
+
+        if (position > 0) {
+            byte[] trimmed = new byte[dictionarySize - position];
+            System.arraycopy(dictionary, position, trimmed, 0, trimmed.length);
+            dictionary = trimmed;
+        }
+        return new CompressionDictionary(dictionary);
+    }
+
+    /**
+     * Returns the compressed value or null if compression doesn't make the value smaller.
+     */
+    byte[] compress(byte[] value) {
+        if (value.length <= ValueCompressor.UNCOMPRESSED_SIZE_LENGTH) {
+            return null;
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(value);
+        deflater.finish();
+
+        byte[] buffer = new byte[value.length];
+        int compressedLength = deflater.deflate(buffer, ValueCompressor.UNCOMPRESSED_SIZE_LENGTH,
+                buffer.length - ValueCompressor.UNCOMPRESSED_SIZE_LENGTH);
+        if (!deflater.finished()) {
+            return null;
+        }
+
+        ByteBuffer.wrap(buffer).putInt(0, value.length);
+        byte[] compressed = new byte[ValueCompressor.UNCOMPRESSED_SIZE_LENGTH + compressedLength];
+        System.arraycopy(buffer, 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    byte[] decompress(byte[] compressed) throws IOException {
+        int uncompressedSize = ByteBuffer.wrap(compressed).getInt(0);
+        byte[] value = new byte[uncompressedSize];
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        inflater.setInput(compressed, ValueCompressor.UNCOMPRESSED_SIZE_LENGTH,
+                compressed.length - ValueCompressor.UNCOMPRESSED_SIZE_LENGTH);
+        try {
+            int inflated = 0;
+            while (inflated < uncompressedSize) {
+                int read = inflater.inflate(value, inflated, uncompressedSize - inflated);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += read;
+            }
+            if (inflated != uncompressedSize) {
+                throw new IOException("Expected " + uncompressedSize + " bytes after decompression but found " + inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Error while decompressing value", e);
+        }
+        return value;
+    }
+
+    byte[] getBytes() {
+        return dictionary;
+    }
+
+    int size() {
+        return dictionary.length;
+    }
+
+    static CompressionDictionary loadIfExists(DBDirectory dbDirectory, int fileId) throws IOException {
+        Path path = getPath(dbDirectory, fileId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Corrupted dictionary file " + path.getFileName());
+        }
+        long checkSum = Utils.toUnsignedIntFromInt(buffer.getInt());
+        buffer.get(); // version.
+        int size = buffer.getInt();
+        if (size < 0 || size != buffer.remaining()) {
+            throw new IOException("Corrupted dictionary file " + path.getFileName());
+        }
+        if (computeCheckSum(buffer.array()) != checkSum) {
+            throw new IOException("Checksum mismatch for dictionary file " + path.getFileName());
+        }
+
+        byte[] dictionary = new byte[size];
+        buffer.get(dictionary);
+        return new CompressionDictionary(dictionary);
+    }
+
+    /**
+     * Written to a temp file which is then atomically renamed, dictionary must be
+     * on disk before any record which refers to it is written.
+     */
+    void store(DBDirectory dbDirectory, int fileId) throws IOException {
+        Path path = getPath(dbDirectory, fileId);
+        Path tempFile = path.resolveSibling(path.getFileName() + ".temp");
+        Files.deleteIfExists(tempFile);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + dictionary.length);
+        buffer.position(CHECKSUM_SIZE);
+        buffer.put((byte) Versions.CURRENT_DICTIONARY_FILE_VERSION);
+        buffer.putInt(dictionary.length);
+        buffer.put(dictionary);
+        buffer.putInt(0, Utils.toSignedIntFromLong(computeCheckSum(buffer.array())));
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(tempFile, WRITE, CREATE, SYNC)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tempFile, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        dbDirectory.syncMetaData();
+    }
+
+    static void delete(DBDirectory dbDirectory, int fileId) throws IOException {
+        Files.deleteIfExists(getPath(dbDirectory, fileId));
+    }
+
+    static Path getPath(DBDirectory dbDirectory, int fileId) {
+        return dbDirectory.getDataFilePath(fileId).resolve(fileId + DICTIONARY_FILE_NAME);
+    }
+
+    private static long computeCheckSum(byte[] contents) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(contents, CHECKSUM_SIZE, contents.length - CHECKSUM_SIZE);
+        return crc32.getValue();
+    }
+
+    /**
+     * Reservoir sample of values from which dictionaries are trained.
+     * Thread safe, write lanes and the compaction thread sample and train concurrently.
+     */
+    static class Sampler {
+        private static final int MAX_SAMPLES = 1024;
+        private static final int MIN_SAMPLES_TO_TRAIN = 16;
+
+        private final byte[][] samples = new byte[MAX_SAMPLES][];
+        private final int maxSampleSize;
+        private final Random random = new Random();
+        private long seen = 0;
+        private int size = 0;
+
+        Sampler(int maxSampleSize) {
+            this.maxSampleSize = maxSampleSize;
+        }
+
+        synchronized void add(byte[] value) {
+            if (value.length > maxSampleSize) {
+                return;
+            }
+
+            seen++;
+            if (size < MAX_SAMPLES) {
+                samples[size++] = Arrays.copyOf(value, value.length);
+            } else {
+                long index = (long) (random.nextDouble() * seen);
+                if (index < MAX_SAMPLES) {
+                    samples[(int) index] = Arrays.copyOf(value, value.length);
+                }
+            }
+        }
+
+        synchronized boolean canTrain() {
+            return size >= MIN_SAMPLES_TO_TRAIN;
+        }
+
+        // samples are copied when added and never modified, so only the array is copied.
+        synchronized byte[][] snapshot() {
+            return Arrays.copyOf(samples, size);
+        }
+    }
+}
@@ -15,4 +15,6 @@ class Constants {
     static final Pattern INDEX_FILE_PATTERN = Pattern.compile("([0-9]+)" + IndexFile.INDEX_FILE_NAME);
 
     static final Pattern TOMBSTONE_FILE_PATTERN = Pattern.compile("([0-9]+)" + TombstoneFile.TOMBSTONE_FILE_NAME);
+
+    static final Pattern BLOB_FILE_PATTERN = Pattern.compile("([0-9]+)" + BlobFile.BLOB_FILE_NAME);
 }
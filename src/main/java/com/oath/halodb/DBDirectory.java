@@ -6,40 +6,109 @@
 package com.oath.halodb;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * Represents the top level directory for a HaloDB instance.
+ *
+ * Data files, along with their index and dictionary files, can be striped across
+ * additional data directories, usually on separate devices. The top level directory
+ * is one of them and also holds the meta data, tombstone and blob files.
  */
 class DBDirectory {
 
     private final File dbDirectory;
     private final FileChannel directoryChannel;
+    // includes the top level directory.
+    private final List<File> dataDirectories;
+    private final List<FileChannel> dataDirectoryChannels;
 
-    private DBDirectory(File dbDirectory, FileChannel directoryChannel) {
+    // directory each data file is stored in, if it isn't the top level directory.
+    private final Map<Integer, File> dataFileDirectories = new ConcurrentHashMap<>();
+    private final AtomicInteger nextDataDirectory = new AtomicInteger(0);
+
+    private DBDirectory(File dbDirectory, FileChannel directoryChannel, List<File> dataDirectories, List<FileChannel> dataDirectoryChannels) {
         this.dbDirectory = dbDirectory;
         this.directoryChannel = directoryChannel;
+        this.dataDirectories = dataDirectories;
+        this.dataDirectoryChannels = dataDirectoryChannels;
     }
 
     /**
-     * Will create a new directory if one doesn't already exist.
+     * Will create a new directory if one doesn't already exist. Gives access to the files
+     * in the top level directory only, the data directories of the db are not checked.
      */
     static DBDirectory open(File directory) throws IOException {
         FileUtils.createDirectoryIfNotExists(directory);
-        FileChannel channel = null;
+        return new DBDirectory(directory, openChannel(directory), Collections.singletonList(directory), Collections.emptyList());
+    }
+
+    /**
+     * Will create the directory and the additional data directories if they don't already exist.
+     * Fails if a data directory recorded in the meta data file is not one of them or is missing,
+     * instead of silently opening the db without the data files stored in it.
+     */
+    static DBDirectory open(File directory, List<File> additionalDataDirectories) throws IOException {
+        DBDirectory topLevelDirectory = open(directory);
         try {
-            channel = openReadOnlyChannel(directory);
+            checkDataDirectories(topLevelDirectory, additionalDataDirectories);
+        } catch (IOException | RuntimeException e) {
+            topLevelDirectory.close();
+            throw e;
+        }
+        FileChannel channel = topLevelDirectory.directoryChannel;
+
+        List<File> dataDirectories = new ArrayList<>();
+        List<FileChannel> dataDirectoryChannels = new ArrayList<>();
+        dataDirectories.add(directory);
+        for (File dataDirectory : additionalDataDirectories) {
+            if (dataDirectory.getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+                continue;
+            }
+            FileUtils.createDirectoryIfNotExists(dataDirectory);
+            dataDirectories.add(dataDirectory);
+            dataDirectoryChannels.add(openChannel(dataDirectory));
+        }
+        return new DBDirectory(directory, channel, dataDirectories, dataDirectoryChannels);
+    }
+
+    private static void checkDataDirectories(DBDirectory directory, List<File> additionalDataDirectories) throws IOException {
+        DBMetaData metaData = new DBMetaData(directory);
+        metaData.loadFromFileIfExists();
+        Set<File> configured = additionalDataDirectories.stream().map(File::getAbsoluteFile).collect(Collectors.toSet());
+        for (File dataDirectory : metaData.getDataDirectories()) {
+            if (!configured.contains(dataDirectory.getAbsoluteFile())) {
+                throw new IllegalArgumentException("Data directory " + dataDirectory + " was used by the db but is not in dataDirectories");
+            }
+            if (!dataDirectory.isDirectory()) {
+                throw new FileNotFoundException("Data directory " + dataDirectory + " used by the db doesn't exist");
+            }
+        }
+    }
+
+    private static FileChannel openChannel(File directory) throws IOException {
+        try {
+            return openReadOnlyChannel(directory);
         } catch (IOException e) {
             // only swallow the exception if its Windows
             if (!isWindows()) {
                 throw e;
             }
+            return null;
         }
-        return new DBDirectory(directory, channel);
     }
 
     /**
@@ -64,27 +133,116 @@ class DBDirectory {
         if (directoryChannel != null) {
             directoryChannel.close();
         }
+        for (FileChannel channel : dataDirectoryChannels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
     }
 
     Path getPath() {
         return dbDirectory.toPath();
     }
 
+    /**
+     * Returns the data directories other than the top level directory.
+     */
+    List<File> getAdditionalDataDirectories() {
+        return dataDirectories.subList(1, dataDirectories.size());
+    }
+
+    /**
+     * Returns the directory in which the data file with the given id and its index file are stored.
+     */
+    Path getDataFilePath(int fileId) {
+        return dataFileDirectories.getOrDefault(fileId, dbDirectory).toPath();
+    }
+
+    /**
+     * Picks the directory for a new data file, round-robin across the data directories
+     * skipping those which don't have enough space left for a full file.
+     */
+    Path nextDataDirectory(long maxFileSize) {
+        File directory = null;
+        int start = nextDataDirectory.getAndIncrement();
+        for (int i = 0; i < dataDirectories.size(); i++) {
+            File candidate = dataDirectories.get(Math.floorMod(start + i, dataDirectories.size()));
+            if (candidate.getUsableSpace() >= maxFileSize) {
+                directory = candidate;
+                break;
+            }
+        }
+        if (directory == null) {
+            directory = dataDirectories.stream().max(Comparator.comparingLong(File::getUsableSpace)).get();
+        }
+        return directory.toPath();
+    }
+
+    void dataFileCreated(int fileId, Path directory) {
+        if (directory.toFile().equals(dbDirectory)) {
+            dataFileDirectories.remove(fileId);
+        } else {
+            dataFileDirectories.put(fileId, directory.toFile());
+        }
+    }
+
+    void dataFileDeleted(int fileId) {
+        dataFileDirectories.remove(fileId);
+    }
+
+    List<File> getDataDirectories() {
+        return Collections.unmodifiableList(dataDirectories);
+    }
+
     File[] listDataFiles() {
-        return FileUtils.listDataFiles(dbDirectory);
+        List<File> files = new ArrayList<>();
+        for (File directory : dataDirectories) {
+            for (File file : FileUtils.listDataFiles(directory)) {
+                recordDataFileDirectory(FileUtils.getFileId(file, Constants.DATA_FILE_PATTERN), directory);
+                files.add(file);
+            }
+        }
+        return files.toArray(new File[0]);
     }
 
     List<Integer> listIndexFiles() {
-        return FileUtils.listIndexFiles(dbDirectory);
+        if (dataDirectories.size() == 1) {
+            return FileUtils.listIndexFiles(dbDirectory);
+        }
+
+        // sort in ascending order across all directories.
+        List<Integer> fileIds = new ArrayList<>();
+        for (File directory : dataDirectories) {
+            for (int fileId : FileUtils.listIndexFiles(directory)) {
+                recordDataFileDirectory(fileId, directory);
+                fileIds.add(fileId);
+            }
+        }
+        return fileIds.stream().sorted().collect(Collectors.toList());
+    }
+
+    private void recordDataFileDirectory(int fileId, File directory) {
+        if (!directory.equals(dbDirectory)) {
+            dataFileDirectories.putIfAbsent(fileId, directory);
+        }
     }
 
     File[] listTombstoneFiles() {
         return FileUtils.listTombstoneFiles(dbDirectory);
     }
 
+    File[] listBlobFiles() {
+        return FileUtils.listBlobFiles(dbDirectory);
+    }
+
     void syncMetaData() throws IOException {
         if (directoryChannel != null) {
             directoryChannel.force(true);
         }
+        for (FileChannel channel : dataDirectoryChannels) {
+            if (channel != null) {
+                channel.force(true);
+            }
+        }
     }
 }
@@ -5,12 +5,18 @@
 
 package com.oath.halodb;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.zip.CRC32;
 
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
@@ -31,6 +37,18 @@ class DBMetaData {
      * sequence number  - 8 bytes.
      * io error         - 1 byte.
      * file size        - 4 byte.
+     *
+     * Followed, if files were being written to, changes were dropped or there are
+     * additional data directories, by:
+     * count            - 4 bytes.
+     * file ids         - 4 bytes each, of the data and compacted files being written to,
+     *                    which are repaired after an unclean shutdown.
+     * dropped changes  - 8 bytes, the highest sequence number of a change which is no
+     *                    longer in any file, see HaloDBChangeIterator.
+     * count            - 4 bytes, missing in older versions.
+     * data directories - 2 bytes of length followed by the UTF-8 absolute path each,
+     *                    the db can't be opened without them, see DBDirectory.
+     * checksum         - 4 bytes.
      */
     private final static int META_DATA_SIZE = 4 + 1 + 1 + 8 + 1 + 4;
     private final static int checkSumSize = 4;
@@ -43,6 +61,9 @@ class DBMetaData {
     private long sequenceNumber = 0;
     private boolean ioError = false;
     private int maxFileSize = 0;
+    private List<Integer> activeDataFileIds = Collections.emptyList();
+    private long maxDroppedSequenceNumber = 0;
+    private List<File> dataDirectories = Collections.emptyList();
 
     DBMetaData(DBDirectory dbDirectory) {
         this.dbDirectory = dbDirectory;
@@ -62,6 +83,7 @@ class DBMetaData {
                     sequenceNumber = buff.getLong();
                     ioError = buff.get() != 0;
                     maxFileSize = buff.getInt();
+                    readExtension(channel);
                 }
             }
         }
@@ -86,12 +108,84 @@ class DBMetaData {
 
                 buff.flip();
                 channel.write(buff);
+                if (!activeDataFileIds.isEmpty() || maxDroppedSequenceNumber != 0 || !dataDirectories.isEmpty()) {
+                    channel.write(serializeExtension());
+                }
                 Files.move(tempFile, dbDirectory.getPath().resolve(METADATA_FILE_NAME), REPLACE_EXISTING, ATOMIC_MOVE);
                 dbDirectory.syncMetaData();
             }
         }
     }
 
+    // ignored if missing or corrupted, as older versions don't write it.
+    private void readExtension(SeekableByteChannel channel) throws IOException {
+        activeDataFileIds = Collections.emptyList();
+        maxDroppedSequenceNumber = 0;
+        dataDirectories = Collections.emptyList();
+        long remaining = channel.size() - META_DATA_SIZE;
+        if (remaining < 16 || remaining > Integer.MAX_VALUE) {
+            return;
+        }
+        ByteBuffer buff = ByteBuffer.allocate((int) remaining);
+        channel.read(buff);
+        buff.flip();
+        CRC32 crc32 = new CRC32();
+        crc32.update(buff.array(), 0, buff.limit() - 4);
+        if (Utils.toUnsignedIntFromInt(buff.getInt(buff.limit() - 4)) != crc32.getValue()) {
+            return;
+        }
+        buff.limit(buff.limit() - 4);
+        try {
+            int count = buff.getInt();
+            if (count < 0 || count > buff.remaining() / 4) {
+                return;
+            }
+            List<Integer> fileIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                fileIds.add(buff.getInt());
+            }
+            long droppedSequenceNumber = buff.getLong();
+            List<File> directories = new ArrayList<>();
+            if (buff.hasRemaining()) {
+                int numberOfDirectories = buff.getInt();
+                for (int i = 0; i < numberOfDirectories; i++) {
+                    byte[] path = new byte[buff.getShort() & 0xFFFF];
+                    buff.get(path);
+                    directories.add(new File(new String(path, StandardCharsets.UTF_8)));
+                }
+            }
+            activeDataFileIds = fileIds;
+            maxDroppedSequenceNumber = droppedSequenceNumber;
+            dataDirectories = directories;
+        } catch (BufferUnderflowException e) {
+            // corrupted, ignored as well.
+        }
+    }
+
+    private ByteBuffer serializeExtension() {
+        List<byte[]> paths = new ArrayList<>();
+        int size = 4 + activeDataFileIds.size() * 4 + 8 + 4 + 4;
+        for (File directory : dataDirectories) {
+            byte[] path = directory.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+            paths.add(path);
+            size += 2 + path.length;
+        }
+        ByteBuffer buff = ByteBuffer.allocate(size);
+        buff.putInt(activeDataFileIds.size());
+        activeDataFileIds.forEach(buff::putInt);
+        buff.putLong(maxDroppedSequenceNumber);
+        buff.putInt(paths.size());
+        for (byte[] path : paths) {
+            buff.putShort((short) path.length);
+            buff.put(path);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(buff.array(), 0, buff.position());
+        buff.putInt((int) crc32.getValue());
+        buff.flip();
+        return buff;
+    }
+
     private long computeCheckSum(byte[] header) {
         CRC32 crc32 = new CRC32();
         crc32.update(header, checkSumOffset + checkSumSize, META_DATA_SIZE - checkSumSize);
@@ -142,6 +236,30 @@ class DBMetaData {
         this.version = version;
     }
 
+    List<Integer> getActiveDataFileIds() {
+        return activeDataFileIds;
+    }
+
+    void setActiveDataFileIds(List<Integer> activeDataFileIds) {
+        this.activeDataFileIds = Collections.unmodifiableList(new ArrayList<>(activeDataFileIds));
+    }
+
+    long getMaxDroppedSequenceNumber() {
+        return maxDroppedSequenceNumber;
+    }
+
+    void setMaxDroppedSequenceNumber(long maxDroppedSequenceNumber) {
+        this.maxDroppedSequenceNumber = maxDroppedSequenceNumber;
+    }
+
+    List<File> getDataDirectories() {
+        return dataDirectories;
+    }
+
+    void setDataDirectories(List<File> dataDirectories) {
+        this.dataDirectories = Collections.unmodifiableList(new ArrayList<>(dataDirectories));
+    }
+
     public int getMaxFileSize() {
         return maxFileSize;
     }
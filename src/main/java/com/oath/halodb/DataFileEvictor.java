@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Used in cache mode, see {@link HaloDBOptions#getMaxTotalDataFileSize()}. Once the
+ * total size of data files crosses the limit the oldest data files are dropped
+ * wholesale. No tombstones are written and there is no compaction.
+ *
+ * An evicted file is removed from the read file map right away, records in the
+ * in-memory index which still point to it are then removed in the background by
+ * scanning its index file after which the file is deleted. Until then, lookups
+ * find out that the file was evicted from its id, as the oldest files are always
+ * evicted first.
+ *
+ * Since data files are not compacted in cache mode files with lower ids only have
+ * older versions of keys, hence evicting them never makes an older version of a
+ * key visible when the index is built again.
+ */
+class DataFileEvictor {
+    private static final Logger logger = LoggerFactory.getLogger(DataFileEvictor.class);
+    private static final int STOP_SIGNAL = -10101;
+
+    private final HaloDBInternal dbInternal;
+    private final Map<Integer, HaloDBFile> evictedFiles = new ConcurrentHashMap<>();
+    private final BlockingQueue<Integer> evictionQueue = new LinkedBlockingQueue<>();
+    private volatile EvictionThread evictionThread;
+    private volatile boolean isRunning = false;
+
+    private volatile int maxEvictedFileId = -1;
+    private volatile long numberOfFilesEvicted = 0;
+    private volatile long numberOfRecordsEvicted = 0;
+
+    DataFileEvictor(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+    }
+
+    void start() {
+        isRunning = true;
+        evictionThread = new EvictionThread();
+        evictionThread.start();
+    }
+
+    /**
+     * Files evicted but not yet processed are deleted without cleaning up the
+     * in-memory index, which is not used after the db is closed.
+     */
+    void stop() throws IOException {
+        isRunning = false;
+        if (evictionThread != null && evictionThread.isAlive()) {
+            try {
+                evictionQueue.put(STOP_SIGNAL);
+                evictionThread.join();
+            } catch (InterruptedException e) {
+                logger.error("Error while waiting for eviction thread to stop", e);
+            }
+        }
+
+        for (HaloDBFile file : evictedFiles.values()) {
+            dbInternal.changesDropped(getMaxSequenceNumber(file));
+            file.delete();
+        }
+        evictedFiles.clear();
+    }
+
+    /**
+     * Called by the write threads after they roll over to a new file. Files older than
+     * the oldest one being written to are evicted.
+     */
+    synchronized void evictIfOverLimit() {
+        long maxTotalSize = dbInternal.options.getMaxTotalDataFileSize();
+        List<Integer> fileIds = new ArrayList<>(dbInternal.listDataFileIds());
+        Collections.sort(fileIds);
+
+        long totalSize = 0;
+        for (int fileId : fileIds) {
+            HaloDBFile file = dbInternal.getHaloDBFile(fileId);
+            totalSize += file != null ? file.getSize() : 0;
+        }
+
+        for (int fileId : fileIds) {
+            if (totalSize <= maxTotalSize || dbInternal.isFileBeingWritten(fileId)) {
+                break;
+            }
+            HaloDBFile file = dbInternal.removeHaloDBFile(fileId);
+            if (file == null) {
+                continue;
+            }
+            maxEvictedFileId = Math.max(maxEvictedFileId, fileId);
+            totalSize -= file.getSize();
+            numberOfFilesEvicted++;
+            logger.debug("Evicting data file {}, total size of data files {}", fileId, totalSize);
+            evictedFiles.put(fileId, file);
+            evictionQueue.offer(fileId);
+        }
+    }
+
+    /**
+     * Evicted files are removed from the read file map, a missing file with an id
+     * not newer than the last evicted one was therefore evicted.
+     */
+    boolean isEvicted(int fileId) {
+        return fileId <= maxEvictedFileId && dbInternal.getHaloDBFile(fileId) == null;
+    }
+
+    private void removeEvictedRecords(HaloDBFile file) throws IOException {
+        InMemoryIndex inMemoryIndex = dbInternal.getInMemoryIndex();
+        IndexFile.IndexFileIterator iterator = file.getIndexFile().newIterator();
+        long removed = 0;
+        long maxSequenceNumber = 0;
+        while (iterator.hasNext()) {
+            IndexFileEntry entry = iterator.next();
+            maxSequenceNumber = Math.max(maxSequenceNumber, entry.getSequenceNumber());
+            InMemoryIndexMetaData current = inMemoryIndex.get(entry.getKey());
+            if (current != null && current.getFileId() == file.getFileId()
+                    && current.getValueOffset() == Utils.getValueOffset(entry.getRecordOffset(), entry.getKey())
+                    && inMemoryIndex.remove(entry.getKey(), current)) {
+                dbInternal.keyRemoved(entry.getKey());
+                removed++;
+            }
+        }
+        numberOfRecordsEvicted += removed;
+        logger.debug("Removed {} records of evicted file {} from the index", removed, file.getFileId());
+        long size = file.getSize();
+        dbInternal.changesDropped(maxSequenceNumber);
+        file.delete();
+        evictedFiles.remove(file.getFileId());
+        dbInternal.getTombstoneCompactor().dataFileDeleted(size);
+    }
+
+    private static long getMaxSequenceNumber(HaloDBFile file) throws IOException {
+        long maxSequenceNumber = 0;
+        IndexFile.IndexFileIterator iterator = file.getIndexFile().newIterator();
+        while (iterator.hasNext()) {
+            maxSequenceNumber = Math.max(maxSequenceNumber, iterator.next().getSequenceNumber());
+        }
+        return maxSequenceNumber;
+    }
+
+    // files evicted but not yet deleted.
+    Collection<HaloDBFile> getEvictedFiles() {
+        return new ArrayList<>(evictedFiles.values());
+    }
+
+    long getNumberOfFilesEvicted() {
+        return numberOfFilesEvicted;
+    }
+
+    long getNumberOfRecordsEvicted() {
+        return numberOfRecordsEvicted;
+    }
+
+    void resetStats() {
+        numberOfFilesEvicted = numberOfRecordsEvicted = 0;
+    }
+
+    // Used only in tests.
+    @VisibleForTesting
+    boolean isEvictionComplete() {
+        return evictedFiles.isEmpty();
+    }
+
+    private class EvictionThread extends Thread {
+
+        EvictionThread() {
+            super("DataFileEvictionThread");
+        }
+
+        @Override
+        public void run() {
+            logger.info("Starting data file eviction thread ...");
+            while (isRunning) {
+                try {
+                    int fileId = evictionQueue.take();
+                    if (fileId == STOP_SIGNAL) {
+                        continue;
+                    }
+                    HaloDBFile file = evictedFiles.get(fileId);
+                    if (file != null) {
+                        removeEvictedRecords(file);
+                    }
+                } catch (Exception e) {
+                    logger.error("Error while evicting data file", e);
+                }
+            }
+            logger.info("Data file eviction thread stopped.");
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically scans the index files for records whose time to live has passed
+ * and removes them from the in-memory index. Expired records are treated as deleted
+ * when read, but unless they are removed from the index the space they take on disk
+ * would not count as stale and would never be reclaimed by compaction.
+ *
+ * Only files with records whose earliest expiry time has passed are scanned. Files
+ * which are still being written to are skipped, they are scanned once they are full.
+ */
+class ExpiredRecordSweeper {
+    private static final Logger logger = LoggerFactory.getLogger(ExpiredRecordSweeper.class);
+    private static final int STOP_SIGNAL = -10101;
+
+    private final HaloDBInternal dbInternal;
+    private final BlockingQueue<Integer> signalQueue = new LinkedBlockingQueue<>();
+    private volatile SweeperThread sweeperThread;
+    private volatile boolean isStopped = false;
+    // earliest expiry time of the records with a ttl in each data file.
+    private final Map<Integer, Integer> earliestExpiryTimePerFile = new ConcurrentHashMap<>();
+
+    ExpiredRecordSweeper(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+    }
+
+    /**
+     * Started only once there are records with a ttl.
+     */
+    synchronized void startIfNotRunning() {
+        if (!isStopped && (sweeperThread == null || !sweeperThread.isAlive())) {
+            sweeperThread = new SweeperThread();
+            sweeperThread.start();
+        }
+    }
+
+    void stop() {
+        // the sweeper takes the write lock, and put() takes the lock on this object while holding
+        // the write lock, hence we don't wait for the sweeper thread while holding the lock.
+        SweeperThread sweeperThread;
+        synchronized (this) {
+            isStopped = true;
+            sweeperThread = this.sweeperThread;
+        }
+        if (sweeperThread != null && sweeperThread.isAlive()) {
+            try {
+                signalQueue.put(STOP_SIGNAL);
+                sweeperThread.join();
+            } catch (InterruptedException e) {
+                logger.error("Error while waiting for expired record sweeper to stop", e);
+            }
+        }
+    }
+
+    /**
+     * Called when a record with a ttl was written to the file, or found in it when the index is built.
+     */
+    void recordWritten(int fileId, int expiryTime) {
+        earliestExpiryTimePerFile.merge(fileId, expiryTime, (a, b) -> Integer.compareUnsigned(a, b) <= 0 ? a : b);
+    }
+
+    @VisibleForTesting
+    Set<Integer> getFilesWithExpiryTime() {
+        return earliestExpiryTimePerFile.keySet();
+    }
+
+    /**
+     * @return number of records removed.
+     */
+    @VisibleForTesting
+    long sweep() throws IOException {
+        long removed = 0;
+        for (Map.Entry<Integer, Integer> earliest : earliestExpiryTimePerFile.entrySet()) {
+            if (!Record.isExpired(earliest.getValue())) {
+                continue;
+            }
+            int fileId = earliest.getKey();
+            HaloDBFile file = dbInternal.getHaloDBFile(fileId);
+            if (file == null) {
+                // deleted by compaction or eviction.
+                earliestExpiryTimePerFile.remove(fileId);
+                continue;
+            }
+            if (dbInternal.isFileBeingWritten(fileId)) {
+                continue;
+            }
+
+            IndexFile.IndexFileIterator iterator;
+            try {
+                iterator = file.getIndexFile().newIterator();
+            } catch (ClosedChannelException e) {
+                logger.debug("Index file {} closed, probably by compaction thread. Skipping to next one", fileId);
+                continue;
+            }
+
+            // earliest expiry time of the live records which haven't expired yet.
+            int next = 0;
+            while (iterator.hasNext()) {
+                if (isStopped) {
+                    return removed;
+                }
+                IndexFileEntry entry = iterator.next();
+                if (entry.getExpiryTime() == 0) {
+                    continue;
+                }
+                InMemoryIndexMetaData metaData = Utils.getMetaData(entry, fileId);
+                if (!dbInternal.isRecordFresh(entry.getKey(), metaData)) {
+                    continue;
+                }
+                if (!Record.isExpired(entry.getExpiryTime())) {
+                    if (next == 0 || Integer.compareUnsigned(entry.getExpiryTime(), next) < 0) {
+                        next = entry.getExpiryTime();
+                    }
+                } else if (dbInternal.removeExpiredRecord(entry.getKey(), metaData)) {
+                    removed++;
+                }
+            }
+            // the file is full, hence no records are added to it in the meantime.
+            if (next == 0) {
+                earliestExpiryTimePerFile.remove(fileId);
+            } else {
+                earliestExpiryTimePerFile.put(fileId, next);
+            }
+        }
+        return removed;
+    }
+
+    private class SweeperThread extends Thread {
+
+        SweeperThread() {
+            super("ExpiredRecordSweeperThread");
+        }
+
+        @Override
+        public void run() {
+            logger.info("Starting expired record sweeper ...");
+            long interval = TimeUnit.SECONDS.toMillis(dbInternal.options.getExpiredRecordSweepIntervalInSeconds());
+            while (!isStopped) {
+                try {
+                    Integer signal = signalQueue.poll(interval, TimeUnit.MILLISECONDS);
+                    if (signal != null && signal == STOP_SIGNAL) {
+                        continue;
+                    }
+                    long removed = sweep();
+                    logger.debug("Removed {} expired records", removed);
+                } catch (Exception e) {
+                    logger.error("Error in expired record sweeper", e);
+                }
+            }
+            logger.info("Expired record sweeper stopped.");
+        }
+    }
+}
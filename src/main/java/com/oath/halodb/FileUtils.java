@@ -55,6 +55,19 @@ class FileUtils {
         return files;
     }
 
+    /**
+     * Returns all *.blob files in the given directory sorted by file id.
+     */
+    static File[] listBlobFiles(File directory) {
+        File[] files = directory.listFiles(file -> Constants.BLOB_FILE_PATTERN.matcher(file.getName()).matches());
+        if (files == null)
+            return new File[0];
+
+        Comparator<File> comparator = Comparator.comparingInt(f -> getFileId(f, Constants.BLOB_FILE_PATTERN));
+        Arrays.sort(files, comparator);
+        return files;
+    }
+
     /**
      * Returns all *.data and *.datac files in the given directory.
      */
@@ -62,7 +75,7 @@ class FileUtils {
         return directory.listFiles(file -> Constants.DATA_FILE_PATTERN.matcher(file.getName()).matches());
     }
 
-    private static int getFileId(File file, Pattern pattern) {
+    static int getFileId(File file, Pattern pattern) {
         Matcher matcher = pattern.matcher(file.getName());
         if (matcher.find()) {
             return Integer.valueOf(matcher.group(1));
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds its own in-memory index from the files of a db which another process is writing
+ * to, and keeps it up to date by reading the entries appended to the index and tombstone
+ * files since the last refresh. No lock is taken and nothing is written to the directory.
+ *
+ * Files are kept open until they were deleted by the writer, which on Linux leaves them
+ * readable, hence a deleted file is read once more to drop the records which were only
+ * in it, e.g. in cache mode. Data files are read in the order of their ids so that a
+ * record copied by compaction, which has the same sequence number but a larger file id,
+ * replaces the original.
+ *
+ * Compaction might copy a record after it was deleted, in which case the writer ignores
+ * the copy and relies on the tombstone when it builds the index. Keys deleted by a
+ * tombstone are therefore remembered until the tombstone file is deleted, by a marker in
+ * the off-heap index which takes the place of the deleted record.
+ */
+class Follower {
+    private static final Logger logger = LoggerFactory.getLogger(Follower.class);
+    private static final int maxReadAttempts = 5;
+    private static final int STOP_SIGNAL = -10101;
+    // file id of the index entries which mark a key as deleted.
+    private static final int DELETED_FILE_ID = -1;
+
+    private final File directory;
+    private final HaloDBOptions options;
+    private final DBDirectory dbDirectory;
+    private final InMemoryIndex inMemoryIndex;
+
+    private final Map<Integer, FollowedDataFile> dataFiles = new ConcurrentHashMap<>();
+    private final Map<Integer, BlobFile> blobFiles = new ConcurrentHashMap<>();
+    // accessed only while refreshing.
+    private final Map<Integer, FollowedTombstoneFile> tombstoneFiles = new HashMap<>();
+    // written only while refreshing.
+    private volatile long numberOfDeleteMarkers = 0;
+    // guarded by this, waited for by readers which need the next refresh, see waitForNextRefresh().
+    private long numberOfRefreshes = 0;
+
+    private final BlockingQueue<Integer> signalQueue = new LinkedBlockingQueue<>();
+    private volatile RefreshThread refreshThread;
+    private volatile boolean isClosed = false;
+
+    private Follower(File directory, HaloDBOptions options, DBDirectory dbDirectory) {
+        this.directory = directory;
+        this.options = options;
+        this.dbDirectory = dbDirectory;
+        this.inMemoryIndex = new InMemoryIndex(
+                options.getNumberOfRecords(), options.isUseMemoryPool(),
+                options.getFixedKeySize(), options.getMemoryPoolChunkSize(), options.isTtlEnabled()
+        );
+    }
+
+    static Follower open(File directory, HaloDBOptions options) throws HaloDBException, IOException {
+        if (!new File(directory, DBMetaData.METADATA_FILE_NAME).exists()) {
+            throw new HaloDBException("Db " + directory.getName() + " doesn't exist");
+        }
+        Follower follower = new Follower(directory, options, DBDirectory.open(directory, options.getDataDirectories()));
+        try {
+            long start = System.currentTimeMillis();
+            follower.refresh();
+            logger.info("Built index of {} with {} records in {}s", directory.getName(), follower.size(),
+                    (System.currentTimeMillis() - start) / 1000);
+        } catch (IOException | RuntimeException e) {
+            follower.close();
+            throw e;
+        }
+        follower.refreshThread = follower.new RefreshThread();
+        follower.refreshThread.start();
+        return follower;
+    }
+
+    void close() throws IOException {
+        RefreshThread refreshThread = this.refreshThread;
+        if (refreshThread != null && refreshThread.isAlive()) {
+            try {
+                signalQueue.put(STOP_SIGNAL);
+                refreshThread.join();
+            } catch (InterruptedException e) {
+                logger.error("Error while waiting for refresh thread to stop", e);
+            }
+        }
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            for (FollowedDataFile file : dataFiles.values()) {
+                file.file.close();
+            }
+            for (FollowedTombstoneFile file : tombstoneFiles.values()) {
+                file.file.close();
+            }
+            for (BlobFile file : blobFiles.values()) {
+                file.close();
+            }
+            if (options.isCleanUpInMemoryIndexOnClose()) {
+                inMemoryIndex.close();
+            }
+            dbDirectory.close();
+            notifyAll();
+        }
+    }
+
+    byte[] get(byte[] key, int attemptNumber) throws IOException, HaloDBException {
+        if (attemptNumber > maxReadAttempts) {
+            logger.error("Tried {} attempts but read failed", attemptNumber - 1);
+            throw new HaloDBException("Tried " + attemptNumber + " attempts but failed.");
+        }
+        InMemoryIndexMetaData metaData = inMemoryIndex.get(key);
+        if (metaData == null || isDeleteMarker(metaData) || metaData.isExpired()) {
+            return null;
+        }
+
+        FollowedDataFile file = dataFiles.get(metaData.getFileId());
+        if (file == null) {
+            logger.debug("File {} not present. Was deleted in the meantime. Retrying ...", metaData.getFileId());
+            return get(key, attemptNumber + 1);
+        }
+
+        try {
+            byte[] value = file.file.readValue(metaData);
+            if (!metaData.isBlob()) {
+                return value;
+            }
+            BlobPointer pointer = BlobPointer.deserialize(value);
+            BlobFile blobFile = blobFiles.get(pointer.getFileId());
+            if (blobFile == null) {
+                // created after the last refresh, or relocated by the garbage collector.
+                logger.debug("Blob file {} not present. Retrying after the next refresh ...", pointer.getFileId());
+                waitForNextRefresh();
+                return get(key, attemptNumber + 1);
+            }
+            return BlobManager.readValue(blobFile, pointer);
+        } catch (ClosedChannelException e) {
+            if (!isClosed) {
+                logger.debug("File {} was closed. Was deleted in the meantime. Retrying ...", metaData.getFileId());
+                return get(key, attemptNumber + 1);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until the refresh thread completes a refresh which started after this was called,
+     * instead of refreshing on the read path, which would make reads wait for each other.
+     * Gives up after twice the refresh interval, in which case the caller retries anyway.
+     */
+    private synchronized void waitForNextRefresh() throws HaloDBException {
+        long refreshes = numberOfRefreshes;
+        long deadline = System.currentTimeMillis() + 2 * options.getFollowerRefreshIntervalInMillis();
+        try {
+            long remaining;
+            while (numberOfRefreshes == refreshes && !isClosed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HaloDBException("Interrupted while waiting for the next refresh", e);
+        }
+    }
+
+    long size() {
+        return inMemoryIndex.size() - numberOfDeleteMarkers;
+    }
+
+    @VisibleForTesting
+    long getNumberOfDeleteMarkers() {
+        return numberOfDeleteMarkers;
+    }
+
+    /**
+     * Reads the entries written since the last refresh. Blob files are opened first as
+     * pointers to them might be read, and index entries are read before tombstones, as
+     * the put a tombstone deletes was written before it.
+     */
+    synchronized void refresh() throws IOException {
+        if (isClosed) {
+            return;
+        }
+
+        Set<Integer> blobFileIds = new HashSet<>();
+        for (File file : dbDirectory.listBlobFiles()) {
+            int fileId = FileUtils.getFileId(file, Constants.BLOB_FILE_PATTERN);
+            blobFileIds.add(fileId);
+            if (!blobFiles.containsKey(fileId)) {
+                try {
+                    blobFiles.put(fileId, BlobFile.openForReading(file, options));
+                } catch (FileNotFoundException e) {
+                    logger.debug("Blob file {} was deleted before it was read", file.getName());
+                }
+            }
+        }
+
+        Set<Integer> dataFileIds = new HashSet<>();
+        for (File file : dbDirectory.listDataFiles()) {
+            int fileId = HaloDBFile.getFileTimeStamp(file);
+            dataFileIds.add(fileId);
+            if (!dataFiles.containsKey(fileId)) {
+                try {
+                    HaloDBFile dataFile = HaloDBFile.openReadOnly(dbDirectory, file, HaloDBFile.findFileType(file), options);
+                    dataFiles.put(fileId, new FollowedDataFile(dataFile));
+                } catch (FileNotFoundException | NoSuchFileException e) {
+                    // the index file is created right after the data file, which is empty until then.
+                    logger.debug("Data file {} was deleted, or its index file not created yet", file.getName());
+                }
+            }
+        }
+
+        List<FollowedDataFile> files = new ArrayList<>(dataFiles.values());
+        files.sort(Comparator.comparingInt(f -> f.file.getFileId()));
+        for (FollowedDataFile file : files) {
+            int fileId = file.file.getFileId();
+            file.offset = file.file.getIndexFile().readCompleteEntries(file.offset, entry -> applyPut(entry, fileId));
+        }
+        for (FollowedDataFile file : files) {
+            if (!dataFileIds.contains(file.file.getFileId())) {
+                dataFileDeleted(file);
+            }
+        }
+
+        Set<Integer> tombstoneFileIds = new HashSet<>();
+        for (File file : dbDirectory.listTombstoneFiles()) {
+            TombstoneFile tombstoneFile = new TombstoneFile(file, options, dbDirectory);
+            tombstoneFileIds.add(tombstoneFile.getFileId());
+            if (!tombstoneFiles.containsKey(tombstoneFile.getFileId())) {
+                try {
+                    tombstoneFile.openForReading();
+                    tombstoneFiles.put(tombstoneFile.getFileId(), new FollowedTombstoneFile(tombstoneFile));
+                } catch (NoSuchFileException e) {
+                    logger.debug("Tombstone file {} was deleted before it was read", file.getName());
+                }
+            }
+        }
+        for (FollowedTombstoneFile file : new ArrayList<>(tombstoneFiles.values())) {
+            // a rewritten file still refers to the original one, which only had more tombstones.
+            file.offset = file.file.readCompleteEntries(file.offset, this::applyDelete);
+            if (!tombstoneFileIds.contains(file.file.getFileId())) {
+                tombstoneFileDeleted(file);
+            }
+        }
+
+        // pointers to the blobs of deleted files were replaced by now.
+        for (BlobFile file : new ArrayList<>(blobFiles.values())) {
+            if (!blobFileIds.contains(file.getFileId())) {
+                blobFiles.remove(file.getFileId());
+                file.close();
+            }
+        }
+        numberOfRefreshes++;
+        notifyAll();
+    }
+
+    private void applyPut(IndexFileEntry entry, int fileId) {
+        byte[] key = entry.getKey();
+        long sequenceNumber = entry.getSequenceNumber();
+        // a delete marker with a larger sequence number means the record was copied by compaction after it was deleted.
+        InMemoryIndexMetaData existing = inMemoryIndex.get(key);
+        if (existing != null && (existing.getSequenceNumber() > sequenceNumber
+                || (existing.getSequenceNumber() == sequenceNumber && existing.getFileId() >= fileId))) {
+            return;
+        }
+        if (existing != null && isDeleteMarker(existing)) {
+            numberOfDeleteMarkers--;
+        }
+        inMemoryIndex.put(key, Utils.getMetaData(entry, fileId));
+    }
+
+    private void applyDelete(TombstoneEntry entry) {
+        byte[] key = entry.getKey();
+        InMemoryIndexMetaData existing = inMemoryIndex.get(key);
+        if (existing != null && existing.getSequenceNumber() < entry.getSequenceNumber()) {
+            if (!isDeleteMarker(existing)) {
+                numberOfDeleteMarkers++;
+            }
+            inMemoryIndex.put(key, new InMemoryIndexMetaData(DELETED_FILE_ID, 0, 0, entry.getSequenceNumber(), 0));
+        }
+    }
+
+    // records which are still in the index were only in this file, e.g. evicted in cache mode.
+    private void dataFileDeleted(FollowedDataFile file) throws IOException {
+        int fileId = file.file.getFileId();
+        file.file.getIndexFile().readCompleteEntries(0, entry -> {
+            InMemoryIndexMetaData current = inMemoryIndex.get(entry.getKey());
+            if (current != null && current.getFileId() == fileId
+                    && current.getValueOffset() == Utils.getValueOffset(entry.getRecordOffset(), entry.getKey())) {
+                inMemoryIndex.remove(entry.getKey());
+            }
+        });
+        logger.debug("Data file {} was deleted, closing it", fileId);
+        dataFiles.remove(fileId);
+        dbDirectory.dataFileDeleted(fileId);
+        file.file.close();
+    }
+
+    private void tombstoneFileDeleted(FollowedTombstoneFile file) throws IOException {
+        file.file.readCompleteEntries(0, entry -> {
+            InMemoryIndexMetaData current = inMemoryIndex.get(entry.getKey());
+            if (current != null && isDeleteMarker(current) && current.getSequenceNumber() == entry.getSequenceNumber()) {
+                inMemoryIndex.remove(entry.getKey());
+                numberOfDeleteMarkers--;
+            }
+        });
+        tombstoneFiles.remove(file.file.getFileId());
+        file.file.close();
+    }
+
+    private static boolean isDeleteMarker(InMemoryIndexMetaData metaData) {
+        return metaData.getFileId() == DELETED_FILE_ID;
+    }
+
+    private static class FollowedDataFile {
+        private final HaloDBFile file;
+        // offset up to which the index file was read.
+        private long offset = 0;
+
+        FollowedDataFile(HaloDBFile file) {
+            this.file = file;
+        }
+    }
+
+    private static class FollowedTombstoneFile {
+        private final TombstoneFile file;
+        private long offset = 0;
+
+        FollowedTombstoneFile(TombstoneFile file) {
+            this.file = file;
+        }
+    }
+
+    private class RefreshThread extends Thread {
+
+        RefreshThread() {
+            super("FollowerRefreshThread-" + directory.getName());
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            logger.info("Starting follower refresh thread ...");
+            long interval = options.getFollowerRefreshIntervalInMillis();
+            while (!isClosed) {
+                try {
+                    Integer signal = signalQueue.poll(interval, TimeUnit.MILLISECONDS);
+                    if (signal != null && signal == STOP_SIGNAL) {
+                        break;
+                    }
+                    refresh();
+                } catch (InterruptedException e) {
+                    logger.error("Follower refresh thread interrupted", e);
+                    break;
+                } catch (Exception e) {
+                    logger.error("Error while refreshing follower", e);
+                }
+            }
+            logger.info("Follower refresh thread stopped.");
+        }
+    }
+}
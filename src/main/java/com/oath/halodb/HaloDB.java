@@ -6,100 +6,574 @@
 package com.oath.halodb;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class HaloDB {
 
-    private HaloDBInternal dbInternal;
+    static final String SHARD_DIRECTORY_PREFIX = "shard-";
+
+    // independent of the hash used by the in-memory index, so that keys of a shard
+    // are still spread evenly across the segments of its index.
+    private static final HashFunction shardHash = Hashing.murmur3_32(0x2f1c3d5b);
+
+    // a single instance unless numberOfShards is set, in which case each shard is
+    // stored in its own sub directory and keys are hash partitioned across them.
+    private HaloDBInternal[] shards;
 
     private File directory;
 
+    private HaloDBOptions options;
+
+    private Map<String, HaloDBNamespace> namespaces;
+    private Map<Integer, HaloDBNamespace> namespacesById;
+
     public static HaloDB open(File dirname, HaloDBOptions opts) throws HaloDBException {
         HaloDB db = new HaloDB();
         try {
-            db.dbInternal = HaloDBInternal.open(dirname, opts);
             db.directory = dirname;
+            db.options = opts;
+            if (opts.getNumberOfShards() == 1) {
+                checkShardDirectories(dirname, 0);
+                db.shards = new HaloDBInternal[] {HaloDBInternal.open(dirname, opts)};
+            } else {
+                db.shards = openShards(dirname, opts);
+            }
+            db.namespaces = new HashMap<>();
+            db.namespacesById = new HashMap<>();
+            opts.getNamespaceIds().forEach((name, id) -> {
+                HaloDBNamespace namespace = new HaloDBNamespace(db, name, id, opts.getNamespaceOptions(name));
+                db.namespaces.put(name, namespace);
+                db.namespacesById.put(id, namespace);
+            });
         } catch (IOException e) {
             throw new HaloDBException("Failed to open db " + dirname.getName(), e);
         }
         return db;
     }
 
+    private static HaloDBInternal[] openShards(File directory, HaloDBOptions options) throws HaloDBException, IOException {
+        int numberOfShards = options.getNumberOfShards();
+        FileUtils.createDirectoryIfNotExists(directory);
+        checkShardDirectories(directory, numberOfShards);
+        if (FileUtils.listDataFiles(directory).length > 0) {
+            throw new IllegalArgumentException("Db " + directory.getName() + " was created without shards");
+        }
+
+        HaloDBInternal[] shards = new HaloDBInternal[numberOfShards];
+        try {
+            for (int i = 0; i < numberOfShards; i++) {
+                shards[i] = HaloDBInternal.open(getShardDirectory(directory, i), options.forShard(i));
+            }
+        } catch (HaloDBException | IOException | RuntimeException e) {
+            for (HaloDBInternal shard : shards) {
+                if (shard != null) {
+                    try {
+                        shard.close();
+                    } catch (IOException ce) {
+                        e.addSuppressed(ce);
+                    }
+                }
+            }
+            throw e;
+        }
+        return shards;
+    }
+
+    // keys are routed by hash, hence the number of shards can't change once data was written.
+    static void checkShardDirectories(File directory, int numberOfShards) {
+        int existing = countShardDirectories(directory);
+        if (existing != 0 && existing != numberOfShards) {
+            throw new IllegalArgumentException("Db " + directory.getName() + " was created with " + existing + " shards");
+        }
+    }
+
+    static int countShardDirectories(File directory) {
+        File[] shardDirectories = directory.listFiles(f -> f.isDirectory() && f.getName().startsWith(SHARD_DIRECTORY_PREFIX));
+        return shardDirectories != null ? shardDirectories.length : 0;
+    }
+
+    static File getShardDirectory(File directory, int shard) {
+        return new File(directory, SHARD_DIRECTORY_PREFIX + shard);
+    }
+
     public static HaloDB open(String directory, HaloDBOptions opts) throws HaloDBException {
         return HaloDB.open(new File(directory), opts);
     }
 
     public byte[] get(byte[] key) throws HaloDBException {
+        HaloDBInternal dbInternal = getShard(key);
+        long start = System.nanoTime();
         try {
             return dbInternal.get(key, 1);
         } catch (IOException e) {
             throw new HaloDBException("Lookup failed.", e);
+        } finally {
+            dbInternal.recordLatency(start);
         }
     }
 
+    /**
+     * Keys can't start with the prefix of a namespace, see HaloDBNamespace.
+     */
     public boolean put(byte[] key, byte[] value) throws HaloDBException {
+        checkKeyIsOutsideNamespaces(key);
+        return putRecord(key, value, 0);
+    }
+
+    /**
+     * Stores a record which is treated as deleted once ttlInSeconds have passed. Requires
+     * HaloDBOptions.setTtlEnabled().
+     */
+    public boolean put(byte[] key, byte[] value, long ttlInSeconds) throws HaloDBException {
+        checkKeyIsOutsideNamespaces(key);
+        return putRecord(key, value, Record.toExpiryTime(ttlInSeconds));
+    }
+
+    // used by namespaces, whose keys are prefixed.
+    boolean putRecord(byte[] key, byte[] value, int expiryTime) throws HaloDBException {
+        HaloDBInternal dbInternal = getShard(key);
+        long start = System.nanoTime();
         try {
-            return dbInternal.put(key, value);
+            return dbInternal.put(key, value, expiryTime);
         } catch (IOException e) {
             throw new HaloDBException("Store to db failed.", e);
+        } finally {
+            dbInternal.recordLatency(start);
         }
     }
 
     public void delete(byte[] key) throws HaloDBException {
+        checkKeyIsOutsideNamespaces(key);
+        deleteRecord(key);
+    }
+
+    void deleteRecord(byte[] key) throws HaloDBException {
         try {
-            dbInternal.delete(key);
+            getShard(key).delete(key);
         } catch (IOException e) {
             throw new HaloDBException("Delete operation failed.", e);
         }
     }
 
     public void close() throws HaloDBException {
-        try {
-            dbInternal.close();
-        } catch (IOException e) {
-            throw new HaloDBException("Error while closing " + directory.getName(), e);
+        // all shards are closed even if closing one of them failed.
+        HaloDBException error = null;
+        for (HaloDBInternal dbInternal : shards) {
+            try {
+                dbInternal.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = new HaloDBException("Error while closing " + directory.getName(), e);
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
         }
     }
 
+    /**
+     * Number of records in the db, including those of namespaces.
+     */
     public long size() {
-        return dbInternal.size();
+        long size = 0;
+        for (HaloDBInternal dbInternal : shards) {
+            size += dbInternal.size();
+        }
+        return size;
     }
 
     public HaloDBStats stats() {
-        return dbInternal.stats();
+        if (shards.length == 1) {
+            return shards[0].stats();
+        }
+        HaloDBStats[] shardStats = new HaloDBStats[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shardStats[i] = shards[i].stats();
+        }
+        return HaloDBStats.merge(shardStats, options);
     }
 
     public void resetStats() {
-        dbInternal.resetStats();
+        for (HaloDBInternal dbInternal : shards) {
+            dbInternal.resetStats();
+        }
+        for (HaloDBNamespace namespace : namespaces.values()) {
+            namespace.resetStats();
+        }
+    }
+
+    /**
+     * Returns the namespace registered with HaloDBOptions.addNamespace().
+     */
+    public HaloDBNamespace getNamespace(String name) throws HaloDBException {
+        HaloDBNamespace namespace = namespaces.get(name);
+        if (namespace == null) {
+            throw new HaloDBException("Namespace " + name + " doesn't exist");
+        }
+        return namespace;
     }
 
+    /**
+     * Iterators and scans of the db return the records of namespaces too, with their keys
+     * prefixed by the id of the namespace.
+     */
     public HaloDBIterator newIterator() throws HaloDBException {
-        return new HaloDBIterator(dbInternal);
+        return new HaloDBIterator(Arrays.asList(shards));
+    }
+
+    /**
+     * Returns an iterator over the live keys which reads only the in-memory index.
+     */
+    public HaloDBKeyIterator newKeyIterator() {
+        return new HaloDBKeyIterator(Arrays.asList(shards));
+    }
+
+    /**
+     * Returns an iterator over the live keys and the metadata of their current versions, which
+     * reads only the in-memory index.
+     */
+    public Iterator<HaloDBKeyMetaData> newMetaDataIterator() {
+        HaloDBKeyIterator keys = newKeyIterator();
+        return new Iterator<HaloDBKeyMetaData>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public HaloDBKeyMetaData next() {
+                byte[] key = keys.next();
+                return new HaloDBKeyMetaData(key, keys.getSequenceNumber(), keys.getValueSize(), keys.getExpiryTime());
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator which reads the data files sequentially, for full scans of large dbs.
+     * Must be closed if it isn't exhausted.
+     */
+    public HaloDBScanIterator newScanIterator() {
+        return new HaloDBScanIterator(Arrays.asList(shards), options.getScanReadAheadSize());
+    }
+
+    /**
+     * Returns the records with keys from fromKey, inclusive, to toKey, exclusive, in unsigned
+     * lexicographic order of the keys. A null bound leaves the range open on that side.
+     * Requires orderedKeyIndexEnabled.
+     */
+    public Iterator<Record> scan(byte[] fromKey, byte[] toKey) throws HaloDBException {
+        if (!options.isOrderedKeyIndexEnabled()) {
+            throw new HaloDBException("Range scans are not supported without orderedKeyIndexEnabled");
+        }
+        return new RangeIterator(Arrays.asList(shards), fromKey, toKey);
+    }
+
+    /**
+     * Returns the records whose keys start with the prefix, in key order, see scan().
+     */
+    public Iterator<Record> prefixScan(byte[] prefix) throws HaloDBException {
+        return scan(prefix, OrderedKeyIndex.prefixEnd(prefix));
+    }
+
+    /**
+     * Returns the records whose values have the attribute in the secondary index registered with
+     * HaloDBOptions.addSecondaryIndex(), in no particular order.
+     */
+    public List<Record> lookupBy(String indexName, byte[] attribute) throws HaloDBException {
+        if (!options.getSecondaryIndexes().containsKey(indexName)) {
+            throw new HaloDBException("Secondary index " + indexName + " doesn't exist");
+        }
+        List<Record> records = new ArrayList<>();
+        try {
+            for (HaloDBInternal shard : shards) {
+                records.addAll(shard.lookupBy(shard.getSecondaryIndexes().get(indexName), attribute));
+            }
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup by secondary index failed.", e);
+        }
+        return records;
+    }
+
+    /**
+     * Returns a spliterator over the records which splits by data file.
+     */
+    public HaloDBSpliterator spliterator() {
+        return new HaloDBSpliterator(Arrays.asList(shards));
+    }
+
+    public Stream<Record> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a stream which scans data files concurrently in the common fork/join pool.
+     */
+    public Stream<Record> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Returns the changes made after the sequence number, 0 for all the changes still on disk.
+     */
+    public HaloDBChangeIterator changesSince(long sequenceNumber) throws HaloDBException {
+        return changesSince(sequenceNumber, false);
+    }
+
+    /**
+     * Returns the changes made after the sequence number, if tailing hasNext() waits for new
+     * changes. Not supported with shards, as their sequence numbers are independent.
+     */
+    public HaloDBChangeIterator changesSince(long sequenceNumber, boolean tail) throws HaloDBException {
+        if (shards.length > 1) {
+            throw new HaloDBException("Change feed is not supported with shards");
+        }
+        return new HaloDBChangeIterator(shards[0], sequenceNumber, tail);
+    }
+
+    /**
+     * Returns a snapshot of the db, which ignores changes made afterwards. Must be closed, as the
+     * files deleted while it is open are kept on disk until then. With shards each shard is
+     * snapshotted one after the other.
+     */
+    public HaloDBSnapshot snapshot() throws HaloDBException {
+        Snapshot[] snapshots = new Snapshot[shards.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                snapshots[i] = shards[i].openSnapshot();
+            }
+        } catch (HaloDBException e) {
+            for (Snapshot snapshot : snapshots) {
+                if (snapshot != null) {
+                    try {
+                        snapshot.release();
+                    } catch (IOException re) {
+                        e.addSuppressed(re);
+                    }
+                }
+            }
+            throw e;
+        }
+        return new HaloDBSnapshot(this, snapshots);
     }
 
     public void pauseCompaction() throws HaloDBException {
         try {
-            dbInternal.pauseCompaction();
+            for (HaloDBInternal dbInternal : shards) {
+                dbInternal.pauseCompaction();
+            }
         } catch (IOException | InterruptedException e) {
             throw new HaloDBException("Error while trying to pause compaction thread", e);
         }
     }
 
     public void resumeCompaction() {
-        dbInternal.resumeCompaction();
+        for (HaloDBInternal dbInternal : shards) {
+            dbInternal.resumeCompaction();
+        }
+    }
+
+    /**
+     * Compacts all data files in which at least minStaleRatio of the data is stale, without
+     * waiting for them to cross compactionThresholdPerFile. 0 compacts all data files.
+     *
+     * @return a future which completes once all the files were compacted, or exceptionally
+     * if compaction of one of them failed or the db was closed in the meantime.
+     */
+    public CompletableFuture<Void> compact(double minStaleRatio) throws HaloDBException {
+        if (minStaleRatio < 0 || minStaleRatio > 1) {
+            throw new IllegalArgumentException("minStaleRatio should be between 0 and 1");
+        }
+        if (shards.length == 1) {
+            return shards[0].compact(minStaleRatio);
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            futures[i] = shards[i].compact(minStaleRatio);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Creates a copy of the db in the directory, which must not exist or be empty, and can be
+     * opened as a db, e.g. to back it up. Files which are no longer written to are hard linked,
+     * hence the directory should be on the same file system as the db, otherwise they are copied.
+     * Writes to the db wait only while the files are linked.
+     *
+     * With shards each shard is checkpointed into its own sub directory, one after the other.
+     */
+    public void checkpoint(File directory) throws HaloDBException {
+        try {
+            if (shards.length == 1) {
+                shards[0].checkpoint(directory);
+                return;
+            }
+            Checkpoint.createDirectory(directory);
+            for (int i = 0; i < shards.length; i++) {
+                shards[i].checkpoint(getShardDirectory(directory, i));
+            }
+        } catch (IOException e) {
+            throw new HaloDBException("Checkpoint failed.", e);
+        }
+    }
+
+    // used by HaloDBCompactionTool, shards are compacted one after the other.
+    long compactInParallel(double minStaleRatio, int threads) throws HaloDBException {
+        long reclaimed = 0;
+        try {
+            for (HaloDBInternal dbInternal : shards) {
+                reclaimed += dbInternal.compactInParallel(minStaleRatio, threads);
+            }
+        } catch (IOException e) {
+            throw new HaloDBException("Error while compacting " + directory.getName(), e);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Returns a loader which writes records without going through the write path of the db,
+     * and makes all of them visible when committed. Only one bulk load can be in progress
+     * at a time, and it isn't supported with blob storage, secondary indexes or in cache mode.
+     */
+    public HaloDBBulkLoader newBulkLoader() throws HaloDBException {
+        BulkLoad[] bulkLoads = new BulkLoad[shards.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                bulkLoads[i] = shards[i].newBulkLoad();
+            }
+        } catch (HaloDBException | IOException e) {
+            for (BulkLoad bulkLoad : bulkLoads) {
+                if (bulkLoad != null) {
+                    try {
+                        bulkLoad.abort();
+                    } catch (IOException ae) {
+                        e.addSuppressed(ae);
+                    }
+                }
+            }
+            if (e instanceof HaloDBException) {
+                throw (HaloDBException) e;
+            }
+            throw new HaloDBException("Failed to start bulk load", e);
+        }
+        return new HaloDBBulkLoader(this, bulkLoads);
+    }
+
+    void checkKeyIsOutsideNamespaces(byte[] key) throws HaloDBException {
+        if (!namespacesById.isEmpty()) {
+            HaloDBNamespace namespace = namespacesById.get(HaloDBNamespace.getId(key));
+            if (namespace != null) {
+                throw new HaloDBException("key starts with the prefix of namespace " + namespace.getName());
+            }
+        }
+    }
+
+    long getNumberOfRecordsOfNamespace(int namespaceId) {
+        long numberOfRecords = 0;
+        for (HaloDBInternal dbInternal : shards) {
+            numberOfRecords += dbInternal.getNumberOfRecordsOfNamespace(namespaceId);
+        }
+        return numberOfRecords;
+    }
+
+    private HaloDBInternal getShard(byte[] key) {
+        return shards[getShardIndex(key)];
+    }
+
+    HaloDBOptions getOptions() {
+        return options;
+    }
+
+    int getShardIndex(byte[] key) {
+        return getShardIndex(key, shards.length);
+    }
+
+    static int getShardIndex(byte[] key, int numberOfShards) {
+        if (numberOfShards == 1) {
+            return 0;
+        }
+        return Math.floorMod(shardHash.hashBytes(key).asInt(), numberOfShards);
     }
 
     // methods used in tests.
 
     @VisibleForTesting
     boolean isCompactionComplete() {
-        return dbInternal.isCompactionComplete();
+        for (HaloDBInternal dbInternal : shards) {
+            if (!dbInternal.isCompactionComplete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    void collectBlobGarbage() throws IOException, HaloDBException {
+        for (HaloDBInternal dbInternal : shards) {
+            dbInternal.collectBlobGarbage();
+        }
+    }
+
+    @VisibleForTesting
+    long sweepExpiredRecords() throws IOException {
+        long swept = 0;
+        for (HaloDBInternal dbInternal : shards) {
+            swept += dbInternal.sweepExpiredRecords();
+        }
+        return swept;
+    }
+
+    @VisibleForTesting
+    void compactTombstoneFiles() throws IOException, InterruptedException {
+        for (HaloDBInternal dbInternal : shards) {
+            dbInternal.compactTombstoneFiles();
+        }
+    }
+
+    @VisibleForTesting
+    void adjustCompactionRate() {
+        for (HaloDBInternal dbInternal : shards) {
+            dbInternal.adjustCompactionRate();
+        }
+    }
+
+    @VisibleForTesting
+    boolean isEvictionComplete() {
+        for (HaloDBInternal dbInternal : shards) {
+            if (!dbInternal.isEvictionComplete()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @VisibleForTesting
     boolean isTombstoneFilesMerging() {
-        return dbInternal.isTombstoneFilesMerging();
+        for (HaloDBInternal dbInternal : shards) {
+            if (dbInternal.isTombstoneFilesMerging()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @VisibleForTesting
+    List<HaloDBInternal> getShards() {
+        return Arrays.asList(shards);
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads records into a db without going through its write path. Any number of threads can
+ * put records concurrently, each of which writes to its own data and index files in a staging
+ * directory. None of the records are visible until commit() ingests all of them at once,
+ * after which they take precedence over writes made to the db before the commit.
+ *
+ * If a key is put more than once, the last put wins only if all of them were made by the same
+ * thread. With shards each shard ingests its part of the records atomically.
+ */
+public final class HaloDBBulkLoader {
+
+    private final HaloDB db;
+
+    // one for each shard.
+    private final BulkLoad[] bulkLoads;
+
+    HaloDBBulkLoader(HaloDB db, BulkLoad[] bulkLoads) {
+        this.db = db;
+        this.bulkLoads = bulkLoads;
+    }
+
+    public void put(byte[] key, byte[] value) throws HaloDBException {
+        db.checkKeyIsOutsideNamespaces(key);
+        try {
+            bulkLoads[db.getShardIndex(key)].put(key, value);
+        } catch (IOException e) {
+            throw new HaloDBException("Bulk load put failed.", e);
+        }
+    }
+
+    /**
+     * Ingests the records into the db, must be called once all puts returned. Writes to the
+     * db wait while its index is updated.
+     *
+     * @return the number of records loaded.
+     */
+    public long commit() throws HaloDBException {
+        long count = 0;
+        try {
+            for (BulkLoad bulkLoad : bulkLoads) {
+                count += bulkLoad.commit();
+            }
+        } catch (IOException e) {
+            throw new HaloDBException("Bulk load commit failed.", e);
+        }
+        return count;
+    }
+
+    /**
+     * Deletes all the files written so far.
+     */
+    public void abort() throws HaloDBException {
+        HaloDBException error = null;
+        for (BulkLoad bulkLoad : bulkLoads) {
+            try {
+                bulkLoad.abort();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = new HaloDBException("Bulk load abort failed.", e);
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @VisibleForTesting
+    List<BulkLoad> getBulkLoads() {
+        return Arrays.asList(bulkLoads);
+    }
+}
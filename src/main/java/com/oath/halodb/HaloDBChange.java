@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+/**
+ * A put or delete returned by HaloDBChangeIterator, or a gap in the changes.
+ */
+public final class HaloDBChange {
+
+    public enum Type {
+        PUT,
+        DELETE,
+        /**
+         * Changes up to the sequence number of the gap might be missing, and were skipped.
+         */
+        GAP
+    }
+
+    private final Type type;
+    private final byte[] key;
+    private final byte[] value;
+    private final long sequenceNumber;
+
+    HaloDBChange(Type type, byte[] key, byte[] value, long sequenceNumber) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * null for a gap.
+     */
+    public byte[] getKey() {
+        return key;
+    }
+
+    /**
+     * null unless this is a put.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * Changes are returned in the order of their sequence numbers, a reader can resume
+     * from the sequence number of the last change it processed.
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Override
+    public String toString() {
+        return type + "@" + sequenceNumber;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Returns the puts and deletes made to the db after a sequence number, in the order of their
+ * sequence numbers. Changes are read from the data and tombstone files in batches, hence a
+ * change is returned only if it is still on disk: a record overwritten by a later put might
+ * have been compacted away, in which case only the later put is returned, and expired records
+ * are skipped.
+ *
+ * Changes which weren't superseded can still be dropped, e.g. tombstones by the tombstone
+ * compactor or records by the evictor in cache mode. If that happens to a change which wasn't
+ * returned yet the iterator returns a GAP, after which it continues with the changes made
+ * after the gap. A reader which can't tolerate the gap should start over from sequence
+ * number 0, which returns all the changes needed to rebuild the current state.
+ *
+ * If tailing the iterator waits for new changes instead of returning false from hasNext(),
+ * until the db is closed or the thread is interrupted. Not thread safe.
+ */
+public class HaloDBChangeIterator implements Iterator<HaloDBChange> {
+    private static final Logger logger = LoggerFactory.getLogger(HaloDBChangeIterator.class);
+
+    static final int BATCH_SIZE = 4096;
+    static final long TAIL_POLL_INTERVAL_MILLIS = 100;
+
+    private final HaloDBInternal dbInternal;
+    private final boolean tail;
+    private final ArrayDeque<HaloDBChange> batch = new ArrayDeque<>();
+
+    private long nextSequenceNumber;
+    private long maxDroppedSequenceNumber;
+
+    // data files which are no longer written to are read once, after which each batch takes
+    // only the changes it needs from their cursors. Compacted files span a wide range of
+    // sequence numbers, and would otherwise be read again for every batch.
+    private final Map<Integer, FileCursor> dataFileCursors = new HashMap<>();
+    // sequence number ranges of tombstone files which are no longer written to, files which
+    // have only changes before nextSequenceNumber are skipped.
+    private final Map<Integer, long[]> tombstoneFileRanges = new HashMap<>();
+    private long numberOfDataFilesRead = 0;
+
+    HaloDBChangeIterator(HaloDBInternal dbInternal, long sinceSequenceNumber, boolean tail) {
+        this.dbInternal = dbInternal;
+        this.tail = tail;
+        this.nextSequenceNumber = Math.max(sinceSequenceNumber, 0) + 1;
+        // changes dropped before a reader starts from the beginning were superseded, or
+        // deleted keys whose earlier versions were dropped as well.
+        this.maxDroppedSequenceNumber = sinceSequenceNumber > 0 ? 0 : dbInternal.getMaxDroppedSequenceNumber();
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (batch.isEmpty()) {
+                if (dbInternal.isClosing()) {
+                    return false;
+                }
+                if (!readNextBatch()) {
+                    if (!tail) {
+                        return false;
+                    }
+                    Thread.sleep(TAIL_POLL_INTERVAL_MILLIS);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            logger.error("Error in change iterator", e);
+            return false;
+        }
+    }
+
+    @Override
+    public HaloDBChange next() {
+        if (hasNext()) {
+            return batch.poll();
+        }
+        throw new NoSuchElementException();
+    }
+
+    @VisibleForTesting
+    long getNumberOfDataFilesRead() {
+        return numberOfDataFilesRead;
+    }
+
+    /**
+     * @return false if there are no new changes, otherwise true even if the batch is empty,
+     * e.g. when a file was deleted while it was read and the batch has to be read again.
+     */
+    private boolean readNextBatch() throws IOException {
+        if (dbInternal.getLatestSequenceNumber() <= nextSequenceNumber) {
+            return false;
+        }
+        List<HaloDBFile> dataFiles = new ArrayList<>();
+        long lastSequenceNumber = dbInternal.listDataFilesOfCompletedWrites(dataFiles);
+        if (lastSequenceNumber < nextSequenceNumber) {
+            return false;
+        }
+        File[] tombstoneFiles = dbInternal.getDbDirectory().listTombstoneFiles();
+
+        TreeMap<Long, PendingChange> changes = new TreeMap<>();
+        Set<Integer> fileIds = new HashSet<>();
+        for (HaloDBFile file : dataFiles) {
+            fileIds.add(file.getFileId());
+            FileCursor cursor = dataFileCursors.get(file.getFileId());
+            if (cursor != null) {
+                readCursor(file, cursor, changes, lastSequenceNumber);
+                continue;
+            }
+            try {
+                readDataFile(file, changes, lastSequenceNumber);
+            } catch (ClosedChannelException e) {
+                logger.debug("Data file {} closed, probably by compaction thread. Reading the batch again", file.getFileId());
+                return true;
+            }
+        }
+        dataFileCursors.keySet().retainAll(fileIds);
+
+        fileIds.clear();
+        for (File backingFile : tombstoneFiles) {
+            TombstoneFile file = new TombstoneFile(backingFile, dbInternal.options, dbInternal.getDbDirectory());
+            fileIds.add(file.getFileId());
+            if (!mightHaveChanges(tombstoneFileRanges.get(file.getFileId()), changes, lastSequenceNumber)) {
+                continue;
+            }
+            try {
+                file.openForReading();
+            } catch (NoSuchFileException e) {
+                logger.debug("Tombstone file {} deleted, probably by tombstone compactor. Reading the batch again", file.getName());
+                return true;
+            }
+            try {
+                readTombstoneFile(file, backingFile, changes, lastSequenceNumber);
+            } finally {
+                file.close();
+            }
+        }
+        tombstoneFileRanges.keySet().retainAll(fileIds);
+
+        // changes are marked as dropped before they are deleted, hence if one of the files
+        // was missing changes when it was read the gap is known by now.
+        long dropped = dbInternal.getMaxDroppedSequenceNumber();
+        if (dropped > maxDroppedSequenceNumber) {
+            maxDroppedSequenceNumber = dropped;
+            if (dropped >= nextSequenceNumber) {
+                logger.info("Changes up to sequence number {} were dropped before they were read", dropped);
+                batch.add(new HaloDBChange(HaloDBChange.Type.GAP, null, null, dropped));
+                nextSequenceNumber = dropped + 1;
+                return true;
+            }
+        }
+
+        for (Map.Entry<Long, PendingChange> e : changes.entrySet()) {
+            PendingChange change = e.getValue();
+            if (change.file == null) {
+                batch.add(new HaloDBChange(HaloDBChange.Type.DELETE, change.key, null, e.getKey()));
+                continue;
+            }
+            InMemoryIndexMetaData metaData = Utils.getMetaData(change.entry, change.file.getFileId());
+            if (metaData.isExpired()) {
+                continue;
+            }
+            byte[] value;
+            try {
+                value = dbInternal.readValue(change.file, metaData);
+            } catch (ClosedChannelException ex) {
+                logger.debug("Data file {} closed, probably by compaction thread. Reading the batch again", change.file.getFileId());
+                batch.clear();
+                return true;
+            }
+            // null if the blob was deleted, a later version of the record refers to its new location.
+            if (value != null) {
+                batch.add(new HaloDBChange(HaloDBChange.Type.PUT, change.key, value, e.getKey()));
+            }
+        }
+
+        nextSequenceNumber = changes.size() >= BATCH_SIZE ? changes.lastKey() + 1 : lastSequenceNumber + 1;
+        return true;
+    }
+
+    private void readDataFile(HaloDBFile file, TreeMap<Long, PendingChange> changes, long lastSequenceNumber) throws IOException {
+        numberOfDataFilesRead++;
+        IndexFile indexFile = file.getIndexFile();
+        long size = indexFile.getSize();
+        long[] sequenceNumbers = new long[64];
+        int[] offsets = new int[64];
+        int count = 0;
+        IndexFile.IndexFileIterator iterator = indexFile.newIterator();
+        try {
+            while (iterator.hasNext()) {
+                int offset = iterator.getOffset();
+                IndexFileEntry entry = iterator.next();
+                long sequenceNumber = entry.getSequenceNumber();
+                if (sequenceNumber >= nextSequenceNumber && sequenceNumber <= lastSequenceNumber) {
+                    add(changes, sequenceNumber, new PendingChange(file, entry, entry.getKey()));
+                }
+                if (count == sequenceNumbers.length) {
+                    sequenceNumbers = Arrays.copyOf(sequenceNumbers, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                sequenceNumbers[count] = sequenceNumber;
+                offsets[count] = offset;
+                count++;
+            }
+        } catch (BufferUnderflowException e) {
+            // the last entry of a file still being written to, the change isn't complete yet.
+            return;
+        }
+        // a file which was just created might not be registered as being written to yet, but is
+        // empty until it is. If it didn't grow while it was read all of its changes were seen.
+        if (size > 0 && indexFile.getSize() == size && !dbInternal.isFileBeingWritten(file.getFileId())) {
+            dataFileCursors.put(file.getFileId(), new FileCursor(iterator, sequenceNumbers, offsets, count));
+        }
+    }
+
+    private void readCursor(HaloDBFile file, FileCursor cursor, TreeMap<Long, PendingChange> changes, long lastSequenceNumber) {
+        while (cursor.position < cursor.count && cursor.sequenceNumbers[cursor.position] < nextSequenceNumber) {
+            cursor.position++;
+        }
+        if (cursor.position == cursor.count) {
+            // all changes were read, only the entry is kept so that the file isn't read again.
+            dataFileCursors.put(file.getFileId(), FileCursor.EXHAUSTED);
+            return;
+        }
+        for (int i = cursor.position; i < cursor.count; i++) {
+            long sequenceNumber = cursor.sequenceNumbers[i];
+            if (sequenceNumber > lastSequenceNumber || (changes.size() >= BATCH_SIZE && sequenceNumber >= changes.lastKey())) {
+                break;
+            }
+            IndexFileEntry entry = cursor.index.getEntryAt(cursor.offsets[i]);
+            add(changes, sequenceNumber, new PendingChange(file, entry, entry.getKey()));
+        }
+    }
+
+    private void readTombstoneFile(TombstoneFile file, File backingFile, TreeMap<Long, PendingChange> changes, long lastSequenceNumber) throws IOException {
+        long size = backingFile.length();
+        long min = Long.MAX_VALUE, max = -1;
+        TombstoneFile.TombstoneFileIterator iterator = file.newIterator();
+        try {
+            while (iterator.hasNext()) {
+                TombstoneEntry entry = iterator.next();
+                long sequenceNumber = entry.getSequenceNumber();
+                min = Math.min(min, sequenceNumber);
+                max = Math.max(max, sequenceNumber);
+                if (sequenceNumber >= nextSequenceNumber && sequenceNumber <= lastSequenceNumber) {
+                    add(changes, sequenceNumber, new PendingChange(null, null, entry.getKey()));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            return;
+        }
+        // the tombstone compactor only ever rewrites files, which leaves a subset of the range.
+        if (size > 0 && backingFile.length() == size && file.getFileId() < dbInternal.getCurrentTombstoneFileId()) {
+            tombstoneFileRanges.put(file.getFileId(), new long[] {min, max});
+        }
+    }
+
+    private boolean mightHaveChanges(long[] range, TreeMap<Long, PendingChange> changes, long lastSequenceNumber) {
+        if (range == null) {
+            return true;
+        }
+        long upper = changes.size() >= BATCH_SIZE ? changes.lastKey() : lastSequenceNumber;
+        return range[1] >= nextSequenceNumber && range[0] <= upper;
+    }
+
+    // keeps the BATCH_SIZE changes with the lowest sequence numbers. Compacted records have
+    // the sequence number of the original, either copy can be returned.
+    private static void add(TreeMap<Long, PendingChange> changes, long sequenceNumber, PendingChange change) {
+        if (changes.size() >= BATCH_SIZE && sequenceNumber >= changes.lastKey()) {
+            return;
+        }
+        changes.putIfAbsent(sequenceNumber, change);
+        if (changes.size() > BATCH_SIZE) {
+            changes.pollLastEntry();
+        }
+    }
+
+    // entries of an index file sorted by sequence number, position is the first one not yet returned.
+    private static class FileCursor {
+        private static final FileCursor EXHAUSTED = new FileCursor(null, new long[0], new int[0], 0);
+
+        private final IndexFile.IndexFileIterator index;
+        private final long[] sequenceNumbers;
+        private final int[] offsets;
+        private final int count;
+        private int position = 0;
+
+        FileCursor(IndexFile.IndexFileIterator index, long[] sequenceNumbers, int[] offsets, int count) {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> sequenceNumbers[i]));
+            this.index = index;
+            this.sequenceNumbers = new long[count];
+            this.offsets = new int[count];
+            this.count = count;
+            for (int i = 0; i < count; i++) {
+                this.sequenceNumbers[i] = sequenceNumbers[order[i]];
+                this.offsets[i] = offsets[order[i]];
+            }
+        }
+    }
+
+    // a put if file is not null, otherwise a delete.
+    private static class PendingChange {
+        private final HaloDBFile file;
+        private final IndexFileEntry entry;
+        private final byte[] key;
+
+        PendingChange(HaloDBFile file, IndexFileEntry entry, byte[] key) {
+            this.file = file;
+            this.entry = entry;
+            this.key = key;
+        }
+    }
+}
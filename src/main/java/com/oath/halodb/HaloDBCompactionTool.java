@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Compacts a db which is not open, with a compaction thread per core and without a rate
+ * limit, to reclaim space quickly during a maintenance window. The db lock makes sure no
+ * other process has it open while the tool runs.
+ *
+ * Usage: java -cp halodb.jar com.oath.halodb.HaloDBCompactionTool <db directory> <minStaleRatio> [data directory ...]
+ */
+public final class HaloDBCompactionTool {
+    private static final Logger logger = LoggerFactory.getLogger(HaloDBCompactionTool.class);
+
+    private HaloDBCompactionTool() {
+    }
+
+    public static void main(String[] args) throws HaloDBException, IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: HaloDBCompactionTool <db directory> <minStaleRatio> [data directory ...]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        double minStaleRatio = Double.parseDouble(args[1]);
+
+        // the file size and number of shards of an existing db can't be changed.
+        HaloDBOptions options = new HaloDBOptions();
+        options.setDataDirectories(Arrays.stream(args, 2, args.length).map(File::new).collect(Collectors.toList()));
+        int numberOfShards = HaloDB.countShardDirectories(directory);
+        if (numberOfShards > 0) {
+            options.setNumberOfShards(numberOfShards);
+        }
+        DBDirectory dbDirectory = DBDirectory.open(numberOfShards > 0 ? HaloDB.getShardDirectory(directory, 0) : directory);
+        try {
+            DBMetaData metaData = new DBMetaData(dbDirectory);
+            metaData.loadFromFileIfExists();
+            if (metaData.getMaxFileSize() != 0) {
+                options.setMaxFileSize(metaData.getMaxFileSize());
+            }
+        } finally {
+            dbDirectory.close();
+        }
+
+        long reclaimed = compact(directory, options, minStaleRatio);
+        System.out.println("Reclaimed " + reclaimed + " bytes");
+    }
+
+    /**
+     * Compacts all data files in which at least minStaleRatio of the data is stale.
+     * options should be those the db is opened with, the number of threads and the
+     * compaction rate are overridden.
+     *
+     * @return the size of data reclaimed.
+     */
+    public static long compact(File directory, HaloDBOptions options, double minStaleRatio) throws HaloDBException {
+        if (minStaleRatio < 0 || minStaleRatio > 1) {
+            throw new IllegalArgumentException("minStaleRatio should be between 0 and 1");
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        HaloDBOptions compactionOptions = options.clone();
+        // no background threads, files are compacted by compactInParallel().
+        compactionOptions.setCompactionDisabled(true);
+        compactionOptions.setCompactionJobRate(Integer.MAX_VALUE);
+        compactionOptions.setBuildIndexThreads(threads);
+
+        long start = System.currentTimeMillis();
+        HaloDB db = HaloDB.open(directory, compactionOptions);
+        try {
+            long reclaimed = db.compactInParallel(minStaleRatio, threads);
+            logger.info("Compacted {} in {} ms, reclaimed {} bytes", directory.getName(), System.currentTimeMillis() - start, reclaimed);
+            return reclaimed;
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -38,6 +38,7 @@ class HaloDBFile {
     private volatile int writeOffset;
     private FileChannel channel;
     private IndexFile indexFile;
+    private volatile CompressionDictionary compressionDictionary;
     private long unFlushedData = 0;
 
     private HaloDBFile(int fileId, File backingFile, DBDirectory dbDirectory, IndexFile indexFile, FileType fileType,
@@ -58,35 +59,62 @@ class HaloDBFile {
         IndexFile indexFile = new IndexFile(fileId, dbDirectory, options);
         indexFile.open();
 
-        return new HaloDBFile(fileId, filename, dbDirectory, indexFile, fileType, channel, options);
+        HaloDBFile file = new HaloDBFile(fileId, filename, dbDirectory, indexFile, fileType, channel, options);
+        file.compressionDictionary = CompressionDictionary.loadIfExists(dbDirectory, fileId);
+        return file;
+    }
+
+    /**
+     * Unlike openForReading() opens the index file read only, and fails if it wasn't created
+     * yet. Used to read the files of a db another process is writing to.
+     */
+    static HaloDBFile openReadOnly(DBDirectory dbDirectory, File filename, FileType fileType, HaloDBOptions options) throws IOException {
+        int fileId = HaloDBFile.getFileTimeStamp(filename);
+        FileChannel channel = new RandomAccessFile(filename, "r").getChannel();
+        IndexFile indexFile = new IndexFile(fileId, dbDirectory, options);
+        try {
+            indexFile.openForReading();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        HaloDBFile file = new HaloDBFile(fileId, filename, dbDirectory, indexFile, fileType, channel, options);
+        file.compressionDictionary = CompressionDictionary.loadIfExists(dbDirectory, fileId);
+        return file;
     }
 
     static HaloDBFile create(DBDirectory dbDirectory, int fileId, HaloDBOptions options, FileType fileType) throws IOException {
-        BiFunction<DBDirectory, Integer, File> toFile = (fileType == FileType.DATA_FILE) ? HaloDBFile::getDataFile : HaloDBFile::getCompactedDataFile;
+        BiFunction<Path, Integer, File> toFile = (fileType == FileType.DATA_FILE) ? HaloDBFile::getDataFile : HaloDBFile::getCompactedDataFile;
 
-        File file = toFile.apply(dbDirectory, fileId);
+        Path directory = dbDirectory.nextDataDirectory(options.getMaxFileSize());
+        File file = toFile.apply(directory, fileId);
         while (!file.createNewFile()) {
             // file already exists try another one.
             fileId++;
-            file = toFile.apply(dbDirectory, fileId);
+            file = toFile.apply(directory, fileId);
         }
+        dbDirectory.dataFileCreated(fileId, directory);
 
         FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
         //TODO: setting the length might improve performance.
         //file.setLength(max_);
 
+        // might have been left behind by a file with the same id which was deleted.
+        CompressionDictionary.delete(dbDirectory, fileId);
+
         IndexFile indexFile = new IndexFile(fileId, dbDirectory, options);
         indexFile.create();
 
         return new HaloDBFile(fileId, file, dbDirectory, indexFile, fileType, channel, options);
     }
 
-    private static File getDataFile(DBDirectory dbDirectory, int fileId) {
-        return dbDirectory.getPath().resolve(fileId + DATA_FILE_NAME).toFile();
+    private static File getDataFile(Path directory, int fileId) {
+        return directory.resolve(fileId + DATA_FILE_NAME).toFile();
     }
 
-    private static File getCompactedDataFile(DBDirectory dbDirectory, int fileId) {
-        return dbDirectory.getPath().resolve(fileId + COMPACTED_DATA_FILE_NAME).toFile();
+    private static File getCompactedDataFile(Path directory, int fileId) {
+        return directory.resolve(fileId + COMPACTED_DATA_FILE_NAME).toFile();
     }
 
     static FileType findFileType(File file) {
@@ -121,6 +149,30 @@ class HaloDBFile {
         return (int) (currentPosition - position);
     }
 
+    /**
+     * Reads the value and, if it was compressed, returns the decompressed value.
+     */
+    byte[] readValue(InMemoryIndexMetaData metaData) throws IOException {
+        return decodeValue(readFromFile(metaData.getValueOffset(), metaData.getValueSize()), metaData.getFlags());
+    }
+
+    byte[] decodeValue(byte[] value, int flags) throws IOException {
+        if (Record.Header.hasExpiryTime(flags)) {
+            value = Record.removeExpiryTime(value);
+        }
+        if (Record.Header.isCompressed(flags)) {
+            return ValueCompressor.decompress(value);
+        }
+        if (Record.Header.isDictionaryCompressed(flags)) {
+            CompressionDictionary dictionary = compressionDictionary;
+            if (dictionary == null) {
+                throw new IOException("Dictionary for file " + fileId + " not found");
+            }
+            return dictionary.decompress(value);
+        }
+        return value;
+    }
+
     private Record readRecord(int offset) throws HaloDBException, IOException {
         long tempOffset = offset;
 
@@ -133,7 +185,9 @@ class HaloDBFile {
         tempOffset += readSize;
 
         Record.Header header = Record.Header.deserialize(headerBuf);
-        if (!Record.Header.verifyHeader(header)) {
+        // a torn tail may have any value size, which must not be allocated.
+        if (!Record.Header.verifyHeader(header)
+                || tempOffset + header.getKeySize() + header.getValueSize() > channel.size()) {
             throw new HaloDBException("Corrupted header at " + offset + " in file " + fileId);
         }
 
@@ -147,7 +201,7 @@ class HaloDBFile {
         Record record = Record.deserialize(recordBuf, header.getKeySize(), header.getValueSize());
         record.setHeader(header);
         int valueOffset = offset + Record.Header.HEADER_SIZE + header.getKeySize();
-        record.setRecordMetaData(new InMemoryIndexMetaData(fileId, valueOffset, header.getValueSize(), header.getSequenceNumber()));
+        record.setRecordMetaData(new InMemoryIndexMetaData(fileId, valueOffset, header.getValueSize(), header.getSequenceNumber(), header.getVersion(), record.getExpiryTime()));
         return record;
     }
 
@@ -161,12 +215,12 @@ class HaloDBFile {
         IndexFileEntry indexFileEntry = new IndexFileEntry(
                 record.getKey(), recordSize,
                 recordOffset, record.getSequenceNumber(),
-                Versions.CURRENT_INDEX_FILE_VERSION, -1
+                indexFileVersion(record), -1, record.getExpiryTime()
         );
         indexFile.write(indexFileEntry);
 
         int valueOffset = Utils.getValueOffset(recordOffset, record.getKey());
-        return new InMemoryIndexMetaData(fileId, valueOffset, record.getValue().length, record.getSequenceNumber());
+        return new InMemoryIndexMetaData(fileId, valueOffset, record.getValue().length, record.getSequenceNumber(), record.getVersion(), record.getExpiryTime());
     }
 
     void rebuildIndexFile() throws IOException {
@@ -182,13 +236,18 @@ class HaloDBFile {
             IndexFileEntry indexFileEntry = new IndexFileEntry(
                     record.getKey(), record.getRecordSize(),
                     offset, record.getSequenceNumber(),
-                    Versions.CURRENT_INDEX_FILE_VERSION, -1
+                    indexFileVersion(record), -1, record.getExpiryTime()
             );
             indexFile.write(indexFileEntry);
             offset += record.getRecordSize();
         }
     }
 
+    // index file entries carry the flags of the record so that the in-memory index can be built without reading data files.
+    private static int indexFileVersion(Record record) {
+        return Versions.CURRENT_INDEX_FILE_VERSION | (record.getVersion() & Record.Header.FLAGS_MASK);
+    }
+
     /**
      * Copies to a temporary file those records whose computed checksum matches the stored one and then atomically
      * rename the temp file to the current file.
@@ -225,7 +284,8 @@ class HaloDBFile {
     }
 
     private HaloDBFile createRepairFile() throws IOException {
-        File repairFile = dbDirectory.getPath().resolve(getName() + ".repair").toFile();
+        // in the same directory as the file, so that it can be renamed atomically.
+        File repairFile = getPath().resolveSibling(getName() + ".repair").toFile();
         while (!repairFile.createNewFile()) {
             logger.info("Repair file {} already exists, probably from a previous repair which failed. Deleting and trying again", repairFile.getName());
             repairFile.delete();
@@ -278,6 +338,19 @@ class HaloDBFile {
         return indexFile;
     }
 
+    CompressionDictionary getCompressionDictionary() {
+        return compressionDictionary;
+    }
+
+    /**
+     * Stores the dictionary in a sidecar file. Must be called before any record is
+     * compressed with the dictionary.
+     */
+    void setCompressionDictionary(CompressionDictionary compressionDictionary) throws IOException {
+        compressionDictionary.store(dbDirectory, fileId);
+        this.compressionDictionary = compressionDictionary;
+    }
+
     FileChannel getChannel() {
         return channel;
     }
@@ -310,6 +383,9 @@ class HaloDBFile {
 
         if (indexFile != null)
             indexFile.delete();
+
+        CompressionDictionary.delete(dbDirectory, fileId);
+        dbDirectory.dataFileDeleted(fileId);
     }
 
     String getName() {
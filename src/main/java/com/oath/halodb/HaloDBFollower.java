@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A read only replica of a db which another process on the same host is writing to, e.g. to
+ * serve reads from multiple JVMs which share the page cache. The follower doesn't take the
+ * lock of the db, builds its own in-memory index from the files when opened, and then reads
+ * the records and tombstones written since, every followerRefreshIntervalInMillis. A get
+ * therefore returns the value as of at most that interval, plus the time the refresh takes,
+ * ago. refresh() can be called to catch up right away.
+ *
+ * The options should be those the db is opened with, numberOfRecords, useMemoryPool and
+ * fixedKeySize size the index of the follower.
+ */
+public final class HaloDBFollower {
+
+    private Follower[] shards;
+
+    private File directory;
+
+    public static HaloDBFollower open(File directory, HaloDBOptions options) throws HaloDBException {
+        HaloDBFollower follower = new HaloDBFollower();
+        try {
+            follower.directory = directory;
+            follower.shards = openShards(directory, options);
+        } catch (IOException e) {
+            throw new HaloDBException("Failed to open follower of db " + directory.getName(), e);
+        }
+        return follower;
+    }
+
+    private static Follower[] openShards(File directory, HaloDBOptions options) throws HaloDBException, IOException {
+        int numberOfShards = options.getNumberOfShards();
+        HaloDB.checkShardDirectories(directory, numberOfShards);
+        if (numberOfShards == 1) {
+            return new Follower[] {Follower.open(directory, options)};
+        }
+
+        Follower[] shards = new Follower[numberOfShards];
+        try {
+            for (int i = 0; i < numberOfShards; i++) {
+                shards[i] = Follower.open(HaloDB.getShardDirectory(directory, i), options.forShard(i));
+            }
+        } catch (HaloDBException | IOException | RuntimeException e) {
+            for (Follower shard : shards) {
+                if (shard != null) {
+                    try {
+                        shard.close();
+                    } catch (IOException ce) {
+                        e.addSuppressed(ce);
+                    }
+                }
+            }
+            throw e;
+        }
+        return shards;
+    }
+
+    public static HaloDBFollower open(String directory, HaloDBOptions options) throws HaloDBException {
+        return HaloDBFollower.open(new File(directory), options);
+    }
+
+    public byte[] get(byte[] key) throws HaloDBException {
+        try {
+            return shards[HaloDB.getShardIndex(key, shards.length)].get(key, 1);
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup failed.", e);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Follower shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Reads the files written since the last refresh, without waiting for the next one.
+     */
+    public void refresh() throws HaloDBException {
+        try {
+            for (Follower shard : shards) {
+                shard.refresh();
+            }
+        } catch (IOException e) {
+            throw new HaloDBException("Refresh of follower of " + directory.getName() + " failed.", e);
+        }
+    }
+
+    public void close() throws HaloDBException {
+        HaloDBException error = null;
+        for (Follower shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = new HaloDBException("Error while closing follower of " + directory.getName(), e);
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -7,6 +7,7 @@ package com.oath.halodb;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Striped;
 import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,8 +24,10 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 class HaloDBInternal {
     private static final Logger logger = LoggerFactory.getLogger(HaloDBInternal.class);
@@ -33,21 +36,57 @@ class HaloDBInternal {
     private final Lock writeLock = new ReentrantLock();
     HaloDBOptions options;
     private DBDirectory dbDirectory;
-    private volatile HaloDBFile currentWriteFile;
-    private TombstoneFile currentTombstoneFile;
+    // puts write to one of these, a single lane guarded by writeLock unless numberOfWriteLanes is set.
+    private WriteLane[] writeLanes;
+    // with multiple write lanes, serializes writes to the same key.
+    private Striped<Lock> keyLocks;
+    private final AtomicInteger nextPreferredWriteLane = new AtomicInteger(0);
+    private final ThreadLocal<Integer> preferredWriteLane =
+            ThreadLocal.withInitial(() -> Math.floorMod(nextPreferredWriteLane.getAndIncrement(), writeLanes.length));
+    private volatile TombstoneFile currentTombstoneFile;
     private Map<Integer, HaloDBFile> readFileMap = new ConcurrentHashMap<>();
     private InMemoryIndex inMemoryIndex;
     private CompactionManager compactionManager;
+    // used only while compactInParallel() runs, their files are recorded along with those of compactionManager.
+    private final List<CompactionManager> parallelCompactionManagers = new CopyOnWriteArrayList<>();
+    private BlobManager blobManager;
+    private SnapshotManager snapshotManager;
+    // null unless orderedKeyIndexEnabled is set.
+    private OrderedKeyIndex orderedKeyIndex;
+    private Map<String, SecondaryIndex> secondaryIndexes = Collections.emptyMap();
+    // keyed by namespace id, see getNumberOfRecordsOfNamespace().
+    private Map<Integer, LongAdder> numberOfRecordsPerNamespace = Collections.emptyMap();
+    private ExpiredRecordSweeper expiredRecordSweeper;
+    private DataFileEvictor dataFileEvictor;
+    private TombstoneCompactor tombstoneCompactor;
+    private CompactionRateController compactionRateController;
+    private CompactionThresholdTuner compactionThresholdTuner;
+    private WriteStallController writeStallController;
     private AtomicInteger nextFileId;
     private volatile boolean isClosing = false;
     private volatile long statsResetTime = System.currentTimeMillis();
     private FileLock dbLock;
     private AtomicLong noOfTombstonesCopiedDuringOpen;
     private AtomicLong noOfTombstonesFoundDuringOpen;
-    private volatile long nextSequenceNumber;
+    private final AtomicLong nextSequenceNumber = new AtomicLong();
+
+    private final AtomicLong numberOfValuesCompressed = new AtomicLong();
+    private final AtomicLong sizeOfValuesBeforeCompression = new AtomicLong();
+    private final AtomicLong sizeOfValuesAfterCompression = new AtomicLong();
+    private final AtomicLong numberOfDictionariesTrained = new AtomicLong();
+    private volatile long numberOfRecordsExpired = 0;
+    private volatile long numberOfPreviousValuesRead = 0;
+    private final AtomicLong sizeOfRecordsWritten = new AtomicLong();
+    private CompressionDictionary.Sampler dictionarySampler;
+    private volatile boolean hasRecordsWithExpiryTime = false;
 
     private volatile boolean isTombstoneFilesMerging = false;
 
+    // highest sequence number of a change which is no longer in any file, see HaloDBChangeIterator.
+    private final AtomicLong maxDroppedSequenceNumber = new AtomicLong();
+    // serializes updates of the meta data file made while the db is open.
+    private final Object metaDataLock = new Object();
+
     private HaloDBInternal() {
     }
 
@@ -56,9 +95,11 @@ class HaloDBInternal {
 
         HaloDBInternal dbInternal = new HaloDBInternal();
         try {
-            dbInternal.dbDirectory = DBDirectory.open(directory);
+            dbInternal.dbDirectory = DBDirectory.open(directory, options.getDataDirectories());
             dbInternal.dbLock = dbInternal.getLock();
             dbInternal.options = options;
+            dbInternal.createWriteLanes(options.getNumberOfWriteLanes());
+            BulkLoad.recover(dbInternal.dbDirectory);
 
             int maxFileId = dbInternal.buildReadFileMap();
             dbInternal.nextFileId = new AtomicInteger(maxFileId + 10);
@@ -75,32 +116,86 @@ class HaloDBInternal {
             if (dbMetaData.isOpen() || dbMetaData.isIOError()) {
                 logger.info("DB was not shutdown correctly last time. Files may not be consistent, repairing them.");
                 // open flag is true, this might mean that the db was not cleanly closed the last time.
-                dbInternal.repairFiles();
+                dbInternal.repairFiles(dbMetaData.getActiveDataFileIds());
             }
+            dbInternal.maxDroppedSequenceNumber.set(dbMetaData.getMaxDroppedSequenceNumber());
+            dbMetaData.setActiveDataFileIds(Collections.emptyList());
             dbMetaData.setOpen(true);
             dbMetaData.setIOError(false);
             dbMetaData.setVersion(Versions.CURRENT_META_FILE_VERSION);
             dbMetaData.setMaxFileSize(options.getMaxFileSize());
+            dbMetaData.setDataDirectories(dbInternal.dbDirectory.getAdditionalDataDirectories());
             dbMetaData.storeToFile();
 
+            if (options.isDictionaryCompressionEnabled()) {
+                dbInternal.dictionarySampler = new CompressionDictionary.Sampler(options.getCompressionDictionarySize());
+            }
             dbInternal.compactionManager = new CompactionManager(dbInternal);
+            dbInternal.blobManager = new BlobManager(dbInternal);
+            dbInternal.blobManager.open();
+            dbInternal.snapshotManager = new SnapshotManager(dbInternal);
+            dbInternal.expiredRecordSweeper = new ExpiredRecordSweeper(dbInternal);
+            dbInternal.dataFileEvictor = new DataFileEvictor(dbInternal);
+            dbInternal.tombstoneCompactor = new TombstoneCompactor(dbInternal);
+            if (options.isAdaptiveCompactionRateEnabled()) {
+                dbInternal.compactionRateController = new CompactionRateController(dbInternal);
+            }
+            if (options.isCompactionThresholdTuningEnabled()) {
+                dbInternal.compactionThresholdTuner = new CompactionThresholdTuner(dbInternal);
+            }
+            if (options.isWriteStallEnabled()) {
+                dbInternal.writeStallController = new WriteStallController(dbInternal);
+            }
 
             dbInternal.inMemoryIndex = new InMemoryIndex(
                     options.getNumberOfRecords(), options.isUseMemoryPool(),
-                    options.getFixedKeySize(), options.getMemoryPoolChunkSize()
+                    options.getFixedKeySize(), options.getMemoryPoolChunkSize(), options.isTtlEnabled()
             );
+            if (options.isOrderedKeyIndexEnabled()) {
+                dbInternal.orderedKeyIndex = new OrderedKeyIndex(dbInternal.inMemoryIndex);
+            }
+            if (!options.getNamespaceIds().isEmpty()) {
+                dbInternal.numberOfRecordsPerNamespace = new HashMap<>();
+                options.getNamespaceIds().values().forEach(id -> dbInternal.numberOfRecordsPerNamespace.put(id, new LongAdder()));
+            }
+            if (!options.getSecondaryIndexes().isEmpty()) {
+                dbInternal.secondaryIndexes = new LinkedHashMap<>();
+                options.getSecondaryIndexes().forEach((name, extractor) ->
+                        dbInternal.secondaryIndexes.put(name, new SecondaryIndex(name, extractor)));
+            }
 
             long maxSequenceNumber = dbInternal.buildInMemoryIndex(options);
             if (maxSequenceNumber == -1L) {
-                dbInternal.nextSequenceNumber = 1;
+                dbInternal.nextSequenceNumber.set(1);
                 logger.info("Didn't find any existing records; initializing max sequence number to 1");
             } else {
-                dbInternal.nextSequenceNumber = maxSequenceNumber + 100;
-                logger.info("Found max sequence number {}, now starting from {}", maxSequenceNumber, dbInternal.nextSequenceNumber);
+                dbInternal.nextSequenceNumber.set(maxSequenceNumber + 100);
+                logger.info("Found max sequence number {}, now starting from {}", maxSequenceNumber, dbInternal.nextSequenceNumber.get());
+            }
+            dbInternal.buildSecondaryIndexes();
+            if (dbInternal.hasRecordsWithExpiryTime) {
+                dbInternal.expiredRecordSweeper.startIfNotRunning();
+            }
+            if (dbInternal.compactionThresholdTuner != null) {
+                dbInternal.compactionThresholdTuner.tune();
             }
 
+            if (options.isCacheModeEnabled()) {
+                // compaction would copy older versions of keys to newer files, see DataFileEvictor.
+                dbInternal.dataFileEvictor.start();
+                logger.info("Cache mode is enabled, data files will be evicted instead of compacted");
+            }
             if (!options.isCompactionDisabled()) {
-                dbInternal.compactionManager.startCompactionThread();
+                if (!options.isCacheModeEnabled()) {
+                    dbInternal.compactionManager.startCompactionThread();
+                    if (dbInternal.compactionRateController != null) {
+                        dbInternal.compactionRateController.start();
+                    }
+                }
+                dbInternal.blobManager.startGarbageCollector();
+                if (options.isCleanUpTombstonesInBackground()) {
+                    dbInternal.tombstoneCompactor.start();
+                }
             } else {
                 logger.warn("Compaction is disabled in HaloDBOption. This should happen only in tests");
             }
@@ -116,7 +211,7 @@ class HaloDBInternal {
 
             logger.info("Opened HaloDB {}", directory.getName());
             logger.info("maxFileSize - {}", options.getMaxFileSize());
-            logger.info("compactionThresholdPerFile - {}", options.getCompactionThresholdPerFile());
+            logger.info("compactionThresholdPerFile - {}", dbInternal.getCompactionThresholdPerFile());
         } catch (Exception e) {
             // release the lock if open() failed.
             if (dbInternal.dbLock != null) {
@@ -132,10 +227,59 @@ class HaloDBInternal {
         if (options.isUseMemoryPool() && (options.getFixedKeySize() < 0 || options.getFixedKeySize() > Byte.MAX_VALUE)) {
             throw new IllegalArgumentException("fixedKeySize must be set and should be less than 128 when using memory pool");
         }
+        if (options.isCompressionEnabled() && !ValueCompressor.isAvailable()) {
+            throw new IllegalArgumentException("compressionThreshold is set but lz4 is not in the classpath");
+        }
+        if (options.isAdaptiveCompactionRateEnabled() && options.getMinCompactionJobRate() > options.getCompactionJobRate()) {
+            throw new IllegalArgumentException("minCompactionJobRate cannot be greater than compactionJobRate");
+        }
+        if (options.getCompactionBacklogSoftLimit() != -1 && options.getCompactionBacklogHardLimit() != -1
+                && options.getCompactionBacklogSoftLimit() >= options.getCompactionBacklogHardLimit()) {
+            throw new IllegalArgumentException("compactionBacklogSoftLimit should be less than compactionBacklogHardLimit");
+        }
+        if (options.isCacheModeEnabled() && options.getNumberOfWriteLanes() > 1) {
+            // lanes write to several files at once, hence a file with a lower id may have newer versions of keys.
+            throw new IllegalArgumentException("maxTotalDataFileSize cannot be used with more than one write lane");
+        }
+        if (options.getDataDirectories().stream().map(File::getAbsoluteFile).distinct().count() != options.getDataDirectories().size()) {
+            throw new IllegalArgumentException("dataDirectories should not contain duplicates");
+        }
+        if (!options.getSecondaryIndexes().isEmpty()) {
+            // records dropped by the background threads would leave their entries behind.
+            if (options.isCacheModeEnabled()) {
+                throw new IllegalArgumentException("secondaryIndexes cannot be used with maxTotalDataFileSize");
+            }
+            for (String namespace : options.getNamespaceIds().keySet()) {
+                if (options.getNamespaceOptions(namespace).getDefaultTtlInSeconds() != 0) {
+                    throw new IllegalArgumentException("secondaryIndexes cannot be used with a default ttl of namespace " + namespace);
+                }
+            }
+        }
+        if (!options.isTtlEnabled()) {
+            for (String namespace : options.getNamespaceIds().keySet()) {
+                if (options.getNamespaceOptions(namespace).getDefaultTtlInSeconds() != 0) {
+                    throw new IllegalArgumentException("ttlEnabled must be set for the default ttl of namespace " + namespace);
+                }
+            }
+        }
     }
 
     void close() throws IOException {
+        // garbage collector and sweeper take the write lock, hence stopped before acquiring it.
+        if (blobManager != null) {
+            blobManager.stopGarbageCollector();
+        }
+        if (expiredRecordSweeper != null) {
+            expiredRecordSweeper.stop();
+        }
+        if (tombstoneCompactor != null) {
+            tombstoneCompactor.stop();
+        }
+        if (compactionRateController != null) {
+            compactionRateController.stop();
+        }
         writeLock.lock();
+        lockWriteLanes();
         try {
             if (isClosing) {
                 // instance already closed.
@@ -150,28 +294,36 @@ class HaloDBInternal {
                 logger.error("Error while stopping compaction thread. Setting IOError flag", e);
                 setIOErrorFlag();
             }
+            compactionManager.cancelForcedCompactions();
 
             if (options.isCleanUpInMemoryIndexOnClose())
                 inMemoryIndex.close();
 
-            if (currentWriteFile != null) {
-                currentWriteFile.flushToDisk();
-                currentWriteFile.getIndexFile().flushToDisk();
-                currentWriteFile.close();
+            for (WriteLane lane : writeLanes) {
+                if (lane.currentWriteFile != null) {
+                    lane.currentWriteFile.flushToDisk();
+                    lane.currentWriteFile.getIndexFile().flushToDisk();
+                    lane.currentWriteFile.close();
+                }
             }
             if (currentTombstoneFile != null) {
                 currentTombstoneFile.flushToDisk();
                 currentTombstoneFile.close();
             }
+            blobManager.close();
+            dataFileEvictor.stop();
+            snapshotManager.close();
 
             for (HaloDBFile file : readFileMap.values()) {
                 file.close();
             }
 
-            DBMetaData metaData = new DBMetaData(dbDirectory);
-            metaData.loadFromFileIfExists();
-            metaData.setOpen(false);
-            metaData.storeToFile();
+            synchronized (metaDataLock) {
+                DBMetaData metaData = new DBMetaData(dbDirectory);
+                metaData.loadFromFileIfExists();
+                metaData.setOpen(false);
+                metaData.storeToFile();
+            }
 
             dbDirectory.close();
 
@@ -179,30 +331,358 @@ class HaloDBInternal {
                 dbLock.close();
             }
         } finally {
+            unlockWriteLanes();
             writeLock.unlock();
         }
     }
 
     boolean put(byte[] key, byte[] value) throws IOException, HaloDBException {
+        return put(key, value, 0);
+    }
+
+    /**
+     * @param expiryTime seconds since epoch after which the record is treated as deleted, 0 if it never expires.
+     */
+    boolean put(byte[] key, byte[] value, int expiryTime) throws IOException, HaloDBException {
         if (key.length > Byte.MAX_VALUE) {
             throw new HaloDBException("key length cannot exceed " + Byte.MAX_VALUE);
         }
+        if (expiryTime != 0 && !secondaryIndexes.isEmpty()) {
+            throw new HaloDBException("Records with a ttl are not supported with secondary indexes");
+        }
+        if (expiryTime != 0 && !options.isTtlEnabled()) {
+            throw new HaloDBException("Records with a ttl are not supported without ttlEnabled");
+        }
+        if (writeStallController != null) {
+            writeStallController.throttle();
+        }
 
-        //TODO: more fine-grained locking is possible.
-        writeLock.lock();
+        Lock keyLock = lockKey(key);
+        WriteLane lane = acquireWriteLane();
         try {
-            Record record = new Record(key, value);
-            record.setSequenceNumber(getNextSequenceNumber());
-            record.setVersion(Versions.CURRENT_DATA_FILE_VERSION);
-            InMemoryIndexMetaData entry = writeRecordToFile(record);
-            markPreviousVersionAsStale(key);
+            byte[][] oldAttributes = secondaryIndexes.isEmpty() ? null : readAttributes(key);
+            byte[][] newAttributes = secondaryIndexes.isEmpty() ? null : extractAttributes(value);
+            checkSecondaryIndexSize(key, oldAttributes, newAttributes);
+            Record record = newRecord(key, value, getNextSequenceNumber());
+            InMemoryIndexMetaData entry = writeRecordToFile(lane, record, expiryTime);
+            InMemoryIndexMetaData previous = inMemoryIndex.get(key);
+            if (previous != null && expiryTime != 0) {
+                entry = entry.withOlderVersionOnDisk();
+            }
+            if (newAttributes != null) {
+                entry = entry.withSecondaryIndexEntries();
+            }
+            if (expiryTime != 0) {
+                expiredRecordSweeper.startIfNotRunning();
+            }
 
             //TODO: implement getAndSet and use the return value for
             //TODO: markPreviousVersionAsStale method.
-            return inMemoryIndex.put(key, entry);
+            snapshotManager.preserve(key, previous);
+            boolean result = inMemoryIndex.put(key, entry);
+            if (previous == null) {
+                keyAdded(key);
+            }
+            updateSecondaryIndexes(key, oldAttributes, newAttributes);
+            // only once the index points to the new version, otherwise the file of the previous
+            // version could be compacted in between, and the version copied as a live record.
+            if (previous != null) {
+                markPreviousVersionAsStale(key, previous);
+                markBlobAsStale(previous);
+            }
+            return result;
+        } finally {
+            lane.lock.unlock();
+            unlockKey(keyLock);
+        }
+    }
+
+    private Record newRecord(byte[] key, byte[] value, long sequenceNumber) throws IOException {
+        byte[] storedValue = value;
+        int flags = 0;
+        if (options.isCompressionEnabled() && value.length >= options.getCompressionThreshold()) {
+            byte[] compressed = ValueCompressor.compress(value);
+            sizeOfValuesBeforeCompression.addAndGet(value.length);
+            if (compressed != null) {
+                numberOfValuesCompressed.incrementAndGet();
+                sizeOfValuesAfterCompression.addAndGet(compressed.length);
+                storedValue = compressed;
+                flags = Record.Header.COMPRESSED_FLAG;
+            } else {
+                // value is not compressible, store it as is.
+                sizeOfValuesAfterCompression.addAndGet(value.length);
+            }
+        }
+
+        if (options.isBlobStorageEnabled() && value.length >= options.getBlobThreshold()) {
+            Record blob = new Record(key, storedValue);
+            blob.setVersion(Versions.CURRENT_DATA_FILE_VERSION | flags);
+            blob.setSequenceNumber(sequenceNumber);
+            storedValue = blobManager.write(blob).serialize();
+            flags = Record.Header.BLOB_FLAG;
+        }
+
+        Record record = new Record(key, storedValue);
+        record.setVersion(Versions.CURRENT_DATA_FILE_VERSION | flags);
+        record.setSequenceNumber(sequenceNumber);
+        return record;
+    }
+
+    boolean isBlobLive(byte[] key, long sequenceNumber) {
+        InMemoryIndexMetaData metaData = inMemoryIndex.get(key);
+        return metaData != null && metaData.isBlob() && metaData.getSequenceNumber() == sequenceNumber
+                && !dataFileEvictor.isEvicted(metaData.getFileId());
+    }
+
+    /**
+     * Called by the blob garbage collector to write a live blob, and a record which
+     * points to it, again. The blob gets a new sequence number so that the new
+     * pointer takes precedence over the old one when the index is built.
+     */
+    boolean relocateBlob(Record blob) throws IOException, HaloDBException {
+        Lock keyLock = lockKey(blob.getKey());
+        writeLock.lock();
+        WriteLane lane = acquireWriteLane();
+        try {
+            InMemoryIndexMetaData previous = inMemoryIndex.get(blob.getKey());
+            if (isClosing || !isBlobLive(blob.getKey(), blob.getSequenceNumber())) {
+                return false;
+            }
+
+            long sequenceNumber = getNextSequenceNumber();
+            blob.setSequenceNumber(sequenceNumber);
+            Record record = new Record(blob.getKey(), blobManager.write(blob).serialize());
+            record.setVersion(Versions.CURRENT_DATA_FILE_VERSION | Record.Header.BLOB_FLAG);
+            record.setSequenceNumber(sequenceNumber);
+
+            InMemoryIndexMetaData entry = writeRecordToFile(lane, record, previous.getExpiryTime());
+            if (previous.getExpiryTime() != 0) {
+                // the record with the old pointer is now an older version.
+                entry = entry.withOlderVersionOnDisk();
+            }
+            if (previous.hasSecondaryIndexEntries()) {
+                entry = entry.withSecondaryIndexEntries();
+            }
+            snapshotManager.preserve(blob.getKey(), previous);
+            inMemoryIndex.put(blob.getKey(), entry);
+            markPreviousVersionAsStale(blob.getKey(), previous);
+            return true;
         } finally {
+            lane.lock.unlock();
             writeLock.unlock();
+            unlockKey(keyLock);
+        }
+    }
+
+    BulkLoad newBulkLoad() throws HaloDBException, IOException {
+        if (options.isBlobStorageEnabled()) {
+            // the blob garbage collector would delete blobs not yet in the index.
+            throw new HaloDBException("Bulk load is not supported with blob storage");
+        }
+        if (!secondaryIndexes.isEmpty()) {
+            // the previous values of the loaded keys aren't read.
+            throw new HaloDBException("Bulk load is not supported with secondary indexes");
         }
+        if (options.isCacheModeEnabled()) {
+            // loaded files take precedence over files with higher ids written during the load,
+            // but files are evicted in the order of their ids.
+            throw new HaloDBException("Bulk load is not supported in cache mode");
+        }
+        return BulkLoad.create(this);
+    }
+
+    /**
+     * Makes the records in data files of a bulk load, which were already moved to the db
+     * directory, visible. Writes wait while the index is updated by multiple threads, and
+     * are newer than those of the bulk load afterwards.
+     */
+    void ingestBulkLoad(List<Integer> fileIds, long lastSequenceNumber) throws IOException {
+        writeLock.lock();
+        lockWriteLanes();
+        try {
+            if (isClosing) {
+                // the files are in the db directory, and are read when it is opened again.
+                throw new IOException("db was closed before the bulk load was ingested");
+            }
+            if (snapshotManager.getNumberOfOpenSnapshots() > 0) {
+                // records of a bulk load can be older than the snapshots.
+                throw new IOException("Bulk load can't be ingested while snapshots are open");
+            }
+            List<ProcessIndexFileTask> tasks = new ArrayList<>();
+            for (int fileId : fileIds) {
+                File file = dbDirectory.getDataFilePath(fileId).resolve(fileId + HaloDBFile.DATA_FILE_NAME).toFile();
+                readFileMap.put(fileId, HaloDBFile.openForReading(dbDirectory, file, HaloDBFile.FileType.DATA_FILE, options));
+                tasks.add(new ProcessIndexFileTask(new IndexFile(fileId, dbDirectory, options), fileId));
+            }
+            nextSequenceNumber.accumulateAndGet(lastSequenceNumber + 1, Math::max);
+
+            ExecutorService executor = Executors.newFixedThreadPool(options.getBuildIndexThreads());
+            try {
+                for (Future<Long> result : executor.invokeAll(tasks)) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Ingesting bulk load was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error while ingesting bulk load", e);
+            } finally {
+                executor.shutdown();
+            }
+        } finally {
+            unlockWriteLanes();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Registers a snapshot which sees the records written so far, see HaloDBSnapshot. Writes
+     * wait while it is registered, so that none of them is in flight.
+     */
+    Snapshot openSnapshot() throws HaloDBException {
+        if (options.getMaxTotalDataFileSize() != -1) {
+            throw new HaloDBException("Snapshots are not supported with maxTotalDataFileSize");
+        }
+        writeLock.lock();
+        lockWriteLanes();
+        try {
+            if (isClosing) {
+                throw new HaloDBException("db is closed");
+            }
+            return snapshotManager.open(nextSequenceNumber.get() - 1);
+        } finally {
+            unlockWriteLanes();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Creates a copy of the db in the directory, see Checkpoint. Compaction, the blob garbage
+     * collector and the tombstone compactor delete files, hence are paused until the sealed
+     * files were linked, and writes wait while the files are linked.
+     */
+    void checkpoint(File directory) throws IOException, HaloDBException {
+        if (isTombstoneFilesMerging) {
+            throw new HaloDBException("Tombstone files are being merged, try again later");
+        }
+        Checkpoint checkpoint = Checkpoint.create(directory);
+        try {
+            boolean compactionWasRunning = compactionManager.isCompactionRunning();
+            boolean garbageCollectorWasRunning = blobManager.isGarbageCollectorRunning();
+            long sequenceNumber;
+            try {
+                if (compactionWasRunning) {
+                    compactionManager.pauseCompactionThread();
+                }
+                if (garbageCollectorWasRunning) {
+                    blobManager.stopGarbageCollector();
+                }
+                tombstoneCompactor.lockFiles();
+                try {
+                    sequenceNumber = addFilesToCheckpoint(checkpoint);
+                } finally {
+                    tombstoneCompactor.unlockFiles();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Checkpoint was interrupted", e);
+            } finally {
+                if (!isClosing) {
+                    if (garbageCollectorWasRunning) {
+                        blobManager.startGarbageCollector();
+                    }
+                    if (compactionWasRunning) {
+                        compactionManager.resumeCompaction();
+                    }
+                }
+            }
+            checkpoint.copyCapturedFiles();
+            checkpoint.complete(options.getMaxFileSize(), sequenceNumber, maxDroppedSequenceNumber.get());
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    // returns the latest sequence number in the checkpoint.
+    private long addFilesToCheckpoint(Checkpoint checkpoint) throws IOException, HaloDBException {
+        writeLock.lock();
+        lockWriteLanes();
+        try {
+            if (isClosing) {
+                throw new HaloDBException("db was closed");
+            }
+            for (HaloDBFile file : readFileMap.values()) {
+                int fileId = file.getFileId();
+                if (isWriteLaneFile(fileId) || compactionManager.isCurrentWriteFile(fileId)) {
+                    checkpoint.capture(file.getPath(), file.getWriteOffset());
+                    checkpoint.capture(file.getIndexFile().getPath(), file.getIndexFile().getSize());
+                } else {
+                    checkpoint.link(file.getPath());
+                    checkpoint.link(file.getIndexFile().getPath());
+                }
+                // written once before the data file.
+                checkpoint.linkIfExists(CompressionDictionary.getPath(dbDirectory, fileId));
+            }
+
+            TombstoneFile tombstoneFile = currentTombstoneFile;
+            for (File file : dbDirectory.listTombstoneFiles()) {
+                if (tombstoneFile != null && file.getName().equals(tombstoneFile.getName())) {
+                    checkpoint.capture(file.toPath(), tombstoneFile.getWriteOffset());
+                } else {
+                    checkpoint.link(file.toPath());
+                }
+            }
+
+            BlobFile blobFile = blobManager.getCurrentWriteFile();
+            for (File file : dbDirectory.listBlobFiles()) {
+                if (blobFile != null && file.getName().equals(blobFile.getName())) {
+                    checkpoint.capture(file.toPath(), blobFile.getSize());
+                } else {
+                    checkpoint.link(file.toPath());
+                }
+            }
+            return getLatestSequenceNumber();
+        } finally {
+            unlockWriteLanes();
+            writeLock.unlock();
+        }
+    }
+
+    @VisibleForTesting
+    void collectBlobGarbage() throws IOException, HaloDBException {
+        blobManager.collectGarbage();
+    }
+
+    void flushRelocatedBlobs() throws IOException {
+        writeLock.lock();
+        lockWriteLanes();
+        try {
+            blobManager.flushCurrentWriteFile();
+            for (WriteLane lane : writeLanes) {
+                if (lane.currentWriteFile != null) {
+                    lane.currentWriteFile.flushToDisk();
+                    lane.currentWriteFile.getIndexFile().flushToDisk();
+                }
+            }
+        } finally {
+            unlockWriteLanes();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the value of the record, following the pointer if the value is in a blob file.
+     * Returns null if the blob file was deleted by the garbage collector.
+     */
+    byte[] readValue(HaloDBFile file, InMemoryIndexMetaData metaData) throws IOException {
+        byte[] value = file.readValue(metaData);
+        return metaData.isBlob() ? blobManager.read(value) : value;
+    }
+
+    // value as stored in the data file, read by a scan instead of from the file.
+    byte[] decodeValue(HaloDBFile file, byte[] storedValue, InMemoryIndexMetaData metaData) throws IOException {
+        byte[] value = file.decodeValue(storedValue, metaData.getFlags());
+        return metaData.isBlob() ? blobManager.read(value) : value;
     }
 
     byte[] get(byte[] key, int attemptNumber) throws IOException, HaloDBException {
@@ -211,18 +691,26 @@ class HaloDBInternal {
             throw new HaloDBException("Tried " + attemptNumber + " attempts but failed.");
         }
         InMemoryIndexMetaData metaData = inMemoryIndex.get(key);
-        if (metaData == null) {
+        if (metaData == null || metaData.isExpired()) {
             return null;
         }
 
         HaloDBFile readFile = readFileMap.get(metaData.getFileId());
         if (readFile == null) {
+            if (dataFileEvictor.isEvicted(metaData.getFileId())) {
+                return null;
+            }
             logger.debug("File {} not present. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
             return get(key, attemptNumber + 1);
         }
 
         try {
-            return readFile.readFromFile(metaData.getValueOffset(), metaData.getValueSize());
+            byte[] value = readValue(readFile, metaData);
+            if (value == null) {
+                logger.debug("Blob of {} was relocated by the garbage collector. Retrying ...", metaData.getFileId());
+                return get(key, attemptNumber + 1);
+            }
+            return value;
         } catch (ClosedChannelException e) {
             if (!isClosing) {
                 logger.debug("File {} was closed. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
@@ -236,20 +724,33 @@ class HaloDBInternal {
 
     int get(byte[] key, ByteBuffer buffer) throws IOException {
         InMemoryIndexMetaData metaData = inMemoryIndex.get(key);
-        if (metaData == null) {
+        if (metaData == null || metaData.isExpired()) {
             return 0;
         }
 
         HaloDBFile readFile = readFileMap.get(metaData.getFileId());
         if (readFile == null) {
+            if (dataFileEvictor.isEvicted(metaData.getFileId())) {
+                return 0;
+            }
             logger.debug("File {} not present. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
             return get(key, buffer);
         }
 
         buffer.clear();
-        buffer.limit(metaData.getValueSize());
 
         try {
+            if (metaData.getFlags() != 0) {
+                byte[] value = readValue(readFile, metaData);
+                if (value == null) {
+                    logger.debug("Blob of {} was relocated by the garbage collector. Retrying ...", metaData.getFileId());
+                    return get(key, buffer);
+                }
+                buffer.put(value);
+                buffer.flip();
+                return value.length;
+            }
+            buffer.limit(metaData.getValueSize());
             int read = readFile.readFromFile(metaData.getValueOffset(), buffer);
             buffer.flip();
             return read;
@@ -265,32 +766,139 @@ class HaloDBInternal {
     }
 
     void delete(byte[] key) throws IOException {
+        Lock keyLock = lockKey(key);
         writeLock.lock();
         try {
             InMemoryIndexMetaData metaData = inMemoryIndex.get(key);
             if (metaData != null) {
+                byte[][] oldAttributes = secondaryIndexes.isEmpty() ? null : readAttributes(key);
                 //TODO: implement a getAndRemove method in InMemoryIndex.
+                snapshotManager.preserve(key, metaData);
                 inMemoryIndex.remove(key);
+                keyRemoved(key);
+                updateSecondaryIndexes(key, oldAttributes, null);
                 TombstoneEntry entry =
                         new TombstoneEntry(key, getNextSequenceNumber(), -1, Versions.CURRENT_TOMBSTONE_FILE_VERSION);
                 currentTombstoneFile = rollOverTombstoneFile(entry, currentTombstoneFile);
                 currentTombstoneFile.write(entry);
                 markPreviousVersionAsStale(key, metaData);
+                markBlobAsStale(metaData);
             }
         } finally {
             writeLock.unlock();
+            unlockKey(keyLock);
         }
     }
 
+    /**
+     * Called by the sweeper to remove a record whose time to live has passed. If the
+     * record shadows an older version of the key a tombstone is written, otherwise the
+     * older version would be visible again once the index is built from the files.
+     */
+    boolean removeExpiredRecord(byte[] key, InMemoryIndexMetaData metaData) throws IOException {
+        Lock keyLock = lockKey(key);
+        writeLock.lock();
+        try {
+            InMemoryIndexMetaData current = inMemoryIndex.get(key);
+            if (isClosing || !isRecordFresh(key, metaData) || !current.isExpired()) {
+                return false;
+            }
+
+            snapshotManager.preserve(key, current);
+            if (current.hasOlderVersionOnDisk()) {
+                inMemoryIndex.remove(key);
+                TombstoneEntry entry =
+                        new TombstoneEntry(key, getNextSequenceNumber(), -1, Versions.CURRENT_TOMBSTONE_FILE_VERSION);
+                currentTombstoneFile = rollOverTombstoneFile(entry, currentTombstoneFile);
+                currentTombstoneFile.write(entry);
+            } else if (!inMemoryIndex.remove(key, current)) {
+                // moved by the compaction thread.
+                return false;
+            }
+            keyRemoved(key);
+            markPreviousVersionAsStale(key, current);
+            markBlobAsStale(current);
+            numberOfRecordsExpired++;
+            return true;
+        } finally {
+            writeLock.unlock();
+            unlockKey(keyLock);
+        }
+    }
+
+    /**
+     * Used by the compaction thread, which doesn't hold the write lock, to move the current
+     * version of the key. Snapshots aren't opened while the version is preserved and replaced.
+     */
+    boolean replaceInIndex(byte[] key, InMemoryIndexMetaData current, InMemoryIndexMetaData newMetaData) {
+        Lock snapshotLock = snapshotManager.getCompactionLock();
+        snapshotLock.lock();
+        try {
+            if (!isRecordFresh(key, current)) {
+                return false;
+            }
+            snapshotManager.preserve(key, current);
+            return inMemoryIndex.replace(key, current, newMetaData);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    // used by the compaction thread to drop an expired version, see replaceInIndex.
+    boolean removeFromIndex(byte[] key, InMemoryIndexMetaData current) {
+        Lock snapshotLock = snapshotManager.getCompactionLock();
+        snapshotLock.lock();
+        try {
+            if (!isRecordFresh(key, current)) {
+                return false;
+            }
+            snapshotManager.preserve(key, current);
+            if (!inMemoryIndex.remove(key, current)) {
+                return false;
+            }
+            keyRemoved(key);
+            return true;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    @VisibleForTesting
+    long sweepExpiredRecords() throws IOException {
+        return expiredRecordSweeper.sweep();
+    }
+
+    // called by the compaction thread for records with a ttl it copied.
+    void recordWithExpiryTimeWritten(int fileId, int expiryTime) {
+        expiredRecordSweeper.recordWritten(fileId, expiryTime);
+    }
+
+    @VisibleForTesting
+    ExpiredRecordSweeper getExpiredRecordSweeper() {
+        return expiredRecordSweeper;
+    }
+
+    @VisibleForTesting
+    void compactTombstoneFiles() throws IOException, InterruptedException {
+        tombstoneCompactor.compactTombstoneFiles();
+    }
+
+    @VisibleForTesting
+    void adjustCompactionRate() {
+        compactionRateController.adjustRate();
+    }
+
     long size() {
         return inMemoryIndex.size();
     }
 
     void setIOErrorFlag() throws IOException {
-        DBMetaData metaData = new DBMetaData(dbDirectory);
-        metaData.loadFromFileIfExists();
-        metaData.setIOError(true);
-        metaData.storeToFile();
+        synchronized (metaDataLock) {
+            DBMetaData metaData = new DBMetaData(dbDirectory);
+            metaData.loadFromFileIfExists();
+            metaData.setIOError(true);
+            metaData.storeToFile();
+        }
     }
 
     void pauseCompaction() throws IOException, InterruptedException {
@@ -298,24 +906,161 @@ class HaloDBInternal {
     }
 
     void resumeCompaction() {
+        if (options.isCacheModeEnabled()) {
+            logger.warn("Data files are not compacted in cache mode");
+            return;
+        }
         compactionManager.resumeCompaction();
     }
 
-    private InMemoryIndexMetaData writeRecordToFile(Record record) throws IOException, HaloDBException {
-        rollOverCurrentWriteFile(record);
-        return currentWriteFile.writeRecord(record);
+    private InMemoryIndexMetaData writeRecordToFile(WriteLane lane, Record record, int expiryTime) throws IOException, HaloDBException {
+        rollOverCurrentWriteFile(lane, record.getRecordSize() + (expiryTime != 0 ? Record.EXPIRY_TIME_SIZE : 0));
+        if (record.getVersion() == Versions.CURRENT_DATA_FILE_VERSION
+                && options.isEligibleForDictionaryCompression(record.getValue().length)) {
+            // dictionary depends on the file to which the record is written, hence done after roll over.
+            record = compressWithDictionary(record, lane.currentWriteFile.getCompressionDictionary());
+        }
+        if (expiryTime != 0) {
+            // expiry time is added last so that it can be read without decoding the value.
+            Record withExpiryTime = new Record(record.getKey(), Record.addExpiryTime(record.getValue(), expiryTime));
+            withExpiryTime.setVersion(record.getVersion() | Record.Header.TTL_FLAG);
+            withExpiryTime.setSequenceNumber(record.getSequenceNumber());
+            record = withExpiryTime;
+        }
+        sizeOfRecordsWritten.addAndGet(record.getRecordSize());
+        InMemoryIndexMetaData metaData = lane.currentWriteFile.writeRecord(record);
+        if (expiryTime != 0) {
+            expiredRecordSweeper.recordWritten(metaData.getFileId(), expiryTime);
+        }
+        return metaData;
     }
 
-    private void rollOverCurrentWriteFile(Record record) throws IOException, HaloDBException {
-        int size = record.getKey().length + record.getValue().length + Record.Header.HEADER_SIZE;
+    private Record compressWithDictionary(Record record, CompressionDictionary dictionary) {
+        byte[] value = record.getValue();
+        dictionarySampler.add(value);
+        if (dictionary == null) {
+            return record;
+        }
+
+        byte[] compressed = dictionary.compress(value);
+        sizeOfValuesBeforeCompression.addAndGet(value.length);
+        if (compressed == null) {
+            sizeOfValuesAfterCompression.addAndGet(value.length);
+            return record;
+        }
+        numberOfValuesCompressed.incrementAndGet();
+        sizeOfValuesAfterCompression.addAndGet(compressed.length);
+
+        Record compressedRecord = new Record(record.getKey(), compressed);
+        compressedRecord.setSequenceNumber(record.getSequenceNumber());
+        compressedRecord.setVersion(Versions.CURRENT_DATA_FILE_VERSION | Record.Header.DICTIONARY_COMPRESSED_FLAG);
+        return compressedRecord;
+    }
 
+    private void rollOverCurrentWriteFile(WriteLane lane, int size) throws IOException, HaloDBException {
+        HaloDBFile currentWriteFile = lane.currentWriteFile;
         if ((currentWriteFile == null || currentWriteFile.getWriteOffset() + size > options.getMaxFileSize()) && !isClosing) {
             if (currentWriteFile != null) {
                 currentWriteFile.flushToDisk();
                 currentWriteFile.getIndexFile().flushToDisk();
             }
             currentWriteFile = createHaloDBFile(HaloDBFile.FileType.DATA_FILE);
+            lane.currentWriteFile = currentWriteFile;
             dbDirectory.syncMetaData();
+            if (writeLanes.length > 1) {
+                storeActiveDataFileIds();
+            }
+            if (options.isCacheModeEnabled()) {
+                dataFileEvictor.evictIfOverLimit();
+            }
+            if (dictionarySampler != null && dictionarySampler.canTrain()) {
+                currentWriteFile.setCompressionDictionary(
+                        CompressionDictionary.train(dictionarySampler, options.getCompressionDictionarySize()));
+                numberOfDictionariesTrained.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * With multiple write lanes, or compacted files which stay open across rollovers of
+     * the data files, a file other than the latest one might be partially written after
+     * a crash. Hence the files the lanes and the compaction thread write to are recorded
+     * in the meta data file before anything is written to them.
+     */
+    void storeActiveDataFileIds() throws IOException {
+        synchronized (metaDataLock) {
+            List<Integer> fileIds = new ArrayList<>();
+            for (WriteLane lane : writeLanes) {
+                if (lane.currentWriteFile != null) {
+                    fileIds.add(lane.currentWriteFile.getFileId());
+                }
+            }
+            fileIds.addAll(compactionManager.getCurrentWriteFileIds());
+            for (CompactionManager manager : parallelCompactionManagers) {
+                fileIds.addAll(manager.getCurrentWriteFileIds());
+            }
+            DBMetaData metaData = new DBMetaData(dbDirectory);
+            metaData.loadFromFileIfExists();
+            metaData.setActiveDataFileIds(fileIds);
+            metaData.storeToFile();
+        }
+    }
+
+    private void createWriteLanes(int numberOfWriteLanes) {
+        writeLanes = new WriteLane[numberOfWriteLanes];
+        writeLanes[0] = new WriteLane(writeLock);
+        if (numberOfWriteLanes > 1) {
+            // each lane has its own lock, deletes and other writers which need the write lock
+            // then only serialize with writes to the same key.
+            for (int i = 0; i < numberOfWriteLanes; i++) {
+                writeLanes[i] = new WriteLane(new ReentrantLock());
+            }
+            keyLocks = Striped.lock(numberOfWriteLanes * 64);
+        }
+    }
+
+    /**
+     * Locks the lane the thread last wrote to, or any other one which is free. Lanes
+     * are locked after the write lock if both are held.
+     */
+    private WriteLane acquireWriteLane() {
+        int preferred = preferredWriteLane.get();
+        for (int i = 0; i < writeLanes.length; i++) {
+            WriteLane lane = writeLanes[(preferred + i) % writeLanes.length];
+            if (lane.lock.tryLock()) {
+                return lane;
+            }
+        }
+        WriteLane lane = writeLanes[preferred];
+        lane.lock.lock();
+        return lane;
+    }
+
+    private void lockWriteLanes() {
+        for (WriteLane lane : writeLanes) {
+            lane.lock.lock();
+        }
+    }
+
+    private void unlockWriteLanes() {
+        for (WriteLane lane : writeLanes) {
+            lane.lock.unlock();
+        }
+    }
+
+    // key locks are taken before any other lock, and only if there are multiple write lanes.
+    private Lock lockKey(byte[] key) {
+        if (keyLocks == null) {
+            return null;
+        }
+        Lock lock = keyLocks.get(ByteBuffer.wrap(key));
+        lock.lock();
+        return lock;
+    }
+
+    private void unlockKey(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
         }
     }
 
@@ -327,6 +1072,7 @@ class HaloDBInternal {
             if (tombstoneFile != null) {
                 tombstoneFile.flushToDisk();
                 tombstoneFile.close();
+                tombstoneCompactor.tombstoneFileSealed(tombstoneFile.getWriteOffset());
             }
             tombstoneFile = TombstoneFile.create(dbDirectory, getNextFileId(), options);
             dbDirectory.syncMetaData();
@@ -346,23 +1092,123 @@ class HaloDBInternal {
         addFileToCompactionQueueIfThresholdCrossed(recordMetaData.getFileId(), staleRecordSize);
     }
 
+    // reads the pointer of the version, which the caller replaced or deleted, from the data file.
+    private void markBlobAsStale(InMemoryIndexMetaData metaData) {
+        if (!metaData.isBlob()) {
+            return;
+        }
+        HaloDBFile file = readFileMap.get(metaData.getFileId());
+        if (file == null) {
+            return;
+        }
+        try {
+            blobManager.blobSuperseded(file.readValue(metaData));
+        } catch (IOException e) {
+            // data file deleted by compaction in between, the blob is counted when the db is opened again.
+            logger.debug("Failed to read blob pointer from file {}", file.getFileId(), e);
+        }
+    }
+
     void addFileToCompactionQueueIfThresholdCrossed(int fileId, int staleRecordSize) {
         HaloDBFile file = readFileMap.get(fileId);
         if (file == null)
             return;
 
         int staleSizeInFile = updateStaleDataMap(fileId, staleRecordSize);
-        if (staleSizeInFile >= file.getSize() * options.getCompactionThresholdPerFile()) {
+        if (staleSizeInFile >= file.getSize() * getCompactionThresholdPerFile()) {
+            submitFileForCompaction(fileId);
+        }
+        if (compactionThresholdTuner != null) {
+            compactionThresholdTuner.staleDataAdded(staleRecordSize);
+        }
+    }
 
-            // We don't want to compact the files the writer thread and the compaction thread is currently writing to.
-            if (getCurrentWriteFileId() != fileId && compactionManager.getCurrentWriteFileId() != fileId) {
-                if (compactionManager.submitFileForCompaction(fileId)) {
-                    staleDataPerFileMap.remove(fileId);
-                }
+    CompletableFuture<Void> compact(double minStaleRatio) throws HaloDBException {
+        if (options.isCompactionDisabled() || options.isCacheModeEnabled()) {
+            throw new HaloDBException("Compaction is disabled");
+        }
+        List<Integer> fileIds = listFilesToCompact(minStaleRatio);
+        fileIds.forEach(staleDataPerFileMap::remove);
+        return compactionManager.forceCompaction(fileIds);
+    }
+
+    /**
+     * Compacts the files with a compaction manager per thread, each with its own compacted
+     * file. Used by HaloDBCompactionTool, hence the db must have been opened with compaction
+     * disabled and must not be written to. Returns the size of data reclaimed.
+     */
+    long compactInParallel(double minStaleRatio, int threads) throws IOException {
+        List<Integer> fileIds = listFilesToCompact(minStaleRatio);
+        int numberOfManagers = Math.min(threads, fileIds.size());
+        logger.info("Compacting {} files with {} threads", fileIds.size(), numberOfManagers);
+
+        List<CompactionManager> managers = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < numberOfManagers; i++) {
+            List<Integer> filesOfManager = new ArrayList<>();
+            for (int j = i; j < fileIds.size(); j += numberOfManagers) {
+                filesOfManager.add(fileIds.get(j));
+            }
+            CompactionManager manager = new CompactionManager(this);
+            futures.add(manager.forceCompaction(filesOfManager));
+            parallelCompactionManagers.add(manager);
+            manager.startCompactionThread();
+            managers.add(manager);
+        }
+
+        // all threads are stopped even if one of them failed.
+        IOException error = null;
+        long reclaimed = 0;
+        for (int i = 0; i < numberOfManagers; i++) {
+            CompactionManager manager = managers.get(i);
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new IOException("Interrupted while waiting for compaction to complete", e);
+            } catch (ExecutionException e) {
+                error = new IOException("Compaction failed", e.getCause());
+            } finally {
+                manager.stopCompactionThread(true);
+            }
+            reclaimed += manager.getSizeOfFilesDeleted() - manager.getSizeOfRecordsCopied();
+        }
+        parallelCompactionManagers.clear();
+        if (error != null) {
+            throw error;
+        }
+        return reclaimed;
+    }
+
+    // data files, other than those being written to, in which at least this fraction of the data is stale.
+    private List<Integer> listFilesToCompact(double minStaleRatio) {
+        List<Integer> fileIds = new ArrayList<>();
+        for (HaloDBFile file : readFileMap.values()) {
+            int fileId = file.getFileId();
+            if (file.getSize() == 0 || isFileBeingWritten(fileId)) {
+                continue;
+            }
+            if (staleDataPerFileMap.getOrDefault(fileId, 0) >= file.getSize() * minStaleRatio) {
+                fileIds.add(fileId);
+            }
+        }
+        return fileIds;
+    }
+
+    void submitFileForCompaction(int fileId) {
+        // We don't want to compact the files the writer thread and the compaction thread is currently writing to.
+        // In cache mode files are evicted instead.
+        if (!options.isCacheModeEnabled() && !isWriteLaneFile(fileId) && !compactionManager.isCurrentWriteFile(fileId)) {
+            if (compactionManager.submitFileForCompaction(fileId)) {
+                staleDataPerFileMap.remove(fileId);
             }
         }
     }
 
+    double getCompactionThresholdPerFile() {
+        return compactionThresholdTuner != null ? compactionThresholdTuner.getThreshold() : options.getCompactionThresholdPerFile();
+    }
+
     private int updateStaleDataMap(int fileId, int staleDataSize) {
         return staleDataPerFileMap.merge(fileId, staleDataSize, (oldValue, newValue) -> oldValue + newValue);
     }
@@ -418,15 +1264,17 @@ class HaloDBInternal {
         return maxFileId;
     }
 
-    private int getNextFileId() {
+    int getNextFileId() {
         return nextFileId.incrementAndGet();
     }
 
-    private Optional<HaloDBFile> getLatestDataFile(HaloDBFile.FileType fileType) {
+    private List<HaloDBFile> getLatestDataFiles(HaloDBFile.FileType fileType, int count) {
         return readFileMap.values()
                 .stream()
                 .filter(f -> f.getFileType() == fileType)
-                .max(Comparator.comparingInt(HaloDBFile::getFileId));
+                .sorted(Comparator.comparingInt(HaloDBFile::getFileId).reversed())
+                .limit(count)
+                .collect(Collectors.toList());
     }
 
     private long buildInMemoryIndex(HaloDBOptions options) throws IOException {
@@ -489,12 +1337,24 @@ class HaloDBInternal {
         return readFileMap.get(fileId);
     }
 
+    // removes the file from the read file map without deleting it.
+    HaloDBFile removeHaloDBFile(int fileId) {
+        staleDataPerFileMap.remove(fileId);
+        return readFileMap.remove(fileId);
+    }
+
     void deleteHaloDBFile(int fileId) throws IOException {
         HaloDBFile file = readFileMap.get(fileId);
 
         if (file != null) {
+            // a file pinned by a snapshot is deleted once the last snapshot is released.
+            boolean pinned = snapshotManager.pinDataFile(file);
             readFileMap.remove(fileId);
-            file.delete();
+            if (!pinned) {
+                long size = file.getSize();
+                file.delete();
+                tombstoneCompactor.dataFileDeleted(size);
+            }
         }
 
         staleDataPerFileMap.remove(fileId);
@@ -555,25 +1415,43 @@ class HaloDBInternal {
         isTombstoneFilesMerging = false;
     }
 
-    private void repairFiles() {
-        getLatestDataFile(HaloDBFile.FileType.DATA_FILE).ifPresent(file -> {
+    private void repairFiles(List<Integer> activeDataFileIds) {
+        List<HaloDBFile> files = new ArrayList<>(getLatestDataFiles(HaloDBFile.FileType.DATA_FILE, 1));
+        // files older than the latest one which were being written to by other lanes or the compaction thread.
+        boolean hasActiveCompactedFiles = false;
+        for (int fileId : activeDataFileIds) {
+            HaloDBFile file = readFileMap.get(fileId);
+            if (file != null && !files.contains(file)) {
+                files.add(file);
+                hasActiveCompactedFiles |= file.getFileType() == HaloDBFile.FileType.COMPACTED_FILE;
+            }
+        }
+        if (!hasActiveCompactedFiles) {
+            // meta data file might have been written by a version which didn't record the compacted files.
+            getLatestDataFiles(HaloDBFile.FileType.COMPACTED_FILE, 1).stream()
+                    .filter(file -> !files.contains(file))
+                    .forEach(files::add);
+        }
+        files.forEach(file -> {
             try {
-                logger.info("Repairing file {}.data", file.getFileId());
+                logger.info("Repairing file {}", file.getName());
                 HaloDBFile repairedFile = file.repairFile(dbDirectory);
                 readFileMap.put(repairedFile.getFileId(), repairedFile);
             } catch (IOException e) {
-                throw new RuntimeException("Exception while repairing data file " + file.getFileId() + " which might be corrupted", e);
+                throw new RuntimeException("Exception while repairing file " + file.getName() + " which might be corrupted", e);
             }
         });
-        getLatestDataFile(HaloDBFile.FileType.COMPACTED_FILE).ifPresent(file -> {
+
+        File[] blobFiles = dbDirectory.listBlobFiles();
+        if (blobFiles.length > 0) {
+            File lastFile = blobFiles[blobFiles.length - 1];
             try {
-                logger.info("Repairing file {}.datac", file.getFileId());
-                HaloDBFile repairedFile = file.repairFile(dbDirectory);
-                readFileMap.put(repairedFile.getFileId(), repairedFile);
+                logger.info("Repairing {} file", lastFile.getName());
+                BlobFile.repairFile(lastFile, options);
             } catch (IOException e) {
-                throw new RuntimeException("Exception while repairing datac file " + file.getFileId() + " which might be corrupted", e);
+                throw new RuntimeException("Exception while repairing blob file " + lastFile.getName() + " which might be corrupted", e);
             }
-        });
+        }
 
         File[] tombstoneFiles = dbDirectory.listTombstoneFiles();
         if (tombstoneFiles != null && tombstoneFiles.length > 0) {
@@ -615,6 +1493,244 @@ class HaloDBInternal {
         return new HashSet<>(readFileMap.keySet());
     }
 
+    Collection<HaloDBFile> listEvictedDataFiles() {
+        return dataFileEvictor.getEvictedFiles();
+    }
+
+    // compacted data files which aren't deleted yet as snapshots are open.
+    Collection<HaloDBFile> listPinnedDataFiles() {
+        return snapshotManager.getPinnedDataFiles();
+    }
+
+    // tombstone files created from now on will have a larger id.
+    int getCurrentTombstoneFileId() {
+        TombstoneFile file = currentTombstoneFile;
+        return file != null ? file.getFileId() : nextFileId.get() + 1;
+    }
+
+    // latency of a get or put operation which started at the given time, see CompactionRateController.
+    void recordLatency(long startTimeInNanos) {
+        if (compactionRateController != null) {
+            compactionRateController.recordLatency(System.nanoTime() - startTimeInNanos);
+        }
+    }
+
+    long getSizeOfStaleData() {
+        long size = 0;
+        for (int staleData : staleDataPerFileMap.values()) {
+            size += staleData;
+        }
+        return size;
+    }
+
+    // stale data in files which crossed the compaction threshold, but are not yet queued for compaction.
+    long getSizeOfStaleDataToCompact() {
+        double threshold = getCompactionThresholdPerFile();
+        long size = 0;
+        for (Map.Entry<Integer, Integer> entry : staleDataPerFileMap.entrySet()) {
+            HaloDBFile file = readFileMap.get(entry.getKey());
+            if (file != null && entry.getValue() >= file.getSize() * threshold) {
+                size += entry.getValue();
+            }
+        }
+        return size;
+    }
+
+    long getSizeOfDataFiles() {
+        long size = 0;
+        for (HaloDBFile file : readFileMap.values()) {
+            size += file.getSize();
+        }
+        return size;
+    }
+
+    Map<Integer, Integer> getStaleDataPerFileMap() {
+        return Collections.unmodifiableMap(staleDataPerFileMap);
+    }
+
+    // ratio of the size of data files to the size of live data in them, -1 if there is no data.
+    private double getSpaceAmplification() {
+        long totalSize = getSizeOfDataFiles();
+        long liveSize = totalSize - getSizeOfStaleData();
+        return liveSize > 0 ? (double) totalSize / liveSize : -1;
+    }
+
+    // ratio of the size of records written by the db to the size of those written by the user since stats were reset.
+    private double getWriteAmplification() {
+        long written = sizeOfRecordsWritten.get();
+        return written > 0 ? (double) (written + compactionManager.getSizeOfRecordsCopied()) / written : -1;
+    }
+
+    CompactionManager getCompactionManager() {
+        return compactionManager;
+    }
+
+    TombstoneCompactor getTombstoneCompactor() {
+        return tombstoneCompactor;
+    }
+
+    BlobManager getBlobManager() {
+        return blobManager;
+    }
+
+    SnapshotManager getSnapshotManager() {
+        return snapshotManager;
+    }
+
+    OrderedKeyIndex getOrderedKeyIndex() {
+        return orderedKeyIndex;
+    }
+
+    // called after a key which wasn't in the in-memory index was put into it.
+    private void keyAdded(byte[] key) {
+        if (orderedKeyIndex != null) {
+            orderedKeyIndex.add(key);
+        }
+        LongAdder numberOfRecords = getNumberOfRecordsOfNamespace(key);
+        if (numberOfRecords != null) {
+            numberOfRecords.increment();
+        }
+    }
+
+    // called after the key was removed from the in-memory index.
+    void keyRemoved(byte[] key) {
+        if (orderedKeyIndex != null) {
+            orderedKeyIndex.remove(key);
+        }
+        LongAdder numberOfRecords = getNumberOfRecordsOfNamespace(key);
+        if (numberOfRecords != null) {
+            numberOfRecords.decrement();
+        }
+    }
+
+    private LongAdder getNumberOfRecordsOfNamespace(byte[] key) {
+        if (numberOfRecordsPerNamespace.isEmpty()) {
+            return null;
+        }
+        return numberOfRecordsPerNamespace.get(HaloDBNamespace.getId(key));
+    }
+
+    /**
+     * Number of keys in the in-memory index with the prefix of the namespace, which includes
+     * records that expired but weren't removed yet.
+     */
+    long getNumberOfRecordsOfNamespace(int namespaceId) {
+        LongAdder numberOfRecords = numberOfRecordsPerNamespace.get(namespaceId);
+        return numberOfRecords != null ? numberOfRecords.sum() : 0;
+    }
+
+    Map<String, SecondaryIndex> getSecondaryIndexes() {
+        return secondaryIndexes;
+    }
+
+    /**
+     * Returns the records whose current values have the attribute in the secondary index.
+     */
+    List<Record> lookupBy(SecondaryIndex index, byte[] attribute) throws IOException, HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (byte[] key : index.keysOf(attribute)) {
+            byte[] value = get(key, 1);
+            if (value != null && index.hasAttribute(value, attribute)) {
+                records.add(new Record(key, value));
+            }
+        }
+        return records;
+    }
+
+    // called by writers of the key, which hold its lock. The attributes are those of extractAttributes().
+    private void updateSecondaryIndexes(byte[] key, byte[][] oldAttributes, byte[][] newAttributes) {
+        if (oldAttributes == null && newAttributes == null) {
+            return;
+        }
+        int i = 0;
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            index.update(key, oldAttributes != null ? oldAttributes[i] : null, newAttributes != null ? newAttributes[i] : null);
+            i++;
+        }
+    }
+
+    // the limit might be exceeded by as many entries as there are concurrent writers.
+    private void checkSecondaryIndexSize(byte[] key, byte[][] oldAttributes, byte[][] newAttributes) throws HaloDBException {
+        if (newAttributes == null || options.getMaxSecondaryIndexSize() == -1) {
+            return;
+        }
+        long size = 0;
+        int i = 0;
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            size += index.getSizeOfEntries();
+            if (newAttributes[i] != null) {
+                size += SecondaryIndex.entrySize(newAttributes[i], key);
+            }
+            if (oldAttributes != null && oldAttributes[i] != null) {
+                size -= SecondaryIndex.entrySize(oldAttributes[i], key);
+            }
+            i++;
+        }
+        if (size > options.getMaxSecondaryIndexSize()) {
+            throw new HaloDBException("Secondary indexes would exceed maxSecondaryIndexSize of " + options.getMaxSecondaryIndexSize() + " bytes");
+        }
+    }
+
+    // attribute of the value in each secondary index, or null if it isn't in any of them.
+    private byte[][] extractAttributes(byte[] value) {
+        byte[][] attributes = new byte[secondaryIndexes.size()][];
+        boolean indexed = false;
+        int i = 0;
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            attributes[i] = index.extract(value);
+            indexed |= attributes[i] != null;
+            i++;
+        }
+        return indexed ? attributes : null;
+    }
+
+    // the previous value is read only if it has entries to remove, which costs a read of the data file.
+    private byte[][] readAttributes(byte[] key) throws IOException {
+        InMemoryIndexMetaData metaData = inMemoryIndex.get(key);
+        if (metaData == null || !metaData.hasSecondaryIndexEntries()) {
+            return null;
+        }
+        numberOfPreviousValuesRead++;
+        byte[] value;
+        try {
+            value = get(key, 1);
+        } catch (HaloDBException e) {
+            throw new IOException("Failed to read the previous value of the key", e);
+        }
+        return value != null ? extractAttributes(value) : null;
+    }
+
+    @VisibleForTesting
+    long getNumberOfPreviousValuesRead() {
+        return numberOfPreviousValuesRead;
+    }
+
+    // the values of all the records are read, before the background threads are started.
+    private void buildSecondaryIndexes() throws HaloDBException {
+        if (secondaryIndexes.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        HaloDBIterator iterator = new HaloDBIterator(this);
+        long count = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            count++;
+            byte[][] attributes = extractAttributes(record.getValue());
+            if (attributes == null) {
+                continue;
+            }
+            checkSecondaryIndexSize(record.getKey(), null, attributes);
+            updateSecondaryIndexes(record.getKey(), null, attributes);
+            InMemoryIndexMetaData metaData = inMemoryIndex.get(record.getKey());
+            if (metaData != null) {
+                inMemoryIndex.replace(record.getKey(), metaData, metaData.withSecondaryIndexEntries());
+            }
+        }
+        logger.info("Built secondary indexes {} from {} records in {} ms", secondaryIndexes.keySet(), count,
+                System.currentTimeMillis() - start);
+    }
+
     boolean isRecordFresh(byte[] key, InMemoryIndexMetaData metaData) {
         InMemoryIndexMetaData currentMeta = inMemoryIndex.get(key);
 
@@ -627,11 +1743,74 @@ class HaloDBInternal {
     }
 
     private long getNextSequenceNumber() {
-        return nextSequenceNumber++;
+        return nextSequenceNumber.getAndIncrement();
+    }
+
+    long getLatestSequenceNumber() {
+        return nextSequenceNumber.get();
+    }
+
+    /**
+     * Adds the data files, including evicted ones which weren't deleted yet, to the list and
+     * returns the sequence number up to which all writes are in them or in the tombstone files.
+     * With multiple write lanes a write can be in a file before one with a lower sequence
+     * number, and files are evicted by writers, hence the writers are briefly stopped.
+     */
+    long listDataFilesOfCompletedWrites(List<HaloDBFile> dataFiles) {
+        writeLock.lock();
+        lockWriteLanes();
+        try {
+            dataFiles.addAll(readFileMap.values());
+            dataFiles.addAll(dataFileEvictor.getEvictedFiles());
+            return nextSequenceNumber.get() - 1;
+        } finally {
+            unlockWriteLanes();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * To be called before records or tombstones are deleted which aren't in any other
+     * file, and which aren't superseded by a later change, so that readers of the change
+     * feed which haven't seen them yet find out about the gap, even after a restart.
+     */
+    void changesDropped(long sequenceNumber) throws IOException {
+        synchronized (metaDataLock) {
+            if (sequenceNumber <= maxDroppedSequenceNumber.get()) {
+                return;
+            }
+            DBMetaData metaData = new DBMetaData(dbDirectory);
+            metaData.loadFromFileIfExists();
+            metaData.setMaxDroppedSequenceNumber(sequenceNumber);
+            metaData.storeToFile();
+            maxDroppedSequenceNumber.set(sequenceNumber);
+        }
+    }
+
+    long getMaxDroppedSequenceNumber() {
+        return maxDroppedSequenceNumber.get();
+    }
+
+    private boolean isWriteLaneFile(int fileId) {
+        for (WriteLane lane : writeLanes) {
+            HaloDBFile file = lane.currentWriteFile;
+            if (file != null && file.getFileId() == fileId) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private int getCurrentWriteFileId() {
-        return currentWriteFile != null ? currentWriteFile.getFileId() : -1;
+    boolean isFileBeingWritten(int fileId) {
+        if (isWriteLaneFile(fileId) || compactionManager.isCurrentWriteFile(fileId)) {
+            return true;
+        }
+        for (CompactionManager manager : parallelCompactionManagers) {
+            if (manager.isCurrentWriteFile(fileId)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     boolean isClosing() {
@@ -662,6 +1841,30 @@ class HaloDBInternal {
                 compactionManager.getSizeOfFilesDeleted(),
                 compactionManager.getSizeOfFilesDeleted() - compactionManager.getSizeOfRecordsCopied(),
                 compactionManager.getCompactionJobRateSinceBeginning(),
+                numberOfValuesCompressed.get(),
+                sizeOfValuesBeforeCompression.get(),
+                sizeOfValuesAfterCompression.get(),
+                numberOfDictionariesTrained.get() + compactionManager.getNumberOfDictionariesTrained(),
+                blobManager.getNumberOfBlobFiles(),
+                blobManager.getNumberOfBlobsRelocated(),
+                blobManager.getSizeOfBlobFilesDeleted(),
+                numberOfRecordsExpired + compactionManager.getNumberOfRecordsExpired(),
+                dataFileEvictor.getNumberOfFilesEvicted(),
+                dataFileEvictor.getNumberOfRecordsEvicted(),
+                tombstoneCompactor.getNumberOfTombstoneFilesDeleted(),
+                tombstoneCompactor.getNumberOfTombstoneFilesRewritten(),
+                tombstoneCompactor.getNumberOfTombstonesDropped(),
+                (long) compactionManager.getCompactionJobRate(),
+                compactionRateController != null ? compactionRateController.getState().name() : CompactionRateController.State.DISABLED.name(),
+                compactionRateController != null ? compactionRateController.getLastLatencyInMicros() : -1,
+                compactionManager.getNumberOfColdRecordsCopied(),
+                writeStallController != null ? writeStallController.getNumberOfWritesDelayed() : 0,
+                writeStallController != null ? writeStallController.getTotalWriteDelayInMillis() : 0,
+                writeStallController != null ? writeStallController.getNumberOfWritesStalled() : 0,
+                writeStallController != null ? writeStallController.getTotalWriteStallTimeInMillis() : 0,
+                getSpaceAmplification(),
+                getWriteAmplification(),
+                getCompactionThresholdPerFile(),
                 options.clone()
         );
     }
@@ -669,6 +1872,18 @@ class HaloDBInternal {
     synchronized void resetStats() {
         inMemoryIndex.resetStats();
         compactionManager.resetStats();
+        numberOfValuesCompressed.set(0);
+        sizeOfValuesBeforeCompression.set(0);
+        sizeOfValuesAfterCompression.set(0);
+        numberOfDictionariesTrained.set(0);
+        sizeOfRecordsWritten.set(0);
+        numberOfRecordsExpired = 0;
+        blobManager.resetStats();
+        dataFileEvictor.resetStats();
+        tombstoneCompactor.resetStats();
+        if (writeStallController != null) {
+            writeStallController.resetStats();
+        }
         statsResetTime = System.currentTimeMillis();
     }
 
@@ -692,6 +1907,10 @@ class HaloDBInternal {
     }
 
     @VisibleForTesting
+    boolean isEvictionComplete() {
+        return dataFileEvictor.isEvictionComplete();
+    }
+
     boolean isTombstoneFilesMerging() {
         return isTombstoneFilesMerging;
     }
@@ -724,17 +1943,25 @@ class HaloDBInternal {
                 int valueSize = recordSize - (Record.Header.HEADER_SIZE + key.length);
                 count++;
 
-                InMemoryIndexMetaData metaData = new InMemoryIndexMetaData(fileId, valueOffset, valueSize, sequenceNumber);
+                InMemoryIndexMetaData metaData = new InMemoryIndexMetaData(fileId, valueOffset, valueSize, sequenceNumber, indexFileEntry.getVersion(), indexFileEntry.getExpiryTime());
+                if (metaData.getExpiryTime() != 0) {
+                    hasRecordsWithExpiryTime = true;
+                    expiredRecordSweeper.recordWritten(fileId, metaData.getExpiryTime());
+                }
 
                 if (!inMemoryIndex.putIfAbsent(key, metaData)) {
                     while (true) {
                         InMemoryIndexMetaData existing = inMemoryIndex.get(key);
                         if (existing.getSequenceNumber() >= sequenceNumber) {
+                            if (existing.getExpiryTime() != 0 && !existing.hasOlderVersionOnDisk()
+                                    && !inMemoryIndex.replace(key, existing, existing.withOlderVersionOnDisk())) {
+                                continue;
+                            }
                             // stale data, update stale data map.
                             addFileToCompactionQueueIfThresholdCrossed(fileId, recordSize);
                             break;
                         }
-                        if (inMemoryIndex.replace(key, existing, metaData)) {
+                        if (inMemoryIndex.replace(key, existing, metaData.getExpiryTime() != 0 ? metaData.withOlderVersionOnDisk() : metaData)) {
                             // update stale data map for the previous version.
                             addFileToCompactionQueueIfThresholdCrossed(existing.getFileId(), Utils.getRecordSize(key.length, existing.getValueSize()));
                             inserted++;
@@ -742,6 +1969,7 @@ class HaloDBInternal {
                         }
                     }
                 } else {
+                    keyAdded(key);
                     inserted++;
                 }
             }
@@ -769,6 +1997,7 @@ class HaloDBInternal {
             TombstoneFile.TombstoneFileIterator iterator = tombstoneFile.newIterator();
 
             long count = 0, active = 0, copied = 0;
+            long maxDroppedSequenceNumber = 0;
             while (iterator.hasNext()) {
                 TombstoneEntry entry = iterator.next();
                 byte[] key = entry.getKey();
@@ -776,21 +2005,33 @@ class HaloDBInternal {
                 maxSequenceNumber = Long.max(sequenceNumber, maxSequenceNumber);
                 count++;
 
-                InMemoryIndexMetaData existing = inMemoryIndex.get(key);
-                if (existing != null && existing.getSequenceNumber() < sequenceNumber) {
+                boolean removed = false;
+                while (true) {
+                    InMemoryIndexMetaData existing = inMemoryIndex.get(key);
+                    if (existing == null || existing.getSequenceNumber() >= sequenceNumber) {
+                        break;
+                    }
                     // Found a tombstone record which happened after the version currently in index; remove.
-                    inMemoryIndex.remove(key);
+                    // Another tombstone file of the same key may be processed concurrently, hence the compare.
+                    if (inMemoryIndex.remove(key, existing)) {
+                        keyRemoved(key);
+                        // update stale data map for the previous version.
+                        addFileToCompactionQueueIfThresholdCrossed(
+                                existing.getFileId(), Utils.getRecordSize(key.length, existing.getValueSize()));
+                        removed = true;
+                        break;
+                    }
+                }
 
-                    // update stale data map for the previous version.
-                    addFileToCompactionQueueIfThresholdCrossed(
-                            existing.getFileId(), Utils.getRecordSize(key.length, existing.getValueSize()));
+                if (removed) {
                     active++;
-
                     if (options.isCleanUpTombstonesDuringOpen()) {
                         rolloverFile = rollOverTombstoneFile(entry, rolloverFile);
                         rolloverFile.write(entry);
                         copied++;
                     }
+                } else {
+                    maxDroppedSequenceNumber = Long.max(sequenceNumber, maxDroppedSequenceNumber);
                 }
             }
             logger.debug("Completed scanning tombstone file {}. Found {} tombstones, {} are still active",
@@ -804,6 +2045,7 @@ class HaloDBInternal {
                     rolloverFile.flushToDisk();
                     rolloverFile.close();
                 }
+                changesDropped(maxDroppedSequenceNumber);
                 tombstoneFile.delete();
             }
             noOfTombstonesCopiedDuringOpen.addAndGet(copied);
@@ -812,4 +2054,16 @@ class HaloDBInternal {
             return maxSequenceNumber;
         }
     }
+
+    /**
+     * A data file puts are written to, and the lock which guards it.
+     */
+    private static class WriteLane {
+        private final Lock lock;
+        private volatile HaloDBFile currentWriteFile;
+
+        WriteLane(Lock lock) {
+            this.lock = lock;
+        }
+    }
 }
@@ -10,19 +10,28 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class HaloDBIterator implements Iterator<Record> {
     private static final Logger logger = LoggerFactory.getLogger(HaloDBIterator.class);
-    private final HaloDBInternal dbInternal;
+    // shards are iterated one after the other.
+    private final Iterator<HaloDBInternal> shards;
+    private HaloDBInternal dbInternal;
     private Iterator<Integer> outer;
     private Iterator<IndexFileEntry> inner;
     private HaloDBFile currentFile;
     private Record next;
 
     HaloDBIterator(HaloDBInternal dbInternal) {
-        this.dbInternal = dbInternal;
+        this(Collections.singletonList(dbInternal));
+    }
+
+    HaloDBIterator(List<HaloDBInternal> shards) {
+        this.shards = shards.iterator();
+        this.dbInternal = this.shards.next();
         outer = dbInternal.listDataFileIds().iterator();
     }
 
@@ -64,6 +73,13 @@ public class HaloDBIterator implements Iterator<Record> {
     }
 
     private boolean moveToNextFile() throws IOException {
+        while (!outer.hasNext()) {
+            if (!shards.hasNext()) {
+                return false;
+            }
+            dbInternal = shards.next();
+            outer = dbInternal.listDataFileIds().iterator();
+        }
         while (outer.hasNext()) {
             int fileId = outer.next();
             currentFile = dbInternal.getHaloDBFile(fileId);
@@ -82,7 +98,7 @@ public class HaloDBIterator implements Iterator<Record> {
             logger.debug("Data file {} deleted, probably by compaction thread. Skipping to next one", fileId);
         }
 
-        return false;
+        return moveToNextFile();
     }
 
     private boolean readNextRecord() {
@@ -112,12 +128,12 @@ public class HaloDBIterator implements Iterator<Record> {
     private Record readRecordFromDataFile(IndexFileEntry entry) throws IOException {
         InMemoryIndexMetaData meta = Utils.getMetaData(entry, currentFile.getFileId());
         Record record = null;
-        if (dbInternal.isRecordFresh(entry.getKey(), meta)) {
-            byte[] value = currentFile.readFromFile(
-                    Utils.getValueOffset(entry.getRecordOffset(), entry.getKey()),
-                    Utils.getValueSize(entry.getRecordSize(), entry.getKey()));
-            record = new Record(entry.getKey(), value);
-            record.setRecordMetaData(meta);
+        if (!meta.isExpired() && dbInternal.isRecordFresh(entry.getKey(), meta)) {
+            byte[] value = dbInternal.readValue(currentFile, meta);
+            if (value != null) {
+                record = new Record(entry.getKey(), value);
+                record.setRecordMetaData(meta);
+            }
         }
         return record;
     }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the live keys by walking the segments of the in-memory index, without reading the
+ * data or index files. Entries of one segment are copied at a time, while the segment is locked,
+ * so a key updated during the iteration is returned at most once.
+ *
+ * Besides {@link #next()}, which allocates the key, {@link #nextKey(byte[])} copies the key into a
+ * buffer supplied by the caller. Metadata of the key last returned is available from the getters.
+ */
+public class HaloDBKeyIterator implements Iterator<byte[]> {
+
+    private final List<HaloDBInternal> shards;
+    private int shardIndex = 0;
+    private int segmentIndex = 0;
+
+    // entries of the current segment, keys are stored one after the other.
+    private byte[] keys = new byte[16 * 1024];
+    private int[] keyOffsets = new int[256];
+    private long[] sequenceNumbers = new long[256];
+    private int[] valueSizes = new int[256];
+    private int[] expiryTimes = new int[256];
+    private int count = 0;
+    private int keysLength = 0;
+    private int position = 0;
+
+    private final byte[] keyBuffer = new byte[Byte.MAX_VALUE];
+
+    // metadata of the key last returned, as hasNext() might read the next segment.
+    private boolean hasCurrent = false;
+    private long sequenceNumber;
+    private int valueSize;
+    private int expiryTime;
+
+    HaloDBKeyIterator(List<HaloDBInternal> shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= count) {
+            if (shardIndex >= shards.size()) {
+                return false;
+            }
+            InMemoryIndex index = shards.get(shardIndex).getInMemoryIndex();
+            if (segmentIndex >= index.getNoOfSegments()) {
+                shardIndex++;
+                segmentIndex = 0;
+                continue;
+            }
+            readSegment(index, segmentIndex++);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of the next key.
+     */
+    @Override
+    public byte[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int offset = keyOffsets[position];
+        int length = keyLength(position);
+        moveToNext();
+        return Arrays.copyOfRange(keys, offset, offset + length);
+    }
+
+    /**
+     * Copies the next key into the buffer, which must be large enough for the largest key.
+     *
+     * @return length of the key.
+     */
+    public int nextKey(byte[] buffer) {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int length = keyLength(position);
+        System.arraycopy(keys, keyOffsets[position], buffer, 0, length);
+        moveToNext();
+        return length;
+    }
+
+    /**
+     * @return sequence number of the current version of the key last returned.
+     */
+    public long getSequenceNumber() {
+        checkCurrent();
+        return sequenceNumber;
+    }
+
+    /**
+     * @return size of the value as stored in the data file, which is the size after compression or
+     * the size of the pointer if the value is stored in a blob file.
+     */
+    public int getValueSize() {
+        checkCurrent();
+        return valueSize;
+    }
+
+    /**
+     * @return expiry time of the key last returned in seconds since epoch, or 0 if it doesn't expire.
+     */
+    public int getExpiryTime() {
+        checkCurrent();
+        return expiryTime;
+    }
+
+    private void moveToNext() {
+        hasCurrent = true;
+        sequenceNumber = sequenceNumbers[position];
+        valueSize = valueSizes[position];
+        expiryTime = expiryTimes[position];
+        position++;
+    }
+
+    private void checkCurrent() {
+        if (!hasCurrent) {
+            throw new IllegalStateException("next() not called yet");
+        }
+    }
+
+    private int keyLength(int i) {
+        return (i + 1 < count ? keyOffsets[i + 1] : keysLength) - keyOffsets[i];
+    }
+
+    private void readSegment(InMemoryIndex index, int segment) {
+        count = 0;
+        keysLength = 0;
+        position = 0;
+        index.forEachEntry(segment, keyBuffer, (key, keyLength, metaData) -> {
+            if (metaData.isExpired()) {
+                return;
+            }
+            ensureCapacity(keyLength);
+            System.arraycopy(key, 0, keys, keysLength, keyLength);
+            keyOffsets[count] = keysLength;
+            sequenceNumbers[count] = metaData.getSequenceNumber();
+            int size = metaData.getValueSize();
+            if (Record.Header.hasExpiryTime(metaData.getFlags())) {
+                size -= Record.EXPIRY_TIME_SIZE;
+            }
+            valueSizes[count] = size;
+            expiryTimes[count] = metaData.getExpiryTime();
+            keysLength += keyLength;
+            count++;
+        });
+    }
+
+    private void ensureCapacity(int keyLength) {
+        if (keysLength + keyLength > keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        if (count == keyOffsets.length) {
+            int capacity = count * 2;
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            sequenceNumbers = Arrays.copyOf(sequenceNumbers, capacity);
+            valueSizes = Arrays.copyOf(valueSizes, capacity);
+            expiryTimes = Arrays.copyOf(expiryTimes, capacity);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+/**
+ * A live key with the metadata of its current version, as kept in the in-memory index.
+ */
+public final class HaloDBKeyMetaData {
+
+    private final byte[] key;
+    private final long sequenceNumber;
+    private final int valueSize;
+    private final int expiryTime;
+
+    HaloDBKeyMetaData(byte[] key, long sequenceNumber, int valueSize, int expiryTime) {
+        this.key = key;
+        this.sequenceNumber = sequenceNumber;
+        this.valueSize = valueSize;
+        this.expiryTime = expiryTime;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * Size of the value as stored in the data file, which is the size after compression or the
+     * size of the pointer if the value is stored in a blob file.
+     */
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    /**
+     * Seconds since epoch, or 0 if the key doesn't expire.
+     */
+    public int getExpiryTime() {
+        return expiryTime;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.collect.Iterators;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A separate keyspace inside a db, registered with HaloDBOptions.addNamespace(). Namespaces share
+ * the data files, the in-memory index and the background threads of the db, which stores the keys
+ * of a namespace prefixed with its id as an unsigned short. HaloDB.put() and delete() hence reject
+ * keys which start with the prefix of a namespace, while the size, iterators and scans of the db
+ * include the records of all namespaces, with the prefixed keys.
+ */
+public class HaloDBNamespace {
+
+    static final int PREFIX_SIZE = Short.BYTES;
+    static final int MAX_KEY_SIZE = Byte.MAX_VALUE - PREFIX_SIZE;
+
+    private final HaloDB db;
+    private final String name;
+    private final int id;
+    private final HaloDBNamespaceOptions options;
+    private final byte[] prefix;
+
+    private final LongAdder numberOfGets = new LongAdder();
+    private final LongAdder numberOfPuts = new LongAdder();
+    private final LongAdder numberOfDeletes = new LongAdder();
+    private final LongAdder sizeOfValuesWritten = new LongAdder();
+
+    HaloDBNamespace(HaloDB db, String name, int id, HaloDBNamespaceOptions options) {
+        this.db = db;
+        this.name = name;
+        this.id = id;
+        this.options = options;
+        this.prefix = ByteBuffer.allocate(PREFIX_SIZE).putShort((short) id).array();
+    }
+
+    public byte[] get(byte[] key) throws HaloDBException {
+        numberOfGets.increment();
+        return db.get(toDbKey(key));
+    }
+
+    /**
+     * Stores the record with the default ttl of the namespace, if any.
+     */
+    public boolean put(byte[] key, byte[] value) throws HaloDBException {
+        return put(key, value, options.getDefaultTtlInSeconds());
+    }
+
+    public boolean put(byte[] key, byte[] value, long ttlInSeconds) throws HaloDBException {
+        if (options.getMaxValueSize() != -1 && value.length > options.getMaxValueSize()) {
+            throw new HaloDBException("value length cannot exceed " + options.getMaxValueSize() + " in namespace " + name);
+        }
+        byte[] dbKey = toDbKey(key);
+        boolean result = db.putRecord(dbKey, value, ttlInSeconds != 0 ? Record.toExpiryTime(ttlInSeconds) : 0);
+        numberOfPuts.increment();
+        sizeOfValuesWritten.add(value.length);
+        return result;
+    }
+
+    public void delete(byte[] key) throws HaloDBException {
+        db.deleteRecord(toDbKey(key));
+        numberOfDeletes.increment();
+    }
+
+    /**
+     * Returns an iterator over the records of the namespace, with the keys as they were written
+     * to it. Uses the ordered key index if it is enabled, otherwise iterates over the whole db.
+     */
+    public Iterator<Record> newIterator() throws HaloDBException {
+        Iterator<Record> records = db.getOptions().isOrderedKeyIndexEnabled()
+                ? db.prefixScan(prefix)
+                : Iterators.filter(db.newIterator(), r -> hasPrefix(r.getKey()));
+        return Iterators.transform(records, r -> new Record(fromDbKey(r.getKey()), r.getValue()));
+    }
+
+    /**
+     * Number of records is kept up to date as keys are added to or removed from the in-memory
+     * index, and like {@link HaloDB#size()} includes records which expired but weren't removed yet.
+     */
+    public HaloDBNamespaceStats stats() {
+        return new HaloDBNamespaceStats(name, db.getNumberOfRecordsOfNamespace(id), numberOfGets.sum(), numberOfPuts.sum(),
+                numberOfDeletes.sum(), sizeOfValuesWritten.sum());
+    }
+
+    public void resetStats() {
+        numberOfGets.reset();
+        numberOfPuts.reset();
+        numberOfDeletes.reset();
+        sizeOfValuesWritten.reset();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public HaloDBNamespaceOptions getOptions() {
+        return options;
+    }
+
+    byte[] toDbKey(byte[] key) throws HaloDBException {
+        if (key.length > MAX_KEY_SIZE) {
+            throw new HaloDBException("key length cannot exceed " + MAX_KEY_SIZE + " in a namespace");
+        }
+        byte[] dbKey = Arrays.copyOf(prefix, PREFIX_SIZE + key.length);
+        System.arraycopy(key, 0, dbKey, PREFIX_SIZE, key.length);
+        return dbKey;
+    }
+
+    /**
+     * Returns the id of the namespace the key would belong to, -1 if it's shorter than the prefix.
+     */
+    static int getId(byte[] dbKey) {
+        return dbKey.length >= PREFIX_SIZE ? ((dbKey[0] & 0xFF) << 8) | (dbKey[1] & 0xFF) : -1;
+    }
+
+    private byte[] fromDbKey(byte[] dbKey) {
+        return Arrays.copyOfRange(dbKey, PREFIX_SIZE, dbKey.length);
+    }
+
+    private boolean hasPrefix(byte[] dbKey) {
+        return dbKey.length >= PREFIX_SIZE && dbKey[0] == prefix[0] && dbKey[1] == prefix[1];
+    }
+}
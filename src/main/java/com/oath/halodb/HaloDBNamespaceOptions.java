@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Options of a namespace, registered with HaloDBOptions.addNamespace(). Everything else,
+ * e.g. file sizes and compaction, is shared by all the namespaces of the db.
+ */
+public class HaloDBNamespaceOptions implements Cloneable {
+
+    // ttl of records written without one, 0 means they don't expire. Requires ttlEnabled.
+    private long defaultTtlInSeconds = 0;
+
+    // -1 means values of any size are accepted.
+    private int maxValueSize = -1;
+
+    // Just to avoid clients having to deal with CloneNotSupportedException
+    public HaloDBNamespaceOptions clone() {
+        try {
+            return (HaloDBNamespaceOptions) super.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("")
+                .add("defaultTtlInSeconds", defaultTtlInSeconds)
+                .add("maxValueSize", maxValueSize)
+                .toString();
+    }
+
+    public long getDefaultTtlInSeconds() {
+        return defaultTtlInSeconds;
+    }
+
+    public void setDefaultTtlInSeconds(long defaultTtlInSeconds) {
+        if (defaultTtlInSeconds < 0) {
+            throw new IllegalArgumentException("defaultTtlInSeconds can't be negative");
+        }
+        this.defaultTtlInSeconds = defaultTtlInSeconds;
+    }
+
+    public int getMaxValueSize() {
+        return maxValueSize;
+    }
+
+    public void setMaxValueSize(int maxValueSize) {
+        if (maxValueSize < -1) {
+            throw new IllegalArgumentException("maxValueSize should be -1 or at least 0");
+        }
+        this.maxValueSize = maxValueSize;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Stats of a single namespace. Operation counts are since the db was opened or the stats
+ * were reset, stats of the files are those of the whole db in HaloDBStats.
+ */
+public class HaloDBNamespaceStats {
+
+    private final String name;
+    private final long numberOfRecords;
+    private final long numberOfGets;
+    private final long numberOfPuts;
+    private final long numberOfDeletes;
+    private final long sizeOfValuesWritten;
+
+    HaloDBNamespaceStats(String name, long numberOfRecords, long numberOfGets, long numberOfPuts,
+                         long numberOfDeletes, long sizeOfValuesWritten) {
+        this.name = name;
+        this.numberOfRecords = numberOfRecords;
+        this.numberOfGets = numberOfGets;
+        this.numberOfPuts = numberOfPuts;
+        this.numberOfDeletes = numberOfDeletes;
+        this.sizeOfValuesWritten = sizeOfValuesWritten;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    public long getNumberOfGets() {
+        return numberOfGets;
+    }
+
+    public long getNumberOfPuts() {
+        return numberOfPuts;
+    }
+
+    public long getNumberOfDeletes() {
+        return numberOfDeletes;
+    }
+
+    public long getSizeOfValuesWritten() {
+        return sizeOfValuesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("")
+                .add("name", name)
+                .add("numberOfRecords", numberOfRecords)
+                .add("numberOfGets", numberOfGets)
+                .add("numberOfPuts", numberOfPuts)
+                .add("numberOfDeletes", numberOfDeletes)
+                .add("sizeOfValuesWritten", sizeOfValuesWritten)
+                .toString();
+    }
+}
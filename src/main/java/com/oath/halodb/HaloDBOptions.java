@@ -6,6 +6,13 @@
 package com.oath.halodb;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class HaloDBOptions implements Cloneable {
 
@@ -35,12 +42,111 @@ public class HaloDBOptions implements Cloneable {
 
     private boolean cleanUpTombstonesDuringOpen = false;
 
+    private boolean cleanUpTombstonesInBackground = false;
+
     private boolean useMemoryPool = false;
 
     private int fixedKeySize = Byte.MAX_VALUE;
 
     private int memoryPoolChunkSize = 16 * 1024 * 1024;
 
+    // Values whose size is at least compressionThreshold bytes are compressed
+    // with LZ4 before being written to disk. -1 disables compression.
+    private int compressionThreshold = -1;
+
+    // Size of the dictionary trained from a sample of values for each data file.
+    // Values smaller than compressionThreshold, or all values if compressionThreshold
+    // is -1, are deflated using the dictionary. 0 disables dictionary compression.
+    private int compressionDictionarySize = 0;
+
+    // Values of this size or larger are stored in separate blob files,
+    // data files store only a pointer to them. -1 disables blob files.
+    private int blobThreshold = -1;
+
+    // If set records can have a ttl, see HaloDB.put(key, value, ttlInSeconds), at the cost of
+    // 4 more bytes per key in the in-memory index to keep their expiry time. A db which has
+    // records with a ttl fails to open without it.
+    private boolean ttlEnabled = false;
+
+    // Interval at which index files are scanned for records whose time
+    // to live has passed. Only runs if there are records with a ttl.
+    private int expiredRecordSweepIntervalInSeconds = 5 * 60;
+
+    // Cache mode, once the total size of data files crosses this limit the
+    // oldest data files are evicted, along with all the records in them.
+    // Data files are not compacted in cache mode. -1 disables cache mode.
+    private long maxTotalDataFileSize = -1;
+
+    // If set the compaction rate is adjusted between this value and compactionJobRate,
+    // based on the latency of get and put operations and the compaction backlog.
+    // -1 keeps the rate fixed at compactionJobRate.
+    private int minCompactionJobRate = -1;
+
+    // Compaction is slowed down when the 99th percentile latency of get and put
+    // operations crosses this value. Used only if minCompactionJobRate is set.
+    private int foregroundLatencyTargetInMicros = 1000;
+
+    // If set compactionThresholdPerFile is derived from this ratio of the size of data
+    // files to the size of live data in them. -1 uses compactionThresholdPerFile as is.
+    private double targetSpaceAmplification = -1;
+
+    // If set the compaction job copies records which weren't updated for a while to
+    // separate files, so that they are not mixed with frequently updated records.
+    private boolean hotColdSegregationEnabled = false;
+
+    // Puts are delayed once the size of files pending compaction plus the size of stale
+    // data in files over compactionThresholdPerFile crosses the soft limit, and blocked at
+    // the hard limit for up to writeStallTimeoutInMillis, after which they fail. -1 disables
+    // the limit, and for the timeout blocks until compaction catches up. Puts are never
+    // throttled while compaction is paused.
+    private long compactionBacklogSoftLimit = -1;
+    private long compactionBacklogHardLimit = -1;
+    private long writeStallTimeoutInMillis = -1;
+
+    // Additional directories, usually on separate devices, across which new data files
+    // are placed round-robin along with the db directory. Directories can be added but
+    // not removed, the db fails to open if one it used is missing. Tombstone, blob and
+    // meta data files stay in the db directory.
+    private List<File> dataDirectories = ImmutableList.of();
+
+    // If greater than 1 keys are hash partitioned across this many independent instances,
+    // each with its own files, write path and compaction thread, stored in sub directories.
+    // Can't be changed once the db was created.
+    private int numberOfShards = 1;
+
+    // If greater than 1 puts write to this many data files in parallel, each guarded by its
+    // own lock, instead of serializing on a single write lock. Puts to the same key are
+    // still ordered. Can't be used with maxTotalDataFileSize.
+    private int numberOfWriteLanes = 1;
+
+    // Interval at which a HaloDBFollower reads the files written since the last time,
+    // which bounds how stale the records it returns are.
+    private long followerRefreshIntervalInMillis = 100;
+
+    // Size of the chunks in which HaloDBScanIterator reads data files. A chunk is read
+    // while the previous one is parsed, hence a scan holds two of them in memory.
+    private int scanReadAheadSize = 4 * 1024 * 1024;
+
+    // If set the keys are also kept sorted, for HaloDB.scan() and HaloDB.prefixScan(). Unlike
+    // the in-memory index the sorted keys are on the java heap, about 56 bytes per key plus
+    // the key rounded up to 8 bytes, e.g. 720MB for 10 million 16 byte keys, which the heap
+    // must be sized for.
+    private boolean orderedKeyIndexEnabled = false;
+
+    // Secondary indexes by name, queried with HaloDB.lookupBy(). They are built from the data
+    // files when the db is opened and kept on the java heap, an entry per indexed record of
+    // about 64 bytes plus the attribute and the key.
+    private Map<String, AttributeExtractor> secondaryIndexes = ImmutableMap.of();
+
+    // Limit on the java heap taken by the entries of all the secondary indexes. Puts which
+    // would add entries beyond it fail, as does opening a db whose entries don't fit in it.
+    private long maxSecondaryIndexSize = -1;
+
+    // Namespaces by name, opened with HaloDB.getNamespace(). The id is stored as a prefix of
+    // the keys, hence it can't change once records were written to the namespace.
+    private Map<String, Integer> namespaceIds = ImmutableMap.of();
+    private Map<String, HaloDBNamespaceOptions> namespaceOptions = ImmutableMap.of();
+
     // Number of threads to scan index and tombstone files
     // to build in-memory index at db open
     private int buildIndexThreads = 1;
@@ -68,10 +174,33 @@ public class HaloDBOptions implements Cloneable {
                 .add("compactionJobRate", compactionJobRate)
                 .add("cleanUpInMemoryIndexOnClose", cleanUpInMemoryIndexOnClose)
                 .add("cleanUpTombstonesDuringOpen", cleanUpTombstonesDuringOpen)
+                .add("cleanUpTombstonesInBackground", cleanUpTombstonesInBackground)
                 .add("useMemoryPool", useMemoryPool)
                 .add("fixedKeySize", fixedKeySize)
                 .add("memoryPoolChunkSize", memoryPoolChunkSize)
                 .add("buildIndexThreads", buildIndexThreads)
+                .add("compressionThreshold", compressionThreshold)
+                .add("compressionDictionarySize", compressionDictionarySize)
+                .add("blobThreshold", blobThreshold)
+                .add("ttlEnabled", ttlEnabled)
+                .add("expiredRecordSweepIntervalInSeconds", expiredRecordSweepIntervalInSeconds)
+                .add("maxTotalDataFileSize", maxTotalDataFileSize)
+                .add("minCompactionJobRate", minCompactionJobRate)
+                .add("foregroundLatencyTargetInMicros", foregroundLatencyTargetInMicros)
+                .add("targetSpaceAmplification", targetSpaceAmplification)
+                .add("hotColdSegregationEnabled", hotColdSegregationEnabled)
+                .add("compactionBacklogSoftLimit", compactionBacklogSoftLimit)
+                .add("compactionBacklogHardLimit", compactionBacklogHardLimit)
+                .add("writeStallTimeoutInMillis", writeStallTimeoutInMillis)
+                .add("dataDirectories", dataDirectories)
+                .add("numberOfShards", numberOfShards)
+                .add("numberOfWriteLanes", numberOfWriteLanes)
+                .add("followerRefreshIntervalInMillis", followerRefreshIntervalInMillis)
+                .add("scanReadAheadSize", scanReadAheadSize)
+                .add("orderedKeyIndexEnabled", orderedKeyIndexEnabled)
+                .add("secondaryIndexes", secondaryIndexes.keySet())
+                .add("maxSecondaryIndexSize", maxSecondaryIndexSize)
+                .add("namespaces", namespaceIds)
                 .toString();
     }
 
@@ -145,6 +274,14 @@ public class HaloDBOptions implements Cloneable {
         this.cleanUpTombstonesDuringOpen = cleanUpTombstonesDuringOpen;
     }
 
+    public boolean isCleanUpTombstonesInBackground() {
+        return cleanUpTombstonesInBackground;
+    }
+
+    public void setCleanUpTombstonesInBackground(boolean cleanUpTombstonesInBackground) {
+        this.cleanUpTombstonesInBackground = cleanUpTombstonesInBackground;
+    }
+
     public boolean isUseMemoryPool() {
         return useMemoryPool;
     }
@@ -189,6 +326,324 @@ public class HaloDBOptions implements Cloneable {
         this.buildIndexThreads = buildIndexThreads;
     }
 
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    boolean isCompressionEnabled() {
+        return compressionThreshold >= 0;
+    }
+
+    public int getCompressionDictionarySize() {
+        return compressionDictionarySize;
+    }
+
+    public void setCompressionDictionarySize(int compressionDictionarySize) {
+        if (compressionDictionarySize < 0 || compressionDictionarySize > CompressionDictionary.MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("compressionDictionarySize should be >= 0 and <= " + CompressionDictionary.MAX_DICTIONARY_SIZE);
+        }
+        this.compressionDictionarySize = compressionDictionarySize;
+    }
+
+    boolean isDictionaryCompressionEnabled() {
+        return compressionDictionarySize > 0;
+    }
+
+    public int getBlobThreshold() {
+        return blobThreshold;
+    }
+
+    public void setBlobThreshold(int blobThreshold) {
+        this.blobThreshold = blobThreshold;
+    }
+
+    boolean isBlobStorageEnabled() {
+        return blobThreshold >= 0;
+    }
+
+    public boolean isTtlEnabled() {
+        return ttlEnabled;
+    }
+
+    public void setTtlEnabled(boolean ttlEnabled) {
+        this.ttlEnabled = ttlEnabled;
+    }
+
+    public int getExpiredRecordSweepIntervalInSeconds() {
+        return expiredRecordSweepIntervalInSeconds;
+    }
+
+    public void setExpiredRecordSweepIntervalInSeconds(int expiredRecordSweepIntervalInSeconds) {
+        if (expiredRecordSweepIntervalInSeconds <= 0) {
+            throw new IllegalArgumentException("expiredRecordSweepIntervalInSeconds should be > 0");
+        }
+        this.expiredRecordSweepIntervalInSeconds = expiredRecordSweepIntervalInSeconds;
+    }
+
+    public long getMaxTotalDataFileSize() {
+        return maxTotalDataFileSize;
+    }
+
+    public void setMaxTotalDataFileSize(long maxTotalDataFileSize) {
+        if (maxTotalDataFileSize != -1 && maxTotalDataFileSize <= 0) {
+            throw new IllegalArgumentException("maxTotalDataFileSize should be > 0, or -1 to disable cache mode");
+        }
+        this.maxTotalDataFileSize = maxTotalDataFileSize;
+    }
+
+    public int getMinCompactionJobRate() {
+        return minCompactionJobRate;
+    }
+
+    public void setMinCompactionJobRate(int minCompactionJobRate) {
+        if (minCompactionJobRate != -1 && minCompactionJobRate <= 0) {
+            throw new IllegalArgumentException("minCompactionJobRate should be > 0, or -1 to disable adaptive compaction rate");
+        }
+        this.minCompactionJobRate = minCompactionJobRate;
+    }
+
+    public int getForegroundLatencyTargetInMicros() {
+        return foregroundLatencyTargetInMicros;
+    }
+
+    public void setForegroundLatencyTargetInMicros(int foregroundLatencyTargetInMicros) {
+        if (foregroundLatencyTargetInMicros <= 0) {
+            throw new IllegalArgumentException("foregroundLatencyTargetInMicros should be > 0");
+        }
+        this.foregroundLatencyTargetInMicros = foregroundLatencyTargetInMicros;
+    }
+
+    public double getTargetSpaceAmplification() {
+        return targetSpaceAmplification;
+    }
+
+    public void setTargetSpaceAmplification(double targetSpaceAmplification) {
+        if (targetSpaceAmplification != -1 && targetSpaceAmplification <= 1) {
+            throw new IllegalArgumentException("targetSpaceAmplification should be > 1, or -1 to use compactionThresholdPerFile");
+        }
+        this.targetSpaceAmplification = targetSpaceAmplification;
+    }
+
+    public boolean isHotColdSegregationEnabled() {
+        return hotColdSegregationEnabled;
+    }
+
+    public void setHotColdSegregationEnabled(boolean hotColdSegregationEnabled) {
+        this.hotColdSegregationEnabled = hotColdSegregationEnabled;
+    }
+
+    public long getCompactionBacklogSoftLimit() {
+        return compactionBacklogSoftLimit;
+    }
+
+    public void setCompactionBacklogSoftLimit(long compactionBacklogSoftLimit) {
+        if (compactionBacklogSoftLimit != -1 && compactionBacklogSoftLimit <= 0) {
+            throw new IllegalArgumentException("compactionBacklogSoftLimit should be > 0, or -1 to disable it");
+        }
+        this.compactionBacklogSoftLimit = compactionBacklogSoftLimit;
+    }
+
+    public long getCompactionBacklogHardLimit() {
+        return compactionBacklogHardLimit;
+    }
+
+    public void setCompactionBacklogHardLimit(long compactionBacklogHardLimit) {
+        if (compactionBacklogHardLimit != -1 && compactionBacklogHardLimit <= 0) {
+            throw new IllegalArgumentException("compactionBacklogHardLimit should be > 0, or -1 to disable it");
+        }
+        this.compactionBacklogHardLimit = compactionBacklogHardLimit;
+    }
+
+    public long getWriteStallTimeoutInMillis() {
+        return writeStallTimeoutInMillis;
+    }
+
+    public void setWriteStallTimeoutInMillis(long writeStallTimeoutInMillis) {
+        if (writeStallTimeoutInMillis < -1) {
+            throw new IllegalArgumentException("writeStallTimeoutInMillis should be >= 0, or -1 to wait until compaction catches up");
+        }
+        this.writeStallTimeoutInMillis = writeStallTimeoutInMillis;
+    }
+
+    public List<File> getDataDirectories() {
+        return dataDirectories;
+    }
+
+    public void setDataDirectories(List<File> dataDirectories) {
+        this.dataDirectories = ImmutableList.copyOf(dataDirectories);
+    }
+
+    public int getNumberOfShards() {
+        return numberOfShards;
+    }
+
+    public void setNumberOfShards(int numberOfShards) {
+        if (numberOfShards < 1) {
+            throw new IllegalArgumentException("numberOfShards should be >= 1");
+        }
+        this.numberOfShards = numberOfShards;
+    }
+
+    public int getNumberOfWriteLanes() {
+        return numberOfWriteLanes;
+    }
+
+    public void setNumberOfWriteLanes(int numberOfWriteLanes) {
+        if (numberOfWriteLanes < 1) {
+            throw new IllegalArgumentException("numberOfWriteLanes should be >= 1");
+        }
+        this.numberOfWriteLanes = numberOfWriteLanes;
+    }
+
+    public long getFollowerRefreshIntervalInMillis() {
+        return followerRefreshIntervalInMillis;
+    }
+
+    public void setFollowerRefreshIntervalInMillis(long followerRefreshIntervalInMillis) {
+        if (followerRefreshIntervalInMillis <= 0) {
+            throw new IllegalArgumentException("followerRefreshIntervalInMillis should be > 0");
+        }
+        this.followerRefreshIntervalInMillis = followerRefreshIntervalInMillis;
+    }
+
+    public int getScanReadAheadSize() {
+        return scanReadAheadSize;
+    }
+
+    public void setScanReadAheadSize(int scanReadAheadSize) {
+        if (scanReadAheadSize < Record.Header.HEADER_SIZE) {
+            throw new IllegalArgumentException("scanReadAheadSize should be at least " + Record.Header.HEADER_SIZE);
+        }
+        this.scanReadAheadSize = scanReadAheadSize;
+    }
+
+    public boolean isOrderedKeyIndexEnabled() {
+        return orderedKeyIndexEnabled;
+    }
+
+    /**
+     * Keeps the keys sorted on the java heap, at a cost of about 56 bytes per key plus the key.
+     */
+    public void setOrderedKeyIndexEnabled(boolean orderedKeyIndexEnabled) {
+        this.orderedKeyIndexEnabled = orderedKeyIndexEnabled;
+    }
+
+    public Map<String, AttributeExtractor> getSecondaryIndexes() {
+        return secondaryIndexes;
+    }
+
+    /**
+     * Registers a secondary index of the records by the attribute the extractor returns for
+     * their values. Updates and deletes of a key whose previous value has an attribute in any
+     * of the indexes read that value from its data file first, i.e. cost an extra random read.
+     * Can't be used in cache mode or with records which have a ttl.
+     */
+    public void addSecondaryIndex(String name, AttributeExtractor extractor) {
+        if (secondaryIndexes.containsKey(name)) {
+            throw new IllegalArgumentException("Secondary index " + name + " already exists");
+        }
+        this.secondaryIndexes = ImmutableMap.<String, AttributeExtractor>builder()
+                .putAll(secondaryIndexes).put(name, extractor).build();
+    }
+
+    public long getMaxSecondaryIndexSize() {
+        return maxSecondaryIndexSize;
+    }
+
+    public void setMaxSecondaryIndexSize(long maxSecondaryIndexSize) {
+        if (maxSecondaryIndexSize != -1 && maxSecondaryIndexSize <= 0) {
+            throw new IllegalArgumentException("maxSecondaryIndexSize should be > 0, or -1 to disable it");
+        }
+        this.maxSecondaryIndexSize = maxSecondaryIndexSize;
+    }
+
+    public Map<String, Integer> getNamespaceIds() {
+        return namespaceIds;
+    }
+
+    public HaloDBNamespaceOptions getNamespaceOptions(String name) {
+        return namespaceOptions.get(name);
+    }
+
+    public void addNamespace(String name, int id) {
+        addNamespace(name, id, new HaloDBNamespaceOptions());
+    }
+
+    /**
+     * Registers a namespace, whose keys are prefixed with the id in two bytes. Ids of the
+     * namespaces of a db must be unique and can't be reused for another namespace.
+     */
+    public void addNamespace(String name, int id, HaloDBNamespaceOptions options) {
+        if (id < 0 || id > 0xffff) {
+            throw new IllegalArgumentException("Namespace id should be between 0 and 65535");
+        }
+        if (namespaceIds.containsKey(name)) {
+            throw new IllegalArgumentException("Namespace " + name + " already exists");
+        }
+        if (namespaceIds.containsValue(id)) {
+            throw new IllegalArgumentException("Namespace id " + id + " is already used");
+        }
+        this.namespaceIds = ImmutableMap.<String, Integer>builder().putAll(namespaceIds).put(name, id).build();
+        this.namespaceOptions = ImmutableMap.<String, HaloDBNamespaceOptions>builder()
+                .putAll(namespaceOptions).put(name, options.clone()).build();
+    }
+
+    /**
+     * Options for one of the shards. Limits which apply to the whole db are split evenly
+     * across the shards, and data directories get a sub directory per shard.
+     */
+    HaloDBOptions forShard(int shard) {
+        HaloDBOptions options = clone();
+        options.numberOfShards = 1;
+        options.numberOfRecords = Math.max(1, numberOfRecords / numberOfShards);
+        if (maxTotalDataFileSize != -1) {
+            options.maxTotalDataFileSize = Math.max(1, maxTotalDataFileSize / numberOfShards);
+        }
+        // each shard runs its own compaction thread.
+        options.compactionJobRate = Math.max(1, compactionJobRate / numberOfShards);
+        if (minCompactionJobRate != -1) {
+            options.minCompactionJobRate = Math.max(1, minCompactionJobRate / numberOfShards);
+        }
+        if (compactionBacklogSoftLimit != -1) {
+            options.compactionBacklogSoftLimit = Math.max(1, compactionBacklogSoftLimit / numberOfShards);
+        }
+        if (compactionBacklogHardLimit != -1) {
+            options.compactionBacklogHardLimit = Math.max(1, compactionBacklogHardLimit / numberOfShards);
+        }
+        if (maxSecondaryIndexSize != -1) {
+            options.maxSecondaryIndexSize = Math.max(1, maxSecondaryIndexSize / numberOfShards);
+        }
+        options.dataDirectories = ImmutableList.copyOf(dataDirectories.stream()
+                .map(d -> HaloDB.getShardDirectory(d, shard))
+                .collect(Collectors.toList()));
+        return options;
+    }
+
+    boolean isCacheModeEnabled() {
+        return maxTotalDataFileSize != -1;
+    }
+
+    boolean isAdaptiveCompactionRateEnabled() {
+        return minCompactionJobRate != -1;
+    }
+
+    boolean isWriteStallEnabled() {
+        return (compactionBacklogSoftLimit != -1 || compactionBacklogHardLimit != -1)
+                && !isCompactionDisabled() && !isCacheModeEnabled();
+    }
+
+    boolean isCompactionThresholdTuningEnabled() {
+        return targetSpaceAmplification != -1 && !isCacheModeEnabled();
+    }
+
+    boolean isEligibleForDictionaryCompression(int valueSize) {
+        return isDictionaryCompressionEnabled() && (!isCompressionEnabled() || valueSize < compressionThreshold);
+    }
+
     boolean isCompactionDisabled() {
         return isCompactionDisabled;
     }
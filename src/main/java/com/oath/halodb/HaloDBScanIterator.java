@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterator which reads the data files sequentially in large chunks instead of reading each
+ * record through the index file. A prefetch thread reads the next chunk while the current one
+ * is parsed. Returns the same records as {@link HaloDBIterator}, records are filtered with the
+ * in-memory index and data files deleted by compaction while scanning are skipped.
+ *
+ * The prefetch thread stops when all the files are read, an iterator which isn't exhausted
+ * must be closed.
+ */
+public class HaloDBScanIterator implements Iterator<Record>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(HaloDBScanIterator.class);
+
+    private static final int NUMBER_OF_BUFFERS = 2;
+    private static final long POLL_INTERVAL_IN_MILLIS = 100;
+    private static final Chunk END = new Chunk(null, null, null, 0);
+
+    // data files to scan, file i belongs to shards[i].
+    private final HaloDBInternal[] shards;
+    private final int[] fileIds;
+    private final int readAheadSize;
+
+    // buffers are passed to the parser through chunks and returned once parsed.
+    private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(NUMBER_OF_BUFFERS);
+    private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(NUMBER_OF_BUFFERS);
+    private final Thread prefetchThread;
+    private volatile boolean isClosed = false;
+
+    private Chunk chunk;
+    private Record next;
+    private boolean isExhausted = false;
+
+    HaloDBScanIterator(List<HaloDBInternal> dbShards, int readAheadSize) {
+        List<HaloDBInternal> shardOfFile = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (HaloDBInternal shard : dbShards) {
+            shard.listDataFileIds().stream().sorted().forEach(id -> {
+                shardOfFile.add(shard);
+                ids.add(id);
+            });
+        }
+        this.shards = shardOfFile.toArray(new HaloDBInternal[0]);
+        this.fileIds = ids.stream().mapToInt(Integer::intValue).toArray();
+        this.readAheadSize = readAheadSize;
+        for (int i = 0; i < NUMBER_OF_BUFFERS; i++) {
+            freeBuffers.add(ByteBuffer.allocate(readAheadSize));
+        }
+
+        prefetchThread = new Thread(this::prefetch, "scan-prefetch");
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        while (!isExhausted) {
+            if (chunk != null) {
+                next = readNextRecord(chunk);
+                if (next != null) {
+                    return true;
+                }
+                freeBuffers.add(chunk.buffer);
+                chunk = null;
+            }
+            chunk = takeChunk();
+            if (chunk == END) {
+                chunk = null;
+                isExhausted = true;
+            } else if (chunk.error != null) {
+                RuntimeException error = chunk.error;
+                chunk = null;
+                isExhausted = true;
+                throw error;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Record next() {
+        if (hasNext()) {
+            Record record = next;
+            next = null;
+            return record;
+        }
+        throw new NoSuchElementException();
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        isExhausted = true;
+        // the thread isn't interrupted, as that would close the channel of the file being read.
+        try {
+            prefetchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Chunk takeChunk() {
+        try {
+            return chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the next chunk", e);
+        }
+    }
+
+    // parses records from the chunk until a fresh one is found.
+    private Record readNextRecord(Chunk chunk) {
+        ByteBuffer buffer = chunk.buffer;
+        while (buffer.hasRemaining()) {
+            int recordOffset = chunk.offset + buffer.position();
+            Record.Header header = Record.Header.deserialize(buffer.slice());
+            buffer.position(buffer.position() + Record.Header.HEADER_SIZE);
+            byte[] key = new byte[header.getKeySize()];
+            buffer.get(key);
+
+            int valueOffset = Utils.getValueOffset(recordOffset, key);
+            int expiryTime = Record.Header.hasExpiryTime(header.getVersion()) ? buffer.getInt(buffer.position()) : 0;
+            InMemoryIndexMetaData meta = new InMemoryIndexMetaData(
+                    chunk.file.getFileId(), valueOffset, header.getValueSize(),
+                    header.getSequenceNumber(), header.getVersion(), expiryTime
+            );
+            if (meta.isExpired() || !chunk.dbInternal.isRecordFresh(key, meta)) {
+                buffer.position(buffer.position() + header.getValueSize());
+                continue;
+            }
+
+            byte[] storedValue = new byte[header.getValueSize()];
+            buffer.get(storedValue);
+            try {
+                byte[] value = chunk.dbInternal.decodeValue(chunk.file, storedValue, meta);
+                Record record = new Record(key, value);
+                record.setRecordMetaData(meta);
+                return record;
+            } catch (IOException e) {
+                logger.info("Error in scan iterator", e);
+            }
+        }
+        return null;
+    }
+
+    private void prefetch() {
+        try {
+            for (int i = 0; i < fileIds.length && !isClosed; i++) {
+                HaloDBInternal dbInternal = shards[i];
+                HaloDBFile file = dbInternal.getHaloDBFile(fileIds[i]);
+                if (file == null) {
+                    logger.debug("Data file {} deleted, probably by compaction thread. Skipping to next one", fileIds[i]);
+                    continue;
+                }
+                try {
+                    readFile(dbInternal, file);
+                } catch (ClosedChannelException e) {
+                    if (dbInternal.isClosing()) {
+                        publish(new Chunk(new RuntimeException("DB is closing")));
+                        return;
+                    }
+                    logger.debug("Data file {} closed, probably by compaction thread. Skipping to next one", fileIds[i]);
+                } catch (IOException e) {
+                    logger.info("Error in scan iterator", e);
+                }
+            }
+            publish(END);
+        } catch (InterruptedException e) {
+            logger.error("Scan prefetch thread interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Error in scan prefetch thread", e);
+            try {
+                publish(new Chunk(e));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reads the file in chunks which end at a record boundary, the bytes of a record which
+     * doesn't fit into a chunk are carried over to the next one. Reading stops at the end of
+     * the file or at a corrupted or partially written record.
+     */
+    private void readFile(HaloDBInternal dbInternal, HaloDBFile file) throws IOException, InterruptedException {
+        ByteBuffer buffer = takeFreeBuffer();
+        int chunkOffset = 0;
+        long readOffset = 0;
+        boolean endOfFile = false;
+        try {
+            while (buffer != null && !isClosed) {
+                int position = buffer.position();
+                file.readFromFile(readOffset, buffer);
+                readOffset += buffer.position() - position;
+                endOfFile = endOfFile || buffer.hasRemaining();
+                buffer.flip();
+
+                int complete = lengthOfCompleteRecords(buffer);
+                if (complete == 0) {
+                    int recordSize = buffer.remaining() >= Record.Header.HEADER_SIZE ? sizeOfRecord(buffer, 0) : 0;
+                    if (endOfFile || recordSize <= 0) {
+                        // nothing left but a corrupted or partial record.
+                        return;
+                    }
+                    // record doesn't fit into a chunk, read it into a larger buffer which replaces this one.
+                    ByteBuffer larger = ByteBuffer.allocate(recordSize);
+                    larger.put(buffer);
+                    buffer = larger;
+                    continue;
+                }
+
+                ByteBuffer nextBuffer = endOfFile ? null : takeFreeBuffer();
+                if (nextBuffer != null) {
+                    // carry the incomplete record over.
+                    buffer.position(complete);
+                    if (buffer.remaining() > nextBuffer.capacity()) {
+                        nextBuffer = ByteBuffer.allocate(buffer.remaining());
+                    }
+                    nextBuffer.put(buffer);
+                    buffer.position(0);
+                }
+                buffer.limit(complete);
+                publish(new Chunk(dbInternal, file, buffer, chunkOffset));
+                chunkOffset += complete;
+                buffer = nextBuffer;
+            }
+        } finally {
+            if (buffer != null) {
+                freeBuffers.add(buffer);
+            }
+        }
+    }
+
+    // length of the complete and valid records at the start of the buffer.
+    private int lengthOfCompleteRecords(ByteBuffer buffer) {
+        int length = 0;
+        while (buffer.limit() - length >= Record.Header.HEADER_SIZE) {
+            int recordSize = sizeOfRecord(buffer, length);
+            if (recordSize <= 0 || buffer.limit() - length < recordSize) {
+                break;
+            }
+            length += recordSize;
+        }
+        return length;
+    }
+
+    // size of the record at the offset, or -1 if its header is corrupted.
+    private int sizeOfRecord(ByteBuffer buffer, int offset) {
+        ByteBuffer headerBuffer = buffer.duplicate();
+        headerBuffer.position(offset);
+        Record.Header header = Record.Header.deserialize(headerBuffer.slice());
+        return Record.Header.verifyHeader(header) ? header.getRecordSize() : -1;
+    }
+
+    // returns null if closed while waiting.
+    private ByteBuffer takeFreeBuffer() throws InterruptedException {
+        while (!isClosed) {
+            ByteBuffer buffer = freeBuffers.poll(POLL_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+            if (buffer != null) {
+                if (buffer.capacity() > readAheadSize) {
+                    // don't hold on to a buffer allocated for a large record.
+                    buffer = ByteBuffer.allocate(readAheadSize);
+                }
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    private void publish(Chunk chunk) throws InterruptedException {
+        while (!isClosed) {
+            if (chunks.offer(chunk, POLL_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private static class Chunk {
+        private final HaloDBInternal dbInternal;
+        private final HaloDBFile file;
+        private final ByteBuffer buffer;
+        // offset in the file of the first record in the buffer.
+        private final int offset;
+        private final RuntimeException error;
+
+        Chunk(HaloDBInternal dbInternal, HaloDBFile file, ByteBuffer buffer, int offset) {
+            this.dbInternal = dbInternal;
+            this.file = file;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.error = null;
+        }
+
+        Chunk(RuntimeException error) {
+            this.dbInternal = null;
+            this.file = null;
+            this.buffer = null;
+            this.offset = 0;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A consistent, read only view of the db at the time it was taken. Gets and iterators of the
+ * snapshot ignore changes made afterwards, i.e. records with a higher sequence number.
+ *
+ * Data and blob files deleted by compaction or the blob garbage collector are kept on disk while
+ * a snapshot is open, and the data files which existed when it was taken are compacted only once
+ * it is closed, hence it should be closed as soon as it is no longer needed. Snapshots are
+ * not supported in cache mode, as evicted files can't be kept.
+ */
+public class HaloDBSnapshot implements Closeable {
+
+    private final HaloDB db;
+    // one per shard.
+    private final Snapshot[] snapshots;
+    private volatile boolean isClosed = false;
+
+    HaloDBSnapshot(HaloDB db, Snapshot[] snapshots) {
+        this.db = db;
+        this.snapshots = snapshots;
+    }
+
+    public byte[] get(byte[] key) throws HaloDBException {
+        checkIfOpen();
+        try {
+            return snapshots[db.getShardIndex(key)].get(key);
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup in snapshot failed.", e);
+        }
+    }
+
+    /**
+     * Returns an iterator over the records of the snapshot, which is valid only while the
+     * snapshot is open.
+     */
+    public Iterator<Record> newIterator() throws HaloDBException {
+        checkIfOpen();
+        return new SnapshotIterator(Arrays.asList(snapshots));
+    }
+
+    /**
+     * Returns the sequence number of the latest change visible in the snapshot, e.g. to read the
+     * changes made since with {@link HaloDB#changesSince(long)}. Not supported with shards.
+     */
+    public long getSequenceNumber() throws HaloDBException {
+        if (snapshots.length > 1) {
+            throw new HaloDBException("Sequence number of a snapshot is not supported with shards");
+        }
+        return snapshots[0].getSequenceNumber();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        for (Snapshot snapshot : snapshots) {
+            snapshot.release();
+        }
+    }
+
+    private void checkIfOpen() throws HaloDBException {
+        if (isClosed) {
+            throw new HaloDBException("Snapshot is closed");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the records of the db which splits by data file, so that files can be
+ * scanned concurrently with a parallel stream. Records are returned with the same semantics
+ * as {@link HaloDBIterator}: only fresh records are returned and data files deleted by
+ * compaction while scanning are skipped.
+ */
+public class HaloDBSpliterator implements Spliterator<Record> {
+    private static final Logger logger = LoggerFactory.getLogger(HaloDBSpliterator.class);
+
+    // data files to scan, file i belongs to shards[i].
+    private final HaloDBInternal[] shards;
+    private final int[] fileIds;
+    // index of the next file to scan and the index after the last one.
+    private int origin;
+    private final int fence;
+
+    private HaloDBInternal dbInternal;
+    private HaloDBFile currentFile;
+    private Iterator<IndexFileEntry> inner;
+
+    HaloDBSpliterator(List<HaloDBInternal> dbShards) {
+        List<HaloDBInternal> shardOfFile = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (HaloDBInternal shard : dbShards) {
+            shard.listDataFileIds().stream().sorted().forEach(id -> {
+                shardOfFile.add(shard);
+                ids.add(id);
+            });
+        }
+        this.shards = shardOfFile.toArray(new HaloDBInternal[0]);
+        this.fileIds = ids.stream().mapToInt(Integer::intValue).toArray();
+        this.origin = 0;
+        this.fence = fileIds.length;
+    }
+
+    private HaloDBSpliterator(HaloDBInternal[] shards, int[] fileIds, int origin, int fence) {
+        this.shards = shards;
+        this.fileIds = fileIds;
+        this.origin = origin;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Record> action) {
+        try {
+            do {
+                Record record = readNextRecord();
+                if (record != null) {
+                    action.accept(record);
+                    return true;
+                }
+            } while (moveToNextFile());
+        } catch (IOException e) {
+            logger.error("Error in Spliterator", e);
+        }
+        return false;
+    }
+
+    /**
+     * Hands over half of the files not yet started, the file being scanned stays with this spliterator.
+     */
+    @Override
+    public Spliterator<Record> trySplit() {
+        int remaining = fence - origin;
+        if (remaining < 2) {
+            return null;
+        }
+        int mid = origin + remaining / 2;
+        HaloDBSpliterator prefix = new HaloDBSpliterator(shards, fileIds, origin, mid);
+        origin = mid;
+        return prefix;
+    }
+
+    /**
+     * The number of records is not known without reading the index files, hence the estimate is
+     * the number of files left to scan, which is what the split decisions depend on.
+     */
+    @Override
+    public long estimateSize() {
+        return fence - origin + (inner != null && inner.hasNext() ? 1 : 0);
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    private boolean moveToNextFile() throws IOException {
+        inner = null;
+        while (origin < fence) {
+            dbInternal = shards[origin];
+            int fileId = fileIds[origin++];
+            currentFile = dbInternal.getHaloDBFile(fileId);
+            if (currentFile != null) {
+                try {
+                    inner = currentFile.getIndexFile().newIterator();
+                    return true;
+                } catch (ClosedChannelException e) {
+                    if (dbInternal.isClosing()) {
+                        throw new RuntimeException("DB is closing");
+                    }
+                    logger.debug("Index file {} closed, probably by compaction thread. Skipping to next one", fileId);
+                }
+            }
+            logger.debug("Data file {} deleted, probably by compaction thread. Skipping to next one", fileId);
+        }
+        return false;
+    }
+
+    private Record readNextRecord() {
+        if (inner == null) {
+            return null;
+        }
+        while (inner.hasNext()) {
+            IndexFileEntry entry = inner.next();
+            try {
+                try {
+                    Record record = readRecordFromDataFile(entry);
+                    if (record != null) {
+                        return record;
+                    }
+                } catch (ClosedChannelException e) {
+                    if (dbInternal.isClosing()) {
+                        throw new RuntimeException("DB is closing");
+                    }
+                    logger.debug("Data file {} closed, probably by compaction thread. Skipping to next one", currentFile.getFileId());
+                    break;
+                }
+            } catch (IOException e) {
+                logger.info("Error in spliterator", e);
+                break;
+            }
+        }
+        inner = null;
+        return null;
+    }
+
+    private Record readRecordFromDataFile(IndexFileEntry entry) throws IOException {
+        InMemoryIndexMetaData meta = Utils.getMetaData(entry, currentFile.getFileId());
+        Record record = null;
+        if (!meta.isExpired() && dbInternal.isRecordFresh(entry.getKey(), meta)) {
+            byte[] value = dbInternal.readValue(currentFile, meta);
+            if (value != null) {
+                record = new Record(entry.getKey(), value);
+                record.setRecordMetaData(meta);
+            }
+        }
+        return record;
+    }
+}
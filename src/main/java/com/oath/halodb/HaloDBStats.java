@@ -8,8 +8,11 @@ package com.oath.halodb;
 import com.google.common.base.MoreObjects;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class HaloDBStats {
 
@@ -23,6 +26,8 @@ public class HaloDBStats {
     private final long size;
     private final int numberOfFilesPendingCompaction;
     private final Map<Integer, Double> staleDataPercentPerFile;
+    // file ids are unique only within a shard, hence the files of each shard are kept apart.
+    private List<Map<Integer, Double>> staleDataPercentPerShard;
     private final long rehashCount;
     private final long numberOfSegments;
     private final long maxSizePerSegment;
@@ -40,20 +45,58 @@ public class HaloDBStats {
     private final long compactionRateInInternal;
     private final long compactionRateSinceBeginning;
     private final boolean isCompactionRunning;
+    private final long numberOfValuesCompressed;
+    private final long sizeOfValuesBeforeCompression;
+    private final long sizeOfValuesAfterCompression;
+    private final double compressionRatio;
+    private final long numberOfDictionariesTrained;
+    private final int numberOfBlobFiles;
+    private final long numberOfBlobsRelocated;
+    private final long sizeOfBlobFilesDeleted;
+    private final long numberOfRecordsExpired;
+    private final long numberOfDataFilesEvicted;
+    private final long numberOfRecordsEvicted;
+    private final long numberOfTombstoneFilesDeleted;
+    private final long numberOfTombstoneFilesRewritten;
+    private final long numberOfTombstonesDropped;
+    private final long currentCompactionJobRate;
+    private final String compactionRateControllerState;
+    private final long foregroundLatencyP99InMicros;
+    private final double spaceAmplification;
+    private final double writeAmplification;
+    private final double compactionThresholdPerFile;
+    private final long numberOfColdRecordsCopied;
+    private final long numberOfWritesDelayed;
+    private final long totalWriteDelayInMillis;
+    private final long numberOfWritesStalled;
+    private final long totalWriteStallTimeInMillis;
+
     private final HaloDBOptions options;
 
-    public HaloDBStats(long statsResetTime, long size, boolean isCompactionRunning, int numberOfFilesPendingCompaction,
-                       Map<Integer, Double> staleDataPercentPerFile, long rehashCount, long numberOfSegments,
-                       long maxSizePerSegment, SegmentStats[] segmentStats,
-                       int numberOfDataFiles, int numberOfTombstoneFiles,
-                       long numberOfTombstonesFoundDuringOpen, long numberOfTombstonesCleanedUpDuringOpen,
-                       long numberOfRecordsCopied, long numberOfRecordsReplaced, long numberOfRecordsScanned,
-                       long sizeOfRecordsCopied, long sizeOfFilesDeleted, long sizeReclaimed,
-                       long compactionRateSinceBeginning, HaloDBOptions options) {
+    HaloDBStats(long statsResetTime, long size, boolean isCompactionRunning, int numberOfFilesPendingCompaction,
+                Map<Integer, Double> staleDataPercentPerFile, long rehashCount, long numberOfSegments,
+                long maxSizePerSegment, SegmentStats[] segmentStats,
+                int numberOfDataFiles, int numberOfTombstoneFiles,
+                long numberOfTombstonesFoundDuringOpen, long numberOfTombstonesCleanedUpDuringOpen,
+                long numberOfRecordsCopied, long numberOfRecordsReplaced, long numberOfRecordsScanned,
+                long sizeOfRecordsCopied, long sizeOfFilesDeleted, long sizeReclaimed,
+                long compactionRateSinceBeginning, long numberOfValuesCompressed,
+                long sizeOfValuesBeforeCompression, long sizeOfValuesAfterCompression,
+                long numberOfDictionariesTrained, int numberOfBlobFiles, long numberOfBlobsRelocated,
+                long sizeOfBlobFilesDeleted, long numberOfRecordsExpired,
+                long numberOfDataFilesEvicted, long numberOfRecordsEvicted,
+                long numberOfTombstoneFilesDeleted, long numberOfTombstoneFilesRewritten,
+                long numberOfTombstonesDropped, long currentCompactionJobRate,
+                String compactionRateControllerState, long foregroundLatencyP99InMicros,
+                long numberOfColdRecordsCopied, long numberOfWritesDelayed, long totalWriteDelayInMillis,
+                long numberOfWritesStalled, long totalWriteStallTimeInMillis,
+                double spaceAmplification, double writeAmplification, double compactionThresholdPerFile,
+                HaloDBOptions options) {
         this.statsResetTime = statsResetTime;
         this.size = size;
         this.numberOfFilesPendingCompaction = numberOfFilesPendingCompaction;
         this.staleDataPercentPerFile = staleDataPercentPerFile;
+        this.staleDataPercentPerShard = Collections.singletonList(staleDataPercentPerFile);
         this.rehashCount = rehashCount;
         this.numberOfSegments = numberOfSegments;
         this.maxSizePerSegment = maxSizePerSegment;
@@ -70,6 +113,36 @@ public class HaloDBStats {
         this.sizeReclaimed = sizeReclaimed;
         this.compactionRateSinceBeginning = compactionRateSinceBeginning;
         this.isCompactionRunning = isCompactionRunning;
+        this.numberOfValuesCompressed = numberOfValuesCompressed;
+        this.sizeOfValuesBeforeCompression = sizeOfValuesBeforeCompression;
+        this.sizeOfValuesAfterCompression = sizeOfValuesAfterCompression;
+        this.numberOfDictionariesTrained = numberOfDictionariesTrained;
+        this.numberOfBlobFiles = numberOfBlobFiles;
+        this.numberOfBlobsRelocated = numberOfBlobsRelocated;
+        this.sizeOfBlobFilesDeleted = sizeOfBlobFilesDeleted;
+        this.numberOfRecordsExpired = numberOfRecordsExpired;
+        this.numberOfDataFilesEvicted = numberOfDataFilesEvicted;
+        this.numberOfRecordsEvicted = numberOfRecordsEvicted;
+        this.numberOfTombstoneFilesDeleted = numberOfTombstoneFilesDeleted;
+        this.numberOfTombstoneFilesRewritten = numberOfTombstoneFilesRewritten;
+        this.numberOfTombstonesDropped = numberOfTombstonesDropped;
+        this.currentCompactionJobRate = currentCompactionJobRate;
+        this.compactionRateControllerState = compactionRateControllerState;
+        this.foregroundLatencyP99InMicros = foregroundLatencyP99InMicros;
+        this.spaceAmplification = spaceAmplification;
+        this.writeAmplification = writeAmplification;
+        this.compactionThresholdPerFile = compactionThresholdPerFile;
+        this.numberOfColdRecordsCopied = numberOfColdRecordsCopied;
+        this.numberOfWritesDelayed = numberOfWritesDelayed;
+        this.totalWriteDelayInMillis = totalWriteDelayInMillis;
+        this.numberOfWritesStalled = numberOfWritesStalled;
+        this.totalWriteStallTimeInMillis = totalWriteStallTimeInMillis;
+
+        if (sizeOfValuesAfterCompression > 0) {
+            this.compressionRatio = 1.0 * sizeOfValuesBeforeCompression / sizeOfValuesAfterCompression;
+        } else {
+            this.compressionRatio = 1.0;
+        }
 
         long intervalTimeInSeconds = (System.currentTimeMillis() - statsResetTime) / 1000;
         if (intervalTimeInSeconds > 0) {
@@ -81,6 +154,67 @@ public class HaloDBStats {
         this.options = options;
     }
 
+    /**
+     * Combines the stats of the shards of a db. Counters are summed up, amplification
+     * and the compaction threshold are averaged and latency is the highest of all shards.
+     * File ids are unique only within a shard, hence stale data is reported per shard.
+     */
+    static HaloDBStats merge(HaloDBStats[] shards, HaloDBOptions options) {
+        SegmentStats[] segmentStats = Arrays.stream(shards).flatMap(s -> Arrays.stream(s.segmentStats)).toArray(SegmentStats[]::new);
+        String compactionRateControllerState = Arrays.stream(shards)
+                .map(s -> s.compactionRateControllerState).distinct().collect(Collectors.joining(","));
+
+        HaloDBStats merged = new HaloDBStats(
+                Arrays.stream(shards).mapToLong(s -> s.statsResetTime).min().getAsLong(),
+                Arrays.stream(shards).mapToLong(s -> s.size).sum(),
+                Arrays.stream(shards).anyMatch(s -> s.isCompactionRunning),
+                Arrays.stream(shards).mapToInt(s -> s.numberOfFilesPendingCompaction).sum(),
+                Collections.emptyMap(),
+                Arrays.stream(shards).mapToLong(s -> s.rehashCount).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfSegments).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.maxSizePerSegment).max().getAsLong(),
+                segmentStats,
+                Arrays.stream(shards).mapToInt(s -> s.numberOfDataFiles).sum(),
+                Arrays.stream(shards).mapToInt(s -> s.numberOfTombstoneFiles).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfTombstonesFoundDuringOpen).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfTombstonesCleanedUpDuringOpen).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfRecordsCopied).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfRecordsReplaced).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfRecordsScanned).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.sizeOfRecordsCopied).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.sizeOfFilesDeleted).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.sizeReclaimed).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.compactionRateSinceBeginning).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfValuesCompressed).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.sizeOfValuesBeforeCompression).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.sizeOfValuesAfterCompression).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfDictionariesTrained).sum(),
+                Arrays.stream(shards).mapToInt(s -> s.numberOfBlobFiles).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfBlobsRelocated).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.sizeOfBlobFilesDeleted).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfRecordsExpired).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfDataFilesEvicted).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfRecordsEvicted).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfTombstoneFilesDeleted).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfTombstoneFilesRewritten).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfTombstonesDropped).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.currentCompactionJobRate).sum(),
+                compactionRateControllerState,
+                Arrays.stream(shards).mapToLong(s -> s.foregroundLatencyP99InMicros).max().getAsLong(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfColdRecordsCopied).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfWritesDelayed).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.totalWriteDelayInMillis).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.numberOfWritesStalled).sum(),
+                Arrays.stream(shards).mapToLong(s -> s.totalWriteStallTimeInMillis).sum(),
+                Arrays.stream(shards).mapToDouble(s -> s.spaceAmplification).average().getAsDouble(),
+                Arrays.stream(shards).mapToDouble(s -> s.writeAmplification).average().getAsDouble(),
+                Arrays.stream(shards).mapToDouble(s -> s.compactionThresholdPerFile).average().getAsDouble(),
+                options
+        );
+        merged.staleDataPercentPerShard = Arrays.stream(shards).map(s -> s.staleDataPercentPerFile).collect(Collectors.toList());
+        return merged;
+    }
+
     public long getSize() {
         return size;
     }
@@ -89,10 +223,21 @@ public class HaloDBStats {
         return numberOfFilesPendingCompaction;
     }
 
+    /**
+     * Stale data in each data file by file id. Empty for a sharded db, whose file ids are
+     * unique only within a shard, see {@link #getStaleDataPercentPerShard()}.
+     */
     public Map<Integer, Double> getStaleDataPercentPerFile() {
         return staleDataPercentPerFile;
     }
 
+    /**
+     * Stale data in each data file by file id, for each shard in order.
+     */
+    public List<Map<Integer, Double>> getStaleDataPercentPerShard() {
+        return staleDataPercentPerShard;
+    }
+
     public long getRehashCount() {
         return rehashCount;
     }
@@ -165,6 +310,116 @@ public class HaloDBStats {
         return isCompactionRunning;
     }
 
+    /**
+     * Number of values stored compressed. Values which didn't shrink are stored as is and
+     * only count towards the sizes before and after compression.
+     */
+    public long getNumberOfValuesCompressed() {
+        return numberOfValuesCompressed;
+    }
+
+    public long getSizeOfValuesBeforeCompression() {
+        return sizeOfValuesBeforeCompression;
+    }
+
+    public long getSizeOfValuesAfterCompression() {
+        return sizeOfValuesAfterCompression;
+    }
+
+    /**
+     * Ratio of the size of values written since the last reset, before and after compression.
+     */
+    public double getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public long getNumberOfDictionariesTrained() {
+        return numberOfDictionariesTrained;
+    }
+
+    public int getNumberOfBlobFiles() {
+        return numberOfBlobFiles;
+    }
+
+    /**
+     * Number of live blobs written again by the blob garbage collector.
+     */
+    public long getNumberOfBlobsRelocated() {
+        return numberOfBlobsRelocated;
+    }
+
+    public long getSizeOfBlobFilesDeleted() {
+        return sizeOfBlobFilesDeleted;
+    }
+
+    public long getNumberOfRecordsExpired() {
+        return numberOfRecordsExpired;
+    }
+
+    public long getNumberOfDataFilesEvicted() {
+        return numberOfDataFilesEvicted;
+    }
+
+    public long getNumberOfRecordsEvicted() {
+        return numberOfRecordsEvicted;
+    }
+
+    public long getNumberOfTombstoneFilesDeleted() {
+        return numberOfTombstoneFilesDeleted;
+    }
+
+    public long getNumberOfTombstoneFilesRewritten() {
+        return numberOfTombstoneFilesRewritten;
+    }
+
+    public long getNumberOfTombstonesDropped() {
+        return numberOfTombstonesDropped;
+    }
+
+    public long getCurrentCompactionJobRate() {
+        return currentCompactionJobRate;
+    }
+
+    public String getCompactionRateControllerState() {
+        return compactionRateControllerState;
+    }
+
+    public long getForegroundLatencyP99InMicros() {
+        return foregroundLatencyP99InMicros;
+    }
+
+    public double getSpaceAmplification() {
+        return spaceAmplification;
+    }
+
+    public double getWriteAmplification() {
+        return writeAmplification;
+    }
+
+    public double getCompactionThresholdPerFile() {
+        return compactionThresholdPerFile;
+    }
+
+    public long getNumberOfColdRecordsCopied() {
+        return numberOfColdRecordsCopied;
+    }
+
+    public long getNumberOfWritesDelayed() {
+        return numberOfWritesDelayed;
+    }
+
+    public long getTotalWriteDelayInMillis() {
+        return totalWriteDelayInMillis;
+    }
+
+    public long getNumberOfWritesStalled() {
+        return numberOfWritesStalled;
+    }
+
+    public long getTotalWriteStallTimeInMillis() {
+        return totalWriteStallTimeInMillis;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper("")
@@ -190,6 +445,31 @@ public class HaloDBStats {
                 .add("segmentStats", Arrays.toString(segmentStats))
                 .add("numberOfSegments", numberOfSegments)
                 .add("staleDataPercentPerFile", staleDataMapToString())
+                .add("numberOfValuesCompressed", numberOfValuesCompressed)
+                .add("sizeOfValuesBeforeCompression", sizeOfValuesBeforeCompression)
+                .add("sizeOfValuesAfterCompression", sizeOfValuesAfterCompression)
+                .add("compressionRatio", String.format("%.2f", compressionRatio))
+                .add("numberOfDictionariesTrained", numberOfDictionariesTrained)
+                .add("numberOfBlobFiles", numberOfBlobFiles)
+                .add("numberOfBlobsRelocated", numberOfBlobsRelocated)
+                .add("sizeOfBlobFilesDeleted", sizeOfBlobFilesDeleted)
+                .add("numberOfRecordsExpired", numberOfRecordsExpired)
+                .add("numberOfDataFilesEvicted", numberOfDataFilesEvicted)
+                .add("numberOfRecordsEvicted", numberOfRecordsEvicted)
+                .add("numberOfTombstoneFilesDeleted", numberOfTombstoneFilesDeleted)
+                .add("numberOfTombstoneFilesRewritten", numberOfTombstoneFilesRewritten)
+                .add("numberOfTombstonesDropped", numberOfTombstonesDropped)
+                .add("currentCompactionJobRate", currentCompactionJobRate)
+                .add("compactionRateControllerState", compactionRateControllerState)
+                .add("foregroundLatencyP99InMicros", foregroundLatencyP99InMicros)
+                .add("spaceAmplification", spaceAmplification)
+                .add("writeAmplification", writeAmplification)
+                .add("compactionThresholdPerFile", compactionThresholdPerFile)
+                .add("numberOfColdRecordsCopied", numberOfColdRecordsCopied)
+                .add("numberOfWritesDelayed", numberOfWritesDelayed)
+                .add("totalWriteDelayInMillis", totalWriteDelayInMillis)
+                .add("numberOfWritesStalled", numberOfWritesStalled)
+                .add("totalWriteStallTimeInMillis", totalWriteStallTimeInMillis)
                 .toString();
     }
 
@@ -217,11 +497,53 @@ public class HaloDBStats {
         map.put("segmentStats", String.valueOf(Arrays.toString(segmentStats)));
         map.put("numberOfSegments", String.valueOf(numberOfSegments));
         map.put("staleDataPercentPerFile", String.valueOf(staleDataMapToString()));
+        map.put("numberOfValuesCompressed", String.valueOf(numberOfValuesCompressed));
+        map.put("sizeOfValuesBeforeCompression", String.valueOf(sizeOfValuesBeforeCompression));
+        map.put("sizeOfValuesAfterCompression", String.valueOf(sizeOfValuesAfterCompression));
+        map.put("compressionRatio", String.format("%.2f", compressionRatio));
+        map.put("numberOfDictionariesTrained", String.valueOf(numberOfDictionariesTrained));
+        map.put("numberOfBlobFiles", String.valueOf(numberOfBlobFiles));
+        map.put("numberOfBlobsRelocated", String.valueOf(numberOfBlobsRelocated));
+        map.put("sizeOfBlobFilesDeleted", String.valueOf(sizeOfBlobFilesDeleted));
+        map.put("numberOfRecordsExpired", String.valueOf(numberOfRecordsExpired));
+        map.put("numberOfDataFilesEvicted", String.valueOf(numberOfDataFilesEvicted));
+        map.put("numberOfRecordsEvicted", String.valueOf(numberOfRecordsEvicted));
+        map.put("numberOfTombstoneFilesDeleted", String.valueOf(numberOfTombstoneFilesDeleted));
+        map.put("numberOfTombstoneFilesRewritten", String.valueOf(numberOfTombstoneFilesRewritten));
+        map.put("numberOfTombstonesDropped", String.valueOf(numberOfTombstonesDropped));
+        map.put("currentCompactionJobRate", String.valueOf(currentCompactionJobRate));
+        map.put("compactionRateControllerState", compactionRateControllerState);
+        map.put("foregroundLatencyP99InMicros", String.valueOf(foregroundLatencyP99InMicros));
+        map.put("spaceAmplification", String.valueOf(spaceAmplification));
+        map.put("writeAmplification", String.valueOf(writeAmplification));
+        map.put("compactionThresholdPerFile", String.valueOf(compactionThresholdPerFile));
+        map.put("numberOfColdRecordsCopied", String.valueOf(numberOfColdRecordsCopied));
+        map.put("numberOfWritesDelayed", String.valueOf(numberOfWritesDelayed));
+        map.put("totalWriteDelayInMillis", String.valueOf(totalWriteDelayInMillis));
+        map.put("numberOfWritesStalled", String.valueOf(numberOfWritesStalled));
+        map.put("totalWriteStallTimeInMillis", String.valueOf(totalWriteStallTimeInMillis));
 
         return map;
     }
 
     private String staleDataMapToString() {
+        if (staleDataPercentPerShard.size() == 1) {
+            return staleDataMapToString(staleDataPercentPerShard.get(0));
+        }
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < staleDataPercentPerShard.size(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("{shard").append(i).append("=");
+            builder.append(staleDataMapToString(staleDataPercentPerShard.get(i)));
+            builder.append("}");
+        }
+        builder.append("]");
+        return builder.toString();
+    }
+
+    private static String staleDataMapToString(Map<Integer, Double> staleDataPercentPerFile) {
         StringBuilder builder = new StringBuilder("[");
         boolean isFirst = true;
 
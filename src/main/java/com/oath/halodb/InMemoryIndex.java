@@ -22,16 +22,21 @@ class InMemoryIndex {
     private final int noOfSegments;
     private final int maxSizeOfEachSegment;
 
-    InMemoryIndex(int numberOfKeys, boolean useMemoryPool, int fixedKeySize, int memoryPoolChunkSize) {
+    /**
+     * @param withExpiryTime whether entries store the expiry time of the records, which
+     * takes 4 more bytes per entry.
+     */
+    InMemoryIndex(int numberOfKeys, boolean useMemoryPool, int fixedKeySize, int memoryPoolChunkSize, boolean withExpiryTime) {
         noOfSegments = Ints.checkedCast(Utils.roundUpToPowerOf2(Runtime.getRuntime().availableProcessors() * 2));
         maxSizeOfEachSegment = Ints.checkedCast(Utils.roundUpToPowerOf2(numberOfKeys / noOfSegments));
         long start = System.currentTimeMillis();
+        InMemoryIndexMetaDataSerializer serializer = new InMemoryIndexMetaDataSerializer(withExpiryTime);
         OffHeapHashTableBuilder<InMemoryIndexMetaData> builder =
                 OffHeapHashTableBuilder.<InMemoryIndexMetaData>newBuilder()
-                        .valueSerializer(new InMemoryIndexMetaDataSerializer())
+                        .valueSerializer(serializer)
                         .segmentCount(noOfSegments)
                         .hashTableSize(maxSizeOfEachSegment)
-                        .fixedValueSize(InMemoryIndexMetaData.SERIALIZED_SIZE)
+                        .fixedValueSize(serializer.serializedSize())
                         .loadFactor(1);
 
         if (useMemoryPool) {
@@ -55,6 +60,10 @@ class InMemoryIndex {
         return offHeapHashTable.remove(key);
     }
 
+    boolean remove(byte[] key, InMemoryIndexMetaData metaData) {
+        return offHeapHashTable.remove(key, metaData);
+    }
+
     boolean replace(byte[] key, InMemoryIndexMetaData oldValue, InMemoryIndexMetaData newValue) {
         return offHeapHashTable.addOrReplace(key, oldValue, newValue);
     }
@@ -67,6 +76,10 @@ class InMemoryIndex {
         return offHeapHashTable.containsKey(key);
     }
 
+    void forEachEntry(int segmentIndex, byte[] keyBuffer, OffHeapHashTable.EntryConsumer<InMemoryIndexMetaData> consumer) {
+        offHeapHashTable.forEachEntry(segmentIndex, keyBuffer, consumer);
+    }
+
     void close() {
         try {
             offHeapHashTable.close();
@@ -13,33 +13,62 @@ import java.nio.ByteBuffer;
  */
 class InMemoryIndexMetaData {
 
+    // the flags are stored in the top byte of the sequence number, which leaves 56 bits for it.
     static final int SERIALIZED_SIZE = 4 + 4 + 4 + 8;
+    // the expiry time is stored only if ttlEnabled is set.
+    static final int SERIALIZED_SIZE_WITH_EXPIRY_TIME = SERIALIZED_SIZE + 4;
+
+    private static final int FLAGS_SHIFT = 56;
+    private static final long SEQUENCE_NUMBER_MASK = (1L << FLAGS_SHIFT) - 1;
+
+    // set only in memory, the record shadows an older version of the key which might still be on disk.
+    private static final int OLDER_VERSION_ON_DISK = 0x01;
+    // set only in memory, the value has entries in the secondary indexes.
+    private static final int SECONDARY_INDEX_ENTRIES = 0x02;
+
     private final int fileId;
     private final int valueOffset;
     private final int valueSize;
     private final long sequenceNumber;
+    // flags from the record header, see Record.Header.FLAGS_MASK.
+    private final byte flags;
+    private final int expiryTime;
 
-    InMemoryIndexMetaData(int fileId, int valueOffset, int valueSize, long sequenceNumber) {
+    InMemoryIndexMetaData(int fileId, int valueOffset, int valueSize, long sequenceNumber, int flags) {
+        this(fileId, valueOffset, valueSize, sequenceNumber, flags, 0);
+    }
+
+    InMemoryIndexMetaData(int fileId, int valueOffset, int valueSize, long sequenceNumber, int flags, int expiryTime) {
         this.fileId = fileId;
         this.valueOffset = valueOffset;
         this.valueSize = valueSize;
         this.sequenceNumber = sequenceNumber;
+        this.flags = (byte) (flags & (Record.Header.FLAGS_MASK | OLDER_VERSION_ON_DISK | SECONDARY_INDEX_ENTRIES));
+        this.expiryTime = expiryTime;
     }
 
-    static InMemoryIndexMetaData deserialize(ByteBuffer byteBuffer) {
+    static InMemoryIndexMetaData deserialize(ByteBuffer byteBuffer, boolean withExpiryTime) {
         int fileId = byteBuffer.getInt();
         int offset = byteBuffer.getInt();
         int size = byteBuffer.getInt();
-        long sequenceNumber = byteBuffer.getLong();
+        long sequenceNumberAndFlags = byteBuffer.getLong();
+        int expiryTime = withExpiryTime ? byteBuffer.getInt() : 0;
 
-        return new InMemoryIndexMetaData(fileId, offset, size, sequenceNumber);
+        return new InMemoryIndexMetaData(fileId, offset, size, sequenceNumberAndFlags & SEQUENCE_NUMBER_MASK,
+                (int) (sequenceNumberAndFlags >>> FLAGS_SHIFT), expiryTime);
     }
 
-    void serialize(ByteBuffer byteBuffer) {
+    void serialize(ByteBuffer byteBuffer, boolean withExpiryTime) {
+        if (!withExpiryTime && expiryTime != 0) {
+            throw new IllegalStateException("Records with a ttl are not supported without ttlEnabled");
+        }
         byteBuffer.putInt(getFileId());
         byteBuffer.putInt(getValueOffset());
         byteBuffer.putInt(getValueSize());
-        byteBuffer.putLong(getSequenceNumber());
+        byteBuffer.putLong(((long) Utils.toUnsignedByte(flags) << FLAGS_SHIFT) | getSequenceNumber());
+        if (withExpiryTime) {
+            byteBuffer.putInt(expiryTime);
+        }
         byteBuffer.flip();
     }
 
@@ -58,4 +87,61 @@ class InMemoryIndexMetaData {
     long getSequenceNumber() {
         return sequenceNumber;
     }
+
+    int getFlags() {
+        return Utils.toUnsignedByte(flags) & Record.Header.FLAGS_MASK;
+    }
+
+    /**
+     * @return expiry time in seconds since epoch, or 0 if the record doesn't expire.
+     */
+    int getExpiryTime() {
+        return expiryTime;
+    }
+
+    boolean isExpired() {
+        return Record.isExpired(expiryTime);
+    }
+
+    /**
+     * An expired record which shadows an older version of the key must be replaced
+     * by a tombstone, otherwise the older version would reappear when the index is
+     * built again.
+     */
+    boolean hasOlderVersionOnDisk() {
+        return (flags & OLDER_VERSION_ON_DISK) != 0;
+    }
+
+    InMemoryIndexMetaData withOlderVersionOnDisk() {
+        return new InMemoryIndexMetaData(fileId, valueOffset, valueSize, sequenceNumber, flags | OLDER_VERSION_ON_DISK, expiryTime);
+    }
+
+    /**
+     * Writers read the previous value of a key only if it has entries to remove from the
+     * secondary indexes.
+     */
+    boolean hasSecondaryIndexEntries() {
+        return (flags & SECONDARY_INDEX_ENTRIES) != 0;
+    }
+
+    InMemoryIndexMetaData withSecondaryIndexEntries() {
+        return new InMemoryIndexMetaData(fileId, valueOffset, valueSize, sequenceNumber, flags | SECONDARY_INDEX_ENTRIES, expiryTime);
+    }
+
+    // same record at a new location, such as after it was copied by the compaction thread.
+    InMemoryIndexMetaData moveTo(int fileId, int valueOffset) {
+        return new InMemoryIndexMetaData(fileId, valueOffset, valueSize, sequenceNumber, flags, expiryTime);
+    }
+
+    boolean isCompressed() {
+        return Record.Header.isCompressed(getFlags());
+    }
+
+    boolean isDictionaryCompressed() {
+        return Record.Header.isDictionaryCompressed(getFlags());
+    }
+
+    boolean isBlob() {
+        return Record.Header.isBlob(getFlags());
+    }
 }
@@ -9,16 +9,26 @@ import java.nio.ByteBuffer;
 
 class InMemoryIndexMetaDataSerializer implements HashTableValueSerializer<InMemoryIndexMetaData> {
 
+    private final boolean withExpiryTime;
+
+    InMemoryIndexMetaDataSerializer(boolean withExpiryTime) {
+        this.withExpiryTime = withExpiryTime;
+    }
+
     public void serialize(InMemoryIndexMetaData recordMetaData, ByteBuffer byteBuffer) {
-        recordMetaData.serialize(byteBuffer);
+        recordMetaData.serialize(byteBuffer, withExpiryTime);
         byteBuffer.flip();
     }
 
     public InMemoryIndexMetaData deserialize(ByteBuffer byteBuffer) {
-        return InMemoryIndexMetaData.deserialize(byteBuffer);
+        return InMemoryIndexMetaData.deserialize(byteBuffer, withExpiryTime);
     }
 
     public int serializedSize(InMemoryIndexMetaData recordMetaData) {
-        return InMemoryIndexMetaData.SERIALIZED_SIZE;
+        return serializedSize();
+    }
+
+    int serializedSize() {
+        return withExpiryTime ? InMemoryIndexMetaData.SERIALIZED_SIZE_WITH_EXPIRY_TIME : InMemoryIndexMetaData.SERIALIZED_SIZE;
     }
 }
@@ -14,8 +14,10 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 class IndexFile {
     static final String INDEX_FILE_NAME = ".index";
@@ -56,6 +58,12 @@ class IndexFile {
         channel = new RandomAccessFile(backingFile, "rw").getChannel();
     }
 
+    // unlike open() fails if the file doesn't exist, and never creates it.
+    void openForReading() throws IOException {
+        backingFile = getIndexFile();
+        channel = FileChannel.open(backingFile.toPath(), StandardOpenOption.READ);
+    }
+
     void close() throws IOException {
         if (channel != null) {
             channel.close();
@@ -98,16 +106,43 @@ class IndexFile {
         return new IndexFileIterator();
     }
 
+    /**
+     * Passes the entries written after the offset to the consumer, and returns the offset
+     * up to which they were read. Used to follow a file another process is still writing
+     * to, hence stops at an entry which wasn't completely written yet.
+     */
+    long readCompleteEntries(long offset, Consumer<IndexFileEntry> consumer) throws IOException {
+        long size = channel.size();
+        if (size <= offset) {
+            return offset;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset);
+        while (buffer.hasRemaining()) {
+            int position = buffer.position();
+            IndexFileEntry entry = IndexFileEntry.deserializeIfNotCorrupted(buffer);
+            if (entry == null) {
+                buffer.position(position);
+                break;
+            }
+            consumer.accept(entry);
+        }
+        return offset + buffer.position();
+    }
+
     Path getPath() {
         return backingFile.toPath();
     }
 
+    long getSize() {
+        return getIndexFile().length();
+    }
+
     private File getIndexFile() {
-        return dbDirectory.getPath().resolve(fileId + INDEX_FILE_NAME).toFile();
+        return dbDirectory.getDataFilePath(fileId).resolve(fileId + INDEX_FILE_NAME).toFile();
     }
 
     private File getRepairFile() {
-        return dbDirectory.getPath().resolve(fileId + INDEX_FILE_NAME + ".repair").toFile();
+        return dbDirectory.getDataFilePath(fileId).resolve(fileId + INDEX_FILE_NAME + ".repair").toFile();
     }
 
     public class IndexFileIterator implements Iterator<IndexFileEntry> {
@@ -132,5 +167,16 @@ class IndexFile {
             }
             return null;
         }
+
+        // offset of the entry returned by the next call to next().
+        int getOffset() {
+            return buffer.position();
+        }
+
+        IndexFileEntry getEntryAt(int offset) {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset);
+            return IndexFileEntry.deserialize(duplicate);
+        }
     }
 }
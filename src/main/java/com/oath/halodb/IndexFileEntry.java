@@ -20,6 +20,10 @@ class IndexFileEntry {
      * record size      - 4 bytes.
      * record offset    - 4 bytes.
      * sequence number  - 8 bytes
+     *
+     * Upper four bits of the version byte carry the flags of the record, see Record.Header.
+     * If the record has an expiry time it follows the header:
+     * expiry time      - 4 bytes.
      */
     final static int INDEX_FILE_HEADER_SIZE = 22;
     final static int CHECKSUM_SIZE = 4;
@@ -30,6 +34,7 @@ class IndexFileEntry {
     static final int RECORD_SIZE_OFFSET = 6;
     static final int RECORD_OFFSET = 10;
     static final int SEQUENCE_NUMBER_OFFSET = 14;
+    static final int EXPIRY_TIME_OFFSET = 22;
 
 
     private final byte[] key;
@@ -39,14 +44,20 @@ class IndexFileEntry {
     private final int version;
     private final long sequenceNumber;
     private final long checkSum;
+    private final int expiryTime;
 
     IndexFileEntry(byte[] key, int recordSize, int recordOffset, long sequenceNumber, int version, long checkSum) {
+        this(key, recordSize, recordOffset, sequenceNumber, version, checkSum, 0);
+    }
+
+    IndexFileEntry(byte[] key, int recordSize, int recordOffset, long sequenceNumber, int version, long checkSum, int expiryTime) {
         this.key = key;
         this.recordSize = recordSize;
         this.recordOffset = recordOffset;
         this.sequenceNumber = sequenceNumber;
         this.version = version;
         this.checkSum = checkSum;
+        this.expiryTime = expiryTime;
 
         this.keySize = (byte) key.length;
     }
@@ -58,11 +69,12 @@ class IndexFileEntry {
         int recordSize = buffer.getInt();
         int offset = buffer.getInt();
         long sequenceNumber = buffer.getLong();
+        int expiryTime = Record.Header.hasExpiryTime(version) ? buffer.getInt() : 0;
 
         byte[] key = new byte[keySize];
         buffer.get(key);
 
-        return new IndexFileEntry(key, recordSize, offset, sequenceNumber, version, crc32);
+        return new IndexFileEntry(key, recordSize, offset, sequenceNumber, version, crc32, expiryTime);
     }
 
     static IndexFileEntry deserializeIfNotCorrupted(ByteBuffer buffer) {
@@ -79,14 +91,15 @@ class IndexFileEntry {
         if (sequenceNumber < 0 || keySize <= 0
                 || version < 0 || version > 255
                 || recordSize <= 0 || offset < 0
-                || buffer.remaining() < keySize) {
+                || buffer.remaining() < keySize + expiryTimeSize(version)) {
             return null;
         }
 
+        int expiryTime = Record.Header.hasExpiryTime(version) ? buffer.getInt() : 0;
         byte[] key = new byte[keySize];
         buffer.get(key);
 
-        IndexFileEntry entry = new IndexFileEntry(key, recordSize, offset, sequenceNumber, version, crc32);
+        IndexFileEntry entry = new IndexFileEntry(key, recordSize, offset, sequenceNumber, version, crc32, expiryTime);
         if (entry.computeCheckSum() != entry.checkSum) {
             return null;
         }
@@ -95,35 +108,39 @@ class IndexFileEntry {
     }
 
     ByteBuffer[] serialize() {
-        byte[] header = new byte[INDEX_FILE_HEADER_SIZE];
-        ByteBuffer h = ByteBuffer.wrap(header);
-
-        h.put(VERSION_OFFSET, (byte) version);
-        h.put(KEY_SIZE_OFFSET, keySize);
-        h.putInt(RECORD_SIZE_OFFSET, recordSize);
-        h.putInt(RECORD_OFFSET, recordOffset);
-        h.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+        ByteBuffer h = serializeHeader();
         long crc32 = computeCheckSum(h.array());
         h.putInt(CHECKSUM_OFFSET, Utils.toSignedIntFromLong(crc32));
 
         return new ByteBuffer[]{h, ByteBuffer.wrap(key)};
     }
 
+    private ByteBuffer serializeHeader() {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_FILE_HEADER_SIZE + expiryTimeSize(version));
+        header.put(VERSION_OFFSET, (byte) version);
+        header.put(KEY_SIZE_OFFSET, keySize);
+        header.putInt(RECORD_SIZE_OFFSET, recordSize);
+        header.putInt(RECORD_OFFSET, recordOffset);
+        header.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+        if (Record.Header.hasExpiryTime(version)) {
+            header.putInt(EXPIRY_TIME_OFFSET, expiryTime);
+        }
+        return header;
+    }
+
     private long computeCheckSum(byte[] header) {
         CRC32 crc32 = new CRC32();
-        crc32.update(header, CHECKSUM_OFFSET + CHECKSUM_SIZE, INDEX_FILE_HEADER_SIZE - CHECKSUM_SIZE);
+        crc32.update(header, CHECKSUM_OFFSET + CHECKSUM_SIZE, header.length - CHECKSUM_SIZE);
         crc32.update(key);
         return crc32.getValue();
     }
 
     long computeCheckSum() {
-        ByteBuffer header = ByteBuffer.allocate(INDEX_FILE_HEADER_SIZE);
-        header.put(VERSION_OFFSET, (byte) version);
-        header.put(KEY_SIZE_OFFSET, keySize);
-        header.putInt(RECORD_SIZE_OFFSET, recordSize);
-        header.putInt(RECORD_OFFSET, recordOffset);
-        header.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
-        return computeCheckSum(header.array());
+        return computeCheckSum(serializeHeader().array());
+    }
+
+    private static int expiryTimeSize(int version) {
+        return Record.Header.hasExpiryTime(version) ? Record.EXPIRY_TIME_SIZE : 0;
     }
 
     byte[] getKey() {
@@ -149,4 +166,8 @@ class IndexFileEntry {
     long getCheckSum() {
         return checkSum;
     }
+
+    int getExpiryTime() {
+        return expiryTime;
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in buckets whose upper bounds are powers of two nanoseconds,
+ * hence percentiles are accurate only within a factor of two. Recording is lock free
+ * and cheap enough to be done on every get and put.
+ */
+class LatencyHistogram {
+
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long latencyInNanos) {
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(Math.max(latencyInNanos, 0))].increment();
+    }
+
+    /**
+     * Returns the upper bound of the bucket in which the percentile falls, or -1 if
+     * nothing was recorded, and clears the histogram.
+     */
+    long getPercentileAndReset(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sumThenReset();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= rank) {
+                return i == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -112,6 +112,13 @@ class MemoryPoolChunk {
         return Uns.directBufferFor(address, offset + ENTRY_OFF_DATA, getKeyLength(offset), true);
     }
 
+    // returns the length of the key.
+    int copyKey(int slotOffset, byte[] buffer) {
+        int keyLength = getKeyLength(slotOffset);
+        Uns.copyMemory(address, slotOffset + ENTRY_OFF_DATA, buffer, 0, keyLength);
+        return keyLength;
+    }
+
     long computeHash(int slotOffset, Hasher hasher) {
         return hasher.hash(address, slotOffset + ENTRY_OFF_DATA, getKeyLength(slotOffset));
     }
@@ -46,6 +46,15 @@ interface OffHeapHashTable<V> extends Closeable {
      */
     boolean remove(byte[] key);
 
+    /**
+     * Remove the entry for the given key only if its serialized value matches that of {@code old}.
+     *
+     * @param key key of the entry to be removed. Must not be {@code null}.
+     * @param old value the entry is expected to have. Must not be {@code null}.
+     * @return {@code true}, if the entry has been removed, {@code false} otherwise
+     */
+    boolean remove(byte[] key, V old);
+
     /**
      * Removes all entries from the cache.
      */
@@ -68,6 +77,15 @@ interface OffHeapHashTable<V> extends Closeable {
      */
     boolean containsKey(byte[] key);
 
+    /**
+     * Calls the consumer for each entry of a segment while the segment is locked, hence the consumer
+     * must not access the table.
+     *
+     * @param segmentIndex index of the segment, in [0, {@link #segments()}).
+     * @param keyBuffer    keys are copied into it, must be large enough for the largest key.
+     */
+    void forEachEntry(int segmentIndex, byte[] keyBuffer, EntryConsumer<V> consumer);
+
     // statistics / information
 
     void resetStatistics();
@@ -85,4 +103,8 @@ interface OffHeapHashTable<V> extends Closeable {
     float loadFactor();
 
     OffHeapHashTableStats stats();
+
+    interface EntryConsumer<V> {
+        void accept(byte[] key, int keyLength, V value);
+    }
 }
@@ -146,6 +146,19 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
         return segment(keySource.hash()).removeEntry(keySource);
     }
 
+    public boolean remove(byte[] k, V old) {
+        if (k == null || old == null) {
+            throw new NullPointerException();
+        }
+
+        KeyBuffer keySource = keySource(k);
+        return segment(keySource.hash()).removeEntry(keySource, old);
+    }
+
+    public void forEachEntry(int segmentIndex, byte[] keyBuffer, EntryConsumer<V> consumer) {
+        segments.get(segmentIndex).forEachEntry(keyBuffer, consumer);
+    }
+
     private Segment<V> segment(long hash) {
         int seg = (int) ((hash & segmentMask) >>> segmentShift);
         return segments.get(seg);
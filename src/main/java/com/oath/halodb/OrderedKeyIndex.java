@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keys of a db sorted in unsigned lexicographic order, kept alongside the in-memory index if
+ * orderedKeyIndexEnabled is set, so that a range of keys can be found without a full scan.
+ *
+ * A key is added after it was put into the in-memory index and removed after it was removed
+ * from it, hence a range might contain a key which was just deleted, but never misses a key
+ * which is in the in-memory index.
+ */
+class OrderedKeyIndex {
+
+    static final Comparator<byte[]> KEY_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    private final InMemoryIndex inMemoryIndex;
+    private final NavigableSet<byte[]> keys = new ConcurrentSkipListSet<>(KEY_ORDER);
+
+    OrderedKeyIndex(InMemoryIndex inMemoryIndex) {
+        this.inMemoryIndex = inMemoryIndex;
+    }
+
+    void add(byte[] key) {
+        // the array belongs to the caller.
+        if (!keys.contains(key)) {
+            keys.add(key.clone());
+        }
+    }
+
+    void remove(byte[] key) {
+        keys.remove(key);
+        // a put might have added the key to the in-memory index again in between.
+        if (inMemoryIndex.get(key) != null) {
+            add(key);
+        }
+    }
+
+    /**
+     * Returns the keys from fromKey, inclusive, to toKey, exclusive, in order. A null bound
+     * means the range is unbounded on that side.
+     */
+    Iterator<byte[]> range(byte[] fromKey, byte[] toKey) {
+        NavigableSet<byte[]> range = keys;
+        if (fromKey != null) {
+            range = range.tailSet(fromKey, true);
+        }
+        if (toKey != null) {
+            range = range.headSet(toKey, false);
+        }
+        return range.iterator();
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return the smallest key larger than all keys starting with the prefix, or null if there
+     * is none, i.e. the prefix consists of 0xff bytes only.
+     */
+    static byte[] prefixEnd(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xff) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+}
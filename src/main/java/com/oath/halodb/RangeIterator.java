@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Iterates over the records of a range of keys in key order, using the ordered key index of
+ * each shard. With shards the ranges of the shards are merged. Keys deleted or expired while
+ * iterating are skipped.
+ */
+class RangeIterator implements Iterator<Record> {
+
+    // next key of each shard which isn't exhausted, smallest first.
+    private final PriorityQueue<ShardKeys> heads = new PriorityQueue<>(
+            (a, b) -> OrderedKeyIndex.KEY_ORDER.compare(a.key, b.key));
+    private Record next;
+
+    RangeIterator(List<HaloDBInternal> shards, byte[] fromKey, byte[] toKey) {
+        for (HaloDBInternal shard : shards) {
+            ShardKeys shardKeys = new ShardKeys(shard, shard.getOrderedKeyIndex().range(fromKey, toKey));
+            if (shardKeys.advance()) {
+                heads.add(shardKeys);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !heads.isEmpty()) {
+            ShardKeys head = heads.poll();
+            byte[] key = head.key;
+            if (head.advance()) {
+                heads.add(head);
+            }
+            try {
+                byte[] value = head.shard.get(key, 1);
+                if (value != null) {
+                    next = new Record(key, value);
+                }
+            } catch (IOException | HaloDBException e) {
+                if (head.shard.isClosing()) {
+                    throw new RuntimeException("DB is closing");
+                }
+                throw new RuntimeException("Error while scanning range", e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Record next() {
+        if (hasNext()) {
+            Record record = next;
+            next = null;
+            return record;
+        }
+        throw new NoSuchElementException();
+    }
+
+    private static class ShardKeys {
+        private final HaloDBInternal shard;
+        private final Iterator<byte[]> keys;
+        private byte[] key;
+
+        ShardKeys(HaloDBInternal shard, Iterator<byte[]> keys) {
+            this.shard = shard;
+            this.keys = keys;
+        }
+
+        boolean advance() {
+            key = keys.hasNext() ? keys.next() : null;
+            return key != null;
+        }
+    }
+}
@@ -79,6 +79,13 @@ public class Record {
         header.version = version;
     }
 
+    /**
+     * @return expiry time in seconds since epoch, or 0 if the record doesn't expire.
+     */
+    int getExpiryTime() {
+        return Header.hasExpiryTime(getVersion()) ? getExpiryTime(value) : 0;
+    }
+
     Header getHeader() {
         return header;
     }
@@ -126,6 +133,43 @@ public class Record {
         return Arrays.equals(getKey(), record.getKey()) && Arrays.equals(getValue(), record.getValue());
     }
 
+    /**
+     * Value of a record with an expiry time is prefixed with the expiry time, an
+     * unsigned int in seconds since epoch. This is the outermost layer of the value,
+     * the rest of it might be compressed or a blob pointer.
+     */
+    static final int EXPIRY_TIME_SIZE = 4;
+
+    static byte[] addExpiryTime(byte[] value, int expiryTime) {
+        byte[] withExpiryTime = new byte[EXPIRY_TIME_SIZE + value.length];
+        ByteBuffer.wrap(withExpiryTime).putInt(expiryTime);
+        System.arraycopy(value, 0, withExpiryTime, EXPIRY_TIME_SIZE, value.length);
+        return withExpiryTime;
+    }
+
+    static int getExpiryTime(byte[] value) {
+        return ByteBuffer.wrap(value).getInt(0);
+    }
+
+    static byte[] removeExpiryTime(byte[] value) {
+        return Arrays.copyOfRange(value, EXPIRY_TIME_SIZE, value.length);
+    }
+
+    static int toExpiryTime(long ttlInSeconds) {
+        if (ttlInSeconds <= 0) {
+            throw new IllegalArgumentException("ttlInSeconds should be > 0");
+        }
+        long expiryTime = System.currentTimeMillis() / 1000 + ttlInSeconds;
+        if (expiryTime > 0xffffffffL) {
+            throw new IllegalArgumentException("ttlInSeconds " + ttlInSeconds + " is too large");
+        }
+        return Utils.toSignedIntFromLong(expiryTime);
+    }
+
+    static boolean isExpired(int expiryTime) {
+        return expiryTime != 0 && Utils.toUnsignedIntFromInt(expiryTime) <= System.currentTimeMillis() / 1000;
+    }
+
     static class Header {
         /**
          * crc              - 4 bytes.
@@ -133,6 +177,10 @@ public class Record {
          * key size         - 1 bytes.
          * value size       - 4 bytes.
          * sequence number  - 8 bytes.
+         *
+         * The upper four bits of the version byte are reserved for per-record flags,
+         * such as whether the value is compressed. Records written by earlier versions
+         * never set them.
          */
         static final int CHECKSUM_OFFSET = 0;
         static final int VERSION_OFFSET = 4;
@@ -143,6 +191,12 @@ public class Record {
         static final int HEADER_SIZE = 18;
         static final int CHECKSUM_SIZE = 4;
 
+        static final int FLAGS_MASK = 0xF0;
+        static final int COMPRESSED_FLAG = 0x80;
+        static final int DICTIONARY_COMPRESSED_FLAG = 0x40;
+        static final int BLOB_FLAG = 0x20;
+        static final int TTL_FLAG = 0x10;
+
         private long checkSum;
         private int version;
         private byte keySize;
@@ -212,5 +266,27 @@ public class Record {
         int getVersion() {
             return version;
         }
+
+        boolean isCompressed() {
+            return isCompressed(version);
+        }
+
+        static boolean isCompressed(int version) {
+            return (version & COMPRESSED_FLAG) != 0;
+        }
+
+        static boolean isDictionaryCompressed(int version) {
+            return (version & DICTIONARY_COMPRESSED_FLAG) != 0;
+        }
+
+        // value of the record is a pointer to the actual value stored in a blob file.
+        static boolean isBlob(int version) {
+            return (version & BLOB_FLAG) != 0;
+        }
+
+        // value of the record is prefixed with its expiry time.
+        static boolean hasExpiryTime(int version) {
+            return (version & TTL_FLAG) != 0;
+        }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps the attribute extracted from the values to the keys of the records, for one secondary index
+ * of a db. Each pair is stored as a single entry, the length of the attribute followed by the
+ * attribute and the key, in a sorted set so that the keys of an attribute are a range of it.
+ *
+ * Entries are updated by the writers of a key, which read the previous value to remove its entry
+ * if it had one. Records with a ttl and cache mode are not supported, as records dropped by the
+ * background threads would leave their entries behind. Lookups still check the attribute of the
+ * current value, as the entry of a new version is added after the index points to it.
+ *
+ * The entries are on the java heap, hence their size is tracked so that it can be capped
+ * with maxSecondaryIndexSize.
+ */
+class SecondaryIndex {
+
+    // heap taken by an entry besides its contents, i.e. the nodes of the skip list and the array header.
+    private static final int ENTRY_OVERHEAD = 60;
+
+    private final String name;
+    private final AttributeExtractor extractor;
+    private final NavigableSet<byte[]> entries = new ConcurrentSkipListSet<>(OrderedKeyIndex.KEY_ORDER);
+    private final AtomicLong sizeOfEntries = new AtomicLong();
+
+    SecondaryIndex(String name, AttributeExtractor extractor) {
+        this.name = name;
+        this.extractor = extractor;
+    }
+
+    /**
+     * @return the attribute of the value, or null if it isn't indexed.
+     */
+    byte[] extract(byte[] value) {
+        return extractor.extract(value);
+    }
+
+    /**
+     * Called after the value of the key changed, with the attributes of the previous and the
+     * new value. Either is null if the value didn't exist or isn't indexed.
+     */
+    void update(byte[] key, byte[] oldAttribute, byte[] newAttribute) {
+        if (oldAttribute != null && newAttribute != null && Arrays.equals(oldAttribute, newAttribute)) {
+            return;
+        }
+        if (oldAttribute != null && entries.remove(entry(oldAttribute, key))) {
+            sizeOfEntries.addAndGet(-entrySize(oldAttribute, key));
+        }
+        if (newAttribute != null && entries.add(entry(newAttribute, key))) {
+            sizeOfEntries.addAndGet(entrySize(newAttribute, key));
+        }
+    }
+
+    /**
+     * @return keys which had the attribute when they were written, the caller checks the
+     * current values.
+     */
+    List<byte[]> keysOf(byte[] attribute) {
+        byte[] prefix = ByteBuffer.allocate(Integer.BYTES + attribute.length).putInt(attribute.length).put(attribute).array();
+        byte[] end = OrderedKeyIndex.prefixEnd(prefix);
+        NavigableSet<byte[]> range = end != null ? entries.subSet(prefix, true, end, false) : entries.tailSet(prefix, true);
+        List<byte[]> keys = new ArrayList<>();
+        for (byte[] entry : range) {
+            keys.add(Arrays.copyOfRange(entry, prefix.length, entry.length));
+        }
+        return keys;
+    }
+
+    boolean hasAttribute(byte[] value, byte[] attribute) {
+        return Arrays.equals(extractor.extract(value), attribute);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return approximate size in bytes of the java heap taken by the entries.
+     */
+    long getSizeOfEntries() {
+        return sizeOfEntries.get();
+    }
+
+    static long entrySize(byte[] attribute, byte[] key) {
+        return ENTRY_OVERHEAD + Integer.BYTES + attribute.length + key.length;
+    }
+
+    private static byte[] entry(byte[] attribute, byte[] key) {
+        return ByteBuffer.allocate(Integer.BYTES + attribute.length + key.length)
+                .putInt(attribute.length).put(attribute).put(key).array();
+    }
+}
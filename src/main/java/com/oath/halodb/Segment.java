@@ -74,8 +74,12 @@ abstract class Segment<V> {
 
     abstract boolean removeEntry(KeyBuffer key);
 
+    abstract boolean removeEntry(KeyBuffer key, V oldValue);
+
     abstract long size();
 
+    abstract void forEachEntry(byte[] keyBuffer, OffHeapHashTable.EntryConsumer<V> consumer);
+
     abstract void release();
 
     abstract void clear();
@@ -307,6 +307,24 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
 
     @Override
     boolean removeEntry(KeyBuffer key) {
+        return removeEntryInternal(key, 0L);
+    }
+
+    @Override
+    boolean removeEntry(KeyBuffer key, V oldValue) {
+        long oldValueAdr = Uns.allocate(fixedValueLength, throwOOME);
+        if (oldValueAdr == 0L) {
+            throw new RuntimeException("Unable to allocate " + fixedValueLength + " bytes in off-heap");
+        }
+        try {
+            valueSerializer.serialize(oldValue, Uns.directBufferFor(oldValueAdr, 0, fixedValueLength, false));
+            return removeEntryInternal(key, oldValueAdr);
+        } finally {
+            Uns.free(oldValueAdr);
+        }
+    }
+
+    private boolean removeEntryInternal(KeyBuffer key, long oldValueAdr) {
         long removeHashEntryAdr = 0L;
         boolean wasFirst = lock();
         try {
@@ -318,6 +336,11 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
                     continue;
                 }
 
+                // code for remove(key, old) operation
+                if (oldValueAdr != 0L && !Uns.memoryCompare(hashEntryAdr, NonMemoryPoolHashEntries.ENTRY_OFF_DATA + key.size(), oldValueAdr, 0L, fixedValueLength)) {
+                    return false;
+                }
+
                 // remove existing entry
 
                 removeHashEntryAdr = hashEntryAdr;
@@ -391,6 +414,25 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
         }
     }
 
+    @Override
+    void forEachEntry(byte[] keyBuffer, OffHeapHashTable.EntryConsumer<V> consumer) {
+        boolean wasFirst = lock();
+        try {
+            for (int i = 0; i < table.size(); i++) {
+                for (long hashEntryAdr = table.getFirst(i);
+                     hashEntryAdr != 0L;
+                     hashEntryAdr = NonMemoryPoolHashEntries.getNext(hashEntryAdr)) {
+                    int keyLength = NonMemoryPoolHashEntries.getKeyLen(hashEntryAdr);
+                    Uns.copyMemory(hashEntryAdr, NonMemoryPoolHashEntries.ENTRY_OFF_DATA, keyBuffer, 0, keyLength);
+                    V value = valueSerializer.deserialize(Uns.readOnlyBuffer(hashEntryAdr, fixedValueLength, NonMemoryPoolHashEntries.ENTRY_OFF_DATA + keyLength));
+                    consumer.accept(keyBuffer, keyLength, value);
+                }
+            }
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
     void getEntryAddresses(int mapSegmentIndex, int nSegments, LongArrayList hashEntryAdrs) {
         boolean wasFirst = lock();
         try {
@@ -179,8 +179,18 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
 
     @Override
     public boolean removeEntry(KeyBuffer key) {
+        return removeEntry(key, null);
+    }
+
+    @Override
+    public boolean removeEntry(KeyBuffer key, V oldValue) {
         boolean wasFirst = lock();
         try {
+            if (oldValue != null) {
+                oldValueBuffer.clear();
+                valueSerializer.serialize(oldValue, oldValueBuffer);
+            }
+
             MemoryPoolAddress previous = null;
             for (MemoryPoolAddress address = table.getFirst(key.hash());
                  address.chunkIndex >= 0;
@@ -188,6 +198,10 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
 
                 MemoryPoolChunk chunk = chunks.get(address.chunkIndex);
                 if (chunk.compareKey(address.chunkOffset, key.buffer)) {
+                    // code for remove(key, old) operation
+                    if (oldValue != null && !chunk.compareValue(address.chunkOffset, oldValueBuffer.array())) {
+                        return false;
+                    }
                     removeInternal(address, previous, key.hash());
                     removeCount++;
                     size--;
@@ -393,6 +407,25 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
         }
     }
 
+    @Override
+    void forEachEntry(byte[] keyBuffer, OffHeapHashTable.EntryConsumer<V> consumer) {
+        boolean wasFirst = lock();
+        try {
+            for (int i = 0; i < table.size(); i++) {
+                for (MemoryPoolAddress address = table.getFirst(i);
+                     address.chunkIndex >= 0;
+                     address = getNext(address)) {
+                    MemoryPoolChunk chunk = chunks.get(address.chunkIndex);
+                    int keyLength = chunk.copyKey(address.chunkOffset, keyBuffer);
+                    V value = valueSerializer.deserialize(chunk.readOnlyValueByteBuffer(address.chunkOffset));
+                    consumer.accept(keyBuffer, keyLength, value);
+                }
+            }
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
     @VisibleForTesting
     MemoryPoolAddress getFreeListHead() {
         return freeListHead;
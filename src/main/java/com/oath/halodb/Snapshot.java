@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot of a single HaloDBInternal instance, see {@link HaloDBSnapshot}.
+ *
+ * Records with a sequence number up to the one of the snapshot are visible. The version of a key
+ * in the snapshot is the one the in-memory index points to, unless the key was updated, deleted
+ * or moved by compaction since, in which case the version was preserved before the index changed.
+ * Data files of the snapshot aren't compacted while it is open, hence compaction only moves the
+ * records of the file it was compacting when the snapshot was taken.
+ */
+class Snapshot {
+
+    private final HaloDBInternal dbInternal;
+    private final SnapshotManager snapshotManager;
+    private final long sequenceNumber;
+    // data files when the snapshot was taken, sorted by id.
+    private final List<Integer> fileIds;
+    private final Map<ByteBuffer, InMemoryIndexMetaData> preserved = new ConcurrentHashMap<>();
+
+    Snapshot(HaloDBInternal dbInternal, SnapshotManager snapshotManager, long sequenceNumber, List<Integer> fileIds) {
+        this.dbInternal = dbInternal;
+        this.snapshotManager = snapshotManager;
+        this.sequenceNumber = sequenceNumber;
+        this.fileIds = fileIds;
+    }
+
+    void preserve(byte[] key, InMemoryIndexMetaData previous) {
+        if (previous.getSequenceNumber() <= sequenceNumber) {
+            // only the first change, later ones are of versions not visible in the snapshot.
+            preserved.putIfAbsent(ByteBuffer.wrap(key), previous);
+        }
+    }
+
+    /**
+     * @return the version of the key in the snapshot, or null if it didn't exist or has expired since.
+     */
+    InMemoryIndexMetaData getMetaData(byte[] key) {
+        // the index is read first, a version replaced in between is preserved by then.
+        InMemoryIndexMetaData current = dbInternal.getInMemoryIndex().get(key);
+        InMemoryIndexMetaData metaData = preserved.get(ByteBuffer.wrap(key));
+        if (metaData == null && current != null && current.getSequenceNumber() <= sequenceNumber) {
+            metaData = current;
+        }
+        return metaData == null || metaData.isExpired() ? null : metaData;
+    }
+
+    byte[] get(byte[] key) throws IOException {
+        InMemoryIndexMetaData metaData = getMetaData(key);
+        return metaData != null ? readValue(metaData) : null;
+    }
+
+    byte[] readValue(InMemoryIndexMetaData metaData) throws IOException {
+        HaloDBFile file = snapshotManager.getDataFile(metaData.getFileId());
+        if (file == null) {
+            throw new IOException("Data file " + metaData.getFileId() + " of the snapshot was deleted");
+        }
+        byte[] value = file.readValue(metaData);
+        if (!metaData.isBlob()) {
+            return value;
+        }
+        BlobPointer pointer = BlobPointer.deserialize(value);
+        BlobFile blobFile = snapshotManager.getBlobFile(pointer.getFileId());
+        if (blobFile == null) {
+            throw new IOException("Blob file " + pointer.getFileId() + " of the snapshot was deleted");
+        }
+        return BlobManager.readValue(blobFile, pointer);
+    }
+
+    HaloDBFile getDataFile(int fileId) {
+        return snapshotManager.getDataFile(fileId);
+    }
+
+    List<Integer> getFileIds() {
+        return fileIds;
+    }
+
+    long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    HaloDBInternal getDbInternal() {
+        return dbInternal;
+    }
+
+    void release() throws IOException {
+        snapshotManager.release(this);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the records of a snapshot by reading the index files of the data files which
+ * existed when it was taken. A record is returned from the file its version in the snapshot
+ * points to, hence only once even if it was copied to another file by compaction since.
+ */
+class SnapshotIterator implements Iterator<Record> {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotIterator.class);
+
+    // shards are iterated one after the other.
+    private final Iterator<Snapshot> snapshots;
+    private Snapshot snapshot;
+    private Iterator<Integer> outer;
+    private IndexFile.IndexFileIterator inner;
+    private HaloDBFile currentFile;
+    private Record next;
+
+    SnapshotIterator(List<Snapshot> snapshots) {
+        this.snapshots = snapshots.iterator();
+        this.snapshot = this.snapshots.next();
+        this.outer = snapshot.getFileIds().iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        try {
+            if (inner == null && !moveToNextFile()) {
+                return false;
+            }
+            do {
+                if (readNextRecord()) {
+                    return true;
+                }
+            } while (moveToNextFile());
+            return false;
+        } catch (ClosedChannelException e) {
+            if (snapshot.getDbInternal().isClosing()) {
+                throw new RuntimeException("DB is closing");
+            }
+            throw new RuntimeException("Error while iterating snapshot", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Error while iterating snapshot", e);
+        }
+    }
+
+    @Override
+    public Record next() {
+        if (hasNext()) {
+            Record record = next;
+            next = null;
+            return record;
+        }
+        throw new NoSuchElementException();
+    }
+
+    private boolean moveToNextFile() throws IOException {
+        while (true) {
+            while (!outer.hasNext()) {
+                if (!snapshots.hasNext()) {
+                    return false;
+                }
+                snapshot = snapshots.next();
+                outer = snapshot.getFileIds().iterator();
+            }
+            int fileId = outer.next();
+            currentFile = snapshot.getDataFile(fileId);
+            if (currentFile != null) {
+                inner = currentFile.getIndexFile().newIterator();
+                return true;
+            }
+            // deleted by compaction while the snapshot was taken, its records were moved before.
+            logger.debug("Data file {} deleted before the snapshot was taken. Skipping to next one", fileId);
+        }
+    }
+
+    private boolean readNextRecord() throws IOException {
+        while (inner.hasNext()) {
+            IndexFileEntry entry;
+            try {
+                entry = inner.next();
+            } catch (BufferUnderflowException e) {
+                // entry being written to a file which is still open, written after the snapshot.
+                return false;
+            }
+            InMemoryIndexMetaData meta = Utils.getMetaData(entry, currentFile.getFileId());
+            InMemoryIndexMetaData version = snapshot.getMetaData(entry.getKey());
+            if (version != null && version.getFileId() == meta.getFileId()
+                    && version.getValueOffset() == meta.getValueOffset()) {
+                next = new Record(entry.getKey(), snapshot.readValue(version));
+                next.setRecordMetaData(version);
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps track of the open snapshots of a db, see {@link Snapshot}.
+ *
+ * Before the index entry of a key is changed the version it pointed to is preserved in the
+ * snapshots which can see it. Data and blob files deleted by compaction or the blob garbage
+ * collector while snapshots are open are pinned, and deleted once the last one is released.
+ *
+ * Data files of open snapshots are not compacted, as each record moved out of them would have
+ * to be preserved in memory. They are submitted for compaction again once the last snapshot
+ * is released.
+ */
+class SnapshotManager {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotManager.class);
+
+    private final HaloDBInternal dbInternal;
+    private final List<Snapshot> snapshots = new CopyOnWriteArrayList<>();
+    private final Map<Integer, HaloDBFile> pinnedDataFiles = new ConcurrentHashMap<>();
+    private final Map<Integer, BlobFile> pinnedBlobFiles = new ConcurrentHashMap<>();
+    private final Set<Integer> deferredFileIds = new HashSet<>();
+
+    // write threads hold the write lock of the db, or a write lane, while changing the index and
+    // are excluded while a snapshot is opened. The compaction thread holds the read lock instead,
+    // see HaloDBInternal.replaceInIndex.
+    private final ReadWriteLock compactionLock = new ReentrantReadWriteLock();
+
+    SnapshotManager(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+    }
+
+    /**
+     * Called while writes are blocked, records with a sequence number up to the given one
+     * are visible in the snapshot. The data files are listed while no record is being moved
+     * by compaction, hence the files the index points to are in the list.
+     */
+    Snapshot open(long sequenceNumber) {
+        compactionLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                List<Integer> fileIds = new ArrayList<>(dbInternal.listDataFileIds());
+                Collections.sort(fileIds);
+                Snapshot snapshot = new Snapshot(dbInternal, this, sequenceNumber, fileIds);
+                snapshots.add(snapshot);
+                return snapshot;
+            }
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    synchronized void release(Snapshot snapshot) throws IOException {
+        if (snapshots.remove(snapshot) && snapshots.isEmpty()) {
+            deletePinnedFiles();
+            for (int fileId : deferredFileIds) {
+                dbInternal.submitFileForCompaction(fileId);
+            }
+            deferredFileIds.clear();
+        }
+    }
+
+    /**
+     * Called by the compaction thread before it compacts the file.
+     * @return true if the file is in an open snapshot, in which case it must not be compacted yet.
+     */
+    synchronized boolean deferCompaction(int fileId) {
+        for (Snapshot snapshot : snapshots) {
+            if (Collections.binarySearch(snapshot.getFileIds(), fileId) >= 0) {
+                deferredFileIds.add(fileId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called before the index entry of the key, which pointed to previous, is changed.
+     */
+    void preserve(byte[] key, InMemoryIndexMetaData previous) {
+        if (previous == null || snapshots.isEmpty()) {
+            return;
+        }
+        for (Snapshot snapshot : snapshots) {
+            snapshot.preserve(key, previous);
+        }
+    }
+
+    Lock getCompactionLock() {
+        return compactionLock.readLock();
+    }
+
+    /**
+     * @return true if the file was pinned, in which case it must not be deleted by the caller.
+     */
+    synchronized boolean pinDataFile(HaloDBFile file) {
+        if (snapshots.isEmpty()) {
+            return false;
+        }
+        pinnedDataFiles.put(file.getFileId(), file);
+        return true;
+    }
+
+    synchronized boolean pinBlobFile(BlobFile file) {
+        if (snapshots.isEmpty()) {
+            return false;
+        }
+        pinnedBlobFiles.put(file.getFileId(), file);
+        return true;
+    }
+
+    HaloDBFile getDataFile(int fileId) {
+        HaloDBFile file = dbInternal.getHaloDBFile(fileId);
+        return file != null ? file : pinnedDataFiles.get(fileId);
+    }
+
+    BlobFile getBlobFile(int fileId) {
+        BlobFile file = dbInternal.getBlobManager().getBlobFile(fileId);
+        return file != null ? file : pinnedBlobFiles.get(fileId);
+    }
+
+    List<HaloDBFile> getPinnedDataFiles() {
+        return new ArrayList<>(pinnedDataFiles.values());
+    }
+
+    int getNumberOfOpenSnapshots() {
+        return snapshots.size();
+    }
+
+    /**
+     * Releases all the snapshots, called when the db is closed.
+     */
+    synchronized void close() throws IOException {
+        snapshots.clear();
+        deferredFileIds.clear();
+        deletePinnedFiles();
+    }
+
+    private void deletePinnedFiles() throws IOException {
+        for (HaloDBFile file : pinnedDataFiles.values()) {
+            logger.debug("Deleting data file {} which was pinned by a snapshot", file.getFileId());
+            long size = file.getSize();
+            file.delete();
+            dbInternal.getTombstoneCompactor().dataFileDeleted(size);
+        }
+        pinnedDataFiles.clear();
+        for (BlobFile file : pinnedBlobFiles.values()) {
+            logger.debug("Deleting blob file {} which was pinned by a snapshot", file.getFileId());
+            file.delete();
+        }
+        pinnedBlobFiles.clear();
+        dbInternal.getDbDirectory().syncMetaData();
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deletes, or rewrites, tombstone files at runtime once the records they shadow
+ * are no longer on disk, so that tombstone files don't pile up between restarts
+ * of a database with a lot of deletes.
+ *
+ * A tombstone is needed only as long as a stale record with the same key is in
+ * one of the data files. Fresh records are never shadowed by a tombstone which has
+ * already been written, since the delete would have removed them from the index.
+ * Each pass therefore scans the index files of all data files, including compacted
+ * ones kept for open snapshots, and adds the keys of stale records to a bloom
+ * filter, which takes about 5% of the size of the index files for the duration of
+ * the pass. Tombstone files none of whose keys are in the filter are deleted, and
+ * those in which at least half of the keys are not in the filter are rewritten
+ * without them. The tombstone file currently written to is skipped.
+ *
+ * Keeping a count per tombstone file of the stale records it shadows would need a map
+ * from the key of each tombstone to its file, on top of the in-memory index. Instead,
+ * since a pass reads all index files, passes are spaced so that their cost is bounded by
+ * the deletes which made them worthwhile: a pass runs once the size of tombstone files
+ * sealed since the previous pass adds up to a tenth of the size of the index files, or
+ * once the size of data files deleted by compaction, or evicted, adds up to a tenth of
+ * the size of the data files, and once when the db is opened.
+ */
+class TombstoneCompactor {
+    private static final Logger logger = LoggerFactory.getLogger(TombstoneCompactor.class);
+    private static final int STOP_SIGNAL = -10101;
+    private static final int DATA_FILE_DELETED = 0;
+    private static final int TOMBSTONE_FILE_SEALED = 1;
+    private static final int DB_OPENED = 2;
+
+    private static final double DELETED_DATA_THRESHOLD = 0.1;
+    private static final double SEALED_TOMBSTONES_THRESHOLD = 0.1;
+    private static final double REWRITE_THRESHOLD = 0.5;
+    private static final double BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final HaloDBInternal dbInternal;
+    private final BlockingQueue<Integer> signalQueue = new LinkedBlockingQueue<>();
+    private final RateLimiter rateLimiter;
+    private final AtomicLong sizeOfDataFilesDeleted = new AtomicLong();
+    private final AtomicLong sizeOfTombstoneFilesSealed = new AtomicLong();
+    // held while tombstone files are deleted or rewritten.
+    private final Lock filesLock = new ReentrantLock();
+    private volatile CompactorThread compactorThread;
+    private volatile boolean isStopped = false;
+
+    private volatile long numberOfTombstoneFilesDeleted = 0;
+    private volatile long numberOfTombstoneFilesRewritten = 0;
+    private volatile long numberOfTombstonesDropped = 0;
+
+    TombstoneCompactor(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+        this.rateLimiter = RateLimiter.create(dbInternal.options.getCompactionJobRate());
+    }
+
+    void start() {
+        if (compactorThread == null || !compactorThread.isAlive()) {
+            compactorThread = new CompactorThread();
+            compactorThread.start();
+            // tombstone files left behind by the previous run.
+            signalQueue.offer(DB_OPENED);
+        }
+    }
+
+    void stop() {
+        isStopped = true;
+        if (compactorThread != null && compactorThread.isAlive()) {
+            try {
+                signalQueue.put(STOP_SIGNAL);
+                compactorThread.join();
+            } catch (InterruptedException e) {
+                logger.error("Error while waiting for tombstone compactor to stop", e);
+            }
+        }
+    }
+
+    void tombstoneFileSealed(long size) {
+        sizeOfTombstoneFilesSealed.addAndGet(size);
+        signalQueue.offer(TOMBSTONE_FILE_SEALED);
+    }
+
+    void dataFileDeleted(long size) {
+        sizeOfDataFilesDeleted.addAndGet(size);
+        signalQueue.offer(DATA_FILE_DELETED);
+    }
+
+    @VisibleForTesting
+    synchronized void compactTombstoneFiles() throws IOException, InterruptedException {
+        if (dbInternal.isTombstoneFilesMerging()) {
+            logger.debug("Tombstone files are being merged, skipping.");
+            return;
+        }
+        sizeOfDataFilesDeleted.set(0);
+        sizeOfTombstoneFilesSealed.set(0);
+        CompactionManager compactionManager = dbInternal.getCompactionManager();
+        long deletedRecordsCopied = compactionManager.getNumberOfDeletedRecordsCopied();
+
+        List<TombstoneFile> tombstoneFiles = listSealedTombstoneFiles();
+        if (tombstoneFiles.isEmpty()) {
+            return;
+        }
+
+        BloomFilter<byte[]> staleKeys = readKeysOfStaleRecords();
+        if (staleKeys == null) {
+            return;
+        }
+
+        // a record deleted while compaction was copying it could have been written to a file
+        // after it was scanned, or to a file created after the scan started.
+        compactionManager.waitForRecordBeingCopied();
+        if (compactionManager.getNumberOfDeletedRecordsCopied() != deletedRecordsCopied) {
+            logger.debug("Compaction copied records which were deleted in the meantime, skipping.");
+            return;
+        }
+
+        filesLock.lock();
+        try {
+            for (TombstoneFile file : tombstoneFiles) {
+                if (isStopped) {
+                    return;
+                }
+                compact(file, staleKeys);
+            }
+        } finally {
+            filesLock.unlock();
+        }
+    }
+
+    /**
+     * Keeps tombstone files from being deleted or rewritten until unlockFiles() is called.
+     */
+    void lockFiles() {
+        filesLock.lock();
+    }
+
+    void unlockFiles() {
+        filesLock.unlock();
+    }
+
+    // tombstone files created from now on will have a larger id than the one written to.
+    private List<TombstoneFile> listSealedTombstoneFiles() {
+        int currentFileId = dbInternal.getCurrentTombstoneFileId();
+        List<TombstoneFile> result = new ArrayList<>();
+        for (File file : dbInternal.getDbDirectory().listTombstoneFiles()) {
+            TombstoneFile tombstoneFile = new TombstoneFile(file, dbInternal.options, dbInternal.getDbDirectory());
+            if (tombstoneFile.getFileId() < currentFileId) {
+                result.add(tombstoneFile);
+            }
+        }
+        return result;
+    }
+
+    // returns null if the compactor was stopped.
+    private BloomFilter<byte[]> readKeysOfStaleRecords() throws IOException {
+        List<HaloDBFile> dataFiles = new ArrayList<>(dbInternal.listEvictedDataFiles());
+        dataFiles.addAll(dbInternal.listPinnedDataFiles());
+        for (int fileId : dbInternal.listDataFileIds()) {
+            HaloDBFile file = dbInternal.getHaloDBFile(fileId);
+            if (file != null) {
+                dataFiles.add(file);
+            }
+        }
+
+        List<HaloDBFile> files = new ArrayList<>();
+        List<IndexFile.IndexFileIterator> iterators = new ArrayList<>();
+        long sizeOfIndexFiles = 0, sizeOfSampledKeys = 0, numberOfSampledKeys = 0;
+        for (HaloDBFile file : dataFiles) {
+            IndexFile.IndexFileIterator iterator;
+            try {
+                iterator = file.getIndexFile().newIterator();
+            } catch (ClosedChannelException e) {
+                // data file was deleted along with the records in it.
+                logger.debug("Index file {} closed, probably by compaction thread. Skipping to next one", file.getFileId());
+                continue;
+            }
+            files.add(file);
+            iterators.add(iterator);
+            sizeOfIndexFiles += file.getIndexFile().getSize();
+            // the first key of each file is a sample of the size of the keys.
+            if (iterator.hasNext()) {
+                try {
+                    sizeOfSampledKeys += iterator.getEntryAt(0).getKey().length;
+                    numberOfSampledKeys++;
+                } catch (BufferUnderflowException e) {
+                    // first entry of a file which was just created isn't completely written yet.
+                }
+            }
+        }
+
+        // only stale records are added, but the number of entries is only an estimate, hence
+        // the live records aren't subtracted from it, which could leave the filter too small.
+        long averageEntrySize = IndexFileEntry.INDEX_FILE_HEADER_SIZE + sizeOfSampledKeys / Math.max(1, numberOfSampledKeys);
+        long expectedInsertions = Math.max(1, sizeOfIndexFiles / averageEntrySize);
+        BloomFilter<byte[]> staleKeys =
+                BloomFilter.create(Funnels.byteArrayFunnel(), (int) Math.min(expectedInsertions, Integer.MAX_VALUE),
+                        BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY);
+
+        for (int i = 0; i < files.size(); i++) {
+            HaloDBFile file = files.get(i);
+            IndexFile.IndexFileIterator iterator = iterators.get(i);
+            while (iterator.hasNext()) {
+                if (isStopped) {
+                    return null;
+                }
+                IndexFileEntry entry;
+                try {
+                    entry = iterator.next();
+                } catch (BufferUnderflowException e) {
+                    // entry being written to a file which is still open, records written from
+                    // now on are newer than the tombstones in sealed files.
+                    break;
+                }
+                rateLimiter.acquire(entry.getKey().length + IndexFileEntry.INDEX_FILE_HEADER_SIZE);
+                if (!dbInternal.isRecordFresh(entry.getKey(), Utils.getMetaData(entry, file.getFileId()))) {
+                    staleKeys.put(entry.getKey());
+                }
+            }
+        }
+        return staleKeys;
+    }
+
+    private void compact(TombstoneFile file, BloomFilter<byte[]> staleKeys) throws IOException {
+        file.open();
+        long count = 0, active = 0;
+        long maxDroppedSequenceNumber = 0;
+        TombstoneFile.TombstoneFileIterator iterator = file.newIterator();
+        while (iterator.hasNext()) {
+            TombstoneEntry entry = iterator.next();
+            rateLimiter.acquire(entry.size());
+            count++;
+            if (staleKeys.mightContain(entry.getKey())) {
+                active++;
+            } else {
+                maxDroppedSequenceNumber = Math.max(maxDroppedSequenceNumber, entry.getSequenceNumber());
+            }
+        }
+
+        if (active == 0) {
+            logger.debug("None of the {} tombstones in {} are needed anymore, deleting it", count, file.getName());
+            dbInternal.changesDropped(maxDroppedSequenceNumber);
+            file.delete();
+            numberOfTombstoneFilesDeleted++;
+            numberOfTombstonesDropped += count;
+        } else if (active < count * REWRITE_THRESHOLD) {
+            logger.debug("{} out of {} tombstones in {} are needed, rewriting it", active, count, file.getName());
+            dbInternal.changesDropped(maxDroppedSequenceNumber);
+            long kept = file.rewrite(entry -> staleKeys.mightContain(entry.getKey()));
+            numberOfTombstoneFilesRewritten++;
+            numberOfTombstonesDropped += count - kept;
+        } else {
+            file.close();
+        }
+    }
+
+    private boolean isPassDue(int signal) {
+        if (signal == DB_OPENED) {
+            return true;
+        }
+        long sizeOfDataFiles = 0, sizeOfIndexFiles = 0;
+        for (int fileId : dbInternal.listDataFileIds()) {
+            HaloDBFile file = dbInternal.getHaloDBFile(fileId);
+            if (file != null) {
+                sizeOfDataFiles += file.getSize();
+                sizeOfIndexFiles += file.getIndexFile().getSize();
+            }
+        }
+        return sizeOfDataFilesDeleted.get() >= sizeOfDataFiles * DELETED_DATA_THRESHOLD
+                || sizeOfTombstoneFilesSealed.get() >= sizeOfIndexFiles * SEALED_TOMBSTONES_THRESHOLD;
+    }
+
+    long getNumberOfTombstoneFilesDeleted() {
+        return numberOfTombstoneFilesDeleted;
+    }
+
+    long getNumberOfTombstoneFilesRewritten() {
+        return numberOfTombstoneFilesRewritten;
+    }
+
+    long getNumberOfTombstonesDropped() {
+        return numberOfTombstonesDropped;
+    }
+
+    void resetStats() {
+        numberOfTombstoneFilesDeleted = numberOfTombstoneFilesRewritten = numberOfTombstonesDropped = 0;
+    }
+
+    private class CompactorThread extends Thread {
+
+        CompactorThread() {
+            super("TombstoneCompactorThread");
+        }
+
+        @Override
+        public void run() {
+            logger.info("Starting tombstone compactor ...");
+            while (!isStopped) {
+                try {
+                    int signal = signalQueue.take();
+                    if (signal == STOP_SIGNAL || !isPassDue(signal)) {
+                        continue;
+                    }
+                    // a single pass compacts all sealed files.
+                    signalQueue.clear();
+                    compactTombstoneFiles();
+                } catch (Exception e) {
+                    logger.error("Error in tombstone compactor", e);
+                }
+            }
+            logger.info("Tombstone compactor stopped.");
+        }
+    }
+}
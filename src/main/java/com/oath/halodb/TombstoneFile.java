@@ -15,8 +15,11 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
@@ -61,6 +64,11 @@ class TombstoneFile {
         channel = new RandomAccessFile(backingFile, "rw").getChannel();
     }
 
+    // unlike open() fails if the file was deleted in the meantime.
+    void openForReading() throws IOException {
+        channel = FileChannel.open(backingFile.toPath(), StandardOpenOption.READ);
+    }
+
     void close() throws IOException {
         if (channel != null) {
             channel.close();
@@ -136,22 +144,78 @@ class TombstoneFile {
         return this;
     }
 
+    /**
+     * Copies to a temp file those entries which are to be kept and then atomically
+     * renames the temp file to the current file. Used by the TombstoneCompactor to
+     * drop tombstones which no longer shadow any record.
+     * @return number of entries kept.
+     */
+    long rewrite(Predicate<TombstoneEntry> keep) throws IOException {
+        TombstoneFile rewriteFile = createTempFile(".rewrite");
+        TombstoneFileIterator iterator = newIterator();
+        long count = 0;
+        while (iterator.hasNext()) {
+            TombstoneEntry entry = iterator.next();
+            if (keep.test(entry)) {
+                rewriteFile.write(entry);
+                count++;
+            }
+        }
+        logger.debug("Kept {} tombstones in file {}. Size before rewrite {}, after rewrite {}.", count, getName(), getSize(), rewriteFile.getSize());
+        rewriteFile.flushToDisk();
+        Files.move(rewriteFile.getPath(), getPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        dbDirectory.syncMetaData();
+        rewriteFile.close();
+        close();
+        return count;
+    }
+
     private TombstoneFile createRepairFile() throws IOException {
-        File repairFile = dbDirectory.getPath().resolve(getName() + ".repair").toFile();
-        while (!repairFile.createNewFile()) {
-            logger.info("Repair file {} already exists, probably from a previous repair which failed. Deleting a trying again", repairFile.getName());
-            repairFile.delete();
+        return createTempFile(".repair");
+    }
+
+    private TombstoneFile createTempFile(String suffix) throws IOException {
+        File tempFile = dbDirectory.getPath().resolve(getName() + suffix).toFile();
+        while (!tempFile.createNewFile()) {
+            logger.info("File {} already exists, probably from a previous attempt which failed. Deleting a trying again", tempFile.getName());
+            tempFile.delete();
         }
 
-        TombstoneFile tombstoneFile = new TombstoneFile(repairFile, options, dbDirectory);
+        TombstoneFile tombstoneFile = new TombstoneFile(tempFile, options, dbDirectory);
         tombstoneFile.open();
         return tombstoneFile;
     }
 
+    /**
+     * Passes the entries written after the offset to the consumer, and returns the offset
+     * up to which they were read. Stops at an entry which wasn't completely written yet.
+     */
+    long readCompleteEntries(long offset, Consumer<TombstoneEntry> consumer) throws IOException {
+        long size = channel.size();
+        if (size <= offset) {
+            return offset;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset);
+        while (buffer.hasRemaining()) {
+            int position = buffer.position();
+            TombstoneEntry entry = TombstoneEntry.deserializeIfNotCorrupted(buffer);
+            if (entry == null) {
+                buffer.position(position);
+                break;
+            }
+            consumer.accept(entry);
+        }
+        return offset + buffer.position();
+    }
+
     String getName() {
         return backingFile.getName();
     }
 
+    int getFileId() {
+        return FileUtils.getFileId(backingFile, Constants.TOMBSTONE_FILE_PATTERN);
+    }
+
     private Path getPath() {
         return backingFile.toPath();
     }
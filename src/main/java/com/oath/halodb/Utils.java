@@ -24,7 +24,7 @@ class Utils {
     }
 
     static InMemoryIndexMetaData getMetaData(IndexFileEntry entry, int fileId) {
-        return new InMemoryIndexMetaData(fileId, Utils.getValueOffset(entry.getRecordOffset(), entry.getKey()), Utils.getValueSize(entry.getRecordSize(), entry.getKey()), entry.getSequenceNumber());
+        return new InMemoryIndexMetaData(fileId, Utils.getValueOffset(entry.getRecordOffset(), entry.getKey()), Utils.getValueSize(entry.getRecordSize(), entry.getKey()), entry.getSequenceNumber(), entry.getVersion(), entry.getExpiryTime());
     }
 
     static long toUnsignedIntFromInt(int value) {
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses values with LZ4 before they are written to a data file.
+ *
+ * A compressed value is stored as the size of the uncompressed value (4 bytes)
+ * followed by the LZ4 compressed bytes. lz4 is an optional dependency, therefore
+ * {@link #isAvailable()} must be checked before compressing or decompressing values.
+ */
+class ValueCompressor {
+
+    static final int UNCOMPRESSED_SIZE_LENGTH = 4;
+
+    static boolean isAvailable() {
+        try {
+            Class.forName("net.jpountz.lz4.LZ4Factory");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the compressed value or null if compression doesn't make the value smaller.
+     */
+    static byte[] compress(byte[] value) {
+        int maxLength = LZ4.compressor.maxCompressedLength(value.length);
+        byte[] buffer = new byte[UNCOMPRESSED_SIZE_LENGTH + maxLength];
+        int compressedLength = LZ4.compressor.compress(value, 0, value.length, buffer, UNCOMPRESSED_SIZE_LENGTH, maxLength);
+        if (UNCOMPRESSED_SIZE_LENGTH + compressedLength >= value.length) {
+            return null;
+        }
+
+        ByteBuffer.wrap(buffer).putInt(0, value.length);
+        byte[] compressed = new byte[UNCOMPRESSED_SIZE_LENGTH + compressedLength];
+        System.arraycopy(buffer, 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    static byte[] decompress(byte[] compressed) {
+        int uncompressedSize = ByteBuffer.wrap(compressed).getInt(0);
+        byte[] value = new byte[uncompressedSize];
+        LZ4.decompressor.decompress(compressed, UNCOMPRESSED_SIZE_LENGTH, value, 0, uncompressedSize);
+        return value;
+    }
+
+    // lz4 classes are loaded only when a value is first compressed or decompressed.
+    private static class LZ4 {
+        private static final LZ4Factory factory = LZ4Factory.fastestInstance();
+        private static final LZ4Compressor compressor = factory.fastCompressor();
+        private static final LZ4FastDecompressor decompressor = factory.fastDecompressor();
+    }
+}
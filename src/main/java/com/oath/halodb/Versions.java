@@ -11,4 +11,5 @@ class Versions {
     static final int CURRENT_INDEX_FILE_VERSION = 0;
     static final int CURRENT_TOMBSTONE_FILE_VERSION = 0;
     static final int CURRENT_META_FILE_VERSION = 0;
+    static final int CURRENT_DICTIONARY_FILE_VERSION = 0;
 }
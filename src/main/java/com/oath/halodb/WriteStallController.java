@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Slows down put operations when the compaction job falls behind, so that disk usage
+ * grows at a predictable rate instead of until the disk is full. The backlog is the size
+ * of files waiting to be compacted plus the size of stale data in files which crossed the
+ * compaction threshold but were not queued yet, stale data in other files is not work the
+ * compaction job will do. Writes are not slowed down while compaction is paused, since the
+ * backlog wouldn't drop until it is resumed.
+ *
+ * Past compactionBacklogSoftLimit each put is delayed, by up to MAX_DELAY_IN_MICROS as
+ * the backlog approaches compactionBacklogHardLimit. At the hard limit puts block until
+ * the backlog drops below it, or fail once writeStallTimeoutInMillis has passed.
+ */
+class WriteStallController {
+    private static final Logger logger = LoggerFactory.getLogger(WriteStallController.class);
+
+    private static final long MAX_DELAY_IN_MICROS = 1000;
+    // computing the backlog takes a pass over all files, hence it is cached for this long.
+    private static final long REFRESH_INTERVAL_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final HaloDBInternal dbInternal;
+    private final long softLimit;
+    private final long hardLimit;
+    private final long timeoutInMillis;
+
+    private volatile long backlog = 0;
+    private volatile long lastRefreshTime = System.nanoTime() - REFRESH_INTERVAL_IN_NANOS;
+
+    private volatile long numberOfWritesDelayed = 0;
+    private volatile long totalWriteDelayInMicros = 0;
+    private volatile long numberOfWritesStalled = 0;
+    private volatile long totalWriteStallTimeInMillis = 0;
+
+    WriteStallController(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+        this.softLimit = dbInternal.options.getCompactionBacklogSoftLimit();
+        this.hardLimit = dbInternal.options.getCompactionBacklogHardLimit();
+        this.timeoutInMillis = dbInternal.options.getWriteStallTimeoutInMillis();
+    }
+
+    /**
+     * Called before a put acquires the write lock.
+     */
+    void throttle() throws HaloDBException {
+        long current = getBacklog();
+        if (hardLimit != -1 && current >= hardLimit) {
+            stall();
+        } else if (softLimit != -1 && current >= softLimit) {
+            delay(current);
+        }
+    }
+
+    private void delay(long current) {
+        long range = hardLimit != -1 ? hardLimit - softLimit : softLimit;
+        long delayInMicros = Math.min(MAX_DELAY_IN_MICROS, MAX_DELAY_IN_MICROS * (current - softLimit) / range);
+        if (delayInMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(delayInMicros));
+            synchronized (this) {
+                numberOfWritesDelayed++;
+                totalWriteDelayInMicros += delayInMicros;
+            }
+        }
+    }
+
+    private void stall() throws HaloDBException {
+        long start = System.currentTimeMillis();
+        synchronized (this) {
+            numberOfWritesStalled++;
+        }
+        try {
+            while (getBacklog() >= hardLimit) {
+                if (dbInternal.isClosing()) {
+                    throw new HaloDBException("db is being closed");
+                }
+                if (timeoutInMillis != -1 && System.currentTimeMillis() - start >= timeoutInMillis) {
+                    logger.warn("Write stalled for {} ms, compaction backlog {} is above the hard limit {}",
+                            timeoutInMillis, backlog, hardLimit);
+                    throw new HaloDBException("Compaction backlog " + backlog + " is above the hard limit " + hardLimit);
+                }
+                LockSupport.parkNanos(REFRESH_INTERVAL_IN_NANOS);
+            }
+        } finally {
+            synchronized (this) {
+                totalWriteStallTimeInMillis += System.currentTimeMillis() - start;
+            }
+        }
+    }
+
+    private long getBacklog() {
+        long now = System.nanoTime();
+        if (now - lastRefreshTime >= REFRESH_INTERVAL_IN_NANOS) {
+            lastRefreshTime = now;
+            CompactionManager compactionManager = dbInternal.getCompactionManager();
+            backlog = compactionManager.isCompactionRunning()
+                    ? compactionManager.getSizeOfFilesPendingCompaction() + dbInternal.getSizeOfStaleDataToCompact()
+                    : 0;
+        }
+        return backlog;
+    }
+
+    long getNumberOfWritesDelayed() {
+        return numberOfWritesDelayed;
+    }
+
+    long getTotalWriteDelayInMillis() {
+        return TimeUnit.MICROSECONDS.toMillis(totalWriteDelayInMicros);
+    }
+
+    long getNumberOfWritesStalled() {
+        return numberOfWritesStalled;
+    }
+
+    long getTotalWriteStallTimeInMillis() {
+        return totalWriteStallTimeInMillis;
+    }
+
+    synchronized void resetStats() {
+        numberOfWritesDelayed = totalWriteDelayInMicros = numberOfWritesStalled = totalWriteStallTimeInMillis = 0;
+    }
+}
@@ -80,6 +80,12 @@ final class CheckOffHeapHashTable<V> implements OffHeapHashTable<V> {
         return segment.remove(keyBuffer);
     }
 
+    public boolean remove(byte[] key, V old) {
+        KeyBuffer keyBuffer = keySource(key);
+        CheckSegment segment = segment(keyBuffer.hash());
+        return segment.remove(keyBuffer, value(old));
+    }
+
     public void clear() {
         for (CheckSegment map : maps)
             map.clear();
@@ -138,6 +144,13 @@ final class CheckOffHeapHashTable<V> implements OffHeapHashTable<V> {
         return maps.length;
     }
 
+    public void forEachEntry(int segmentIndex, byte[] keyBuffer, EntryConsumer<V> consumer) {
+        maps[segmentIndex].forEachEntry((key, value) -> {
+            System.arraycopy(key.buffer, 0, keyBuffer, 0, key.buffer.length);
+            consumer.accept(keyBuffer, key.buffer.length, valueSerializer.deserialize(ByteBuffer.wrap(value)));
+        });
+    }
+
     public float loadFactor() {
         return loadFactor;
     }
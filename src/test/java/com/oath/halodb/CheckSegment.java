@@ -11,6 +11,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * On-heap test-only counterpart of {@link SegmentNonMemoryPool} for {@link CheckOffHeapHashTable}.
@@ -86,6 +87,17 @@ final class CheckSegment {
         return false;
     }
 
+    synchronized boolean remove(KeyBuffer keyBuffer, byte[] old) {
+        if (!Arrays.equals(old, map.get(keyBuffer))) {
+            return false;
+        }
+        return remove(keyBuffer);
+    }
+
+    synchronized void forEachEntry(BiConsumer<KeyBuffer, byte[]> consumer) {
+        map.forEach(consumer);
+    }
+
     synchronized long size() {
         return map.size();
     }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CompactionRateControllerTest extends TestBase {
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getPercentileAndReset(0.99), -1);
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1_000_000);
+        Assert.assertEquals(histogram.getPercentileAndReset(0.99), 1024);
+
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1_000_000);
+        }
+        histogram.record(1000);
+        Assert.assertEquals(histogram.getPercentileAndReset(0.5), 1 << 20);
+
+        // histogram is cleared once read.
+        Assert.assertEquals(histogram.getPercentileAndReset(0.5), -1);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testControllerIsDisabledByDefault(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("CompactionRateControllerTest", "testControllerIsDisabledByDefault");
+        HaloDB db = getTestDB(directory, options);
+        TestUtils.insertRandomRecords(db, 100);
+
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getCompactionRateControllerState(), CompactionRateController.State.DISABLED.name());
+        Assert.assertEquals(stats.getCurrentCompactionJobRate(), options.getCompactionJobRate());
+        Assert.assertEquals(stats.getForegroundLatencyP99InMicros(), -1);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRateIsThrottledToFloor(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("CompactionRateControllerTest", "testRateIsThrottledToFloor");
+        options.setCompactionJobRate(8 * 1024 * 1024);
+        options.setMinCompactionJobRate(1024 * 1024);
+        // every operation is slower than the target.
+        options.setForegroundLatencyTargetInMicros(1);
+        HaloDB db = getTestDB(directory, options);
+
+        for (int i = 0; i < 20 && db.stats().getCurrentCompactionJobRate() > options.getMinCompactionJobRate(); i++) {
+            TestUtils.insertRandomRecords(db, 100);
+            db.adjustCompactionRate();
+        }
+
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getCurrentCompactionJobRate(), options.getMinCompactionJobRate());
+        Assert.assertNotEquals(stats.getCompactionRateControllerState(), CompactionRateController.State.DISABLED.name());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRateIsNotThrottledBelowTarget(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("CompactionRateControllerTest", "testRateIsNotThrottledBelowTarget");
+        options.setCompactionJobRate(8 * 1024 * 1024);
+        options.setMinCompactionJobRate(1024 * 1024);
+        options.setForegroundLatencyTargetInMicros(Integer.MAX_VALUE);
+        HaloDB db = getTestDB(directory, options);
+
+        for (int i = 0; i < 5; i++) {
+            TestUtils.insertRandomRecords(db, 100);
+            db.adjustCompactionRate();
+        }
+
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getCurrentCompactionJobRate(), options.getCompactionJobRate());
+        Assert.assertTrue(stats.getForegroundLatencyP99InMicros() >= -1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMinRateAboveCompactionJobRate() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("CompactionRateControllerTest", "testMinRateAboveCompactionJobRate");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionJobRate(1024 * 1024);
+        options.setMinCompactionJobRate(2 * 1024 * 1024);
+        getTestDB(directory, options);
+    }
+}
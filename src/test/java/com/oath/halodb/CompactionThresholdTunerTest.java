@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompactionThresholdTunerTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testStaticThresholdByDefault(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("CompactionThresholdTunerTest", "testStaticThresholdByDefault");
+        options.setCompactionThresholdPerFile(0.6);
+        HaloDB db = getTestDB(directory, options);
+        Assert.assertEquals(db.stats().getSpaceAmplification(), -1.0);
+        Assert.assertEquals(db.stats().getWriteAmplification(), -1.0);
+
+        TestUtils.insertRandomRecords(db, 100);
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getCompactionThresholdPerFile(), 0.6);
+        Assert.assertEquals(stats.getSpaceAmplification(), 1.0);
+        Assert.assertEquals(stats.getWriteAmplification(), 1.0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testStrictTargetCompactsFilesWithLiveData(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("CompactionThresholdTunerTest", "testStrictTargetCompactsFilesWithLiveData");
+        options.setMaxFileSize(16 * 1024);
+        options.setTargetSpaceAmplification(1.2);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = putAndUpdateHalfOfRecords(db);
+        TestUtils.waitForCompactionToComplete(db);
+
+        // files with live data had to be compacted, once done the threshold is raised again.
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfRecordsReplaced() > 0);
+        Assert.assertTrue(stats.getWriteAmplification() > 1.0);
+        Assert.assertTrue(stats.getSpaceAmplification() < 1.5);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), records.size());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testLooseTargetCompactsOnlyFilesWithoutLiveData(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("CompactionThresholdTunerTest", "testLooseTargetCompactsOnlyFilesWithoutLiveData");
+        options.setMaxFileSize(16 * 1024);
+        options.setTargetSpaceAmplification(10);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = putAndUpdateHalfOfRecords(db);
+        TestUtils.waitForCompactionToComplete(db);
+
+        // a record being overwritten might still be copied, but never ends up in the index.
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getCompactionThresholdPerFile(), 1.0);
+        Assert.assertEquals(stats.getNumberOfRecordsReplaced(), 0);
+        Assert.assertTrue(stats.getSizeOfFilesDeleted() > 0);
+
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTargetBelowOne() {
+        new HaloDBOptions().setTargetSpaceAmplification(0.9);
+    }
+
+    // leaves the first files half stale, and the files with the first updates fully stale.
+    private List<Record> putAndUpdateHalfOfRecords(HaloDB db) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = ("key" + i).getBytes();
+            byte[] value = TestUtils.generateRandomByteArray(100);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < records.size(); i += 2) {
+                Record r = records.get(i);
+                byte[] value = TestUtils.generateRandomByteArray(100);
+                db.put(r.getKey(), value);
+                records.set(i, new Record(r.getKey(), value));
+            }
+        }
+        return records;
+    }
+}
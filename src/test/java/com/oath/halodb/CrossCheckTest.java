@@ -336,6 +336,24 @@ public class CrossCheckTest {
         }
     }
 
+    @Test(dataProvider = "hashAlgorithms")
+    public void testRemoveIfValueMatches(HashAlgorithm hashAlgorithm, boolean useMemoryPool) throws Exception {
+        try (OffHeapHashTable<byte[]> cache = cache(hashAlgorithm, useMemoryPool)) {
+            HashTableTestUtils.fillMany(cache, fixedValueSize);
+
+            byte[] key = Longs.toByteArray(HashTableTestUtils.manyCount + 100);
+            byte[] value = HashTableTestUtils.randomBytes(fixedValueSize);
+            byte[] other = HashTableTestUtils.randomBytes(fixedValueSize);
+            cache.put(key, value);
+
+            Assert.assertFalse(cache.remove(key, other));
+            Assert.assertEquals(cache.get(key), value);
+            assertTrue(cache.remove(key, value));
+            Assert.assertNull(cache.get(key));
+            Assert.assertFalse(cache.remove(key, value));
+        }
+    }
+
     @Test(dataProvider = "hashAlgorithms")
     public void testClear(HashAlgorithm hashAlgorithm, boolean useMemoryPool) throws Exception {
         try (OffHeapHashTable<byte[]> cache = cache(hashAlgorithm, useMemoryPool)) {
@@ -450,4 +468,32 @@ public class CrossCheckTest {
             Assert.assertEquals(stats.getRemoveCount(), 0);
         }
     }
+
+    @Test(dataProvider = "hashAlgorithms")
+    public void testForEachEntry(HashAlgorithm hashAlgorithm, boolean useMemoryPool) throws IOException {
+        try (OffHeapHashTable<byte[]> cache = cache(hashAlgorithm, useMemoryPool)) {
+            Map<String, byte[]> keyValues = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] key = HashTableTestUtils.randomBytes(1 + i % fixedKeySize);
+                byte[] value = HashTableTestUtils.randomBytes(fixedValueSize);
+                cache.put(key, value);
+                keyValues.put(Arrays.toString(key), value);
+            }
+            for (int i = 0; i < 1000; i += 3) {
+                byte[] key = Longs.toByteArray(i);
+                cache.put(key, HashTableTestUtils.randomBytes(fixedValueSize));
+                cache.remove(key);
+            }
+
+            // entries are cross-checked by DoubleCheckOffHeapHashTableImpl.
+            Map<String, byte[]> actual = new HashMap<>();
+            byte[] keyBuffer = new byte[fixedKeySize];
+            for (int segment = 0; segment < cache.segments(); segment++) {
+                cache.forEachEntry(segment, keyBuffer, (key, keyLength, value) ->
+                        actual.put(Arrays.toString(Arrays.copyOf(key, keyLength)), value));
+            }
+            Assert.assertEquals(actual.keySet(), keyValues.keySet());
+            keyValues.forEach((key, value) -> Assert.assertEquals(actual.get(key), value));
+        }
+    }
 }
@@ -10,8 +10,14 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -126,6 +132,60 @@ public class DBRepairTest extends TestBase {
         }
     }
 
+    @Test(dataProvider = "Options")
+    public void testRepairCompactedFilesBeingWritten(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("DBRepairTest", "testRepairCompactedFilesBeingWritten");
+
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        // half of the records are updated, so that the files compacted have live records.
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 2_000, 1_000);
+        List<Record> updated = IntStream.range(0, records.size()).filter(i -> i % 2 == 0).mapToObj(records::get).collect(Collectors.toList());
+        for (int i = 0; i < 3; i++) {
+            updated = TestUtils.updateRecords(db, updated);
+        }
+        for (int i = 0; i < updated.size(); i++) {
+            records.set(i * 2, updated.get(i));
+        }
+        TestUtils.waitForCompactionToComplete(db);
+
+        List<Integer> compactedFileIds = listCompactedFileIds(directory);
+        Assert.assertTrue(compactedFileIds.size() >= 3);
+        // the compacted file being written to is recorded before anything is written to it.
+        DBMetaData dbMetaData = new DBMetaData(dbDirectory);
+        dbMetaData.loadFromFileIfExists();
+        Assert.assertTrue(dbMetaData.getActiveDataFileIds().contains(compactedFileIds.get(compactedFileIds.size() - 1)));
+        db.close();
+
+        // e.g. the cold file, which was opened before several newer compacted files, has a torn tail.
+        int fileId = compactedFileIds.get(0);
+        Path path = Paths.get(directory, fileId + HaloDBFile.COMPACTED_DATA_FILE_NAME);
+        long size = Files.size(path);
+        Files.write(path, new byte[] {1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        dbMetaData = new DBMetaData(dbDirectory);
+        dbMetaData.loadFromFileIfExists();
+        dbMetaData.setOpen(true);
+        dbMetaData.setActiveDataFileIds(Collections.singletonList(fileId));
+        dbMetaData.storeToFile();
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(Files.size(path), size);
+        Assert.assertEquals(db.size(), records.size());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    private List<Integer> listCompactedFileIds(String directory) {
+        return Arrays.stream(FileUtils.listDataFiles(new File(directory)))
+                .filter(f -> f.getName().endsWith(HaloDBFile.COMPACTED_DATA_FILE_NAME))
+                .map(HaloDBFile::getFileTimeStamp)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
     @Test
     public void testRepairWithMultipleTombstoneFiles() throws HaloDBException, IOException {
         String directory = TestUtils.getTestDirectory("DBRepairTest", "testRepairWithMultipleTombstoneFiles");
@@ -12,6 +12,10 @@ import com.oath.halodb.histo.EstimatedHistogram;
 import org.testng.Assert;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Test code that contains an instance of the production and check {@link OffHeapHashTable}
@@ -63,6 +67,13 @@ public class DoubleCheckOffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
         return rProd;
     }
 
+    public boolean remove(byte[] key, V old) {
+        boolean rProd = prod.remove(key, old);
+        boolean rCheck = check.remove(key, old);
+        Assert.assertEquals(rCheck, rProd, "for key='" + key + '\'');
+        return rProd;
+    }
+
     public void clear() {
         prod.clear();
         check.clear();
@@ -117,6 +128,18 @@ public class DoubleCheckOffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
         return rProd;
     }
 
+    public void forEachEntry(int segmentIndex, byte[] keyBuffer, EntryConsumer<V> consumer) {
+        Map<ByteBuffer, V> rProd = new HashMap<>();
+        Map<ByteBuffer, V> rCheck = new HashMap<>();
+        prod.forEachEntry(segmentIndex, keyBuffer, (key, keyLength, value) -> {
+            rProd.put(ByteBuffer.wrap(Arrays.copyOf(key, keyLength)), value);
+            consumer.accept(key, keyLength, value);
+        });
+        check.forEachEntry(segmentIndex, keyBuffer, (key, keyLength, value) -> rCheck.put(ByteBuffer.wrap(Arrays.copyOf(key, keyLength)), value));
+        Assert.assertEquals(rProd.keySet(), rCheck.keySet());
+        rProd.forEach((key, value) -> Assert.assertEquals(value, rCheck.get(key)));
+    }
+
     public float loadFactor() {
         float rProd = prod.loadFactor();
         float rCheck = check.loadFactor();
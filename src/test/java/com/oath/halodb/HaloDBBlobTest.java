@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HaloDBBlobTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testBlobValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBBlobTest", "testBlobValues");
+
+        options.setBlobThreshold(1024);
+        options.setMaxFileSize(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 500);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        Assert.assertTrue(db.stats().getNumberOfBlobFiles() > 1);
+        assertIteratorReturns(db, records);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        // blobs written before blob files were disabled can still be read.
+        db.close();
+        options.setBlobThreshold(-1);
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        assertIteratorReturns(db, records);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompressedBlobValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBBlobTest", "testCompressedBlobValues");
+
+        options.setBlobThreshold(1024);
+        options.setCompressionThreshold(0);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 500);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        Assert.assertTrue(db.stats().getCompressionRatio() > 2);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactionCopiesOnlyPointers(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBBlobTest", "testCompactionCopiesOnlyPointers");
+
+        options.setBlobThreshold(1024);
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 1000);
+        // small values are updated, making data files eligible for compaction.
+        List<Record> updated = new ArrayList<>();
+        for (Record r : records) {
+            if (r.getValue().length < options.getBlobThreshold()) {
+                byte[] value = TestUtils.generateRandomByteArray(100);
+                db.put(r.getKey(), value);
+                updated.add(new Record(r.getKey(), value));
+            } else {
+                updated.add(r);
+            }
+        }
+
+        TestUtils.waitForCompactionToComplete(db);
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfRecordsCopied() > 0);
+        // copied records are either small values or pointers.
+        Assert.assertTrue(stats.getSizeOfRecordsCopied() < stats.getNumberOfRecordsCopied() * 200);
+
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testBlobGarbageCollection(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBBlobTest", "testBlobGarbageCollection");
+
+        options.setBlobThreshold(1024);
+        options.setMaxFileSize(64 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 500);
+        List<Record> updated = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record r = records.get(i);
+            if (i % 5 == 0) {
+                // deleted blobs are garbage too.
+                db.delete(r.getKey());
+            } else if (i % 5 != 1) {
+                byte[] value = TestUtils.generateRandomByteArray(2048);
+                db.put(r.getKey(), value);
+                updated.add(new Record(r.getKey(), value));
+            } else {
+                updated.add(r);
+            }
+        }
+
+        // garbage collector might have already run in the background.
+        db.collectBlobGarbage();
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getSizeOfBlobFilesDeleted() > 0);
+        Assert.assertTrue(stats.getNumberOfBlobsRelocated() > 0);
+        Assert.assertEquals(listBlobFiles(directory).length, stats.getNumberOfBlobFiles());
+
+        Assert.assertEquals(db.size(), updated.size());
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        for (int i = 0; i < records.size(); i += 5) {
+            Assert.assertNull(db.get(records.get(i).getKey()));
+        }
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), updated.size());
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        assertIteratorReturns(db, updated);
+    }
+
+    @Test
+    public void testStaleBlobDataIsTracked() throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBBlobTest", "testStaleBlobDataIsTracked");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setBlobThreshold(1024);
+        options.setMaxFileSize(64 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 300, 2048);
+        // the first pass reads all the blob files, none of which has stale data.
+        db.collectBlobGarbage();
+        Assert.assertEquals(db.stats().getSizeOfBlobFilesDeleted(), 0);
+        int numberOfBlobFiles = db.stats().getNumberOfBlobFiles();
+
+        // most of the blobs of the first file are superseded, later passes read only that file.
+        List<Record> updated = new ArrayList<>(records);
+        for (int i = 0; i < 20; i++) {
+            byte[] value = TestUtils.generateRandomByteArray(2048);
+            db.put(records.get(i).getKey(), value);
+            updated.set(i, new Record(records.get(i).getKey(), value));
+        }
+        db.collectBlobGarbage();
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getSizeOfBlobFilesDeleted() > 0);
+        Assert.assertTrue(stats.getSizeOfBlobFilesDeleted() <= options.getMaxFileSize());
+        Assert.assertTrue(stats.getNumberOfBlobFiles() <= numberOfBlobFiles);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        assertIteratorReturns(db, updated);
+    }
+
+    // every other value is stored in a blob file.
+    private List<Record> insertRecords(HaloDB db, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = ("key" + i).getBytes();
+            byte[] value = compressibleValue(i % 2 == 0 ? 100 : 2048);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    private byte[] compressibleValue(int size) {
+        String s = TestUtils.generateRandomAsciiString(16);
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) s.charAt(i % s.length());
+        }
+        return value;
+    }
+
+    private void assertIteratorReturns(HaloDB db, List<Record> records) throws HaloDBException {
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        records.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+
+        HaloDBIterator iterator = db.newIterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            Assert.assertEquals(record.getValue(), expected.get(ByteBuffer.wrap(record.getKey())));
+            count++;
+        }
+        Assert.assertEquals(count, records.size());
+    }
+
+    private File[] listBlobFiles(String directory) {
+        return FileUtils.listBlobFiles(new File(directory));
+    }
+}
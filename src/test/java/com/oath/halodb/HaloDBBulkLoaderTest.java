@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HaloDBBulkLoaderTest extends TestBase {
+
+    private static final int numberOfThreads = 4;
+
+    @Test(dataProvider = "Options")
+    public void testBulkLoad(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testBulkLoad");
+        options.setMaxFileSize(16 * 1024);
+        options.setBuildIndexThreads(2);
+        HaloDB db = getTestDB(directory, options);
+        List<Record> existing = putRecords(db, "key", 1000);
+
+        HaloDBBulkLoader loader = db.newBulkLoader();
+        // half of the keys overwrite existing ones.
+        List<Record> loaded = loadConcurrently(loader, 500, 1500);
+        Assert.assertTrue(Files.isDirectory(new File(directory, BulkLoad.STAGING_DIRECTORY_NAME).toPath()));
+
+        // not visible until committed.
+        Assert.assertEquals(db.size(), existing.size());
+        for (Record r : existing) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        Assert.assertEquals(loader.commit(), loaded.size());
+        Assert.assertFalse(new File(directory, BulkLoad.STAGING_DIRECTORY_NAME).exists());
+        Assert.assertEquals(db.size(), 500 + loaded.size());
+        for (Record r : existing.subList(0, 500)) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        for (Record r : loaded) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        // writes after the commit are newer than the loaded records.
+        List<Record> updated = TestUtils.updateRecords(db, loaded.subList(0, 100));
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), 500 + loaded.size());
+        for (Record r : existing.subList(0, 500)) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        for (Record r : loaded.subList(100, loaded.size())) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testBulkLoadWinsOverWritesBeforeCommit(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testBulkLoadWinsOverWritesBeforeCommit");
+        HaloDB db = getTestDB(directory, options);
+
+        HaloDBBulkLoader loader = db.newBulkLoader();
+        List<Record> loaded = loadConcurrently(loader, 0, 200);
+        // written and deleted after the records were staged, but before the commit.
+        for (Record r : loaded.subList(0, 100)) {
+            db.put(r.getKey(), TestUtils.generateRandomByteArray(10));
+        }
+        for (Record r : loaded.subList(100, 200)) {
+            db.put(r.getKey(), TestUtils.generateRandomByteArray(10));
+            db.delete(r.getKey());
+        }
+        loader.commit();
+
+        for (Record r : loaded) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), loaded.size());
+        for (Record r : loaded) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testAbort(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testAbort");
+        HaloDB db = getTestDB(directory, options);
+        List<Record> existing = putRecords(db, "existing", 100);
+
+        HaloDBBulkLoader loader = db.newBulkLoader();
+        loadConcurrently(loader, 0, 500);
+        loader.abort();
+        Assert.assertFalse(new File(directory, BulkLoad.STAGING_DIRECTORY_NAME).exists());
+        Assert.assertEquals(db.size(), existing.size());
+
+        // a new bulk load can be started.
+        loader = db.newBulkLoader();
+        List<Record> loaded = loadConcurrently(loader, 0, 100);
+        loader.commit();
+        Assert.assertEquals(db.size(), existing.size() + loaded.size());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRecoveryOfBulkLoad(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testRecoveryOfBulkLoad");
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+        List<Record> existing = putRecords(db, "existing", 100);
+
+        // crashed before the commit marker was written, the bulk load is discarded.
+        HaloDBBulkLoader loader = db.newBulkLoader();
+        loadConcurrently(loader, 0, 500);
+        loader.getBulkLoads().get(0).seal();
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertFalse(new File(directory, BulkLoad.STAGING_DIRECTORY_NAME).exists());
+        Assert.assertEquals(db.size(), existing.size());
+
+        // crashed after the commit marker was written, the staged files are moved on open.
+        loader = db.newBulkLoader();
+        List<Record> loaded = loadConcurrently(loader, 0, 500);
+        BulkLoad bulkLoad = loader.getBulkLoads().get(0);
+        bulkLoad.seal();
+        Files.createFile(bulkLoad.getStagingPath().resolve(BulkLoad.COMMIT_MARKER_FILE_NAME));
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertFalse(new File(directory, BulkLoad.STAGING_DIRECTORY_NAME).exists());
+        Assert.assertEquals(db.size(), existing.size() + loaded.size());
+        for (Record r : loaded) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testBulkLoadIntoShards(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testBulkLoadIntoShards");
+        options.setNumberOfShards(3);
+        HaloDB db = getTestDB(directory, options);
+
+        HaloDBBulkLoader loader = db.newBulkLoader();
+        List<Record> loaded = loadConcurrently(loader, 0, 1000);
+        loader.commit();
+        for (HaloDBInternal shard : db.getShards()) {
+            Assert.assertTrue(shard.size() > 0);
+        }
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), loaded.size());
+        for (Record r : loaded) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "A bulk load is already in progress.*")
+    public void testOnlyOneBulkLoadAtATime() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testOnlyOneBulkLoadAtATime");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        db.newBulkLoader();
+        db.newBulkLoader();
+    }
+
+    @Test(expectedExceptions = HaloDBException.class)
+    public void testBulkLoadWithBlobStorage() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testBulkLoadWithBlobStorage");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setBlobThreshold(1024);
+        HaloDB db = getTestDB(directory, options);
+        db.newBulkLoader();
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Bulk load is not supported in cache mode")
+    public void testBulkLoadInCacheMode() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBBulkLoaderTest", "testBulkLoadInCacheMode");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxTotalDataFileSize(64 * 1024 * 1024);
+        HaloDB db = getTestDB(directory, options);
+        db.newBulkLoader();
+    }
+
+    private List<Record> putRecords(HaloDB db, String prefix, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = (prefix + i).getBytes();
+            byte[] value = TestUtils.generateRandomByteArray(100);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    // loads keys key<from> to key<to - 1>, split across the threads.
+    private List<Record> loadConcurrently(HaloDBBulkLoader loader, int from, int to) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<List<Record>>> futures = new ArrayList<>();
+            for (int t = 0; t < numberOfThreads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    List<Record> records = new ArrayList<>();
+                    for (int i = from + thread; i < to; i += numberOfThreads) {
+                        byte[] key = ("key" + i).getBytes();
+                        byte[] value = TestUtils.generateRandomByteArray(100);
+                        loader.put(key, value);
+                        records.add(new Record(key, value));
+                    }
+                    return records;
+                }));
+            }
+            List<Record> records = new ArrayList<>();
+            for (Future<List<Record>> future : futures) {
+                records.addAll(future.get(60, TimeUnit.SECONDS));
+            }
+            return records;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
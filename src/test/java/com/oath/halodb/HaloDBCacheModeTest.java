@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HaloDBCacheModeTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testOldestFilesAreEvicted(HaloDBOptions options) throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBCacheModeTest", "testOldestFilesAreEvicted");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTotalDataFileSize(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = putRecords(db, "key", 2000);
+        waitForEvictionToComplete(db);
+
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfDataFilesEvicted() > 0);
+        Assert.assertTrue(stats.getNumberOfRecordsEvicted() > 0);
+        Assert.assertEquals(stats.getNumberOfRecordsCopied(), 0);
+        Assert.assertTrue(totalSizeOfDataFiles(directory) <= options.getMaxTotalDataFileSize() + options.getMaxFileSize());
+        Assert.assertEquals(FileUtils.listTombstoneFiles(new File(directory)).length, 0);
+
+        List<Record> present = assertEvictedInInsertionOrder(db, records);
+        Assert.assertEquals(db.size(), present.size());
+        Assert.assertEquals(stats.getNumberOfRecordsEvicted(), records.size() - present.size());
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), present.size());
+        for (Record r : present) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testOlderVersionsAreNotVisibleAfterEviction(HaloDBOptions options) throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBCacheModeTest", "testOlderVersionsAreNotVisibleAfterEviction");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTotalDataFileSize(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        // all versions of these keys are evicted.
+        List<Record> early = putRecords(db, "early", 100);
+        for (int i = 0; i < 3; i++) {
+            early = putRecords(db, "early", 100);
+        }
+        List<Record> late = putRecords(db, "late", 100);
+        for (int i = 0; i < 10; i++) {
+            late = putRecords(db, "late", 100);
+        }
+        waitForEvictionToComplete(db);
+
+        for (int i = 0; i < 2; i++) {
+            for (Record r : early) {
+                Assert.assertNull(db.get(r.getKey()));
+            }
+            for (Record r : late) {
+                Assert.assertEquals(db.get(r.getKey()), r.getValue());
+            }
+            Assert.assertEquals(db.size(), late.size());
+
+            db.close();
+            db = getTestDBWithoutDeletingFiles(directory, options);
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testEvictionOrderIsKeptAcrossReopen(HaloDBOptions options) throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBCacheModeTest", "testEvictionOrderIsKeptAcrossReopen");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTotalDataFileSize(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = putRecords(db, "before", 500);
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        records.addAll(putRecords(db, "after", 1000));
+        waitForEvictionToComplete(db);
+
+        // files written before the reopen are evicted first, and stay evicted.
+        List<Record> present = assertEvictedInInsertionOrder(db, records);
+        Assert.assertFalse(present.stream().anyMatch(r -> new String(r.getKey()).startsWith("before")));
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(assertEvictedInInsertionOrder(db, records), present);
+        Assert.assertEquals(db.size(), present.size());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = "maxTotalDataFileSize cannot be used with more than one write lane")
+    public void testCacheModeWithWriteLanes() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCacheModeTest", "testCacheModeWithWriteLanes");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxTotalDataFileSize(64 * 1024 * 1024);
+        options.setNumberOfWriteLanes(4);
+        getTestDB(directory, options);
+    }
+
+    private List<Record> putRecords(HaloDB db, String prefix, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = (prefix + i).getBytes();
+            byte[] value = TestUtils.generateRandomByteArray(100);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    private List<Record> assertEvictedInInsertionOrder(HaloDB db, List<Record> records) throws HaloDBException {
+        List<Record> present = new ArrayList<>();
+        boolean seenPresent = false;
+        for (Record r : records) {
+            byte[] value = db.get(r.getKey());
+            if (value == null) {
+                Assert.assertFalse(seenPresent, "a record was evicted before an older one");
+            } else {
+                seenPresent = true;
+                Assert.assertEquals(value, r.getValue());
+                present.add(r);
+            }
+        }
+        Assert.assertTrue(seenPresent);
+        Assert.assertTrue(present.size() < records.size());
+        return present;
+    }
+
+    private long totalSizeOfDataFiles(String directory) {
+        long size = 0;
+        for (File file : FileUtils.listDataFiles(new File(directory))) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private void waitForEvictionToComplete(HaloDB db) throws InterruptedException {
+        while (!db.isEvictionComplete()) {
+            Thread.sleep(100);
+        }
+    }
+}
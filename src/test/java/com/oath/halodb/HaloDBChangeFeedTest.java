@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HaloDBChangeFeedTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testChangesAreInOrder(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBChangeFeedTest", "testChangesAreInOrder");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTombstoneFileSize(2 * 1024);
+        options.setCompactionDisabled(true);
+        HaloDB db = getTestDB(directory, options);
+
+        // more than a batch.
+        List<HaloDBChange> expected = new ArrayList<>();
+        List<Record> records = TestUtils.insertRandomRecords(db, 5000);
+        records.forEach(r -> expected.add(new HaloDBChange(HaloDBChange.Type.PUT, r.getKey(), r.getValue(), 0)));
+        for (Record r : TestUtils.updateRecords(db, records.subList(0, 500))) {
+            expected.add(new HaloDBChange(HaloDBChange.Type.PUT, r.getKey(), r.getValue(), 0));
+        }
+        for (Record r : records.subList(1000, 1500)) {
+            db.delete(r.getKey());
+            expected.add(new HaloDBChange(HaloDBChange.Type.DELETE, r.getKey(), null, 0));
+        }
+
+        List<HaloDBChange> changes = readAll(db.changesSince(0));
+        verifyChanges(changes, expected);
+
+        // resumes after the last change which was read.
+        long sequenceNumber = changes.get(2999).getSequenceNumber();
+        verifyChanges(readAll(db.changesSince(sequenceNumber)), expected.subList(3000, expected.size()));
+        Assert.assertFalse(db.changesSince(changes.get(changes.size() - 1).getSequenceNumber()).hasNext());
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        verifyChanges(readAll(db.changesSince(sequenceNumber)), expected.subList(3000, expected.size()));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactedRecords(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBChangeFeedTest", "testCompactedRecords");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.4);
+        HaloDB db = getTestDB(directory, options);
+
+        // every other record is updated, compacted files still have live records to copy.
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        List<Record> even = new ArrayList<>();
+        List<Record> odd = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            (i % 2 == 0 ? even : odd).add(records.get(i));
+        }
+        List<Record> updated = TestUtils.updateRecords(db, even);
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+        // overwritten records might have been compacted away, the latest versions are in order.
+        List<HaloDBChange> changes = readAll(db.changesSince(0));
+        Assert.assertTrue(changes.size() < records.size() + updated.size());
+        List<HaloDBChange> latest = new ArrayList<>();
+        for (HaloDBChange change : changes) {
+            if (!even.contains(new Record(change.getKey(), change.getValue()))) {
+                latest.add(change);
+            }
+        }
+        List<HaloDBChange> expected = new ArrayList<>();
+        odd.forEach(r -> expected.add(new HaloDBChange(HaloDBChange.Type.PUT, r.getKey(), r.getValue(), 0)));
+        updated.forEach(r -> expected.add(new HaloDBChange(HaloDBChange.Type.PUT, r.getKey(), r.getValue(), 0)));
+        verifyChanges(latest, expected);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactedFilesAreReadOnce(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBChangeFeedTest", "testCompactedFilesAreReadOnce");
+        options.setMaxFileSize(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        // compacted files get records of both the inserts and the updates, i.e. changes of many batches.
+        for (int i = 0; i < 10000; i++) {
+            db.put(String.format("key%05d", i).getBytes(), TestUtils.generateRandomByteArray(50));
+        }
+        for (int i = 1; i < 10000; i += 2) {
+            db.put(String.format("key%05d", i).getBytes(), TestUtils.generateRandomByteArray(50));
+        }
+        db.compact(0.0).get();
+
+        HaloDBChangeIterator iterator = db.changesSince(0);
+        List<HaloDBChange> changes = readAll(iterator);
+        Assert.assertEquals(changes.size(), 10000);
+        Assert.assertTrue(changes.size() > 2 * HaloDBChangeIterator.BATCH_SIZE);
+        // sealed files are read once, the files still written to by the write lane and the compaction thread by every batch.
+        int batches = (changes.size() + HaloDBChangeIterator.BATCH_SIZE - 1) / HaloDBChangeIterator.BATCH_SIZE;
+        int files = FileUtils.listDataFiles(new File(directory)).length;
+        Assert.assertTrue(iterator.getNumberOfDataFilesRead() <= files - 2 + 2 * batches,
+                "read " + iterator.getNumberOfDataFilesRead() + " of " + files + " files");
+    }
+
+    @Test(dataProvider = "Options")
+    public void testTailing(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBChangeFeedTest", "testTailing");
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfWriteLanes(2);
+        HaloDB db = getTestDB(directory, options);
+        db.put("before".getBytes(), "before".getBytes());
+
+        HaloDBChangeIterator iterator = db.changesSince(0, true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            int count = 1 + 2000 + 200;
+            Future<List<HaloDBChange>> reader = executor.submit(() -> {
+                List<HaloDBChange> changes = new ArrayList<>();
+                while (changes.size() < count && iterator.hasNext()) {
+                    changes.add(iterator.next());
+                }
+                return changes;
+            });
+            List<HaloDBChange> expected = new ArrayList<>();
+            expected.add(new HaloDBChange(HaloDBChange.Type.PUT, "before".getBytes(), "before".getBytes(), 0));
+            for (int i = 0; i < 2000; i++) {
+                byte[] key = ("key" + i).getBytes();
+                byte[] value = ("value" + i).getBytes();
+                db.put(key, value);
+                expected.add(new HaloDBChange(HaloDBChange.Type.PUT, key, value, 0));
+                if (i % 10 == 0) {
+                    db.delete(key);
+                    expected.add(new HaloDBChange(HaloDBChange.Type.DELETE, key, null, 0));
+                }
+            }
+            verifyChanges(reader.get(60, TimeUnit.SECONDS), expected);
+
+            // closing the db ends a tailing iterator.
+            Future<Boolean> hasNext = executor.submit(iterator::hasNext);
+            Thread.sleep(2 * HaloDBChangeIterator.TAIL_POLL_INTERVAL_MILLIS);
+            Assert.assertFalse(hasNext.isDone());
+            db.close();
+            Assert.assertFalse(hasNext.get(60, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testGapAfterTombstonesWereDropped(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBChangeFeedTest", "testGapAfterTombstonesWereDropped");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTombstoneFileSize(2 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setCleanUpTombstonesInBackground(true);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> deleted = TestUtils.insertRandomRecords(db, 1000);
+        List<HaloDBChange> changes = readAll(db.changesSince(0));
+        long sequenceNumber = changes.get(changes.size() - 1).getSequenceNumber();
+        TestUtils.deleteRecords(db, deleted);
+
+        // the deleted records are compacted, after which their tombstones are dropped.
+        List<Record> live = TestUtils.insertRandomRecords(db, 1000);
+        TestUtils.waitForCompactionToComplete(db);
+        db.compactTombstoneFiles();
+
+        for (int i = 0; i < 2; i++) {
+            changes = readAll(db.changesSince(sequenceNumber));
+            HaloDBChange gap = changes.get(0);
+            Assert.assertEquals(gap.getType(), HaloDBChange.Type.GAP);
+            Assert.assertTrue(gap.getSequenceNumber() > sequenceNumber);
+            Assert.assertNull(gap.getKey());
+            for (HaloDBChange change : changes.subList(1, changes.size())) {
+                Assert.assertTrue(change.getSequenceNumber() > gap.getSequenceNumber());
+                Assert.assertNotEquals(change.getType(), HaloDBChange.Type.GAP);
+            }
+
+            // nothing is missing when starting from the beginning.
+            changes = readAll(db.changesSince(0));
+            List<HaloDBChange> latest = changes.subList(changes.size() - live.size(), changes.size());
+            List<HaloDBChange> expected = new ArrayList<>();
+            live.forEach(r -> expected.add(new HaloDBChange(HaloDBChange.Type.PUT, r.getKey(), r.getValue(), 0)));
+            verifyChanges(latest, expected);
+            for (HaloDBChange change : changes) {
+                Assert.assertNotEquals(change.getType(), HaloDBChange.Type.GAP);
+            }
+
+            // the gap is still known after a restart.
+            db.close();
+            db = getTestDBWithoutDeletingFiles(directory, options);
+            // compaction resumes after the restart, the tombstones it makes droppable must not be dropped while reading.
+            TestUtils.waitForCompactionToComplete(db);
+            db.compactTombstoneFiles();
+        }
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Change feed is not supported with shards")
+    public void testChangeFeedOfShardedDB() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBChangeFeedTest", "testChangeFeedOfShardedDB");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(2);
+        HaloDB db = getTestDB(directory, options);
+        db.changesSince(0);
+    }
+
+    private static List<HaloDBChange> readAll(HaloDBChangeIterator iterator) {
+        List<HaloDBChange> changes = new ArrayList<>();
+        iterator.forEachRemaining(changes::add);
+        return changes;
+    }
+
+    // sequence numbers of the expected changes are ignored.
+    private static void verifyChanges(List<HaloDBChange> changes, List<HaloDBChange> expected) {
+        Assert.assertEquals(changes.size(), expected.size());
+        long sequenceNumber = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            HaloDBChange change = changes.get(i);
+            Assert.assertTrue(change.getSequenceNumber() > sequenceNumber);
+            sequenceNumber = change.getSequenceNumber();
+            Assert.assertEquals(change.getType(), expected.get(i).getType());
+            Assert.assertEquals(change.getKey(), expected.get(i).getKey());
+            Assert.assertEquals(change.getValue(), expected.get(i).getValue());
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HaloDBCheckpointTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testCheckpoint(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCheckpointTest", "testCheckpoint");
+        File checkpoint = newCheckpointDirectory("testCheckpoint");
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 2000);
+        List<Record> updated = TestUtils.updateRecords(db, records.subList(0, 1000));
+        TestUtils.deleteRecords(db, records.subList(1000, 1200));
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        updated.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+        records.subList(1200, records.size()).forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+
+        try {
+            db.checkpoint(checkpoint);
+            Assert.assertTrue(new File(checkpoint, DBMetaData.METADATA_FILE_NAME).exists());
+
+            // not part of the checkpoint.
+            TestUtils.updateRecords(db, records.subList(1200, 1500));
+            TestUtils.deleteRecords(db, records.subList(1500, 1600));
+            TestUtils.insertRandomRecords(db, 500);
+            TestUtils.waitForCompactionToComplete(db);
+            Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+            verifyCheckpoint(checkpoint, options, expected);
+        } finally {
+            TestUtils.deleteDirectory(checkpoint);
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCheckpointWhileWriting(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCheckpointTest", "testCheckpointWhileWriting");
+        File checkpoint = newCheckpointDirectory("testCheckpointWhileWriting");
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfWriteLanes(2);
+        HaloDB db = getTestDB(directory, options);
+
+        // puts of a single thread complete in order, hence the checkpoint has a prefix of the keys.
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger written = new AtomicInteger(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                while (!stop.get()) {
+                    int i = written.get();
+                    db.put(("key" + i).getBytes(), ("value" + i).getBytes());
+                    written.incrementAndGet();
+                }
+                return null;
+            });
+            while (written.get() < 2000) {
+                Thread.sleep(10);
+            }
+            db.checkpoint(checkpoint);
+            stop.set(true);
+            writer.get(60, TimeUnit.SECONDS);
+
+            HaloDB checkpointDB = HaloDB.open(checkpoint, options);
+            try {
+                long size = checkpointDB.size();
+                Assert.assertTrue(size >= 2000 && size <= written.get(), "size " + size);
+                for (int i = 0; i < written.get(); i++) {
+                    byte[] value = checkpointDB.get(("key" + i).getBytes());
+                    if (i < size) {
+                        Assert.assertEquals(value, ("value" + i).getBytes());
+                    } else {
+                        Assert.assertNull(value);
+                    }
+                }
+            } finally {
+                checkpointDB.close();
+            }
+        } finally {
+            executor.shutdownNow();
+            TestUtils.deleteDirectory(checkpoint);
+        }
+    }
+
+    @Test
+    public void testSealedFilesAreLinked() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCheckpointTest", "testSealedFilesAreLinked");
+        File checkpoint = newCheckpointDirectory("testSealedFilesAreLinked");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionDisabled(true);
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        TestUtils.deleteRecords(db, records.subList(0, 100));
+
+        try {
+            db.checkpoint(checkpoint);
+            int latestFileId = -1;
+            for (File file : FileUtils.listDataFiles(new File(directory))) {
+                latestFileId = Math.max(latestFileId, FileUtils.getFileId(file, Constants.DATA_FILE_PATTERN));
+            }
+
+            File[] files = FileUtils.listDataFiles(checkpoint);
+            Assert.assertEquals(files.length, FileUtils.listDataFiles(new File(directory)).length);
+            for (File file : files) {
+                File source = new File(directory, file.getName());
+                boolean isLinked = Files.isSameFile(file.toPath(), source.toPath());
+                // the file being written to is copied.
+                Assert.assertEquals(isLinked, FileUtils.getFileId(file, Constants.DATA_FILE_PATTERN) != latestFileId, file.getName());
+                Assert.assertEquals(file.length(), source.length());
+            }
+            Assert.assertEquals(FileUtils.listTombstoneFiles(checkpoint).length, FileUtils.listTombstoneFiles(new File(directory)).length);
+
+            // writes to the db after the checkpoint don't change the copy.
+            long size = new File(checkpoint, latestFileId + HaloDBFile.DATA_FILE_NAME).length();
+            TestUtils.insertRandomRecords(db, 10);
+            Assert.assertEquals(new File(checkpoint, latestFileId + HaloDBFile.DATA_FILE_NAME).length(), size);
+        } finally {
+            TestUtils.deleteDirectory(checkpoint);
+        }
+    }
+
+    @Test
+    public void testFilesWhichCantBeLinkedAreCopiedLater() throws Exception {
+        // needs a directory on another file system, where links fail.
+        File otherFileSystem = new File("/dev/shm");
+        String directory = TestUtils.getTestDirectory("HaloDBCheckpointTest", "testFilesWhichCantBeLinkedAreCopiedLater");
+        if (!otherFileSystem.isDirectory()
+                || Files.getFileStore(otherFileSystem.toPath()).equals(Files.getFileStore(new File(directory).getParentFile().toPath()))) {
+            return;
+        }
+        File checkpointDirectory = new File(otherFileSystem, "HaloDBCheckpointTest-" + System.nanoTime());
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        records.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+
+        try {
+            // not copied while the files are added to the checkpoint, i.e. while writes wait.
+            File source = FileUtils.listDataFiles(new File(directory))[0];
+            Checkpoint checkpoint = Checkpoint.create(checkpointDirectory);
+            try {
+                checkpoint.link(source.toPath());
+                Assert.assertFalse(new File(checkpointDirectory, source.getName()).exists());
+                checkpoint.copyCapturedFiles();
+                Assert.assertEquals(Files.readAllBytes(new File(checkpointDirectory, source.getName()).toPath()),
+                        Files.readAllBytes(source.toPath()));
+            } finally {
+                checkpoint.close();
+            }
+            TestUtils.deleteDirectory(checkpointDirectory);
+
+            db.checkpoint(checkpointDirectory);
+            verifyCheckpoint(checkpointDirectory, options, expected);
+        } finally {
+            TestUtils.deleteDirectory(checkpointDirectory);
+        }
+    }
+
+    @Test
+    public void testCheckpointWithBlobs() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCheckpointTest", "testCheckpointWithBlobs");
+        File checkpoint = newCheckpointDirectory("testCheckpointWithBlobs");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(64 * 1024);
+        options.setBlobThreshold(1024);
+        HaloDB db = getTestDB(directory, options);
+
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] key = ("key" + i).getBytes();
+            byte[] value = TestUtils.generateRandomByteArray(i % 2 == 0 ? 2048 : 100);
+            db.put(key, value);
+            expected.put(ByteBuffer.wrap(key), value);
+        }
+
+        try {
+            db.checkpoint(checkpoint);
+            Assert.assertTrue(FileUtils.listBlobFiles(checkpoint).length > 1);
+            verifyCheckpoint(checkpoint, options, expected);
+        } finally {
+            TestUtils.deleteDirectory(checkpoint);
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCheckpointOfShardedDB(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCheckpointTest", "testCheckpointOfShardedDB");
+        File checkpoint = newCheckpointDirectory("testCheckpointOfShardedDB");
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfShards(3);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        records.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+
+        try {
+            db.checkpoint(checkpoint);
+            Assert.assertEquals(HaloDB.countShardDirectories(checkpoint), 3);
+            verifyCheckpoint(checkpoint, options, expected);
+        } finally {
+            TestUtils.deleteDirectory(checkpoint);
+        }
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Checkpoint directory .* is not empty")
+    public void testCheckpointDirectoryMustBeEmpty() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCheckpointTest", "testCheckpointDirectoryMustBeEmpty");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        db.put(new byte[] {1}, new byte[] {1});
+
+        // the db directory itself.
+        db.checkpoint(new File(directory));
+    }
+
+    private File newCheckpointDirectory(String name) throws IOException {
+        File directory = new File(TestUtils.getTestDirectory("HaloDBCheckpointTest", name + "-checkpoint"));
+        TestUtils.deleteDirectory(directory);
+        return directory;
+    }
+
+    // the size check makes sure that records deleted before the checkpoint aren't in it.
+    private void verifyCheckpoint(File checkpoint, HaloDBOptions options, Map<ByteBuffer, byte[]> expected) throws HaloDBException {
+        HaloDB db = HaloDB.open(checkpoint, options);
+        try {
+            Assert.assertEquals(db.size(), expected.size());
+            for (Map.Entry<ByteBuffer, byte[]> e : expected.entrySet()) {
+                Assert.assertEquals(db.get(e.getKey().array()), e.getValue());
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HaloDBCompressionTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testCompressedValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testCompressedValues");
+
+        options.setCompressionThreshold(100);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 1000);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        HaloDBStats stats = db.stats();
+        // values smaller than the threshold are not compressed.
+        Assert.assertEquals(stats.getNumberOfValuesCompressed(), 500);
+        Assert.assertTrue(stats.getSizeOfValuesAfterCompression() < stats.getSizeOfValuesBeforeCompression());
+        Assert.assertTrue(stats.getCompressionRatio() > 2);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        // values written before compression was disabled can still be read.
+        db.close();
+        options.setCompressionThreshold(-1);
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        Assert.assertEquals(db.stats().getNumberOfValuesCompressed(), 0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testIteratorWithCompressedValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testIteratorWithCompressedValues");
+
+        options.setCompressionThreshold(0);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 1000);
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        records.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+
+        HaloDBIterator iterator = db.newIterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            Assert.assertEquals(record.getValue(), expected.get(ByteBuffer.wrap(record.getKey())));
+            count++;
+        }
+        Assert.assertEquals(count, records.size());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactionWithCompressedValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testCompactionWithCompressedValues");
+
+        options.setCompressionThreshold(0);
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 1000);
+        List<Record> updated = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record r = records.get(i);
+            if (i % 4 != 0) {
+                byte[] value = compressibleValue(r.getValue().length);
+                db.put(r.getKey(), value);
+                updated.add(new Record(r.getKey(), value));
+            } else {
+                updated.add(r);
+            }
+        }
+
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test
+    public void testIncompressibleValuesAreStoredAsIs() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testIncompressibleValuesAreStoredAsIs");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompressionThreshold(0);
+        HaloDB db = getTestDB(directory, options);
+
+        byte[] key = TestUtils.generateRandomByteArray(8);
+        byte[] value = TestUtils.generateRandomByteArray(512);
+        db.put(key, value);
+        Assert.assertEquals(db.get(key), value);
+
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getNumberOfValuesCompressed(), 0);
+        Assert.assertEquals(stats.getSizeOfValuesAfterCompression(), value.length);
+        Assert.assertEquals(stats.getCompressionRatio(), 1.0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testDictionaryCompressedValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testDictionaryCompressedValues");
+
+        options.setCompressionDictionarySize(4 * 1024);
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertSmallRecords(db, 2000);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfDictionariesTrained() > 0);
+        Assert.assertTrue(stats.getNumberOfValuesCompressed() > 0);
+        Assert.assertTrue(stats.getCompressionRatio() > 1.5);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        records.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+        HaloDBIterator iterator = db.newIterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            Assert.assertEquals(record.getValue(), expected.get(ByteBuffer.wrap(record.getKey())));
+            count++;
+        }
+        Assert.assertEquals(count, records.size());
+
+        // values written before dictionary compression was disabled can still be read.
+        db.close();
+        options.setCompressionDictionarySize(0);
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testDictionaryCompressedValuesWithWriteLanes(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testDictionaryCompressedValuesWithWriteLanes");
+
+        options.setCompressionDictionarySize(4 * 1024);
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfWriteLanes(4);
+        HaloDB db = getTestDB(directory, options);
+
+        // lanes sample values and train dictionaries concurrently.
+        List<Record> records = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        byte[] key = ("key" + thread + "-" + i).getBytes();
+                        byte[] value = smallValue(i);
+                        db.put(key, value);
+                        records.add(new Record(key, value));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertTrue(db.stats().getNumberOfDictionariesTrained() > 0);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        db.close();
+        HaloDB reopened = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(reopened.size(), records.size());
+        for (Record r : records) {
+            Assert.assertEquals(reopened.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testDictionaryAndLZ4Compression(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testDictionaryAndLZ4Compression");
+
+        options.setCompressionThreshold(100);
+        options.setCompressionDictionarySize(4 * 1024);
+        options.setMaxFileSize(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, 2000);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        Assert.assertTrue(db.stats().getNumberOfValuesCompressed() > 1000);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactionWithDictionaryCompressedValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBCompressionTest", "testCompactionWithDictionaryCompressedValues");
+
+        options.setCompressionDictionarySize(4 * 1024);
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertSmallRecords(db, 2000);
+        List<Record> updated = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record r = records.get(i);
+            if (i % 4 != 0) {
+                byte[] value = smallValue(i + records.size());
+                db.put(r.getKey(), value);
+                updated.add(new Record(r.getKey(), value));
+            } else {
+                updated.add(r);
+            }
+        }
+
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        // dictionaries of compacted files are deleted along with the files.
+        File[] dictionaryFiles = new File(directory).listFiles(f -> f.getName().endsWith(CompressionDictionary.DICTIONARY_FILE_NAME));
+        File[] dataFiles = new File(directory).listFiles(f -> f.getName().endsWith(HaloDBFile.DATA_FILE_NAME)
+                || f.getName().endsWith(HaloDBFile.COMPACTED_DATA_FILE_NAME));
+        Assert.assertTrue(dictionaryFiles.length > 0);
+        Assert.assertTrue(dictionaryFiles.length <= dataFiles.length);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    private List<Record> insertSmallRecords(HaloDB db, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = ("key" + i).getBytes();
+            byte[] value = smallValue(i);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    // small values which share most of their content, too small to be compressed on their own.
+    private byte[] smallValue(int i) {
+        return String.format("{\"id\":%d,\"status\":\"active\",\"country\":\"%s\"}",
+                i, TestUtils.generateRandomAsciiString(2)).getBytes();
+    }
+
+    // half of the values are smaller than 100 bytes.
+    private List<Record> insertRecords(HaloDB db, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = ("key" + i).getBytes();
+            byte[] value = compressibleValue(i % 2 == 0 ? 50 : 1000);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    private byte[] compressibleValue(int size) {
+        String s = TestUtils.generateRandomAsciiString(10);
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) s.charAt(i % s.length());
+        }
+        return value;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class HaloDBDataDirectoriesTest extends TestBase {
+
+    private final List<File> dataDirectoriesToDelete = new ArrayList<>();
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDataDirectories() throws HaloDBException, IOException {
+        closeDB();
+        for (File dataDirectory : dataDirectoriesToDelete) {
+            TestUtils.deleteDirectory(dataDirectory);
+        }
+        dataDirectoriesToDelete.clear();
+    }
+
+    @Test(dataProvider = "Options")
+    public void testDataFilesAreStriped(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBDataDirectoriesTest", "testDataFilesAreStriped");
+        List<File> dataDirectories = createDataDirectories(directory, 2);
+        options.setMaxFileSize(16 * 1024);
+        options.setDataDirectories(dataDirectories);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        for (File dataDirectory : dataDirectories) {
+            Assert.assertTrue(FileUtils.listDataFiles(dataDirectory).length > 0, dataDirectory.getName());
+            Assert.assertEquals(FileUtils.listIndexFiles(dataDirectory).size(), FileUtils.listDataFiles(dataDirectory).length);
+            Assert.assertEquals(FileUtils.listTombstoneFiles(dataDirectory).length, 0);
+        }
+        Assert.assertTrue(FileUtils.listDataFiles(new File(directory)).length > 0);
+
+        // compacted files are striped as well, and files are deleted from all directories.
+        List<Record> updated = TestUtils.updateRecords(db, records.subList(0, 500));
+        TestUtils.deleteRecords(db, records.subList(500, 600));
+        TestUtils.waitForCompactionToComplete(db);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), 900);
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        for (Record r : records.subList(500, 600)) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : records.subList(600, records.size())) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRepairFileInDataDirectory(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBDataDirectoriesTest", "testRepairFileInDataDirectory");
+        List<File> dataDirectories = createDataDirectories(directory, 3);
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionDisabled(true);
+        options.setDataDirectories(dataDirectories);
+        HaloDB db = getTestDB(directory, options);
+
+        // a value of size 0 is treated as corrupted during repair.
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        db.close();
+
+        // corrupt the tail of the latest file, wherever it was placed.
+        File latest = Stream.concat(Stream.of(new File(directory)), dataDirectories.stream())
+                .flatMap(d -> Arrays.stream(FileUtils.listDataFiles(d)))
+                .max(Comparator.comparingInt(f -> FileUtils.getFileId(f, Constants.DATA_FILE_PATTERN)))
+                .get();
+        long size = latest.length();
+        try (RandomAccessFile file = new RandomAccessFile(latest, "rw")) {
+            file.seek(size);
+            file.write(TestUtils.generateRandomByteArray(100));
+        }
+
+        // trick the db to think that there was an unclean shutdown.
+        DBMetaData dbMetaData = new DBMetaData(dbDirectory);
+        dbMetaData.loadFromFileIfExists();
+        dbMetaData.setOpen(true);
+        dbMetaData.storeToFile();
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(latest.length(), size);
+        Assert.assertEquals(db.size(), records.size());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testDataDirectoriesAreRecorded(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBDataDirectoriesTest", "testDataDirectoriesAreRecorded");
+        List<File> dataDirectories = createDataDirectories(directory, 2);
+        options.setDataDirectories(dataDirectories);
+        HaloDB db = getTestDB(directory, options);
+        db.close();
+
+        DBMetaData dbMetaData = new DBMetaData(dbDirectory);
+        dbMetaData.loadFromFileIfExists();
+        Assert.assertEquals(dbMetaData.getDataDirectories(),
+                Arrays.asList(dataDirectories.get(0).getAbsoluteFile(), dataDirectories.get(1).getAbsoluteFile()));
+        Assert.assertFalse(dbMetaData.isOpen());
+
+        // another directory can be added.
+        File added = new File(directory + "-data2");
+        dataDirectoriesToDelete.add(added);
+        options.setDataDirectories(Arrays.asList(dataDirectories.get(0), dataDirectories.get(1), added));
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        db.close();
+        dbMetaData.loadFromFileIfExists();
+        Assert.assertEquals(dbMetaData.getDataDirectories().size(), 3);
+    }
+
+    @Test(dataProvider = "Options", expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = "Data directory .* is not in dataDirectories")
+    public void testOpenWithoutDataDirectory(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBDataDirectoriesTest", "testOpenWithoutDataDirectory");
+        List<File> dataDirectories = createDataDirectories(directory, 2);
+        options.setMaxFileSize(16 * 1024);
+        options.setDataDirectories(dataDirectories);
+        HaloDB db = getTestDB(directory, options);
+        TestUtils.insertRandomRecords(db, 1000);
+        db.close();
+
+        // the data files in the second directory would be missing.
+        options.setDataDirectories(dataDirectories.subList(0, 1));
+        getTestDBWithoutDeletingFiles(directory, options);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testOpenWithMissingDataDirectory(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBDataDirectoriesTest", "testOpenWithMissingDataDirectory");
+        List<File> dataDirectories = createDataDirectories(directory, 2);
+        options.setMaxFileSize(16 * 1024);
+        options.setDataDirectories(dataDirectories);
+        HaloDB db = getTestDB(directory, options);
+        TestUtils.insertRandomRecords(db, 1000);
+        db.close();
+
+        // e.g. the device wasn't mounted, the directory must not be silently created again.
+        TestUtils.deleteDirectory(dataDirectories.get(1));
+        try {
+            getTestDBWithoutDeletingFiles(directory, options);
+            Assert.fail("db was opened without a data directory");
+        } catch (HaloDBException e) {
+            Assert.assertTrue(e.getCause() instanceof FileNotFoundException);
+        }
+        Assert.assertFalse(dataDirectories.get(1).exists());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateDataDirectories() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBDataDirectoriesTest", "testDuplicateDataDirectories");
+        HaloDBOptions options = new HaloDBOptions();
+        File dataDirectory = new File(directory + "-data");
+        dataDirectoriesToDelete.add(dataDirectory);
+        options.setDataDirectories(Arrays.asList(dataDirectory, dataDirectory));
+        getTestDB(directory, options);
+    }
+
+    private List<File> createDataDirectories(String directory, int count) throws IOException {
+        List<File> dataDirectories = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File dataDirectory = new File(directory + "-data" + i);
+            TestUtils.deleteDirectory(dataDirectory);
+            dataDirectories.add(dataDirectory);
+            dataDirectoriesToDelete.add(dataDirectory);
+        }
+        return dataDirectories;
+    }
+}
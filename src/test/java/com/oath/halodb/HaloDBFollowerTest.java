@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class HaloDBFollowerTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testFollowPutsAndDeletes(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testFollowPutsAndDeletes");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTombstoneFileSize(2 * 1024);
+        options.setCompactionDisabled(true);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        HaloDBFollower follower = HaloDBFollower.open(directory, options);
+        try {
+            Assert.assertEquals(follower.size(), 1000);
+            verify(follower, records);
+
+            TestUtils.updateRecords(db, records.subList(0, 300));
+            TestUtils.deleteRecords(db, records.subList(300, 500));
+            List<Record> inserted = TestUtils.insertRandomRecords(db, 500);
+            follower.refresh();
+
+            Assert.assertEquals(follower.size(), db.size());
+            verify(follower, db, records);
+            verify(follower, db, inserted);
+            Assert.assertNull(follower.get(records.get(300).getKey()));
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testFollowCompaction(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testFollowCompaction");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 2000);
+        HaloDBFollower follower = HaloDBFollower.open(directory, options);
+        try {
+            // files with the previous versions are compacted and deleted while the follower is open.
+            TestUtils.updateRecords(db, records.subList(0, 1000));
+            TestUtils.deleteRecords(db, records.subList(1000, 1200));
+            TestUtils.waitForCompactionToComplete(db);
+            Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+            follower.refresh();
+
+            Assert.assertEquals(follower.size(), db.size());
+            verify(follower, db, records);
+            Assert.assertNull(follower.get(records.get(1000).getKey()));
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testDeleteMarkersAreDroppedWithTheirTombstones(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testDeleteMarkersAreDroppedWithTheirTombstones");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTombstoneFileSize(2 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        Follower follower = Follower.open(new File(directory), options);
+        try {
+            db.pauseCompaction();
+            TestUtils.deleteRecords(db, records.subList(0, 500));
+            follower.refresh();
+            Assert.assertEquals(follower.getNumberOfDeleteMarkers(), 500);
+            Assert.assertEquals(follower.size(), db.size());
+            Assert.assertNull(follower.get(records.get(0).getKey(), 1));
+
+            // the deleted records are compacted, after which their tombstones are dropped.
+            db.resumeCompaction();
+            TestUtils.waitForCompactionToComplete(db);
+            db.compactTombstoneFiles();
+            follower.refresh();
+            Assert.assertTrue(follower.getNumberOfDeleteMarkers() < 500);
+            Assert.assertEquals(follower.size(), db.size());
+            for (Record record : records.subList(500, 1000)) {
+                Assert.assertEquals(follower.get(record.getKey(), 1), record.getValue());
+            }
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testFollowEvictedFiles() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testFollowEvictedFiles");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTotalDataFileSize(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 200);
+        HaloDBFollower follower = HaloDBFollower.open(directory, options);
+        try {
+            TestUtils.insertRandomRecords(db, 2000);
+            while (!db.isEvictionComplete()) {
+                Thread.sleep(100);
+            }
+            follower.refresh();
+
+            Assert.assertEquals(follower.size(), db.size());
+            verify(follower, db, records);
+            Assert.assertNull(follower.get(records.get(0).getKey()));
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testRefreshInBackground() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testRefreshInBackground");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(16 * 1024);
+        options.setFollowerRefreshIntervalInMillis(10);
+        HaloDB db = getTestDB(directory, options);
+
+        HaloDBFollower follower = HaloDBFollower.open(directory, options);
+        try {
+            Assert.assertEquals(follower.size(), 0);
+            List<Record> records = TestUtils.insertRandomRecords(db, 500);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (follower.size() < records.size() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            verify(follower, records);
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testFollowBlobs() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testFollowBlobs");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(64 * 1024);
+        options.setBlobThreshold(1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 100, 2048);
+        HaloDBFollower follower = HaloDBFollower.open(directory, options);
+        try {
+            verify(follower, records);
+            TestUtils.updateRecordsWithSize(db, records.subList(0, 50), 2048);
+            follower.refresh();
+            verify(follower, db, records);
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testFollowBlobsInBackground() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testFollowBlobsInBackground");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(16 * 1024);
+        options.setBlobThreshold(1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setFollowerRefreshIntervalInMillis(10);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 100, 2048);
+        HaloDBFollower follower = HaloDBFollower.open(directory, options);
+        // blob files are created and relocated while the follower reads, which waits for the refresh thread.
+        AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> reader = executor.submit(() -> {
+                while (!done.get()) {
+                    for (Record r : records) {
+                        follower.get(r.getKey());
+                    }
+                }
+                return null;
+            });
+            for (int i = 0; i < 5; i++) {
+                TestUtils.updateRecordsWithSize(db, records, 2048);
+            }
+            done.set(true);
+            reader.get(60, TimeUnit.SECONDS);
+
+            TestUtils.waitForCompactionToComplete(db);
+            follower.refresh();
+            verify(follower, db, records);
+        } finally {
+            executor.shutdownNow();
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testFollowShards() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBFollowerTest", "testFollowShards");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfShards(4);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        HaloDBFollower follower = HaloDBFollower.open(directory, options);
+        try {
+            Assert.assertEquals(follower.size(), 1000);
+            verify(follower, records);
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test(expectedExceptions = HaloDBException.class)
+    public void testFollowMissingDb() throws Exception {
+        File directory = new File(TestUtils.getTestDirectory("HaloDBFollowerTest", "testFollowMissingDb"));
+        TestUtils.deleteDirectory(directory);
+        HaloDBFollower.open(directory, new HaloDBOptions());
+    }
+
+    private void verify(HaloDBFollower follower, List<Record> records) throws HaloDBException {
+        for (Record r : records) {
+            Assert.assertEquals(follower.get(r.getKey()), r.getValue());
+        }
+    }
+
+    // random keys might collide, hence compared with the db instead of the records.
+    private void verify(HaloDBFollower follower, HaloDB db, List<Record> records) throws HaloDBException {
+        for (Record r : records) {
+            Assert.assertEquals(follower.get(r.getKey()), db.get(r.getKey()));
+        }
+    }
+}
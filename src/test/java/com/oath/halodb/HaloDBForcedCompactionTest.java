@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class HaloDBForcedCompactionTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testCompactAllFiles(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBForcedCompactionTest", "testCompactAllFiles");
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 500);
+        List<File> dataFiles = getDataFilesSortedById(directory);
+        File currentWriteFile = dataFiles.get(dataFiles.size() - 1);
+
+        // none of the files has any stale data.
+        db.compact(0.0).get(30, TimeUnit.SECONDS);
+
+        for (File file : dataFiles) {
+            Assert.assertEquals(file.exists(), file.equals(currentWriteFile), file.getName());
+        }
+        Assert.assertEquals(db.stats().getNumberOfRecordsCopied(), db.stats().getNumberOfRecordsScanned());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), records.size());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactOnlyFilesAboveRatio(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBForcedCompactionTest", "testCompactOnlyFilesAboveRatio");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.99);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 500);
+        List<File> dataFiles = getDataFilesSortedById(directory);
+        Assert.assertTrue(dataFiles.size() > 3);
+
+        // most records of the first file become stale, the rest of the files have no stale data.
+        List<Record> updated = TestUtils.updateRecords(db, records.subList(0, 100));
+
+        db.compact(0.5).get(30, TimeUnit.SECONDS);
+
+        Assert.assertFalse(dataFiles.get(0).exists());
+        for (File file : dataFiles.subList(1, dataFiles.size())) {
+            Assert.assertTrue(file.exists(), file.getName());
+        }
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        for (Record r : records.subList(100, records.size())) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactWithNothingToCompact(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBForcedCompactionTest", "testCompactWithNothingToCompact");
+        HaloDB db = getTestDB(directory, options);
+        TestUtils.insertRandomRecords(db, 100);
+
+        Assert.assertTrue(db.compact(0.5).isDone());
+        Assert.assertEquals(db.stats().getNumberOfRecordsCopied(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidRatio() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBForcedCompactionTest", "testInvalidRatio");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        db.compact(1.5);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class)
+    public void testCompactWhenCompactionIsDisabled() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBForcedCompactionTest", "testCompactWhenCompactionIsDisabled");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionDisabled(true);
+        HaloDB db = getTestDB(directory, options);
+        db.compact(0.0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testOfflineCompactionTool(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBForcedCompactionTest", "testOfflineCompactionTool");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionDisabled(true);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        List<Record> updated = TestUtils.updateRecords(db, records.subList(0, 500));
+        records = new ArrayList<>(records.subList(500, records.size()));
+        records.addAll(updated);
+        db.close();
+
+        long sizeBefore = getSizeOfDataFiles(directory);
+        long reclaimed = HaloDBCompactionTool.compact(new File(directory), options, 0.25);
+        Assert.assertTrue(reclaimed > 0);
+        Assert.assertEquals(getSizeOfDataFiles(directory), sizeBefore - reclaimed);
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), 1000);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRepairAfterParallelCompaction(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBForcedCompactionTest", "testRepairAfterParallelCompaction");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionDisabled(true);
+        HaloDB db = getTestDB(directory, options);
+
+        // every other record is updated, so that the files compacted have live records.
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 2000, 200);
+        List<Record> updated = TestUtils.updateRecords(db,
+                IntStream.range(0, records.size()).filter(i -> i % 2 == 0).mapToObj(records::get).collect(Collectors.toList()));
+        for (int i = 0; i < updated.size(); i++) {
+            records.set(i * 2, updated.get(i));
+        }
+        Assert.assertTrue(db.compactInParallel(0.25, 4) > 0);
+
+        // the file each thread was writing to is recorded.
+        DBMetaData dbMetaData = new DBMetaData(dbDirectory);
+        dbMetaData.loadFromFileIfExists();
+        List<Integer> compactedFileIds = dbMetaData.getActiveDataFileIds().stream()
+                .filter(id -> new File(directory, id + HaloDBFile.COMPACTED_DATA_FILE_NAME).exists())
+                .collect(Collectors.toList());
+        Assert.assertTrue(compactedFileIds.size() > 1);
+        db.close();
+
+        // all of them have a torn tail after a crash.
+        List<Long> sizes = new ArrayList<>();
+        for (int fileId : compactedFileIds) {
+            Path path = Paths.get(directory, fileId + HaloDBFile.COMPACTED_DATA_FILE_NAME);
+            sizes.add(Files.size(path));
+            Files.write(path, new byte[] {1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        }
+        dbMetaData = new DBMetaData(dbDirectory);
+        dbMetaData.loadFromFileIfExists();
+        dbMetaData.setOpen(true);
+        dbMetaData.setActiveDataFileIds(compactedFileIds);
+        dbMetaData.storeToFile();
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (int i = 0; i < compactedFileIds.size(); i++) {
+            Path path = Paths.get(directory, compactedFileIds.get(i) + HaloDBFile.COMPACTED_DATA_FILE_NAME);
+            Assert.assertEquals(Files.size(path), (long) sizes.get(i));
+        }
+        Assert.assertEquals(db.size(), 2000);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    private List<File> getDataFilesSortedById(String directory) {
+        return TestUtils.getDataFiles(directory).stream()
+                .sorted(Comparator.comparingInt(f -> FileUtils.getFileId(f, Constants.DATA_FILE_PATTERN)))
+                .collect(Collectors.toList());
+    }
+
+    // data and compacted files.
+    private long getSizeOfDataFiles(String directory) {
+        return Arrays.stream(FileUtils.listDataFiles(new File(directory))).mapToLong(File::length).sum();
+    }
+}
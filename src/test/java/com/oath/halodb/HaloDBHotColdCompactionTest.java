@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class HaloDBHotColdCompactionTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testColdRecordsAreSegregated(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBHotColdCompactionTest", "testColdRecordsAreSegregated");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.4);
+        options.setHotColdSegregationEnabled(true);
+        HaloDB db = getTestDB(directory, options);
+
+        Map<String, byte[]> records = writeHotAndColdRecords(db);
+        TestUtils.waitForCompactionToComplete(db);
+
+        HaloDBStats stats = db.stats();
+        // all cold records were in files which became stale because of the hot records.
+        Assert.assertEquals(stats.getNumberOfColdRecordsCopied(), 1000);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), records.size());
+        for (Map.Entry<String, byte[]> e : records.entrySet()) {
+            Assert.assertEquals(db.get(e.getKey().getBytes()), e.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testSegregationIsDisabledByDefault(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBHotColdCompactionTest", "testSegregationIsDisabledByDefault");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.4);
+        HaloDB db = getTestDB(directory, options);
+
+        Map<String, byte[]> records = writeHotAndColdRecords(db);
+        TestUtils.waitForCompactionToComplete(db);
+
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfRecordsCopied() > 0);
+        Assert.assertEquals(stats.getNumberOfColdRecordsCopied(), 0);
+        for (Map.Entry<String, byte[]> e : records.entrySet()) {
+            Assert.assertEquals(db.get(e.getKey().getBytes()), e.getValue());
+        }
+    }
+
+    // cold keys are written once, interleaved with updates to a few hot keys. Compaction
+    // runs once all records are written so that the age of the records doesn't depend on timing.
+    private Map<String, byte[]> writeHotAndColdRecords(HaloDB db) throws HaloDBException {
+        db.pauseCompaction();
+        Map<String, byte[]> records = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            put(db, records, "cold" + i);
+            put(db, records, "hot" + i % 50);
+        }
+        for (int round = 0; round < 60; round++) {
+            for (int i = 0; i < 50; i++) {
+                put(db, records, "hot" + i);
+            }
+        }
+        db.resumeCompaction();
+        return records;
+    }
+
+    private void put(HaloDB db, Map<String, byte[]> records, String key) throws HaloDBException {
+        byte[] value = TestUtils.generateRandomByteArray(100);
+        db.put(key.getBytes(), value);
+        records.put(key, value);
+    }
+}
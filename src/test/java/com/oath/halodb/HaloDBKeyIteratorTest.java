@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+public class HaloDBKeyIteratorTest extends TestBase {
+
+    @Test(expectedExceptions = NoSuchElementException.class, dataProvider = "Options")
+    public void testWithEmptyDB(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBKeyIteratorTest", "testWithEmptyDB");
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBKeyIterator iterator = db.newKeyIterator();
+        Assert.assertFalse(iterator.hasNext());
+        iterator.next();
+    }
+
+    @Test(dataProvider = "Options")
+    public void testPutUpdateDeleteAndIterateKeys(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBKeyIteratorTest", "testPutUpdateDeleteAndIterateKeys");
+
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 10_000);
+        TestUtils.updateRecords(db, records.subList(0, 2_000));
+        TestUtils.deleteRecords(db, records.subList(2_000, 3_000));
+        List<String> expected = keys(records.subList(0, 2_000));
+        expected.addAll(keys(records.subList(3_000, 10_000)));
+
+        List<String> actual = new ArrayList<>();
+        db.newKeyIterator().forEachRemaining(key -> actual.add(Arrays.toString(key)));
+        MatcherAssert.assertThat(actual, Matchers.containsInAnyOrder(expected.toArray()));
+
+        // keys copied into a reused buffer.
+        List<String> copied = new ArrayList<>();
+        byte[] buffer = new byte[Byte.MAX_VALUE];
+        HaloDBKeyIterator iterator = db.newKeyIterator();
+        while (iterator.hasNext()) {
+            int length = iterator.nextKey(buffer);
+            copied.add(Arrays.toString(Arrays.copyOf(buffer, length)));
+        }
+        MatcherAssert.assertThat(copied, Matchers.containsInAnyOrder(expected.toArray()));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testMetaData(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBKeyIteratorTest", "testMetaData");
+        options.setTtlEnabled(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 1_000);
+        byte[] expiring = TestUtils.generateRandomByteArray();
+        db.put(expiring, new byte[100], 3600);
+
+        int count = 0;
+        HaloDBKeyIterator keys = db.newKeyIterator();
+        Iterator<HaloDBKeyMetaData> iterator = db.newMetaDataIterator();
+        while (iterator.hasNext()) {
+            HaloDBKeyMetaData metaData = iterator.next();
+            byte[] key = keys.next();
+            Assert.assertEquals(metaData.getKey(), key);
+            Assert.assertEquals(metaData.getSequenceNumber(), keys.getSequenceNumber());
+
+            InMemoryIndexMetaData current = db.getShards().get(0).getInMemoryIndex().get(key);
+            Assert.assertEquals(metaData.getSequenceNumber(), current.getSequenceNumber());
+            if (Arrays.equals(key, expiring)) {
+                Assert.assertEquals(metaData.getValueSize(), 100);
+                Assert.assertTrue(metaData.getExpiryTime() > System.currentTimeMillis() / 1000);
+            } else {
+                Assert.assertEquals(metaData.getValueSize(), db.get(key).length);
+                Assert.assertEquals(metaData.getExpiryTime(), 0);
+            }
+            count++;
+        }
+        Assert.assertFalse(keys.hasNext());
+        Assert.assertEquals(count, records.size() + 1);
+    }
+
+    @Test
+    public void testExpiredKeysAreSkipped() throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBKeyIteratorTest", "testExpiredKeysAreSkipped");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setTtlEnabled(true);
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 100);
+        db.put(TestUtils.generateRandomByteArray(), new byte[10], 1);
+        Thread.sleep(2000);
+
+        List<String> actual = new ArrayList<>();
+        db.newKeyIterator().forEachRemaining(key -> actual.add(Arrays.toString(key)));
+        MatcherAssert.assertThat(actual, Matchers.containsInAnyOrder(keys(records).toArray()));
+    }
+
+    @Test
+    public void testIterateKeysWithShards() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBKeyIteratorTest", "testIterateKeysWithShards");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 5_000);
+
+        List<String> actual = new ArrayList<>();
+        db.newKeyIterator().forEachRemaining(key -> actual.add(Arrays.toString(key)));
+        MatcherAssert.assertThat(actual, Matchers.containsInAnyOrder(keys(records).toArray()));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testMetaDataBeforeNext() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBKeyIteratorTest", "testMetaDataBeforeNext");
+
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        TestUtils.insertRandomRecords(db, 10);
+        db.newKeyIterator().getSequenceNumber();
+    }
+
+    private List<String> keys(List<Record> records) {
+        return records.stream().map(r -> Arrays.toString(r.getKey())).collect(Collectors.toList());
+    }
+}
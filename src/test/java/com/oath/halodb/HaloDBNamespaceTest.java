@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class HaloDBNamespaceTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testNamespacesAreIsolated(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testNamespacesAreIsolated");
+
+        options.addNamespace("users", 1);
+        options.addNamespace("orders", 2);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBNamespace users = db.getNamespace("users");
+        HaloDBNamespace orders = db.getNamespace("orders");
+
+        // the same keys in both namespaces.
+        List<Record> userRecords = insertRecords(users, 500);
+        List<Record> orderRecords = insertRecords(orders, 300);
+        for (Record r : userRecords) {
+            Assert.assertEquals(users.get(r.getKey()), r.getValue());
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : orderRecords) {
+            Assert.assertEquals(orders.get(r.getKey()), r.getValue());
+        }
+        Assert.assertNull(orders.get("key-400".getBytes()));
+
+        users.delete("key-1".getBytes());
+        Assert.assertNull(users.get("key-1".getBytes()));
+        Assert.assertNotNull(orders.get("key-1".getBytes()));
+        userRecords.remove(1);
+
+        MatcherAssert.assertThat(iterate(users), Matchers.containsInAnyOrder(userRecords.toArray()));
+        MatcherAssert.assertThat(iterate(orders), Matchers.containsInAnyOrder(orderRecords.toArray()));
+        Assert.assertEquals(db.size(), 799);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testReopenAndCompaction(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testReopenAndCompaction");
+
+        options.addNamespace("users", 1);
+        options.addNamespace("orders", 2);
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+
+        HaloDB db = getTestDB(directory, options);
+        insertRecords(db.getNamespace("users"), 500);
+        List<Record> userRecords = insertRecords(db.getNamespace("users"), 500);
+        List<Record> orderRecords = insertRecords(db.getNamespace("orders"), 500);
+        TestUtils.waitForCompactionToComplete(db);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        MatcherAssert.assertThat(iterate(db.getNamespace("users")), Matchers.containsInAnyOrder(userRecords.toArray()));
+        MatcherAssert.assertThat(iterate(db.getNamespace("orders")), Matchers.containsInAnyOrder(orderRecords.toArray()));
+    }
+
+    @Test
+    public void testWithOrderedKeyIndexAndShards() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testWithOrderedKeyIndexAndShards");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setOrderedKeyIndexEnabled(true);
+        options.setNumberOfShards(4);
+        options.addNamespace("users", 1);
+        options.addNamespace("orders", 0xffff);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> userRecords = insertRecords(db.getNamespace("users"), 500);
+        List<Record> orderRecords = insertRecords(db.getNamespace("orders"), 300);
+        db.put("key-1".getBytes(), new byte[10]);
+
+        List<Record> users = iterate(db.getNamespace("users"));
+        Assert.assertEquals(users, userRecords.stream().sorted((a, b) ->
+                OrderedKeyIndex.KEY_ORDER.compare(a.getKey(), b.getKey())).collect(Collectors.toList()));
+        MatcherAssert.assertThat(iterate(db.getNamespace("orders")), Matchers.containsInAnyOrder(orderRecords.toArray()));
+    }
+
+    @Test
+    public void testStats() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testStats");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.addNamespace("users", 1);
+        options.addNamespace("orders", 2);
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBNamespace users = db.getNamespace("users");
+        insertRecords(users, 100);
+        insertRecords(db.getNamespace("orders"), 50);
+        users.delete("key-0".getBytes());
+        users.get("key-1".getBytes());
+
+        HaloDBNamespaceStats stats = users.stats();
+        Assert.assertEquals(stats.getName(), "users");
+        Assert.assertEquals(stats.getNumberOfRecords(), 99);
+        Assert.assertEquals(stats.getNumberOfPuts(), 100);
+        Assert.assertEquals(stats.getNumberOfDeletes(), 1);
+        Assert.assertEquals(stats.getNumberOfGets(), 1);
+        Assert.assertEquals(stats.getSizeOfValuesWritten(), 100 * 20);
+        Assert.assertEquals(db.getNamespace("orders").stats().getNumberOfRecords(), 50);
+
+        db.resetStats();
+        stats = users.stats();
+        Assert.assertEquals(stats.getNumberOfRecords(), 99);
+        Assert.assertEquals(stats.getNumberOfPuts(), 0);
+    }
+
+    @Test
+    public void testNumberOfRecordsAfterReopen() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testNumberOfRecordsAfterReopen");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.addNamespace("users", 1);
+        options.addNamespace("orders", 2);
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBNamespace users = db.getNamespace("users");
+        insertRecords(users, 300);
+        // updates don't change the number of records.
+        insertRecords(users, 300);
+        insertRecords(db.getNamespace("orders"), 200);
+        for (int i = 0; i < 100; i++) {
+            users.delete(("key-" + i).getBytes());
+        }
+        db.put("key-1".getBytes(), new byte[10]);
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertEquals(users.stats().getNumberOfRecords(), 200);
+        Assert.assertEquals(db.getNamespace("orders").stats().getNumberOfRecords(), 200);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.getNamespace("users").stats().getNumberOfRecords(), 200);
+        Assert.assertEquals(db.getNamespace("orders").stats().getNumberOfRecords(), 200);
+        Assert.assertEquals(db.size(), 401);
+    }
+
+    @Test
+    public void testNumberOfRecordsWithTombstonesInSeveralFiles() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testNumberOfRecordsWithTombstonesInSeveralFiles");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setBuildIndexThreads(4);
+        options.setMaxFileSize(10 * 1024);
+        options.setMaxTombstoneFileSize(4 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.addNamespace("users", 1);
+        options.addNamespace("orders", 2);
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBNamespace users = db.getNamespace("users");
+        HaloDBNamespace orders = db.getNamespace("orders");
+        int noOfUsers = 1000;
+        for (int i = 0; i < noOfUsers; i++) {
+            users.put(("key-" + i).getBytes(), new byte[20]);
+            // keeps the files of the first version of users below the compaction threshold.
+            for (int j = 0; j < 3; j++) {
+                orders.put(("key-" + (3 * i + j)).getBytes(), new byte[20]);
+            }
+        }
+        // each user is deleted twice, in different but nearby tombstone files. The data files
+        // of the second version are compacted away, so both tombstones are newer than the
+        // version in the data files at open and are processed concurrently.
+        for (int chunk = 0; chunk < noOfUsers; chunk += 100) {
+            for (int i = chunk; i < chunk + 100; i++) {
+                users.delete(("key-" + i).getBytes());
+            }
+            for (int i = chunk; i < chunk + 100; i++) {
+                users.put(("key-" + i).getBytes(), new byte[20]);
+            }
+            for (int i = chunk; i < chunk + 100; i++) {
+                users.delete(("key-" + i).getBytes());
+            }
+        }
+        for (int i = 3 * noOfUsers; i < 4 * noOfUsers; i++) {
+            orders.put(("key-" + i).getBytes(), new byte[20]);
+        }
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertEquals(users.stats().getNumberOfRecords(), 0);
+
+        // the tombstone files are kept, so each open processes them again.
+        for (int i = 0; i < 5; i++) {
+            db.close();
+            db = getTestDBWithoutDeletingFiles(directory, options);
+            Assert.assertEquals(db.getNamespace("users").stats().getNumberOfRecords(), 0);
+            Assert.assertEquals(db.getNamespace("orders").stats().getNumberOfRecords(), 4 * noOfUsers);
+            Assert.assertEquals(db.size(), 4 * noOfUsers);
+        }
+    }
+
+    @Test
+    public void testNamespaceOptions() throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testNamespaceOptions");
+
+        HaloDBNamespaceOptions sessionOptions = new HaloDBNamespaceOptions();
+        sessionOptions.setDefaultTtlInSeconds(1);
+        sessionOptions.setMaxValueSize(100);
+        HaloDBOptions options = new HaloDBOptions();
+        options.setTtlEnabled(true);
+        options.addNamespace("sessions", 1, sessionOptions);
+        options.addNamespace("users", 2);
+        // options are copied when the namespace is added.
+        sessionOptions.setDefaultTtlInSeconds(0);
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBNamespace sessions = db.getNamespace("sessions");
+        sessions.put("session".getBytes(), new byte[10]);
+        sessions.put("pinned".getBytes(), new byte[10], 3600);
+        db.getNamespace("users").put("user".getBytes(), new byte[1000]);
+        Thread.sleep(2000);
+
+        Assert.assertNull(sessions.get("session".getBytes()));
+        Assert.assertNotNull(sessions.get("pinned".getBytes()));
+        Assert.assertNotNull(db.getNamespace("users").get("user".getBytes()));
+        try {
+            sessions.put("large".getBytes(), new byte[101]);
+            Assert.fail("value larger than maxValueSize was stored");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "value length cannot exceed 100 in namespace sessions");
+        }
+    }
+
+    @Test
+    public void testKeysWithPrefixOfNamespaceAreRejected() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testKeysWithPrefixOfNamespaceAreRejected");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.addNamespace("users", 1);
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBNamespace users = db.getNamespace("users");
+        users.put("a".getBytes(), new byte[10]);
+        byte[] key = users.toDbKey("a".getBytes());
+
+        try {
+            db.put(key, new byte[10]);
+            Assert.fail("key with the prefix of a namespace was stored");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "key starts with the prefix of namespace users");
+        }
+        try {
+            db.put(key, new byte[10], 60);
+            Assert.fail("key with the prefix of a namespace was stored");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "key starts with the prefix of namespace users");
+        }
+        try {
+            db.delete(key);
+            Assert.fail("key with the prefix of a namespace was deleted");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "key starts with the prefix of namespace users");
+        }
+        Assert.assertEquals(users.stats().getNumberOfRecords(), 1);
+
+        // keys shorter than the prefix, or with the prefix of an unknown namespace.
+        db.put(new byte[] {0}, new byte[10]);
+        db.put(new byte[] {0, 2, 'a'}, new byte[10]);
+        Assert.assertEquals(users.stats().getNumberOfRecords(), 1);
+        // the records of namespaces are included in the size of the db.
+        Assert.assertEquals(db.size(), 3);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Namespace unknown doesn't exist")
+    public void testUnknownNamespace() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testUnknownNamespace");
+
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        db.getNamespace("unknown");
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "key length cannot exceed 125 in a namespace")
+    public void testKeyLength() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBNamespaceTest", "testKeyLength");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.addNamespace("users", 1);
+
+        HaloDB db = getTestDB(directory, options);
+        db.getNamespace("users").put(new byte[126], new byte[10]);
+    }
+
+    @Test
+    public void testInvalidNamespaces() {
+        HaloDBOptions options = new HaloDBOptions();
+        options.addNamespace("users", 1);
+        assertInvalid(options, "users", 2);
+        assertInvalid(options, "orders", 1);
+        assertInvalid(options, "orders", 0x10000);
+        assertInvalid(options, "orders", -1);
+        Assert.assertEquals(options.getNamespaceIds().size(), 1);
+    }
+
+    private void assertInvalid(HaloDBOptions options, String name, int id) {
+        try {
+            options.addNamespace(name, id);
+            Assert.fail("Namespace " + name + " with id " + id + " was added");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+
+    private List<Record> insertRecords(HaloDBNamespace namespace, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Record record = new Record(("key-" + i).getBytes(), TestUtils.generateRandomByteArray(20));
+            namespace.put(record.getKey(), record.getValue());
+            records.add(record);
+        }
+        return records;
+    }
+
+    private List<Record> iterate(HaloDBNamespace namespace) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        namespace.newIterator().forEachRemaining(records::add);
+        return records;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+public class HaloDBRangeScanTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testScanAndPrefixScan(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBRangeScanTest", "testScanAndPrefixScan");
+
+        options.setOrderedKeyIndexEnabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<String> expected = insertTenants(db);
+        // every third key of tenant 3 is deleted.
+        for (int i = 0; i < 100; i += 3) {
+            db.delete(key(3, i).getBytes());
+            expected.remove(key(3, i));
+        }
+
+        List<String> tenant = keys(db.prefixScan("tenant-3-".getBytes()));
+        Assert.assertEquals(tenant, filter(expected, "tenant-3-"));
+        Assert.assertEquals(tenant.size(), 66);
+
+        Assert.assertEquals(keys(db.scan("tenant-2-050".getBytes(), "tenant-4-".getBytes())),
+                expected.subList(expected.indexOf("tenant-2-050"), expected.indexOf("tenant-4-000")));
+        Assert.assertEquals(keys(db.scan(null, null)), expected);
+        Assert.assertEquals(keys(db.scan("tenant-9-".getBytes(), null)), filter(expected, "tenant-9-"));
+        Assert.assertFalse(db.prefixScan("tenant-x".getBytes()).hasNext());
+
+        // values are those of the latest versions.
+        db.put(key(5, 7).getBytes(), "updated".getBytes());
+        Record record = db.prefixScan(key(5, 7).getBytes()).next();
+        Assert.assertEquals(record.getValue(), "updated".getBytes());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRebuiltAtOpen(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBRangeScanTest", "testRebuiltAtOpen");
+
+        options.setOrderedKeyIndexEnabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<String> expected = insertTenants(db);
+        for (int i = 0; i < 100; i++) {
+            db.delete(key(7, i).getBytes());
+        }
+        expected.removeAll(filter(expected, "tenant-7-"));
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(keys(db.scan(null, null)), expected);
+        Assert.assertEquals(db.getShards().get(0).getOrderedKeyIndex().size(), expected.size());
+        Assert.assertFalse(db.prefixScan("tenant-7-".getBytes()).hasNext());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testMaintainedDuringCompactionAndExpiry(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBRangeScanTest", "testMaintainedDuringCompactionAndExpiry");
+
+        options.setOrderedKeyIndexEnabled(true);
+        options.setTtlEnabled(true);
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+
+        HaloDB db = getTestDB(directory, options);
+        List<String> expected = insertTenants(db);
+        db.put("tenant-5-expiring".getBytes(), new byte[10], 1);
+        Thread.sleep(2000);
+        // expired keys are skipped even before they are removed.
+        Assert.assertEquals(keys(db.prefixScan("tenant-5-".getBytes())), filter(expected, "tenant-5-"));
+
+        // the expired record is dropped either by compaction or by the sweeper.
+        for (String key : expected) {
+            db.put(key.getBytes(), TestUtils.generateRandomByteArray(20));
+        }
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertEquals(keys(db.scan(null, null)), expected);
+
+        db.getShards().get(0).sweepExpiredRecords();
+        Assert.assertEquals(db.getShards().get(0).getOrderedKeyIndex().size(), expected.size());
+    }
+
+    @Test
+    public void testScanWithShards() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBRangeScanTest", "testScanWithShards");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setOrderedKeyIndexEnabled(true);
+        options.setNumberOfShards(4);
+
+        HaloDB db = getTestDB(directory, options);
+        List<String> expected = insertTenants(db);
+
+        Assert.assertEquals(keys(db.scan(null, null)), expected);
+        Assert.assertEquals(keys(db.prefixScan("tenant-1-".getBytes())), filter(expected, "tenant-1-"));
+    }
+
+    @Test
+    public void testUnsignedKeyOrder() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBRangeScanTest", "testUnsignedKeyOrder");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setOrderedKeyIndexEnabled(true);
+
+        HaloDB db = getTestDB(directory, options);
+        byte[][] keys = {{0x01}, {0x01, 0x00}, {0x01, 0x7f}, {0x01, (byte) 0x80}, {0x01, (byte) 0xff}, {0x02}, {(byte) 0xff}};
+        for (int i = keys.length - 1; i >= 0; i--) {
+            db.put(keys[i], new byte[] {(byte) i});
+        }
+
+        Iterator<Record> iterator = db.scan(null, null);
+        for (byte[] key : keys) {
+            Assert.assertEquals(iterator.next().getKey(), key);
+        }
+        Assert.assertFalse(iterator.hasNext());
+
+        List<byte[]> prefixed = new ArrayList<>();
+        db.prefixScan(new byte[] {0x01}).forEachRemaining(r -> prefixed.add(r.getKey()));
+        Assert.assertEquals(prefixed.size(), 5);
+
+        Assert.assertEquals(OrderedKeyIndex.prefixEnd(new byte[] {0x01, (byte) 0xff}), new byte[] {0x02});
+        Assert.assertNull(OrderedKeyIndex.prefixEnd(new byte[] {(byte) 0xff, (byte) 0xff}));
+    }
+
+    @Test(expectedExceptions = HaloDBException.class)
+    public void testScanWithoutOrderedKeyIndex() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBRangeScanTest", "testScanWithoutOrderedKeyIndex");
+
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        db.prefixScan("tenant".getBytes());
+    }
+
+    // 10 tenants with 100 keys each, returns the keys in order.
+    private List<String> insertTenants(HaloDB db) throws HaloDBException {
+        List<String> keys = new ArrayList<>();
+        for (int tenant = 0; tenant < 10; tenant++) {
+            for (int i = 0; i < 100; i++) {
+                keys.add(key(tenant, i));
+            }
+        }
+        List<String> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled);
+        for (String key : shuffled) {
+            db.put(key.getBytes(), TestUtils.generateRandomByteArray(20));
+        }
+        return keys;
+    }
+
+    private String key(int tenant, int i) {
+        return String.format("tenant-%d-%03d", tenant, i);
+    }
+
+    private List<String> keys(Iterator<Record> iterator) {
+        List<String> keys = new ArrayList<>();
+        iterator.forEachRemaining(r -> keys.add(new String(r.getKey())));
+        return keys;
+    }
+
+    private List<String> filter(List<String> keys, String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String key : keys) {
+            if (key.startsWith(prefix)) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class HaloDBScanIteratorTest extends TestBase {
+
+    @Test(expectedExceptions = NoSuchElementException.class, dataProvider = "Options")
+    public void testWithEmptyDB(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBScanIteratorTest", "testWithEmptyDB");
+
+        HaloDB db = getTestDB(directory, options);
+        HaloDBScanIterator iterator = db.newScanIterator();
+        Assert.assertFalse(iterator.hasNext());
+        iterator.next();
+    }
+
+    @Test(dataProvider = "Options")
+    public void testPutUpdateDeleteAndScan(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBScanIteratorTest", "testPutUpdateDeleteAndScan");
+
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(64 * 1024);
+        // records span chunk boundaries.
+        options.setScanReadAheadSize(1000);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 10_000);
+        List<Record> expected = TestUtils.updateRecords(db, records.subList(0, 5_000));
+        TestUtils.deleteRecords(db, records.subList(5_000, 6_000));
+        expected.addAll(records.subList(6_000, 10_000));
+
+        MatcherAssert.assertThat(scan(db), Matchers.containsInAnyOrder(expected.toArray()));
+
+        // index is rebuilt from the files at open.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        MatcherAssert.assertThat(scan(db), Matchers.containsInAnyOrder(expected.toArray()));
+    }
+
+    @Test
+    public void testRecordsLargerThanReadAheadSize() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBScanIteratorTest", "testRecordsLargerThanReadAheadSize");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(64 * 1024);
+        options.setScanReadAheadSize(1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = new ArrayList<>(TestUtils.insertRandomRecordsOfSize(db, 100, 300));
+        records.addAll(TestUtils.insertRandomRecordsOfSize(db, 100, 5000));
+        records.addAll(TestUtils.insertRandomRecordsOfSize(db, 100, 300));
+
+        MatcherAssert.assertThat(scan(db), Matchers.containsInAnyOrder(records.toArray()));
+    }
+
+    @Test
+    public void testCompressedExpiringAndBlobValues() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBScanIteratorTest", "testCompressedExpiringAndBlobValues");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionDisabled(true);
+        options.setCompressionThreshold(1024);
+        options.setBlobThreshold(4096);
+        options.setTtlEnabled(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            byte[] key = TestUtils.generateRandomByteArray();
+            byte[] value = TestUtils.generateRandomAsciiString(i % 3 == 0 ? 8192 : 2048).getBytes();
+            if (i % 2 == 0) {
+                db.put(key, value, 3600);
+            } else {
+                db.put(key, value);
+            }
+            records.add(new Record(key, value));
+        }
+        // expired records are not returned.
+        db.put(TestUtils.generateRandomByteArray(), TestUtils.generateRandomByteArray(), 1);
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        MatcherAssert.assertThat(scan(db), Matchers.containsInAnyOrder(records.toArray()));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testPutUpdateCompactAndScan(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBScanIteratorTest", "testPutUpdateCompactAndScan");
+
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.50);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 10_000);
+        List<Record> updated = TestUtils.updateRecords(db, records);
+        TestUtils.waitForCompactionToComplete(db);
+
+        List<Record> actual = scan(db);
+        Assert.assertEquals(actual.size(), updated.size());
+        MatcherAssert.assertThat(actual, Matchers.containsInAnyOrder(updated.toArray()));
+    }
+
+    @Test
+    public void testCloseBeforeExhausted() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBScanIteratorTest", "testCloseBeforeExhausted");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxFileSize(10 * 1024);
+        options.setScanReadAheadSize(1024);
+
+        HaloDB db = getTestDB(directory, options);
+        TestUtils.insertRandomRecords(db, 1000);
+
+        HaloDBScanIterator iterator = db.newScanIterator();
+        Assert.assertNotNull(iterator.next());
+        iterator.close();
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    // files are compacted and deleted while being scanned.
+    @Test(dataProvider = "Options")
+    public void testConcurrentCompactionAndScan(HaloDBOptions options) throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBScanIteratorTest", "testConcurrentCompactionAndScan");
+
+        options.setMaxFileSize(64 * 1024);
+        options.setCompactionThresholdPerFile(0.1);
+        options.setScanReadAheadSize(16 * 1024);
+
+        final HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 1024, 1024 - Record.Header.HEADER_SIZE);
+
+        Thread updateThread = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                TestUtils.updateRecordsWithSize(db, records, 1024);
+            }
+        });
+        updateThread.start();
+
+        while (updateThread.isAlive()) {
+            try (HaloDBScanIterator iterator = db.newScanIterator()) {
+                while (iterator.hasNext()) {
+                    Assert.assertNotNull(iterator.next());
+                }
+            }
+        }
+        updateThread.join();
+    }
+
+    private List<Record> scan(HaloDB db) {
+        List<Record> actual = new ArrayList<>();
+        db.newScanIterator().forEachRemaining(actual::add);
+        return actual;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HaloDBSecondaryIndexTest extends TestBase {
+
+    // the first byte of the value is the attribute, values starting with 0 aren't indexed.
+    private static final AttributeExtractor FIRST_BYTE = value -> value.length > 0 && value[0] != 0 ? Arrays.copyOf(value, 1) : null;
+
+    @Test(dataProvider = "Options")
+    public void testLookupAfterPutUpdateAndDelete(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testLookupAfterPutUpdateAndDelete");
+
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = insertRecords(db, 1_000);
+
+        Assert.assertEquals(keys(db.lookupBy("first", attribute(3))), keysWith(records, 3));
+        Assert.assertTrue(db.lookupBy("first", attribute(0)).isEmpty());
+        Assert.assertTrue(db.lookupBy("first", attribute(42)).isEmpty());
+
+        // key 3 moves from attribute 3 to 4, key 13 isn't indexed any longer.
+        db.put(key(3), value(4, 3));
+        db.put(key(13), value(0, 13));
+        db.delete(key(23));
+        List<String> three = keysWith(records, 3);
+        three.removeAll(Arrays.asList("key-3", "key-13", "key-23"));
+        List<String> four = keysWith(records, 4);
+        four.add("key-3");
+
+        MatcherAssert.assertThat(keys(db.lookupBy("first", attribute(3))), Matchers.containsInAnyOrder(three.toArray()));
+        MatcherAssert.assertThat(keys(db.lookupBy("first", attribute(4))), Matchers.containsInAnyOrder(four.toArray()));
+
+        // values are those of the latest versions.
+        db.put(key(4), value(4, 1000));
+        for (Record record : db.lookupBy("first", attribute(4))) {
+            Assert.assertEquals(record.getValue(), db.get(record.getKey()));
+        }
+        Assert.assertEquals(db.getShards().get(0).getSecondaryIndexes().get("first").size(), 1_000 - 100 - 2);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRebuiltAtOpen(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testRebuiltAtOpen");
+
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = insertRecords(db, 1_000);
+        for (int i = 5; i < 1_000; i += 10) {
+            db.delete(key(i));
+        }
+        db.put(key(6), value(5, 6));
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(keys(db.lookupBy("first", attribute(5))), Arrays.asList("key-6"));
+        MatcherAssert.assertThat(keys(db.lookupBy("first", attribute(7))), Matchers.containsInAnyOrder(keysWith(records, 7).toArray()));
+
+        // entries of the values read at open are removed by later writes.
+        db.put(key(7), value(1, 7));
+        List<String> seven = keysWith(records, 7);
+        seven.remove("key-7");
+        MatcherAssert.assertThat(keys(db.lookupBy("first", attribute(7))), Matchers.containsInAnyOrder(seven.toArray()));
+        Assert.assertTrue(db.getShards().get(0).getNumberOfPreviousValuesRead() > 0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testPreviousValueIsReadOnlyIfIndexed(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testPreviousValueIsReadOnlyIfIndexed");
+
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        insertRecords(db, 1_000);
+        HaloDBInternal shard = db.getShards().get(0);
+        Assert.assertEquals(shard.getNumberOfPreviousValuesRead(), 0);
+
+        // values with attribute 0 have no entries to remove.
+        insertRecords(db, 1_000);
+        Assert.assertEquals(shard.getNumberOfPreviousValuesRead(), 900);
+        for (int i = 0; i < 1_000; i += 10) {
+            db.delete(key(i));
+        }
+        Assert.assertEquals(shard.getNumberOfPreviousValuesRead(), 900);
+        Assert.assertEquals(shard.getSecondaryIndexes().get("first").size(), 900);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testEntriesOfCompactedRecordsAreRemoved(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testEntriesOfCompactedRecordsAreRemoved");
+
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.4);
+
+        HaloDB db = getTestDB(directory, options);
+        insertRecords(db, 1_000);
+        for (int i = 0; i < 1_000; i += 2) {
+            db.put(key(i), value(i % 10, i));
+        }
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+        // the odd keys, some of them moved by compaction, aren't indexed any longer.
+        for (int i = 1; i < 1_000; i += 2) {
+            db.put(key(i), value(0, i));
+        }
+        for (int attribute = 1; attribute < 10; attribute += 2) {
+            Assert.assertTrue(db.lookupBy("first", attribute(attribute)).isEmpty());
+        }
+        Assert.assertEquals(db.getShards().get(0).getSecondaryIndexes().get("first").size(), 400);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Records with a ttl are not supported with secondary indexes")
+    public void testTtlNotSupported() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testTtlNotSupported");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.addSecondaryIndex("first", FIRST_BYTE);
+
+        HaloDB db = getTestDB(directory, options);
+        db.put(key(1), value(1, 1), 60);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = "secondaryIndexes cannot be used with maxTotalDataFileSize")
+    public void testCacheModeNotSupported() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testCacheModeNotSupported");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.setMaxTotalDataFileSize(64 * 1024 * 1024);
+        getTestDB(directory, options);
+    }
+
+    @Test
+    public void testMultipleIndexesWithShards() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testMultipleIndexesWithShards");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.addSecondaryIndex("length", value -> new byte[] {(byte) value.length});
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = insertRecords(db, 1_000);
+        db.put("long".getBytes(), new byte[50]);
+
+        MatcherAssert.assertThat(keys(db.lookupBy("first", attribute(9))), Matchers.containsInAnyOrder(keysWith(records, 9).toArray()));
+        Assert.assertEquals(keys(db.lookupBy("length", new byte[] {50})), Arrays.asList("long"));
+        Assert.assertEquals(db.lookupBy("length", new byte[] {10}).size(), 1_000);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Secondary index unknown doesn't exist")
+    public void testUnknownIndex() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testUnknownIndex");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.addSecondaryIndex("first", FIRST_BYTE);
+
+        HaloDB db = getTestDB(directory, options);
+        db.lookupBy("unknown", attribute(1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateIndexName() {
+        HaloDBOptions options = new HaloDBOptions();
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.addSecondaryIndex("first", FIRST_BYTE);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Bulk load is not supported with secondary indexes")
+    public void testBulkLoadNotSupported() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testBulkLoadNotSupported");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.addSecondaryIndex("first", FIRST_BYTE);
+
+        HaloDB db = getTestDB(directory, options);
+        db.newBulkLoader();
+    }
+
+    @Test(dataProvider = "Options")
+    public void testMaxSecondaryIndexSize(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSecondaryIndexTest", "testMaxSecondaryIndexSize");
+
+        // room for the entries of key-1 to key-9.
+        long entrySize = SecondaryIndex.entrySize(attribute(1), key(1));
+        options.addSecondaryIndex("first", FIRST_BYTE);
+        options.setMaxSecondaryIndexSize(9 * entrySize);
+
+        HaloDB db = getTestDB(directory, options);
+        insertRecords(db, 10);
+        Assert.assertEquals(db.getShards().get(0).getSecondaryIndexes().get("first").getSizeOfEntries(), 9 * entrySize);
+
+        // values which aren't indexed, and updates which replace an entry, still fit.
+        db.put(key(10), value(0, 10));
+        db.put(key(1), value(2, 1));
+        try {
+            db.put(key(11), value(1, 11));
+            Assert.fail("Put beyond maxSecondaryIndexSize should fail");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "Secondary indexes would exceed maxSecondaryIndexSize of " + 9 * entrySize + " bytes");
+        }
+        Assert.assertNull(db.get(key(11)));
+
+        // key-11 is a byte longer.
+        db.delete(key(8));
+        db.delete(key(9));
+        db.put(key(11), value(1, 11));
+        MatcherAssert.assertThat(keys(db.lookupBy("first", attribute(1))), Matchers.contains("key-11"));
+
+        db.close();
+        options.setMaxSecondaryIndexSize(8 * entrySize);
+        try {
+            getTestDBWithoutDeletingFiles(directory, options);
+            Assert.fail("Open with secondary indexes beyond maxSecondaryIndexSize should fail");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "Secondary indexes would exceed maxSecondaryIndexSize of " + 8 * entrySize + " bytes");
+        }
+    }
+
+    // the attribute of key-i is i % 10, 0 isn't indexed.
+    private List<Record> insertRecords(HaloDB db, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Record record = new Record(key(i), value(i % 10, i));
+            db.put(record.getKey(), record.getValue());
+            records.add(record);
+        }
+        return records;
+    }
+
+    private byte[] key(int i) {
+        return ("key-" + i).getBytes();
+    }
+
+    private byte[] value(int attribute, int i) {
+        byte[] value = TestUtils.generateRandomByteArray(10);
+        value[0] = (byte) attribute;
+        value[1] = (byte) i;
+        return value;
+    }
+
+    private byte[] attribute(int attribute) {
+        return new byte[] {(byte) attribute};
+    }
+
+    private List<String> keys(List<Record> records) {
+        List<String> keys = new ArrayList<>();
+        records.forEach(r -> keys.add(new String(r.getKey())));
+        keys.sort(null);
+        return keys;
+    }
+
+    private List<String> keysWith(List<Record> records, int attribute) {
+        List<String> keys = new ArrayList<>();
+        for (Record record : records) {
+            if (record.getValue()[0] == attribute) {
+                keys.add(new String(record.getKey()));
+            }
+        }
+        keys.sort(null);
+        return keys;
+    }
+}
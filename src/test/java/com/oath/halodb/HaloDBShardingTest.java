@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HaloDBShardingTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testShardedDB(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBShardingTest", "testShardedDB");
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfShards(4);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 2000);
+        for (int i = 0; i < 4; i++) {
+            File shardDirectory = HaloDB.getShardDirectory(new File(directory), i);
+            Assert.assertTrue(FileUtils.listDataFiles(shardDirectory).length > 0, shardDirectory.getName());
+        }
+        Assert.assertEquals(FileUtils.listDataFiles(new File(directory)).length, 0);
+        for (HaloDBInternal shard : db.getShards()) {
+            Assert.assertTrue(shard.size() > 0);
+        }
+        Assert.assertEquals(db.size(), records.size());
+
+        List<Record> updated = TestUtils.updateRecords(db, records.subList(0, 1000));
+        TestUtils.deleteRecords(db, records.subList(1000, 1500));
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        updated.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+        records.subList(1500, records.size()).forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+        TestUtils.waitForCompactionToComplete(db);
+
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getSize(), expected.size());
+        Assert.assertTrue(stats.getNumberOfRecordsCopied() > 0);
+        Assert.assertEquals(stats.getNumberOfSegments(), db.getShards().stream().mapToLong(s -> s.stats().getNumberOfSegments()).sum());
+
+        // file ids repeat across shards, hence stale data is reported per shard.
+        Assert.assertEquals(stats.getStaleDataPercentPerShard().size(), 4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(stats.getStaleDataPercentPerShard().get(i), db.getShards().get(i).stats().getStaleDataPercentPerFile());
+        }
+        Assert.assertTrue(stats.getStaleDataPercentPerFile().isEmpty());
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), expected.size());
+        for (Map.Entry<ByteBuffer, byte[]> e : expected.entrySet()) {
+            Assert.assertEquals(db.get(e.getKey().array()), e.getValue());
+        }
+        for (Record r : records.subList(1000, 1500)) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+
+        // the iterator spans all shards.
+        int count = 0;
+        HaloDBIterator iterator = db.newIterator();
+        while (iterator.hasNext()) {
+            Record r = iterator.next();
+            Assert.assertEquals(r.getValue(), expected.get(ByteBuffer.wrap(r.getKey())));
+            count++;
+        }
+        Assert.assertEquals(count, expected.size());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testForcedCompactionOfAllShards(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBShardingTest", "testForcedCompactionOfAllShards");
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfShards(3);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1000);
+        db.compact(0.0).get();
+
+        for (HaloDBInternal shard : db.getShards()) {
+            Assert.assertTrue(shard.stats().getNumberOfRecordsCopied() > 0);
+        }
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test
+    public void testCompactionJobRateIsSplitAcrossShards() {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+        options.setCompactionJobRate(40 * 1024 * 1024);
+        options.setMinCompactionJobRate(4 * 1024 * 1024);
+
+        HaloDBOptions shard = options.forShard(1);
+        Assert.assertEquals(shard.getCompactionJobRate(), 10 * 1024 * 1024);
+        Assert.assertEquals(shard.getMinCompactionJobRate(), 1024 * 1024);
+
+        options.setMinCompactionJobRate(-1);
+        Assert.assertEquals(options.forShard(1).getMinCompactionJobRate(), -1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*was created with 4 shards")
+    public void testNumberOfShardsCannotChange() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBShardingTest", "testNumberOfShardsCannotChange");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+        HaloDB db = getTestDB(directory, options);
+        db.put(new byte[] {1}, new byte[] {1});
+        db.close();
+
+        options.setNumberOfShards(2);
+        getTestDBWithoutDeletingFiles(directory, options);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*was created with 4 shards")
+    public void testShardedDBCannotBeOpenedWithoutShards() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBShardingTest", "testShardedDBCannotBeOpenedWithoutShards");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+        HaloDB db = getTestDB(directory, options);
+        db.close();
+
+        getTestDBWithoutDeletingFiles(directory, new HaloDBOptions());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*was created without shards")
+    public void testDBCannotBeShardedLater() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBShardingTest", "testDBCannotBeShardedLater");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        db.put(new byte[] {1}, new byte[] {1});
+        db.close();
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+        getTestDBWithoutDeletingFiles(directory, options);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HaloDBSnapshotTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testSnapshotIgnoresLaterChanges(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testSnapshotIgnoresLaterChanges");
+
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 5_000);
+
+        try (HaloDBSnapshot snapshot = db.snapshot()) {
+            List<Record> updated = TestUtils.updateRecords(db, records.subList(0, 2_000));
+            TestUtils.deleteRecords(db, records.subList(2_000, 3_000));
+            for (int i = 0; i < 1_000; i++) {
+                db.put(("new" + i).getBytes(), TestUtils.generateRandomByteArray());
+            }
+
+            for (Record r : records) {
+                Assert.assertEquals(snapshot.get(r.getKey()), r.getValue());
+            }
+            for (int i = 0; i < 1_000; i++) {
+                Assert.assertNull(snapshot.get(("new" + i).getBytes()));
+            }
+            MatcherAssert.assertThat(iterate(snapshot), Matchers.containsInAnyOrder(records.toArray()));
+
+            // the db itself sees the changes.
+            for (Record r : updated) {
+                Assert.assertEquals(db.get(r.getKey()), r.getValue());
+            }
+            Assert.assertNull(db.get(records.get(2_000).getKey()));
+            Assert.assertEquals(db.size(), 5_000);
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactedFilesAreKeptUntilClosed(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testCompactedFilesAreKeptUntilClosed");
+
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 5_000);
+
+        HaloDBSnapshot snapshot = db.snapshot();
+        List<Record> updated = TestUtils.updateRecords(db, records);
+        updated = TestUtils.updateRecords(db, updated);
+        TestUtils.waitForCompactionToComplete(db);
+
+        // files deleted by compaction are still on disk.
+        int noOfFiles = db.getShards().get(0).listDataFileIds().size();
+        Assert.assertTrue(FileUtils.listDataFiles(new File(directory)).length > noOfFiles);
+
+        for (Record r : records) {
+            Assert.assertEquals(snapshot.get(r.getKey()), r.getValue());
+        }
+        MatcherAssert.assertThat(iterate(snapshot), Matchers.containsInAnyOrder(records.toArray()));
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        snapshot.close();
+        Assert.assertEquals(FileUtils.listDataFiles(new File(directory)).length,
+                db.getShards().get(0).listDataFileIds().size());
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testFilesOfSnapshotAreCompactedOnceClosed(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testFilesOfSnapshotAreCompactedOnceClosed");
+
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 5_000);
+        int noOfFiles = db.getShards().get(0).listDataFileIds().size();
+
+        HaloDBSnapshot snapshot = db.snapshot();
+        db.compact(0.0).get();
+        Assert.assertEquals(db.stats().getNumberOfRecordsCopied(), 0);
+        Assert.assertEquals(db.getShards().get(0).listDataFileIds().size(), noOfFiles);
+        MatcherAssert.assertThat(iterate(snapshot), Matchers.containsInAnyOrder(records.toArray()));
+
+        snapshot.close();
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test
+    public void testBlobFilesAreKeptUntilClosed() throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testBlobFilesAreKeptUntilClosed");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setBlobThreshold(1024);
+        options.setMaxFileSize(64 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 500, 2048);
+
+        try (HaloDBSnapshot snapshot = db.snapshot()) {
+            // blobs of every other record are garbage, the live ones are relocated.
+            for (int i = 0; i < records.size(); i += 2) {
+                db.put(records.get(i).getKey(), TestUtils.generateRandomByteArray(2048));
+            }
+            db.collectBlobGarbage();
+            Assert.assertTrue(db.stats().getSizeOfBlobFilesDeleted() > 0);
+            Assert.assertTrue(FileUtils.listBlobFiles(new File(directory)).length > db.stats().getNumberOfBlobFiles());
+
+            for (Record r : records) {
+                Assert.assertEquals(snapshot.get(r.getKey()), r.getValue());
+            }
+            MatcherAssert.assertThat(iterate(snapshot), Matchers.containsInAnyOrder(records.toArray()));
+        }
+        Assert.assertEquals(FileUtils.listBlobFiles(new File(directory)).length, db.stats().getNumberOfBlobFiles());
+    }
+
+    @Test
+    public void testSnapshotWithShards() throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testSnapshotWithShards");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfShards(4);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 5_000);
+
+        try (HaloDBSnapshot snapshot = db.snapshot()) {
+            TestUtils.updateRecords(db, records);
+            TestUtils.insertRandomRecords(db, 1_000);
+
+            for (Record r : records) {
+                Assert.assertEquals(snapshot.get(r.getKey()), r.getValue());
+            }
+            MatcherAssert.assertThat(iterate(snapshot), Matchers.containsInAnyOrder(records.toArray()));
+        }
+    }
+
+    // records are updated and compacted while the snapshot is iterated.
+    @Test(dataProvider = "Options")
+    public void testConcurrentUpdatesAndCompaction(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testConcurrentUpdatesAndCompaction");
+
+        options.setMaxFileSize(64 * 1024);
+        options.setCompactionThresholdPerFile(0.1);
+
+        final HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 1024, 1024 - Record.Header.HEADER_SIZE);
+
+        Thread updateThread = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                TestUtils.updateRecordsWithSize(db, records, 1024);
+            }
+        });
+        updateThread.start();
+
+        int snapshots = 0;
+        while (updateThread.isAlive() || snapshots == 0) {
+            try (HaloDBSnapshot snapshot = db.snapshot()) {
+                List<Record> before = iterate(snapshot);
+                Assert.assertEquals(before.size(), records.size());
+                // the contents don't change while the snapshot is open.
+                MatcherAssert.assertThat(iterate(snapshot), Matchers.containsInAnyOrder(before.toArray()));
+                for (Record r : before) {
+                    Assert.assertEquals(snapshot.get(r.getKey()), r.getValue());
+                }
+            }
+            snapshots++;
+        }
+        updateThread.join();
+    }
+
+    @Test
+    public void testSequenceNumber() throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testSequenceNumber");
+
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        TestUtils.insertRandomRecords(db, 100);
+
+        try (HaloDBSnapshot snapshot = db.snapshot()) {
+            List<Record> inserted = TestUtils.insertRandomRecords(db, 10);
+            List<HaloDBChange> changes = new ArrayList<>();
+            db.changesSince(snapshot.getSequenceNumber()).forEachRemaining(changes::add);
+            Assert.assertEquals(changes.size(), inserted.size());
+        }
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Snapshot is closed")
+    public void testClosedSnapshot() throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testClosedSnapshot");
+
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        List<Record> records = TestUtils.insertRandomRecords(db, 10);
+        HaloDBSnapshot snapshot = db.snapshot();
+        snapshot.close();
+        snapshot.get(records.get(0).getKey());
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Snapshots are not supported with maxTotalDataFileSize")
+    public void testNotSupportedInCacheMode() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSnapshotTest", "testNotSupportedInCacheMode");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMaxTotalDataFileSize(1024 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        db.snapshot();
+    }
+
+    private List<Record> iterate(HaloDBSnapshot snapshot) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        snapshot.newIterator().forEachRemaining(records::add);
+        return records;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+public class HaloDBSpliteratorTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testWithEmptyDB(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSpliteratorTest", "testWithEmptyDB");
+
+        HaloDB db = getTestDB(directory, options);
+        Assert.assertEquals(db.stream().count(), 0);
+        Assert.assertEquals(db.parallelStream().count(), 0);
+        Assert.assertFalse(db.spliterator().tryAdvance(r -> Assert.fail()));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testPutUpdateDeleteAndStream(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSpliteratorTest", "testPutUpdateDeleteAndStream");
+
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 10_000);
+        List<Record> updated = TestUtils.updateRecords(db, records.subList(0, 5_000));
+        TestUtils.deleteRecords(db, records.subList(5_000, 6_000));
+        updated.addAll(records.subList(6_000, 10_000));
+
+        List<Record> sequential = db.stream().collect(Collectors.toList());
+        MatcherAssert.assertThat(sequential, Matchers.containsInAnyOrder(updated.toArray()));
+
+        List<Record> parallel = db.parallelStream().collect(Collectors.toList());
+        MatcherAssert.assertThat(parallel, Matchers.containsInAnyOrder(updated.toArray()));
+    }
+
+    @Test
+    public void testSplitByDataFile() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSpliteratorTest", "testSplitByDataFile");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 2_000);
+        int noOfFiles = db.getShards().get(0).listDataFileIds().size();
+        Assert.assertTrue(noOfFiles > 4);
+
+        HaloDBSpliterator spliterator = db.spliterator();
+        Assert.assertEquals(spliterator.estimateSize(), noOfFiles);
+        Spliterator<Record> prefix = spliterator.trySplit();
+        Assert.assertNotNull(prefix);
+        Assert.assertEquals(prefix.estimateSize() + spliterator.estimateSize(), noOfFiles);
+
+        // each half scans different files, together they return every record once.
+        List<Record> actual = new ArrayList<>();
+        prefix.forEachRemaining(actual::add);
+        int prefixSize = actual.size();
+        spliterator.forEachRemaining(actual::add);
+        Assert.assertTrue(prefixSize > 0 && prefixSize < records.size());
+        MatcherAssert.assertThat(actual, Matchers.containsInAnyOrder(records.toArray()));
+
+        // a spliterator with a single file left can't be split.
+        HaloDBSpliterator single = db.spliterator();
+        while (single.estimateSize() > 1) {
+            single.trySplit();
+        }
+        Assert.assertNull(single.trySplit());
+    }
+
+    @Test
+    public void testStreamWithShards() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSpliteratorTest", "testStreamWithShards");
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+        options.setNumberOfShards(4);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 5_000);
+
+        List<Record> actual = db.parallelStream().collect(Collectors.toList());
+        MatcherAssert.assertThat(actual, Matchers.containsInAnyOrder(records.toArray()));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testPutUpdateCompactAndStream(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBSpliteratorTest", "testPutUpdateCompactAndStream");
+
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.50);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 10_000);
+        List<Record> updated = TestUtils.updateRecords(db, records);
+        TestUtils.waitForCompactionToComplete(db);
+
+        List<Record> actual = db.parallelStream().collect(Collectors.toList());
+        Assert.assertEquals(actual.size(), updated.size());
+        MatcherAssert.assertThat(actual, Matchers.containsInAnyOrder(updated.toArray()));
+    }
+
+    // files are compacted and deleted while being scanned in parallel.
+    @Test(dataProvider = "Options")
+    public void testConcurrentCompactionAndParallelStream(HaloDBOptions options) throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBSpliteratorTest", "testConcurrentCompactionAndParallelStream");
+
+        options.setMaxFileSize(64 * 1024);
+        options.setCompactionThresholdPerFile(0.1);
+
+        final HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 1024, 1024 - Record.Header.HEADER_SIZE);
+
+        Thread updateThread = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                TestUtils.updateRecordsWithSize(db, records, 1024);
+            }
+        });
+        updateThread.start();
+
+        while (updateThread.isAlive()) {
+            db.parallelStream().forEach(Assert::assertNotNull);
+        }
+        updateThread.join();
+    }
+}
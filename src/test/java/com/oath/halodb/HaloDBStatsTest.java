@@ -9,6 +9,8 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -208,7 +210,7 @@ public class HaloDBStatsTest extends TestBase {
 
         HaloDBStats stats = db.stats();
         Map<String, String> map = stats.toStringMap();
-        Assert.assertEquals(map.size(), 22);
+        Assert.assertEquals(map.size(), 47);
         Assert.assertNotNull(map.get("statsResetTime"));
         Assert.assertNotNull(map.get("size"));
         Assert.assertNotNull(map.get("Options"));
@@ -231,6 +233,92 @@ public class HaloDBStatsTest extends TestBase {
         Assert.assertNotNull(map.get("segmentStats"));
         Assert.assertNotNull(map.get("numberOfSegments"));
         Assert.assertNotNull(map.get("staleDataPercentPerFile"));
+        Assert.assertNotNull(map.get("numberOfValuesCompressed"));
+        Assert.assertNotNull(map.get("sizeOfValuesBeforeCompression"));
+        Assert.assertNotNull(map.get("sizeOfValuesAfterCompression"));
+        Assert.assertNotNull(map.get("compressionRatio"));
+        Assert.assertNotNull(map.get("numberOfDictionariesTrained"));
+        Assert.assertNotNull(map.get("numberOfBlobFiles"));
+        Assert.assertNotNull(map.get("numberOfBlobsRelocated"));
+        Assert.assertNotNull(map.get("sizeOfBlobFilesDeleted"));
+    }
+
+    @Test
+    public void testStatsToStringMapValues() {
+        HaloDBOptions options = new HaloDBOptions();
+        SegmentStats[] segmentStats = {new SegmentStats(1, 2, 3, 4)};
+        long resetTime = System.currentTimeMillis();
+
+        // every stat has a distinct value, the rate in the interval is below 1 KB/second.
+        HaloDBStats stats = new HaloDBStats(
+                resetTime, 1, true, 2, Collections.singletonMap(7, 12.5), 3, 4, 5, segmentStats,
+                6, 7, 8, 9,
+                10, 11, 12,
+                13, 14, 15,
+                3 * 1024 * 1024, 16,
+                300, 100,
+                17, 18, 19,
+                20, 21,
+                22, 23,
+                24, 25,
+                26, 27,
+                "THROTTLING", 28,
+                29, 30, 31,
+                32, 33,
+                1.5, 2.5, 0.75,
+                options);
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("statsResetTime", String.valueOf(resetTime));
+        expected.put("size", "1");
+        expected.put("Options", options.toString());
+        expected.put("isCompactionRunning", "true");
+        expected.put("CompactionJobRateInInterval", "0 KB/second");
+        expected.put("CompactionJobRateSinceBeginning", "3 MB/second");
+        expected.put("numberOfFilesPendingCompaction", "2");
+        expected.put("numberOfRecordsCopied", "10");
+        expected.put("numberOfRecordsReplaced", "11");
+        expected.put("numberOfRecordsScanned", "12");
+        expected.put("sizeOfRecordsCopied", "13");
+        expected.put("sizeOfFilesDeleted", "14");
+        expected.put("sizeReclaimed", "15");
+        expected.put("rehashCount", "3");
+        expected.put("maxSizePerSegment", "5");
+        expected.put("numberOfDataFiles", "6");
+        expected.put("numberOfTombstoneFiles", "7");
+        expected.put("numberOfTombstonesFoundDuringOpen", "8");
+        expected.put("numberOfTombstonesCleanedUpDuringOpen", "9");
+        expected.put("segmentStats", Arrays.toString(segmentStats));
+        expected.put("numberOfSegments", "4");
+        expected.put("staleDataPercentPerFile", "[{7=12.5}]");
+        expected.put("numberOfValuesCompressed", "16");
+        expected.put("sizeOfValuesBeforeCompression", "300");
+        expected.put("sizeOfValuesAfterCompression", "100");
+        expected.put("compressionRatio", "3.00");
+        expected.put("numberOfDictionariesTrained", "17");
+        expected.put("numberOfBlobFiles", "18");
+        expected.put("numberOfBlobsRelocated", "19");
+        expected.put("sizeOfBlobFilesDeleted", "20");
+        expected.put("numberOfRecordsExpired", "21");
+        expected.put("numberOfDataFilesEvicted", "22");
+        expected.put("numberOfRecordsEvicted", "23");
+        expected.put("numberOfTombstoneFilesDeleted", "24");
+        expected.put("numberOfTombstoneFilesRewritten", "25");
+        expected.put("numberOfTombstonesDropped", "26");
+        expected.put("currentCompactionJobRate", "27");
+        expected.put("compactionRateControllerState", "THROTTLING");
+        expected.put("foregroundLatencyP99InMicros", "28");
+        expected.put("numberOfColdRecordsCopied", "29");
+        expected.put("numberOfWritesDelayed", "30");
+        expected.put("totalWriteDelayInMillis", "31");
+        expected.put("numberOfWritesStalled", "32");
+        expected.put("totalWriteStallTimeInMillis", "33");
+        expected.put("spaceAmplification", "1.5");
+        expected.put("writeAmplification", "2.5");
+        expected.put("compactionThresholdPerFile", "0.75");
+
+        Assert.assertEquals(expected.size(), 47);
+        Assert.assertEquals(stats.toStringMap(), expected);
     }
 
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HaloDBTombstoneCompactionTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testTombstoneFilesAreDeletedAfterCompaction(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTombstoneCompactionTest", "testTombstoneFilesAreDeletedAfterCompaction");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTombstoneFileSize(2 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setCleanUpTombstonesInBackground(true);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> deleted = putRecords(db, "deleted", 1000);
+        for (Record r : deleted) {
+            db.delete(r.getKey());
+        }
+        int tombstoneFiles = listTombstoneFiles(directory).length;
+        Assert.assertTrue(tombstoneFiles > 1);
+
+        // file with the last of the deleted records is compacted once it is full.
+        List<Record> live = putRecords(db, "live", 1000);
+        TestUtils.waitForCompactionToComplete(db);
+        db.compactTombstoneFiles();
+
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfTombstoneFilesDeleted() > 0);
+        Assert.assertTrue(stats.getNumberOfTombstonesDropped() > 0);
+        Assert.assertTrue(listTombstoneFiles(directory).length < tombstoneFiles);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), live.size());
+        for (Record r : deleted) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : live) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testTombstonesShadowingRecordsAreKept(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTombstoneCompactionTest", "testTombstonesShadowingRecordsAreKept");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTombstoneFileSize(2 * 1024);
+        options.setCompactionDisabled(true);
+        options.setCleanUpTombstonesInBackground(true);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> deleted = putRecords(db, "deleted", 1000);
+        for (Record r : deleted) {
+            db.delete(r.getKey());
+        }
+        int tombstoneFiles = listTombstoneFiles(directory).length;
+
+        // deleted records are still in the data files.
+        db.compactTombstoneFiles();
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getNumberOfTombstoneFilesDeleted(), 0);
+        Assert.assertEquals(stats.getNumberOfTombstoneFilesRewritten(), 0);
+        Assert.assertEquals(listTombstoneFiles(directory).length, tombstoneFiles);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), 0);
+        for (Record r : deleted) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testTombstoneFileIsRewritten(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTombstoneCompactionTest", "testTombstoneFileIsRewritten");
+        options.setMaxFileSize(16 * 1024);
+        options.setMaxTotalDataFileSize(128 * 1024);
+        options.setMaxTombstoneFileSize(64 * 1024);
+        options.setCleanUpTombstonesInBackground(true);
+        HaloDB db = getTestDB(directory, options);
+
+        // records of the first keys are evicted, those of the last keys are not.
+        List<Record> deleted = putRecords(db, "first", 600);
+        deleted.addAll(putRecords(db, "last", 100));
+        for (Record r : deleted) {
+            db.delete(r.getKey());
+        }
+
+        // tombstone file is sealed once the db is opened again.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        List<Record> live = new ArrayList<>();
+        while (db.stats().getNumberOfDataFilesEvicted() < 4) {
+            live.addAll(putRecords(db, "live" + live.size() + "-", 10));
+        }
+        while (!db.isEvictionComplete()) {
+            Thread.sleep(100);
+        }
+        db.compactTombstoneFiles();
+
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfTombstoneFilesRewritten() > 0);
+        Assert.assertTrue(stats.getNumberOfTombstonesDropped() > 0);
+        Assert.assertEquals(listTombstoneFiles(directory).length, 1);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), live.size());
+        for (Record r : deleted) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : live) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    private List<Record> putRecords(HaloDB db, String prefix, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = (prefix + i).getBytes();
+            byte[] value = TestUtils.generateRandomByteArray(100);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    private File[] listTombstoneFiles(String directory) {
+        return FileUtils.listTombstoneFiles(new File(directory));
+    }
+}
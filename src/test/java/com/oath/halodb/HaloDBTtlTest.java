@@ -0,0 +1,314 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.base.Throwables;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HaloDBTtlTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testExpiredRecordsAreNotReturned(HaloDBOptions options) throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testExpiredRecordsAreNotReturned");
+        options.setTtlEnabled(true);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> expiring = insertRecords(db, "expiring", 100, 100, 1);
+        List<Record> live = insertRecords(db, "live", 100, 100, 3600);
+        live.addAll(insertRecords(db, "permanent", 100, 100, 0));
+
+        waitForExpiry();
+        for (Record r : expiring) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : live) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        assertIteratorReturns(db, live);
+
+        // expiry time is persisted.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : expiring) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : live) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        assertIteratorReturns(db, live);
+
+        // a new version without a ttl doesn't expire.
+        Record r = live.get(0);
+        db.put(r.getKey(), r.getValue());
+        Assert.assertEquals(db.get(r.getKey()), r.getValue());
+    }
+
+    @Test(dataProvider = "Options", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidTtl(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testInvalidTtl");
+        options.setTtlEnabled(true);
+        HaloDB db = getTestDB(directory, options);
+
+        db.put("key".getBytes(), "value".getBytes(), 0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testSweeperRemovesExpiredRecords(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testSweeperRemovesExpiredRecords");
+        options.setTtlEnabled(true);
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> expiring = insertRecords(db, "expiring", 300, 20, 1);
+        List<Record> live = insertRecords(db, "live", 300, 100, 0);
+
+        waitForExpiry();
+        long removed = db.sweepExpiredRecords();
+        Assert.assertTrue(removed > 0);
+        Assert.assertTrue(db.stats().getNumberOfRecordsExpired() >= removed);
+        Assert.assertTrue(db.size() <= expiring.size() + live.size() - removed);
+        // no older versions, hence no tombstones are needed.
+        Assert.assertEquals(FileUtils.listTombstoneFiles(new File(directory)).length, 0);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : expiring) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : live) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testSweeperScansOnlyFilesWithTtl(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testSweeperScansOnlyFilesWithTtl");
+        options.setTtlEnabled(true);
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> live = insertRecords(db, "permanent", 300, 100, 0);
+        insertRecords(db, "expiring", 50, 20, 1);
+        live.addAll(insertRecords(db, "later", 50, 20, 3600));
+        live.addAll(insertRecords(db, "live", 300, 100, 0));
+
+        HaloDBInternal shard = db.getShards().get(0);
+        int filesWithTtl = shard.getExpiredRecordSweeper().getFilesWithExpiryTime().size();
+        Assert.assertTrue(filesWithTtl >= 1 && filesWithTtl <= 2);
+        Assert.assertTrue(shard.listDataFileIds().size() > 2 * filesWithTtl);
+
+        waitForExpiry();
+        Assert.assertEquals(db.sweepExpiredRecords(), 50);
+        // the records which expire later keep their files in the set.
+        Assert.assertTrue(shard.getExpiredRecordSweeper().getFilesWithExpiryTime().size() >= 1);
+        Assert.assertEquals(db.sweepExpiredRecords(), 0);
+        assertIteratorReturns(db, live);
+
+        // the set is built again when the db is opened.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        shard = db.getShards().get(0);
+        Assert.assertEquals(shard.getExpiredRecordSweeper().getFilesWithExpiryTime().size(), filesWithTtl);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testExpiredRecordDoesNotResurrectOlderVersion(HaloDBOptions options) throws HaloDBException, IOException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testExpiredRecordDoesNotResurrectOlderVersion");
+        options.setTtlEnabled(true);
+        options.setMaxFileSize(16 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = insertRecords(db, "key", 300, 100, 0);
+        for (Record r : records) {
+            db.put(r.getKey(), TestUtils.generateRandomByteArray(20), 1);
+        }
+        List<Record> live = insertRecords(db, "live", 300, 100, 0);
+
+        waitForExpiry();
+        Assert.assertTrue(db.sweepExpiredRecords() > 0);
+        Assert.assertTrue(FileUtils.listTombstoneFiles(new File(directory)).length > 0);
+
+        // records in the file which was being written to are swept after the index is built again.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        db.sweepExpiredRecords();
+        Assert.assertEquals(db.size(), live.size());
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : records) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        Assert.assertEquals(db.size(), live.size());
+        assertIteratorReturns(db, live);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompactionDropsExpiredRecords(HaloDBOptions options) throws HaloDBException, InterruptedException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testCompactionDropsExpiredRecords");
+        options.setTtlEnabled(true);
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = new ArrayList<>();
+        List<Record> expiring = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            records.addAll(insertRecords(db, "key" + i + "-", 1, 100, 0));
+            expiring.addAll(insertRecords(db, "expiring" + i + "-", 1, 20, 1));
+        }
+
+        waitForExpiry();
+        List<Record> updated = TestUtils.updateRecords(db, records);
+        TestUtils.waitForCompactionToComplete(db);
+
+        Assert.assertTrue(db.stats().getNumberOfRecordsExpired() > 0);
+        for (Record r : expiring) {
+            Assert.assertNull(db.get(r.getKey()));
+        }
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testTtlWithEncodedValues(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testTtlWithEncodedValues");
+        options.setTtlEnabled(true);
+        options.setMaxFileSize(4 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setCompressionThreshold(1024);
+        options.setCompressionDictionarySize(4 * 1024);
+        options.setBlobThreshold(2048);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            byte[] key = ("key" + i).getBytes();
+            int[] sizes = {100, 1500, 4096};
+            byte[] value = compressibleValue(sizes[i % sizes.length]);
+            db.put(key, value, 3600);
+            records.add(new Record(key, value));
+        }
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        // half of the records are updated, the rest are copied by compaction.
+        List<Record> updated = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record r = records.get(i);
+            if (i % 2 == 0) {
+                byte[] value = compressibleValue(r.getValue().length);
+                db.put(r.getKey(), value, 3600);
+                updated.add(new Record(r.getKey(), value));
+            } else {
+                updated.add(r);
+            }
+        }
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record r : updated) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        assertIteratorReturns(db, updated);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Records with a ttl are not supported without ttlEnabled")
+    public void testTtlNotEnabled() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testTtlNotEnabled");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+
+        db.put("key".getBytes(), "value".getBytes(), 3600);
+    }
+
+    @Test
+    public void testOpenWithoutTtlEnabled() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testOpenWithoutTtlEnabled");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setTtlEnabled(true);
+        HaloDB db = getTestDB(directory, options);
+        insertRecords(db, "expiring", 10, 100, 3600);
+        db.close();
+
+        options.setTtlEnabled(false);
+        try {
+            getTestDBWithoutDeletingFiles(directory, options);
+            Assert.fail("db with records which have a ttl was opened without ttlEnabled");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(Throwables.getRootCause(e).getMessage(), "Records with a ttl are not supported without ttlEnabled");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "ttlEnabled must be set for the default ttl of namespace sessions")
+    public void testNamespaceDefaultTtlNotEnabled() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTtlTest", "testNamespaceDefaultTtlNotEnabled");
+        HaloDBNamespaceOptions sessionOptions = new HaloDBNamespaceOptions();
+        sessionOptions.setDefaultTtlInSeconds(60);
+        HaloDBOptions options = new HaloDBOptions();
+        options.addNamespace("sessions", 1, sessionOptions);
+
+        getTestDB(directory, options);
+    }
+
+    private List<Record> insertRecords(HaloDB db, String prefix, int count, int valueSize, long ttlInSeconds) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = (prefix + i).getBytes();
+            byte[] value = TestUtils.generateRandomByteArray(valueSize);
+            if (ttlInSeconds > 0) {
+                db.put(key, value, ttlInSeconds);
+            } else {
+                db.put(key, value);
+            }
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    // expiry time has a resolution of a second.
+    private void waitForExpiry() throws InterruptedException {
+        Thread.sleep(2_000);
+    }
+
+    private byte[] compressibleValue(int size) {
+        String s = TestUtils.generateRandomAsciiString(16);
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) s.charAt(i % s.length());
+        }
+        return value;
+    }
+
+    private void assertIteratorReturns(HaloDB db, List<Record> records) throws HaloDBException {
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        records.forEach(r -> expected.put(ByteBuffer.wrap(r.getKey()), r.getValue()));
+
+        HaloDBIterator iterator = db.newIterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            Assert.assertEquals(record.getValue(), expected.get(ByteBuffer.wrap(record.getKey())));
+            count++;
+        }
+        Assert.assertEquals(count, records.size());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HaloDBWriteLanesTest extends TestBase {
+
+    private static final int numberOfThreads = 4;
+
+    @Test(dataProvider = "Options")
+    public void testConcurrentWrites(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBWriteLanesTest", "testConcurrentWrites");
+        options.setMaxFileSize(16 * 1024);
+        options.setNumberOfWriteLanes(numberOfThreads);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = putConcurrently(db, 1000);
+        Assert.assertEquals(db.size(), records.size());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+
+        // a few keys are updated by all threads, the index must agree with the files on which write is the latest.
+        HaloDB writer = db;
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < numberOfThreads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        writer.put(("shared" + i % 10).getBytes(), TestUtils.generateRandomByteArray(100));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Map<ByteBuffer, byte[]> shared = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] key = ("shared" + i).getBytes();
+            shared.put(ByteBuffer.wrap(key), db.get(key));
+        }
+        TestUtils.waitForCompactionToComplete(db);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), records.size() + shared.size());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+        for (Map.Entry<ByteBuffer, byte[]> e : shared.entrySet()) {
+            Assert.assertEquals(db.get(e.getKey().array()), e.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testRepairFilesOfAllLanes(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBWriteLanesTest", "testRepairFilesOfAllLanes");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionDisabled(true);
+        options.setNumberOfWriteLanes(numberOfThreads);
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = putConcurrently(db, 500);
+        db.close();
+
+        DBMetaData dbMetaData = new DBMetaData(dbDirectory);
+        dbMetaData.loadFromFileIfExists();
+        List<Integer> activeDataFileIds = dbMetaData.getActiveDataFileIds();
+        Assert.assertEquals(activeDataFileIds.size(), numberOfThreads);
+
+        // corrupt the tail of the file each lane was writing to.
+        Map<File, Long> sizes = new HashMap<>();
+        for (int fileId : activeDataFileIds) {
+            File file = dbDirectory.getDataFilePath(fileId).resolve(fileId + HaloDBFile.DATA_FILE_NAME).toFile();
+            sizes.put(file, file.length());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(file.length());
+                raf.write(TestUtils.generateRandomByteArray(100));
+            }
+        }
+
+        // trick the db to think that there was an unclean shutdown.
+        dbMetaData.setOpen(true);
+        dbMetaData.storeToFile();
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Map.Entry<File, Long> e : sizes.entrySet()) {
+            Assert.assertEquals(e.getKey().length(), (long) e.getValue(), e.getKey().getName());
+        }
+        Assert.assertEquals(db.size(), records.size());
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidNumberOfWriteLanes() {
+        new HaloDBOptions().setNumberOfWriteLanes(0);
+    }
+
+    // each thread puts its own keys.
+    private List<Record> putConcurrently(HaloDB db, int recordsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<List<Record>>> futures = new ArrayList<>();
+            for (int t = 0; t < numberOfThreads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    List<Record> records = new ArrayList<>();
+                    for (int i = 0; i < recordsPerThread; i++) {
+                        byte[] key = ("thread" + thread + "-" + i).getBytes();
+                        byte[] value = TestUtils.generateRandomByteArray(100);
+                        db.put(key, value);
+                        records.add(new Record(key, value));
+                    }
+                    return records;
+                }));
+            }
+            List<Record> records = new ArrayList<>();
+            for (Future<List<Record>> future : futures) {
+                records.addAll(future.get(60, TimeUnit.SECONDS));
+            }
+            return records;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+public class InMemoryIndexMetaDataTest {
+
+    @Test
+    public void testSerializeWithoutExpiryTime() {
+        long sequenceNumber = (1L << 56) - 1;
+        int flags = Record.Header.COMPRESSED_FLAG | Record.Header.BLOB_FLAG;
+        InMemoryIndexMetaData metaData = new InMemoryIndexMetaData(7, 1024, 100, sequenceNumber, flags).withSecondaryIndexEntries();
+
+        InMemoryIndexMetaDataSerializer serializer = new InMemoryIndexMetaDataSerializer(false);
+        Assert.assertEquals(serializer.serializedSize(metaData), 20);
+        ByteBuffer buffer = ByteBuffer.allocate(serializer.serializedSize(metaData));
+        metaData.serialize(buffer, false);
+
+        InMemoryIndexMetaData deserialized = InMemoryIndexMetaData.deserialize(buffer, false);
+        Assert.assertEquals(deserialized.getFileId(), 7);
+        Assert.assertEquals(deserialized.getValueOffset(), 1024);
+        Assert.assertEquals(deserialized.getValueSize(), 100);
+        Assert.assertEquals(deserialized.getSequenceNumber(), sequenceNumber);
+        Assert.assertEquals(deserialized.getFlags(), flags);
+        Assert.assertTrue(deserialized.hasSecondaryIndexEntries());
+        Assert.assertFalse(deserialized.hasOlderVersionOnDisk());
+        Assert.assertEquals(deserialized.getExpiryTime(), 0);
+    }
+
+    @Test
+    public void testSerializeWithExpiryTime() {
+        int expiryTime = Record.toExpiryTime(3600);
+        InMemoryIndexMetaData metaData = new InMemoryIndexMetaData(
+                7, 1024, 100, 12345, Record.Header.TTL_FLAG, expiryTime).withOlderVersionOnDisk();
+
+        InMemoryIndexMetaDataSerializer serializer = new InMemoryIndexMetaDataSerializer(true);
+        Assert.assertEquals(serializer.serializedSize(metaData), 24);
+        ByteBuffer buffer = ByteBuffer.allocate(serializer.serializedSize(metaData));
+        metaData.serialize(buffer, true);
+
+        InMemoryIndexMetaData deserialized = InMemoryIndexMetaData.deserialize(buffer, true);
+        Assert.assertEquals(deserialized.getSequenceNumber(), 12345);
+        Assert.assertEquals(deserialized.getFlags(), Record.Header.TTL_FLAG);
+        Assert.assertTrue(deserialized.hasOlderVersionOnDisk());
+        Assert.assertEquals(deserialized.getExpiryTime(), expiryTime);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Records with a ttl are not supported without ttlEnabled")
+    public void testExpiryTimeNeedsTtlEnabled() {
+        InMemoryIndexMetaData metaData = new InMemoryIndexMetaData(
+                7, 1024, 100, 12345, Record.Header.TTL_FLAG, Record.toExpiryTime(3600));
+        metaData.serialize(ByteBuffer.allocate(InMemoryIndexMetaData.SERIALIZED_SIZE), false);
+    }
+}
@@ -73,4 +73,26 @@ public class IndexFileEntryTest {
         Assert.assertEquals(entry.getSequenceNumber(), sequenceNumber);
         Assert.assertEquals(entry.getKey(), key);
     }
+
+    @Test
+    public void serializeAndDeserializeIndexFileEntryWithExpiryTime() {
+        byte[] key = TestUtils.generateRandomByteArray(8);
+        int version = Versions.CURRENT_INDEX_FILE_VERSION | Record.Header.TTL_FLAG;
+        int expiryTime = Utils.toSignedIntFromLong(0xfffffff0L);
+
+        IndexFileEntry entry = new IndexFileEntry(key, 1024, 10240, 100, version, -1, expiryTime);
+        ByteBuffer[] buffers = entry.serialize();
+        Assert.assertEquals(buffers[0].remaining(), INDEX_FILE_HEADER_SIZE + Record.EXPIRY_TIME_SIZE);
+
+        ByteBuffer buffer = ByteBuffer.allocate(buffers[0].remaining() + buffers[1].remaining());
+        buffer.put(buffers[0]).put(buffers[1]).flip();
+
+        IndexFileEntry deserialized = IndexFileEntry.deserializeIfNotCorrupted(buffer);
+        Assert.assertNotNull(deserialized);
+        Assert.assertEquals(deserialized.getExpiryTime(), expiryTime);
+        Assert.assertEquals(deserialized.getVersion(), version);
+        Assert.assertEquals(deserialized.getSequenceNumber(), 100);
+        Assert.assertEquals(deserialized.getKey(), key);
+        Assert.assertFalse(buffer.hasRemaining());
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class WriteStallTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testWritesFailAtHardLimit(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("WriteStallTest", "testWritesFailAtHardLimit");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionJobRate(1024);
+        options.setCompactionBacklogSoftLimit(32 * 1024);
+        options.setCompactionBacklogHardLimit(256 * 1024);
+        options.setWriteStallTimeoutInMillis(0);
+        HaloDB db = getTestDB(directory, options);
+
+        boolean failed = false;
+        for (int i = 0; i < 100 && !failed; i++) {
+            try {
+                putRecords(db, i, 100);
+            } catch (HaloDBException e) {
+                failed = true;
+            }
+        }
+        Assert.assertTrue(failed);
+
+        HaloDBStats stats = db.stats();
+        Assert.assertTrue(stats.getNumberOfWritesDelayed() > 0);
+        Assert.assertTrue(stats.getNumberOfWritesStalled() > 0);
+
+        // writes succeed again once compaction catches up.
+        setCompactionJobRate(db, Integer.MAX_VALUE);
+        TestUtils.waitForCompactionToComplete(db);
+        List<Record> records = putRecords(db, 100, 100);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testWritesBlockUntilCompactionCatchesUp(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("WriteStallTest", "testWritesBlockUntilCompactionCatchesUp");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionJobRate(1024);
+        options.setCompactionBacklogHardLimit(64 * 1024);
+        HaloDB db = getTestDB(directory, options);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Record>> writer = executor.submit(() -> {
+                List<Record> records = null;
+                for (int i = 0; i < 50; i++) {
+                    records = putRecords(db, i, 100);
+                }
+                return records;
+            });
+
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (db.stats().getNumberOfWritesStalled() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            Assert.assertFalse(writer.isDone());
+
+            setCompactionJobRate(db, Integer.MAX_VALUE);
+            List<Record> records = writer.get(60, TimeUnit.SECONDS);
+            for (Record r : records) {
+                Assert.assertEquals(db.get(r.getKey()), r.getValue());
+            }
+
+            HaloDBStats stats = db.stats();
+            Assert.assertTrue(stats.getNumberOfWritesStalled() > 0);
+            Assert.assertTrue(stats.getTotalWriteStallTimeInMillis() >= 100);
+            Assert.assertEquals(stats.getNumberOfWritesDelayed(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testWritesAreNotThrottledWhileCompactionIsPaused(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("WriteStallTest", "testWritesAreNotThrottledWhileCompactionIsPaused");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionBacklogSoftLimit(32 * 1024);
+        options.setCompactionBacklogHardLimit(64 * 1024);
+        options.setWriteStallTimeoutInMillis(0);
+        HaloDB db = getTestDB(directory, options);
+        db.pauseCompaction();
+
+        // the backlog can't drop while paused, stalling would block writes until resumed.
+        for (int i = 0; i < 50; i++) {
+            putRecords(db, i, 100);
+        }
+        Assert.assertTrue(db.getShards().get(0).getCompactionManager().getSizeOfFilesPendingCompaction() > 64 * 1024);
+
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getNumberOfWritesDelayed(), 0);
+        Assert.assertEquals(stats.getNumberOfWritesStalled(), 0);
+        db.resumeCompaction();
+    }
+
+    @Test(dataProvider = "Options")
+    public void testStaleDataBelowThresholdIsNotBacklog(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("WriteStallTest", "testStaleDataBelowThresholdIsNotBacklog");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.75);
+        options.setCompactionBacklogSoftLimit(32 * 1024);
+        options.setCompactionBacklogHardLimit(64 * 1024);
+        options.setWriteStallTimeoutInMillis(0);
+        HaloDB db = getTestDB(directory, options);
+
+        // every file ends up with 70% stale data, just under the threshold, hence none of it will be compacted.
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            byte[] key = String.format("key%05d", i).getBytes();
+            db.put(key, TestUtils.generateRandomByteArray(100));
+        }
+        for (int i = 0; i < 5000; i++) {
+            if (i % 10 < 7) {
+                byte[] key = String.format("key%05d", i).getBytes();
+                byte[] value = TestUtils.generateRandomByteArray(100);
+                db.put(key, value);
+                records.add(new Record(key, value));
+            }
+        }
+
+        HaloDBInternal shard = db.getShards().get(0);
+        Assert.assertTrue(shard.getSizeOfStaleData() > 64 * 1024);
+        Assert.assertEquals(shard.getCompactionManager().noOfFilesPendingCompaction(), 0);
+        HaloDBStats stats = db.stats();
+        Assert.assertEquals(stats.getNumberOfWritesDelayed(), 0);
+        Assert.assertEquals(stats.getNumberOfWritesStalled(), 0);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSoftLimitAboveHardLimit() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("WriteStallTest", "testSoftLimitAboveHardLimit");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionBacklogSoftLimit(2 * 1024 * 1024);
+        options.setCompactionBacklogHardLimit(1024 * 1024);
+        getTestDB(directory, options);
+    }
+
+    // a fifth of the keys are new in each round, the rest overwrite those of the previous
+    // round, so that the files are queued for compaction but still have records to copy.
+    private List<Record> putRecords(HaloDB db, int round, int count) throws HaloDBException {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] key = (i % 5 == 0 ? "key" + round + "-" + i : "key" + i).getBytes();
+            byte[] value = TestUtils.generateRandomByteArray(100);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    private void setCompactionJobRate(HaloDB db, int rate) {
+        for (HaloDBInternal shard : db.getShards()) {
+            shard.getCompactionManager().setCompactionJobRate(rate);
+        }
+    }
+}